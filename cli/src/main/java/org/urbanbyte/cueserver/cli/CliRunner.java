@@ -1,10 +1,12 @@
 package org.urbanbyte.cueserver.cli;
 
-import org.urbanbyte.cueserver.CueServerClient;
+import com.google.common.base.Charsets;
+import org.urbanbyte.cueserver.cli.actions.BenchAction;
 import org.urbanbyte.cueserver.cli.actions.ClearPlaybackAction;
 import org.urbanbyte.cueserver.cli.actions.DeleteCueAction;
 import org.urbanbyte.cueserver.cli.actions.DetailedPlaybackStatusAction;
 import org.urbanbyte.cueserver.cli.actions.DmxOutputAction;
+import org.urbanbyte.cueserver.cli.actions.PipelineBenchAction;
 import org.urbanbyte.cueserver.cli.actions.PlayCueAction;
 import org.urbanbyte.cueserver.cli.actions.PlaybackStatusAction;
 import org.urbanbyte.cueserver.cli.actions.RecordCueAction;
@@ -12,9 +14,15 @@ import org.urbanbyte.cueserver.cli.actions.SetChannelAction;
 import org.urbanbyte.cueserver.cli.actions.SetChannelRangeAction;
 import org.urbanbyte.cueserver.cli.actions.UpdateCueAction;
 import org.urbanbyte.cueserver.http.HttpCueServerClient;
+import org.urbanbyte.cueserver.http.SimpleHttpClient;
 import org.urbanbyte.cueserver.cli.actions.Action;
 import org.urbanbyte.cueserver.cli.actions.SystemInfoAction;
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,6 +34,10 @@ import java.util.List;
  */
 public class CliRunner
 {
+    /** Describes the arguments of the CLI. */
+    private static final String USAGE = "Usage: [<url> <port>] " +
+            "[--script <file>|-] [--batch <size>] [--universes <count>]";
+
     /** CS actions. */
     private final List<Action> actions;
 
@@ -84,27 +96,45 @@ public class CliRunner
     /**
      * Main method for the CLI.
      *
-     * @param args the user can pass in an optional URL for a CueServer. If
-     *             the user does not provide a URL, the CLI will use a well
-     *             known test server.
+     * @param args the user can pass in an optional URL and port for a
+     *             CueServer. If the user does not provide a URL, the CLI will
+     *             use a well known test server. The URL may be followed by
+     *             {@code --script <file>} to execute a script of commands
+     *             without user interaction ({@code -} reads the script from
+     *             standard input), and {@code --batch <size>} to send up to
+     *             {@code size} commands from the script in each request.
+     *             {@code --universes <count>} sets the number of DMX
+     *             universes the CueServer drives. Invalid arguments print
+     *             the usage and exit with status 2.
+     * @throws IOException if the script could not be read.
      */
-    public static void main(String[] args)
+    public static void main(String[] args) throws IOException
     {
-        String url;
-        int port;
-        if(args.length == 0)
+        Arguments arguments = null;
+        try
+        {
+            arguments = Arguments.parse(args);
+        }
+        catch (IllegalArgumentException e)
+        {
+            exitWithUsage(e.getMessage());
+        }
+        String url = arguments.url;
+        int port = arguments.port;
+
+        if(arguments.defaultUrl)
         {
             System.out.println("Using http://demo1.cueserver.com for the " +
                     "URL.");
-            url = "http://demo1.cueserver.com";
-            port = 100;
         }
-        else
+        HttpCueServerClient client = new HttpCueServerClient(url, port,
+                new SimpleHttpClient(), arguments.universeCount);
+
+        if(arguments.script != null)
         {
-            url = args[0];
-            port = Integer.parseInt(args[1]);
+            System.exit(runScript(client, arguments.script,
+                    arguments.batchSize) == 0 ? 0 : 1);
         }
-        CueServerClient client = new HttpCueServerClient(url, port);
 
         List<Action> csActions = new ArrayList<Action>();
         csActions.add(new SystemInfoAction(client));
@@ -118,8 +148,166 @@ public class CliRunner
         csActions.add(new RecordCueAction(client));
         csActions.add(new UpdateCueAction(client));
         csActions.add(new DeleteCueAction(client));
+        csActions.add(new BenchAction(url + ":" + port));
+        csActions.add(new PipelineBenchAction());
 
         CliRunner runner = new CliRunner(csActions);
         runner.run();
     }
+
+    /**
+     * Prints a problem with the arguments and the usage, and exits.
+     *
+     * @param problem the problem.
+     */
+    private static void exitWithUsage(String problem)
+    {
+        System.err.println(problem);
+        System.err.println(USAGE);
+        System.exit(2);
+    }
+
+    /**
+     * Executes a script of commands without user interaction.
+     *
+     * @param client the client to send the commands with.
+     * @param script the path of the script, or {@code -} for standard input.
+     * @param batchSize the maximum number of commands sent in each request.
+     * @return the number of lines that could not be executed.
+     * @throws IOException if the script could not be read.
+     */
+    private static int runScript(HttpCueServerClient client,
+                                 String script,
+                                 int batchSize) throws IOException
+    {
+        Reader input = script.equals("-") ?
+                new InputStreamReader(System.in, Charsets.UTF_8) :
+                new InputStreamReader(new FileInputStream(script),
+                        Charsets.UTF_8);
+        BufferedReader reader = new BufferedReader(input);
+        try
+        {
+            return new ScriptRunner(client, batchSize, System.out)
+                    .run(reader);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /**
+     * The parsed command line arguments.
+     */
+    static final class Arguments
+    {
+        /** The URL of the CueServer. */
+        String url = "http://demo1.cueserver.com";
+
+        /** The port of the CueServer. */
+        int port = 100;
+
+        /** {@code true} if no URL was given. */
+        boolean defaultUrl = true;
+
+        /** The script to execute, or {@code null} for the interactive CLI. */
+        String script;
+
+        /** The maximum number of script commands sent in each request. */
+        int batchSize = 1;
+
+        /** The number of DMX universes the CueServer drives. */
+        int universeCount = 1;
+
+        /**
+         * Parses the arguments of {@link CliRunner#main(String[])}.
+         *
+         * @param args the arguments.
+         * @return Never {@code null}.
+         * @throws IllegalArgumentException if an argument is missing, unknown
+         *                                  or out of its bounds. The message
+         *                                  describes the problem.
+         */
+        static Arguments parse(String[] args)
+        {
+            Arguments arguments = new Arguments();
+            int optionIndex = 0;
+            if(args.length > 0 && !args[0].startsWith("--"))
+            {
+                if(args.length < 2)
+                {
+                    throw new IllegalArgumentException(
+                            "The URL must be followed by a port.");
+                }
+                arguments.url = args[0];
+                arguments.port = parseInt(args[1], "port", 0, 65535);
+                arguments.defaultUrl = false;
+                optionIndex = 2;
+            }
+
+            for(int index = optionIndex ; index < args.length ; index += 2)
+            {
+                if(index + 1 >= args.length)
+                {
+                    throw new IllegalArgumentException(
+                            "Missing value for " + args[index] + ".");
+                }
+                if(args[index].equals("--script"))
+                {
+                    arguments.script = args[index + 1];
+                }
+                else if(args[index].equals("--batch"))
+                {
+                    arguments.batchSize = parseInt(args[index + 1],
+                            "batch size", 1, Integer.MAX_VALUE);
+                }
+                else if(args[index].equals("--universes"))
+                {
+                    arguments.universeCount = parseInt(args[index + 1],
+                            "universe count", 1,
+                            HttpCueServerClient.MAX_UNIVERSE_COUNT);
+                }
+                else
+                {
+                    throw new IllegalArgumentException(
+                            "Unknown option " + args[index] + ".");
+                }
+            }
+            return arguments;
+        }
+
+        /**
+         * Parses a numeric argument.
+         *
+         * @param value the argument.
+         * @param name what the argument is, for the error message.
+         * @param min the smallest valid value.
+         * @param max the largest valid value.
+         * @return the value of the argument.
+         * @throws IllegalArgumentException if the argument is not a number
+         *                                  within [min, max].
+         */
+        private static int parseInt(String value,
+                                    String name,
+                                    int min,
+                                    int max)
+        {
+            int parsed;
+            try
+            {
+                parsed = Integer.parseInt(value);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException(
+                        "Invalid " + name + ": " + value);
+            }
+            if(parsed < min || parsed > max)
+            {
+                throw new IllegalArgumentException("Invalid " + name + ": " +
+                        value + " is not within [" + min + ", " + max + "]");
+            }
+            return parsed;
+        }
+    }
 }
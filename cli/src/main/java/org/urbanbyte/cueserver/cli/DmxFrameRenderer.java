@@ -0,0 +1,205 @@
+package org.urbanbyte.cueserver.cli;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Draws a DMX universe to an ANSI terminal as a grid of channel levels. The
+ * first frame draws the whole grid; every following frame only redraws the
+ * cells whose level changed, using ANSI cursor addressing. Each frame is
+ * assembled in a reused buffer and written to the terminal in a single
+ * write, which keeps the output small enough to refresh a live universe at
+ * 30 Hz over a remote connection.
+ * <p>
+ * author: Chris Reising
+ */
+public class DmxFrameRenderer
+{
+    /** The number of channels in a universe. */
+    private static final int CHANNEL_COUNT = 512;
+
+    /** The number of channels drawn on each row. */
+    private static final int COLUMNS = 16;
+
+    /** The number of rows in the grid. */
+    private static final int ROWS = CHANNEL_COUNT / COLUMNS;
+
+    /** The width of the channel label at the start of each row. */
+    private static final int LABEL_WIDTH = 6;
+
+    /** The width of each cell. */
+    private static final int CELL_WIDTH = 4;
+
+    /** The first terminal row of the grid, below the title. */
+    private static final int FIRST_ROW = 2;
+
+    /** The terminal row of the status line, below the grid. */
+    private static final int STATUS_ROW = FIRST_ROW + ROWS + 1;
+
+    /** The escape sequence that starts every ANSI control sequence. */
+    private static final String CSI = "\u001b[";
+
+    /** Receives the frames. */
+    private final PrintStream out;
+
+    /** The levels currently shown on the terminal, or -1 if unknown. */
+    private final int[] shownLevels = new int[CHANNEL_COUNT];
+
+    /** The frame being assembled. */
+    private final StringBuilder frame = new StringBuilder(16 * 1024);
+
+    /** The encoded frame. */
+    private byte[] frameBytes = new byte[16 * 1024];
+
+    /** The number of frames drawn. */
+    private long frameCount;
+
+    /**
+     * Creates a new {@code DmxFrameRenderer}.
+     *
+     * @param out receives the frames. Must be connected to an ANSI terminal.
+     * @throws NullPointerException if {@code out} is {@code null}.
+     */
+    public DmxFrameRenderer(PrintStream out)
+    {
+        this.out = checkNotNull(out, "out cannot be null.");
+        Arrays.fill(shownLevels, -1);
+    }
+
+    /**
+     * Draws a frame.
+     *
+     * @param levels the levels of the universe. A {@code null} value, or a
+     *               missing channel, is drawn as {@code ---}.
+     * @param status text shown below the grid. Can be {@code null}.
+     */
+    public void render(Integer[] levels, String status)
+    {
+        frame.setLength(0);
+        if(frameCount == 0)
+        {
+            drawGrid();
+        }
+
+        for(int channel = 0 ; channel < CHANNEL_COUNT ; channel++)
+        {
+            Integer value = levels != null && channel < levels.length ?
+                    levels[channel] : null;
+            int level = value == null ? -2 : value;
+            if(level != shownLevels[channel])
+            {
+                shownLevels[channel] = level;
+                moveTo(FIRST_ROW + channel / COLUMNS,
+                        LABEL_WIDTH + (channel % COLUMNS) * CELL_WIDTH + 1);
+                appendLevel(level);
+            }
+        }
+
+        moveTo(STATUS_ROW, 1);
+        frame.append(CSI).append('K');
+        if(status != null)
+        {
+            frame.append(status);
+        }
+
+        write();
+        frameCount++;
+    }
+
+    /**
+     * Restores the cursor and moves it below the grid. The next call to
+     * {@link #render(Integer[], String)} redraws the whole grid.
+     */
+    public void finish()
+    {
+        frame.setLength(0);
+        moveTo(STATUS_ROW + 1, 1);
+        frame.append(CSI).append("?25h");
+        write();
+        Arrays.fill(shownLevels, -1);
+        frameCount = 0;
+    }
+
+    /**
+     * Clears the screen, hides the cursor and draws the title and channel
+     * labels.
+     */
+    private void drawGrid()
+    {
+        frame.append(CSI).append("2J").append(CSI).append("?25l");
+        moveTo(1, 1);
+        frame.append("DMX output - press Enter to stop");
+        for(int row = 0 ; row < ROWS ; row++)
+        {
+            moveTo(FIRST_ROW + row, 1);
+            appendPadded(row * COLUMNS + 1, 3);
+            frame.append(" |");
+        }
+    }
+
+    /**
+     * Moves the cursor.
+     *
+     * @param row the terminal row, starting at 1.
+     * @param column the terminal column, starting at 1.
+     */
+    private void moveTo(int row, int column)
+    {
+        frame.append(CSI).append(row).append(';').append(column).append('H');
+    }
+
+    /**
+     * Appends a level as a cell.
+     *
+     * @param level the level, or a negative value if it is not known.
+     */
+    private void appendLevel(int level)
+    {
+        if(level < 0)
+        {
+            frame.append(" ---");
+        }
+        else
+        {
+            frame.append(' ');
+            appendPadded(level, 3);
+        }
+    }
+
+    /**
+     * Appends a number right aligned to the given width.
+     *
+     * @param value the value to append. Cannot be negative.
+     * @param width the width of the field.
+     */
+    private void appendPadded(int value, int width)
+    {
+        int digits = value < 10 ? 1 : value < 100 ? 2 : value < 1000 ? 3 : 4;
+        for(int pad = digits ; pad < width ; pad++)
+        {
+            frame.append(' ');
+        }
+        frame.append(value);
+    }
+
+    /**
+     * Writes the frame to the terminal in a single write. The frame only
+     * contains ASCII characters.
+     */
+    private void write()
+    {
+        int length = frame.length();
+        if(frameBytes.length < length)
+        {
+            frameBytes = new byte[length * 2];
+        }
+        for(int index = 0 ; index < length ; index++)
+        {
+            frameBytes[index] = (byte) frame.charAt(index);
+        }
+        out.write(frameBytes, 0, length);
+        out.flush();
+    }
+}
@@ -56,15 +56,49 @@ public class InputParser
         try
         {
             String input = reader.readLine();
-            doubleValue = Double.parseDouble(input);
+            if(input != null)
+            {
+                doubleValue = Double.parseDouble(input.trim());
+            }
         }
         catch (IOException e)
         {
             System.out.println("You must enter a number");
         }
+        catch (NumberFormatException e)
+        {
+            // an empty or non-numeric input is not a number
+        }
         return doubleValue;
     }
 
+    /**
+     * Reads a line of input from the user.
+     *
+     * @param prompt displayed to the user before reading.
+     * @return the trimmed input, or {@code null} if the input could not be
+     *         read.
+     */
+    public String readString(String prompt)
+    {
+        System.out.print(prompt);
+        String input = null;
+
+        try
+        {
+            input = reader.readLine();
+            if(input != null)
+            {
+                input = input.trim();
+            }
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not read the input");
+        }
+        return input;
+    }
+
     /**
      * Gets a playback based on the input from the user.
      *
@@ -87,25 +121,6 @@ public class InputParser
      */
     public static Playback getPlaybackForId(int id)
     {
-        Playback playback;
-        switch (id)
-        {
-            case 1:
-                playback =  Playback.PLAYBACK_1;
-                break;
-            case 2:
-                playback = Playback.PLAYBACK_2;
-                break;
-            case 3:
-                playback = Playback.PLAYBACK_3;
-                break;
-            case 4:
-                playback = Playback.PLAYBACK_4;
-                break;
-            default:
-                throw new IllegalArgumentException(
-                        "Playback ID unknown: " + id);
-        }
-        return playback;
+        return Playback.forId(id);
     }
 }
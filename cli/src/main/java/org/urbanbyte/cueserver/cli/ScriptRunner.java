@@ -0,0 +1,326 @@
+package org.urbanbyte.cueserver.cli;
+
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Executes a script of CueServer commands without user interaction. Each
+ * line of the script contains one command:
+ * <pre>
+ * play &lt;cue&gt; [playback]
+ * clear [playback]
+ * set &lt;channel&gt; &lt;level&gt; [time] [playback]
+ * range &lt;start&gt; &lt;end&gt; &lt;level&gt; [time] [playback]
+ * levels &lt;start&gt; &lt;level,level,...&gt; [time] [playback]
+ * record &lt;cue&gt; [uptime] [downtime]
+ * flush
+ * </pre>
+ * Blank lines and lines starting with {@code #} are ignored. The playback
+ * defaults to 1 and times default to 0. {@code levels} sets consecutive
+ * channels from {@code start} and is sent as range commands for runs of
+ * equal levels.
+ * <p>
+ * Consecutive commands are sent together in a single request, up to the
+ * configured batch size. A {@code flush} line sends the pending commands
+ * immediately, which is useful when the script needs a command to have been
+ * executed before the next one is queued. Each command is reported once its
+ * batch was sent, with the time the whole batch took, or as failed if the
+ * request that carried it failed.
+ * <p>
+ * author: Chris Reising
+ */
+public class ScriptRunner
+{
+    /** The maximum number of commands sent in a single request. */
+    private final int batchSize;
+
+    /** Receives the report. */
+    private final PrintStream out;
+
+    /** Commands that have been queued but not sent. */
+    private final CommandBatch batch;
+
+    /** The script lines of the commands in {@link #batch}. */
+    private final List<String> pendingLines = new ArrayList<String>();
+
+    /** The size of {@link #batch} after the commands of each pending line
+     * were added. */
+    private final List<Integer> pendingEnds = new ArrayList<Integer>();
+
+    /** The number of commands executed. */
+    private int commandCount;
+
+    /** The number of requests sent. */
+    private int requestCount;
+
+    /** The number of lines that could not be parsed. */
+    private int errorCount;
+
+    /** The number of lines whose request failed. */
+    private int failedCount;
+
+    /**
+     * Creates a new {@code ScriptRunner}.
+     *
+     * @param client client the commands are sent to.
+     * @param batchSize the maximum number of commands sent in a single
+     *                  request. Must be positive. A size of 1 sends every
+     *                  command on its own.
+     * @param out receives the report.
+     * @throws NullPointerException if {@code client} or {@code out} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if {@code batchSize} is not positive.
+     */
+    public ScriptRunner(HttpCueServerClient client,
+                        int batchSize,
+                        PrintStream out)
+    {
+        checkArgument(batchSize > 0, "batchSize must be positive");
+        this.batch = checkNotNull(client, "client cannot be null.")
+                .newBatch();
+        this.out = checkNotNull(out, "out cannot be null.");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Executes every command read from the given reader, in order.
+     *
+     * @param reader the script to execute. The reader is not closed.
+     * @return the number of lines that could not be parsed or sent.
+     * @throws IOException if the script could not be read.
+     */
+    public int run(BufferedReader reader) throws IOException
+    {
+        long start = System.nanoTime();
+        int lineNumber = 0;
+        String line = reader.readLine();
+        while(line != null)
+        {
+            lineNumber++;
+            executeLine(lineNumber, line.trim());
+            line = reader.readLine();
+        }
+        flush();
+
+        out.printf(Locale.US, "%d commands in %d requests, %d failed, " +
+                "%d errors, %.1f ms total\n", commandCount, requestCount,
+                failedCount, errorCount, (System.nanoTime() - start) / 1e6);
+        return errorCount + failedCount;
+    }
+
+    /**
+     * Parses and queues a single line of the script.
+     *
+     * @param lineNumber the number of the line, for error reporting.
+     * @param line the trimmed line.
+     */
+    private void executeLine(int lineNumber, String line)
+    {
+        if(line.isEmpty() || line.startsWith("#"))
+        {
+            return;
+        }
+
+        String[] tokens = line.split("\\s+");
+        String command = tokens[0].toLowerCase(Locale.US);
+        try
+        {
+            if(command.equals("flush"))
+            {
+                flush();
+                return;
+            }
+            else if(command.equals("play"))
+            {
+                batch.playCue(number(tokens, 1, null),
+                        playback(tokens, 2));
+            }
+            else if(command.equals("clear"))
+            {
+                batch.clearPlayback(playback(tokens, 1));
+            }
+            else if(command.equals("set"))
+            {
+                batch.setChannel(integer(tokens, 1), integer(tokens, 2),
+                        number(tokens, 3, 0d), playback(tokens, 4));
+            }
+            else if(command.equals("range"))
+            {
+                batch.setChannelRange(integer(tokens, 1), integer(tokens, 2),
+                        integer(tokens, 3), number(tokens, 4, 0d),
+                        playback(tokens, 5));
+            }
+            else if(command.equals("levels"))
+            {
+                batch.setLevels(integer(tokens, 1), levels(tokens, 2),
+                        number(tokens, 3, 0d), playback(tokens, 4));
+            }
+            else if(command.equals("record"))
+            {
+                batch.recordCue(number(tokens, 1, null),
+                        number(tokens, 2, 0d), number(tokens, 3, 0d));
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "unknown command " + tokens[0]);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            errorCount++;
+            out.printf("line %d: %s: %s\n", lineNumber, line,
+                    e.getMessage());
+            return;
+        }
+
+        pendingLines.add(line);
+        pendingEnds.add(batch.size());
+        if(batch.size() >= batchSize)
+        {
+            flush();
+        }
+    }
+
+    /**
+     * Sends the pending commands and reports each one, with the time the
+     * batch took or as failed.
+     */
+    private void flush()
+    {
+        if(batch.isEmpty())
+        {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int requests = batch.submit();
+        double batchMs = (System.nanoTime() - start) / 1e6;
+
+        int command = 0;
+        for(int index = 0 ; index < pendingLines.size() ; index++)
+        {
+            boolean failed = false;
+            int end = pendingEnds.get(index);
+            for( ; command < end ; command++)
+            {
+                failed |= batch.isFailed(command);
+            }
+            if(failed)
+            {
+                failedCount++;
+                out.printf("%-40s FAILED\n", pendingLines.get(index));
+            }
+            else
+            {
+                out.printf(Locale.US, "%-40s %8.2f ms batch\n",
+                        pendingLines.get(index), batchMs);
+            }
+        }
+        commandCount += pendingLines.size();
+        requestCount += requests;
+        pendingLines.clear();
+        pendingEnds.clear();
+    }
+
+    /**
+     * Parses a required integer argument.
+     *
+     * @param tokens the tokens of the line.
+     * @param index the index of the argument.
+     * @return the parsed value.
+     * @throws IllegalArgumentException if the argument is missing or is not
+     *                                  a number.
+     */
+    private static int integer(String[] tokens, int index)
+    {
+        if(index >= tokens.length)
+        {
+            throw new IllegalArgumentException("missing argument " + index);
+        }
+        return Integer.parseInt(tokens[index]);
+    }
+
+    /**
+     * Parses a required, comma separated list of levels.
+     *
+     * @param tokens the tokens of the line.
+     * @param index the index of the argument.
+     * @return the levels.
+     * @throws IllegalArgumentException if the argument is missing, or a level
+     *                                  is not within [0, 255].
+     */
+    private static byte[] levels(String[] tokens, int index)
+    {
+        if(index >= tokens.length)
+        {
+            throw new IllegalArgumentException("missing argument " + index);
+        }
+        String[] values = tokens[index].split(",");
+        byte[] levels = new byte[values.length];
+        for(int level = 0 ; level < values.length ; level++)
+        {
+            int value = Integer.parseInt(values[level]);
+            checkArgument(value >= 0 && value <= 255,
+                    "level must be within [0, 255]");
+            levels[level] = (byte) value;
+        }
+        return levels;
+    }
+
+    /**
+     * Parses an optional decimal argument.
+     *
+     * @param tokens the tokens of the line.
+     * @param index the index of the argument.
+     * @param defaultValue the value used if the argument is missing, or
+     *                     {@code null} if the argument is required.
+     * @return the parsed value.
+     * @throws IllegalArgumentException if the argument is required but
+     *                                  missing, or is not a number.
+     */
+    private static double number(String[] tokens,
+                                 int index,
+                                 Double defaultValue)
+    {
+        if(index >= tokens.length)
+        {
+            if(defaultValue == null)
+            {
+                throw new IllegalArgumentException(
+                        "missing argument " + index);
+            }
+            return defaultValue;
+        }
+        return Double.parseDouble(tokens[index]);
+    }
+
+    /**
+     * Parses an optional playback argument.
+     *
+     * @param tokens the tokens of the line.
+     * @param index the index of the argument.
+     * @return the playback, or {@link Playback#PLAYBACK_1} if the argument is
+     *         missing.
+     * @throws IllegalArgumentException if the argument is not a playback.
+     */
+    private static Playback playback(String[] tokens, int index)
+    {
+        if(index >= tokens.length)
+        {
+            return Playback.PLAYBACK_1;
+        }
+        return Playback.forId(Integer.parseInt(tokens[index]));
+    }
+}
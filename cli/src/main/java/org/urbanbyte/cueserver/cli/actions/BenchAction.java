@@ -0,0 +1,270 @@
+package org.urbanbyte.cueserver.cli.actions;
+
+import com.google.common.base.Supplier;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.urbanbyte.cueserver.CueServerClient;
+import org.urbanbyte.cueserver.cli.InputParser;
+import org.urbanbyte.cueserver.cli.bench.BenchOperation;
+import org.urbanbyte.cueserver.cli.bench.BenchResult;
+import org.urbanbyte.cueserver.cli.bench.Benchmark;
+import org.urbanbyte.cueserver.cli.bench.OperationMix;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+import org.urbanbyte.cueserver.http.HttpTransport;
+import org.urbanbyte.cueserver.http.RawHttpTransport;
+import org.urbanbyte.cueserver.http.SimpleHttpClient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Load tests one or more CueServers with a configurable mix of requests and
+ * reports the throughput, error rate and latency percentiles. The results
+ * can be used to plan how many devices and poll rates a single control host
+ * can sustain.
+ * <p>
+ * Mixes that include {@link BenchOperation#EXE} write to the devices, so the
+ * user must confirm them before the run starts.
+ * <p>
+ * author: Chris Reising
+ */
+public class BenchAction implements Action
+{
+    /** The default mix of requests. */
+    private static final String DEFAULT_MIX = "PS:4,OUT:4,PI:1,SI:1";
+
+    /** Selects the Apache HttpClient based transport. */
+    private static final String APACHE_TRANSPORT = "apache";
+
+    /** Selects the raw socket transport. */
+    private static final String RAW_TRANSPORT = "raw";
+
+    /** Confirms that the run may write to the devices. */
+    private static final String CONFIRM_WRITES = "yes";
+
+    /** The host used when the user does not enter any. */
+    private final String defaultHost;
+
+    /** For reading input from the user. */
+    private final InputParser parser = new InputParser();
+
+    /**
+     * Creates a new {@code BenchAction}.
+     *
+     * @param defaultHost the host and port used when the user does not enter
+     *                    any hosts (e.g., {@code http://10.0.0.5:80}).
+     */
+    public BenchAction(String defaultHost)
+    {
+        this.defaultHost = checkNotNull(defaultHost,
+                "defaultHost cannot be null.");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDescription()
+    {
+        return "Load test one or more CueServers";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void executeAction()
+    {
+        String hosts = parser.readString("Enter hosts (host:port, comma " +
+                "separated) [" + defaultHost + "]: ");
+        String mix = parser.readString("Enter the request mix " +
+                "(SI, PS, PI, OUT, SNAP, EXE with weights) [" + DEFAULT_MIX +
+                "]: ");
+        Integer concurrency = readInt("Enter the concurrency: ");
+        if(concurrency == null || concurrency < 1)
+        {
+            System.out.println("The concurrency must be a positive number.");
+            return;
+        }
+        Double rate = parser.readDouble(
+                "Enter the target requests per second (0 for no limit): ");
+        if(rate == null || rate < 0)
+        {
+            System.out.println("The rate must be 0 or a positive number.");
+            return;
+        }
+        Double seconds = parser.readDouble("Enter the duration in seconds: ");
+        if(seconds == null || seconds <= 0)
+        {
+            System.out.println("The duration must be a positive number.");
+            return;
+        }
+        String transportName = parser.readString("Enter the transport (" +
+                APACHE_TRANSPORT + ", " + RAW_TRANSPORT + ") [" +
+                APACHE_TRANSPORT + "]: ");
+
+        if(hosts == null || hosts.isEmpty())
+        {
+            hosts = defaultHost;
+        }
+        if(mix == null || mix.isEmpty())
+        {
+            mix = DEFAULT_MIX;
+        }
+
+        final OperationMix operationMix;
+        try
+        {
+            operationMix = new OperationMix(mix);
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("The request mix is not valid: " +
+                    e.getMessage());
+            return;
+        }
+        if(operationMix.contains(BenchOperation.EXE))
+        {
+            String confirm = parser.readString("EXE sets channel 512 to 0 " +
+                    "on playback 4 of every host. Enter '" + CONFIRM_WRITES +
+                    "' to write to the devices: ");
+            if(!CONFIRM_WRITES.equalsIgnoreCase(confirm))
+            {
+                System.out.println("The benchmark was cancelled.");
+                return;
+            }
+        }
+
+        final String[] hostList = hosts.split(",");
+        final HttpTransport httpClient;
+        CloseableHttpClient apacheClient = null;
+        if(transportName != null && transportName.toLowerCase(Locale.US)
+                .equals(RAW_TRANSPORT))
+        {
+            httpClient = new RawHttpTransport();
+        }
+        else
+        {
+            apacheClient = HttpClients.custom()
+                    .disableAutomaticRetries()
+                    .setMaxConnPerRoute(concurrency)
+                    .setMaxConnTotal(concurrency * hostList.length)
+                    .build();
+            httpClient = new SimpleHttpClient(apacheClient);
+        }
+
+        // each worker gets its own clients so that its reads are not
+        // collapsed with those of other workers
+        Supplier<List<CueServerClient>> clientFactory =
+                new Supplier<List<CueServerClient>>()
+        {
+            @Override
+            public List<CueServerClient> get()
+            {
+                List<CueServerClient> clients =
+                        new ArrayList<CueServerClient>();
+                for(String host : hostList)
+                {
+                    clients.add(createClient(host.trim(), httpClient));
+                }
+                return clients;
+            }
+        };
+
+        try
+        {
+            Benchmark benchmark = new Benchmark(clientFactory, operationMix,
+                    concurrency, rate, (long) (seconds * 1000));
+            System.out.printf("Running for %.1f s against %d host(s) using " +
+                    "the %s transport...\n", seconds, hostList.length,
+                    httpClient instanceof RawHttpTransport ? RAW_TRANSPORT :
+                            APACHE_TRANSPORT);
+            BenchResult result = benchmark.run();
+            result.print(System.out);
+        }
+        catch (IllegalArgumentException e)
+        {
+            // also thrown for a host with a malformed port
+            System.out.println("The benchmark could not be started: " +
+                    e.getMessage());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            System.out.println("The benchmark was interrupted.");
+        }
+        finally
+        {
+            if(httpClient instanceof RawHttpTransport)
+            {
+                ((RawHttpTransport) httpClient).close();
+            }
+            if(apacheClient != null)
+            {
+                closeQuietly(apacheClient);
+            }
+        }
+    }
+
+    /**
+     * Reads an integer from the user.
+     *
+     * @param prompt displayed to the user before reading.
+     * @return the integer, or {@code null} if the input is not a number.
+     */
+    private Integer readInt(String prompt)
+    {
+        try
+        {
+            return parser.readInt(prompt);
+        }
+        catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Closes the Apache client, printing rather than throwing any failure.
+     *
+     * @param apacheClient the client to close.
+     */
+    private static void closeQuietly(CloseableHttpClient apacheClient)
+    {
+        try
+        {
+            apacheClient.close();
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not close the HTTP client: " +
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Creates a client for the given host.
+     *
+     * @param host the host, optionally prefixed with a scheme and followed by
+     *             a port. The port defaults to 80.
+     * @param httpClient the transport shared by all hosts.
+     * @return Never {@code null}.
+     */
+    private static CueServerClient createClient(String host,
+                                                HttpTransport httpClient)
+    {
+        String url = host.contains("://") ? host : "http://" + host;
+        int port = 80;
+        int portIndex = url.lastIndexOf(':');
+        if(portIndex > url.indexOf("://"))
+        {
+            port = Integer.parseInt(url.substring(portIndex + 1));
+            url = url.substring(0, portIndex);
+        }
+        return new HttpCueServerClient(url, port, httpClient);
+    }
+}
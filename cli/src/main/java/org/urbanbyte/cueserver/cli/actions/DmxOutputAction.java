@@ -1,11 +1,18 @@
 package org.urbanbyte.cueserver.cli.actions;
 
 import org.urbanbyte.cueserver.CueServerClient;
+import org.urbanbyte.cueserver.cli.DmxFrameRenderer;
+import org.urbanbyte.cueserver.cli.InputParser;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Example for retrieving the DMX output values.
+ * Example for retrieving the DMX output values. The output can either be
+ * printed once, or watched live at a given rate until the user presses Enter.
  * <p>
  * author: Chris Reising
  */
@@ -14,6 +21,9 @@ public class DmxOutputAction implements Action
     /** Client to retrieve data from. */
     private final CueServerClient client;
 
+    /** For reading input from the user. */
+    private final InputParser parser = new InputParser();
+
     /**
      * Creates a new {@code PlaybackStatusAction}.
      *
@@ -39,7 +49,35 @@ public class DmxOutputAction implements Action
     @Override
     public void executeAction()
     {
-        Integer[] values = client.getOutputLevels();
+        int universe = 1;
+        if(client.getUniverseCount() > 1)
+        {
+            Integer input = parser.readInt("Enter the universe (1-" +
+                    client.getUniverseCount() + "): ");
+            if(input == null || input < 1 ||
+                    input > client.getUniverseCount())
+            {
+                System.out.println("The universe is not valid.");
+                return;
+            }
+            universe = input;
+        }
+
+        Double rate = parser.readDouble(
+                "Enter a refresh rate in Hz to watch the output (0 or " +
+                        "blank to print once): ");
+        if(rate != null && rate > 0)
+        {
+            watch(rate, universe);
+            return;
+        }
+
+        Integer[] values = client.getOutputLevels(universe);
+        if(values == null)
+        {
+            System.out.println("Could not retrieve the output levels.");
+            return;
+        }
 
         for(int i = 0 ; i < values.length ; i++)
         {
@@ -50,4 +88,64 @@ public class DmxOutputAction implements Action
             }
         }
     }
+
+    /**
+     * Polls the output levels at the given rate and redraws the changed
+     * channels until the user presses Enter.
+     *
+     * @param rate the refresh rate in Hz.
+     * @param universe the universe to watch.
+     */
+    private void watch(double rate, int universe)
+    {
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+        DmxFrameRenderer renderer = new DmxFrameRenderer(System.out);
+        long nextFrame = System.nanoTime();
+        long frames = 0;
+        long errors = 0;
+
+        try
+        {
+            while(System.in.available() == 0)
+            {
+                long start = System.nanoTime();
+                Integer[] values = client.getOutputLevels(universe);
+                long fetchNanos = System.nanoTime() - start;
+                if(values == null)
+                {
+                    errors++;
+                }
+                frames++;
+
+                renderer.render(values, String.format(Locale.US,
+                        "frame %d  fetch %.1f ms  errors %d  target %.1f Hz",
+                        frames, fetchNanos / 1e6, errors, rate));
+
+                nextFrame += periodNanos;
+                long wait = nextFrame - System.nanoTime();
+                if(wait > 0)
+                {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                else
+                {
+                    // the device is slower than the requested rate
+                    nextFrame = System.nanoTime();
+                }
+            }
+            parser.readString("");
+        }
+        catch (IOException e)
+        {
+            System.out.println("Could not read from the console.");
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            renderer.finish();
+        }
+    }
 }
@@ -0,0 +1,150 @@
+package org.urbanbyte.cueserver.cli.actions;
+
+import org.urbanbyte.cueserver.cli.InputParser;
+import org.urbanbyte.cueserver.cli.bench.LatencyHistogram;
+import org.urbanbyte.cueserver.cli.sim.CueServerSimulator;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.RawHttpTransport;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how long it takes to read a full device status (PS, PI for every
+ * playback and OUT) from a simulated CueServer with a given network latency,
+ * sending the reads one at a time, pipelined, and pipelined against a server
+ * that does not support pipelining.
+ * <p>
+ * author: Chris Reising
+ */
+public class PipelineBenchAction implements Action
+{
+    /** For reading input from the user. */
+    private final InputParser parser = new InputParser();
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String getDescription()
+    {
+        return "Compare sequential and pipelined status reads on a simulator";
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void executeAction()
+    {
+        Integer latency = parser.readInt("Enter the simulated latency in ms: ");
+        Integer rounds = parser.readInt("Enter the number of rounds: ");
+        if(latency == null || latency < 0 || rounds == null || rounds < 1)
+        {
+            System.out.println("The latency and rounds must be positive.");
+            return;
+        }
+
+        CueServerSimulator pipelining = new CueServerSimulator(latency, true);
+        CueServerSimulator single = new CueServerSimulator(latency, false);
+        RawHttpTransport transport = new RawHttpTransport();
+        try
+        {
+            pipelining.start();
+            single.start();
+
+            List<String> pipeliningUrls = createUrls(pipelining);
+            List<String> singleUrls = createUrls(single);
+
+            System.out.printf("%-22s %9s %9s %9s   (ms per status)\n",
+                    "mode", "mean", "p50", "p99");
+            printRow("sequential", run(transport, pipeliningUrls, rounds,
+                    false));
+            printRow("pipelined", run(transport, pipeliningUrls, rounds,
+                    true));
+            printRow("pipelined (fallback)", run(transport, singleUrls,
+                    rounds, true));
+        }
+        catch (IOException e)
+        {
+            System.out.println("The simulator could not be started: " +
+                    e.getMessage());
+        }
+        finally
+        {
+            transport.close();
+            pipelining.stop();
+            single.stop();
+        }
+    }
+
+    /**
+     * Creates the URLs of a full status read.
+     *
+     * @param simulator the simulator to read from.
+     * @return the URLs of the PS, PI and OUT reads.
+     */
+    private static List<String> createUrls(CueServerSimulator simulator)
+    {
+        String getUrl = simulator.getUrl() + ":" + simulator.getPort() +
+                "/get.cgi/?req=";
+        List<String> urls = new ArrayList<String>();
+        urls.add(getUrl + "PS");
+        for(Playback playback : Playback.values())
+        {
+            urls.add(getUrl + "PI&id=" + playback.getPlaybackId());
+        }
+        urls.add(getUrl + "OUT");
+        return urls;
+    }
+
+    /**
+     * Reads the full status a number of times.
+     *
+     * @param transport the transport to read with.
+     * @param urls the URLs of the status.
+     * @param rounds the number of times to read the status.
+     * @param pipelined {@code true} to pipeline the reads.
+     * @return the time taken by each round.
+     */
+    private static LatencyHistogram run(RawHttpTransport transport,
+                                        List<String> urls,
+                                        int rounds,
+                                        boolean pipelined)
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(int round = 0 ; round < rounds ; round++)
+        {
+            long start = System.nanoTime();
+            if(pipelined)
+            {
+                transport.submitPipelined(urls);
+            }
+            else
+            {
+                for(String url : urls)
+                {
+                    transport.submitHttpGetRequest(url);
+                }
+            }
+            histogram.record(System.nanoTime() - start);
+        }
+        return histogram;
+    }
+
+    /**
+     * Prints the results of a mode.
+     *
+     * @param mode the name of the mode.
+     * @param histogram the time taken by each round.
+     */
+    private static void printRow(String mode, LatencyHistogram histogram)
+    {
+        System.out.printf(Locale.US, "%-22s %9.2f %9.2f %9.2f\n", mode,
+                histogram.getMean() / 1e6,
+                histogram.getPercentile(50) / 1e6,
+                histogram.getPercentile(99) / 1e6);
+    }
+}
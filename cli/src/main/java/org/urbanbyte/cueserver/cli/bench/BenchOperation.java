@@ -0,0 +1,89 @@
+package org.urbanbyte.cueserver.cli.bench;
+
+import org.urbanbyte.cueserver.CueServerClient;
+import org.urbanbyte.cueserver.data.playback.Playback;
+
+/**
+ * The requests a benchmark can send to a CueServer.
+ * <p>
+ * author: Chris Reising
+ */
+public enum BenchOperation
+{
+    /** Requests the system information. */
+    SI
+    {
+        @Override
+        public boolean execute(CueServerClient client)
+        {
+            return client.getSystemInfo() != null;
+        }
+    },
+
+    /** Requests the playback status. */
+    PS
+    {
+        @Override
+        public boolean execute(CueServerClient client)
+        {
+            return client.getPlaybackStatus() != null;
+        }
+    },
+
+    /** Requests the detailed information of playback 1. */
+    PI
+    {
+        @Override
+        public boolean execute(CueServerClient client)
+        {
+            return client.getDetailedPlaybackInfo(Playback.PLAYBACK_1) != null;
+        }
+    },
+
+    /** Requests the output levels. */
+    OUT
+    {
+        @Override
+        public boolean execute(CueServerClient client)
+        {
+            return client.getOutputLevels() != null;
+        }
+    },
+
+    /**
+     * Requests a full snapshot: the system information, the playback status,
+     * the detailed status of every playback and the output levels.
+     */
+    SNAP
+    {
+        @Override
+        public boolean execute(CueServerClient client)
+        {
+            return client.getSnapshot().isComplete();
+        }
+    },
+
+    /**
+     * Executes a command. The command sets channel 512 to 0 on playback 4,
+     * which changes the output of the device, so it is only sent once the
+     * user confirms the run may write to the devices. Since commands do not
+     * return a reply, failed commands cannot be detected.
+     */
+    EXE
+    {
+        @Override
+        public boolean execute(CueServerClient client)
+        {
+            client.setChannel(512, 0, 0, Playback.PLAYBACK_4);
+            return true;
+        }
+    };
+
+    /**
+     * Sends the request.
+     *
+     * @param client the client to send the request with.
+     * @return {@code true} if the request succeeded.
+     */
+    public abstract boolean execute(CueServerClient client);
+}
@@ -0,0 +1,186 @@
+package org.urbanbyte.cueserver.cli.bench;
+
+import java.io.PrintStream;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The latencies and errors recorded during a {@link Benchmark} run, grouped
+ * by operation.
+ * <p>
+ * author: Chris Reising
+ */
+public class BenchResult
+{
+    /** The percentiles included in the report. */
+    private static final double[] PERCENTILES = {50, 90, 95, 99, 99.9, 100};
+
+    /** The latencies of each operation. */
+    private final Map<BenchOperation, LatencyHistogram> latencies =
+            new EnumMap<BenchOperation, LatencyHistogram>(BenchOperation.class);
+
+    /** The number of failed requests of each operation. */
+    private final int[] errors = new int[BenchOperation.values().length];
+
+    /** The length of the run. */
+    private long elapsedNanos;
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param operation the operation that was sent.
+     * @param latencyNanos the latency of the request.
+     * @param success {@code true} if the request succeeded.
+     */
+    public void record(BenchOperation operation,
+                       long latencyNanos,
+                       boolean success)
+    {
+        LatencyHistogram histogram = latencies.get(operation);
+        if(histogram == null)
+        {
+            histogram = new LatencyHistogram();
+            latencies.put(operation, histogram);
+        }
+        histogram.record(latencyNanos);
+        if(!success)
+        {
+            errors[operation.ordinal()]++;
+        }
+    }
+
+    /**
+     * Adds the results of another run.
+     *
+     * @param other the results to add.
+     */
+    public void merge(BenchResult other)
+    {
+        for(Map.Entry<BenchOperation, LatencyHistogram> entry :
+                other.latencies.entrySet())
+        {
+            LatencyHistogram histogram = latencies.get(entry.getKey());
+            if(histogram == null)
+            {
+                histogram = new LatencyHistogram();
+                latencies.put(entry.getKey(), histogram);
+            }
+            histogram.merge(entry.getValue());
+        }
+        for(int index = 0 ; index < errors.length ; index++)
+        {
+            errors[index] += other.errors[index];
+        }
+    }
+
+    /**
+     * Sets the length of the run.
+     *
+     * @param elapsedNanos the length of the run in nanoseconds.
+     */
+    public void setElapsedNanos(long elapsedNanos)
+    {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the total number of requests sent.
+     *
+     * @return the number of requests.
+     */
+    public int getRequestCount()
+    {
+        int count = 0;
+        for(LatencyHistogram histogram : latencies.values())
+        {
+            count += histogram.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the total number of failed requests.
+     *
+     * @return the number of errors.
+     */
+    public int getErrorCount()
+    {
+        int count = 0;
+        for(int error : errors)
+        {
+            count += error;
+        }
+        return count;
+    }
+
+    /**
+     * Prints the throughput, error rate and latency percentiles of each
+     * operation and of all operations combined.
+     *
+     * @param out receives the report.
+     */
+    public void print(PrintStream out)
+    {
+        double seconds = elapsedNanos / 1e9;
+        int requests = getRequestCount();
+        int errorCount = getErrorCount();
+
+        out.printf(Locale.US, "%d requests in %.1f s: %.1f req/s, " +
+                        "%d errors (%.2f%%)\n", requests, seconds,
+                requests / seconds, errorCount,
+                requests == 0 ? 0 : 100.0 * errorCount / requests);
+
+        out.printf("%-6s %8s %7s %9s", "op", "count", "errors", "mean");
+        for(double percentile : PERCENTILES)
+        {
+            out.printf(Locale.US, " %8s", "p" + formatPercentile(percentile));
+        }
+        out.println("   (latency in ms)");
+
+        LatencyHistogram all = new LatencyHistogram();
+        for(Map.Entry<BenchOperation, LatencyHistogram> entry :
+                latencies.entrySet())
+        {
+            printRow(out, entry.getKey().name(), entry.getValue(),
+                    errors[entry.getKey().ordinal()]);
+            all.merge(entry.getValue());
+        }
+        printRow(out, "all", all, errorCount);
+    }
+
+    /**
+     * Prints a single row of the latency table.
+     *
+     * @param out receives the row.
+     * @param name the name of the row.
+     * @param histogram the latencies of the row.
+     * @param errorCount the number of errors of the row.
+     */
+    private static void printRow(PrintStream out,
+                                 String name,
+                                 LatencyHistogram histogram,
+                                 int errorCount)
+    {
+        out.printf(Locale.US, "%-6s %8d %7d %9.2f", name,
+                histogram.getCount(), errorCount, histogram.getMean() / 1e6);
+        for(double percentile : PERCENTILES)
+        {
+            out.printf(Locale.US, " %8.2f",
+                    histogram.getPercentile(percentile) / 1e6);
+        }
+        out.println();
+    }
+
+    /**
+     * Formats a percentile without a trailing ".0".
+     *
+     * @param percentile the percentile.
+     * @return Never {@code null}.
+     */
+    private static String formatPercentile(double percentile)
+    {
+        return percentile == Math.rint(percentile) ?
+                String.valueOf((int) percentile) : String.valueOf(percentile);
+    }
+}
@@ -0,0 +1,233 @@
+package org.urbanbyte.cueserver.cli.bench;
+
+import com.google.common.base.Supplier;
+import org.urbanbyte.cueserver.CueServerClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Drives a mix of requests against one or more CueServers for a fixed
+ * duration and records the latency and outcome of every request.
+ * <p>
+ * Each worker thread sends one request at a time, so the concurrency is the
+ * number of requests in flight. When a target rate is given, the workers
+ * pace themselves to share that rate and latencies are measured from the
+ * time each request was scheduled to be sent, so a slow device shows up as
+ * latency rather than as a lower request rate.
+ * <p>
+ * Each worker creates its own clients, so concurrent reads of one host are
+ * not collapsed into a single request by the client and every request sent
+ * is measured.
+ * <p>
+ * author: Chris Reising
+ */
+public class Benchmark
+{
+    /** Creates the clients for each host. Called once for every worker. */
+    private final Supplier<List<CueServerClient>> clientFactory;
+
+    /** The operations to send. */
+    private final OperationMix mix;
+
+    /** The number of requests in flight. */
+    private final int concurrency;
+
+    /** The target number of requests per second, or 0 for no limit. */
+    private final double targetRate;
+
+    /** The length of the run in milliseconds. */
+    private final long durationMillis;
+
+    /**
+     * Creates a new {@code Benchmark}.
+     *
+     * @param clientFactory creates the clients for each host. Called once
+     *                      for every worker; each call must return new
+     *                      clients. Requests are spread over all of them.
+     * @param mix the operations to send.
+     * @param concurrency the number of requests in flight. Must be positive.
+     * @param targetRate the total number of requests per second, or 0 to send
+     *                   requests as fast as possible.
+     * @param durationMillis the length of the run. Must be positive.
+     * @throws NullPointerException if {@code clientFactory} or {@code mix}
+     *                              is {@code null}.
+     * @throws IllegalArgumentException if any other argument is out of
+     *                                  bounds.
+     */
+    public Benchmark(Supplier<List<CueServerClient>> clientFactory,
+                     OperationMix mix,
+                     int concurrency,
+                     double targetRate,
+                     long durationMillis)
+    {
+        checkArgument(concurrency > 0, "concurrency must be positive");
+        checkArgument(targetRate >= 0, "targetRate cannot be negative");
+        checkArgument(durationMillis > 0, "durationMillis must be positive");
+
+        this.clientFactory = checkNotNull(clientFactory,
+                "clientFactory cannot be null");
+        this.mix = checkNotNull(mix, "mix cannot be null");
+        this.concurrency = concurrency;
+        this.targetRate = targetRate;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Runs the benchmark and blocks until it is complete.
+     *
+     * @return the results of the run. Never {@code null}.
+     * @throws IllegalArgumentException if the client factory returns no
+     *                                  clients.
+     * @throws InterruptedException if the thread was interrupted while
+     *                              waiting for the workers.
+     */
+    public BenchResult run() throws InterruptedException
+    {
+        List<List<CueServerClient>> workerClients =
+                new ArrayList<List<CueServerClient>>();
+        for(int worker = 0 ; worker < concurrency ; worker++)
+        {
+            List<CueServerClient> clients = clientFactory.get();
+            checkArgument(!clients.isEmpty(), "clients cannot be empty");
+            workerClients.add(clients);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        List<Future<BenchResult>> futures =
+                new ArrayList<Future<BenchResult>>();
+
+        long start = System.nanoTime();
+        long end = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+        long periodNanos = 0;
+        if(targetRate > 0)
+        {
+            periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) * concurrency /
+                    targetRate);
+        }
+
+        for(int worker = 0 ; worker < concurrency ; worker++)
+        {
+            // stagger the workers so a paced run is spread across the period
+            long firstSend = start + periodNanos * worker / concurrency;
+            futures.add(executor.submit(new Worker(worker,
+                    workerClients.get(worker), firstSend, end, periodNanos)));
+        }
+
+        BenchResult result = new BenchResult();
+        try
+        {
+            for(Future<BenchResult> future : futures)
+            {
+                result.merge(future.get());
+            }
+        }
+        catch (ExecutionException e)
+        {
+            throw new IllegalStateException("benchmark worker failed",
+                    e.getCause());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+        result.setElapsedNanos(System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Sends requests until the end of the run.
+     */
+    private class Worker implements Callable<BenchResult>
+    {
+        /** Used to pick the first host. */
+        private final int workerId;
+
+        /** The clients of this worker, one for each host. */
+        private final List<CueServerClient> clients;
+
+        /** When the next request should be sent. */
+        private long nextSend;
+
+        /** When the run ends. */
+        private final long end;
+
+        /** The time between requests, or 0 for no pacing. */
+        private final long periodNanos;
+
+        /**
+         * Creates a new {@code Worker}.
+         *
+         * @param workerId the ID of the worker.
+         * @param clients the clients of this worker, one for each host.
+         * @param firstSend when the first request should be sent.
+         * @param end when the run ends.
+         * @param periodNanos the time between requests, or 0 for no pacing.
+         */
+        private Worker(int workerId,
+                       List<CueServerClient> clients,
+                       long firstSend,
+                       long end,
+                       long periodNanos)
+        {
+            this.workerId = workerId;
+            this.clients = new ArrayList<CueServerClient>(clients);
+            this.nextSend = firstSend;
+            this.end = end;
+            this.periodNanos = periodNanos;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public BenchResult call() throws InterruptedException
+        {
+            BenchResult result = new BenchResult();
+            Random random = new Random(workerId);
+            int clientIndex = workerId;
+
+            while(true)
+            {
+                long now = System.nanoTime();
+                long scheduled = periodNanos > 0 ? nextSend : now;
+                if(scheduled >= end || now >= end)
+                {
+                    break;
+                }
+                long wait = scheduled - now;
+                if(wait > 0)
+                {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+
+                BenchOperation operation = mix.next(random);
+                CueServerClient client =
+                        clients.get(clientIndex++ % clients.size());
+                boolean success;
+                try
+                {
+                    success = operation.execute(client);
+                }
+                catch (RuntimeException e)
+                {
+                    success = false;
+                }
+                result.record(operation, System.nanoTime() - scheduled,
+                        success);
+                nextSend += periodNanos;
+            }
+            return result;
+        }
+    }
+}
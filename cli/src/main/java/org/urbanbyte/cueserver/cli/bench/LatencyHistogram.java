@@ -0,0 +1,107 @@
+package org.urbanbyte.cueserver.cli.bench;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Records request latencies and reports their percentiles. Every sample is
+ * kept so the percentiles are exact. Instances are not thread safe; each
+ * worker records into its own histogram and the histograms are merged when
+ * the run is complete.
+ * <p>
+ * author: Chris Reising
+ */
+public class LatencyHistogram
+{
+    /** The recorded latencies in nanoseconds. */
+    private long[] samples = new long[1024];
+
+    /** The number of recorded latencies. */
+    private int count;
+
+    /** {@code true} if {@link #samples} is sorted. */
+    private boolean sorted = true;
+
+    /**
+     * Records a latency.
+     *
+     * @param latencyNanos the latency in nanoseconds.
+     */
+    public void record(long latencyNanos)
+    {
+        if(count == samples.length)
+        {
+            samples = Arrays.copyOf(samples, samples.length * 2);
+        }
+        samples[count++] = latencyNanos;
+        sorted = false;
+    }
+
+    /**
+     * Adds all of the latencies recorded by another histogram.
+     *
+     * @param other the histogram to add.
+     */
+    public void merge(LatencyHistogram other)
+    {
+        for(int index = 0 ; index < other.count ; index++)
+        {
+            record(other.samples[index]);
+        }
+    }
+
+    /**
+     * Gets the number of recorded latencies.
+     *
+     * @return the number of latencies.
+     */
+    public int getCount()
+    {
+        return count;
+    }
+
+    /**
+     * Gets the latency at the given percentile.
+     *
+     * @param percentile the percentile within [0, 100].
+     * @return the latency in nanoseconds, or 0 if nothing was recorded.
+     * @throws IllegalArgumentException if {@code percentile} is out of
+     *                                  bounds.
+     */
+    public long getPercentile(double percentile)
+    {
+        checkArgument(percentile >= 0 && percentile <= 100,
+                "percentile must be within [0, 100]");
+        if(count == 0)
+        {
+            return 0;
+        }
+        if(!sorted)
+        {
+            Arrays.sort(samples, 0, count);
+            sorted = true;
+        }
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return samples[Math.max(0, Math.min(index, count - 1))];
+    }
+
+    /**
+     * Gets the mean latency.
+     *
+     * @return the mean in nanoseconds, or 0 if nothing was recorded.
+     */
+    public double getMean()
+    {
+        if(count == 0)
+        {
+            return 0;
+        }
+        double total = 0;
+        for(int index = 0 ; index < count ; index++)
+        {
+            total += samples[index];
+        }
+        return total / count;
+    }
+}
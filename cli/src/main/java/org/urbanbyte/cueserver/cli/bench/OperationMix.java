@@ -0,0 +1,110 @@
+package org.urbanbyte.cueserver.cli.bench;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A weighted mix of {@link BenchOperation}s, parsed from a string such as
+ * {@code PS:5,OUT:5,PI:2,SI:1,EXE:1}. An operation without a weight has a
+ * weight of 1.
+ * <p>
+ * author: Chris Reising
+ */
+public class OperationMix
+{
+    /** The operations that have a weight. */
+    private final BenchOperation[] operations;
+
+    /** The cumulative weight of each operation. */
+    private final int[] cumulativeWeights;
+
+    /** The sum of all weights. */
+    private final int totalWeight;
+
+    /**
+     * Creates a new {@code OperationMix}.
+     *
+     * @param mix the mix to parse.
+     * @throws IllegalArgumentException if the mix cannot be parsed or
+     *                                  contains no operations.
+     */
+    public OperationMix(String mix)
+    {
+        Map<BenchOperation, Integer> weights =
+                new EnumMap<BenchOperation, Integer>(BenchOperation.class);
+        for(String entry : mix.split(","))
+        {
+            String trimmed = entry.trim();
+            if(trimmed.isEmpty())
+            {
+                continue;
+            }
+            String[] parts = trimmed.split(":");
+            BenchOperation operation = BenchOperation.valueOf(
+                    parts[0].trim().toUpperCase(Locale.US));
+            int weight = 1;
+            if(parts.length > 1)
+            {
+                weight = Integer.parseInt(parts[1].trim());
+            }
+            checkArgument(weight >= 0, "weight cannot be negative");
+            weights.put(operation, weight);
+        }
+
+        operations = new BenchOperation[weights.size()];
+        cumulativeWeights = new int[weights.size()];
+        int total = 0;
+        int index = 0;
+        for(Map.Entry<BenchOperation, Integer> entry : weights.entrySet())
+        {
+            total += entry.getValue();
+            operations[index] = entry.getKey();
+            cumulativeWeights[index] = total;
+            index++;
+        }
+        checkArgument(total > 0, "the mix must contain an operation");
+        totalWeight = total;
+    }
+
+    /**
+     * Picks an operation at random according to the weights.
+     *
+     * @param random the source of randomness.
+     * @return Never {@code null}.
+     */
+    public BenchOperation next(Random random)
+    {
+        int value = random.nextInt(totalWeight);
+        int index = 0;
+        while(value >= cumulativeWeights[index])
+        {
+            index++;
+        }
+        return operations[index];
+    }
+
+    /**
+     * Checks if the mix sends an operation.
+     *
+     * @param operation the operation to check for.
+     * @return {@code true} if the operation has a positive weight.
+     */
+    public boolean contains(BenchOperation operation)
+    {
+        int previous = 0;
+        for(int index = 0 ; index < operations.length ; index++)
+        {
+            if(operations[index] == operation &&
+                    cumulativeWeights[index] > previous)
+            {
+                return true;
+            }
+            previous = cumulativeWeights[index];
+        }
+        return false;
+    }
+}
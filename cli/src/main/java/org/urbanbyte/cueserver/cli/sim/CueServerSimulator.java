@@ -0,0 +1,428 @@
+package org.urbanbyte.cueserver.cli.sim;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A local stand-in for a CueServer's web interface, used to measure the
+ * client without a device. It answers {@code get.cgi} reads with replies of
+ * the sizes a CueServer sends and accepts, but ignores, {@code exe.cgi}
+ * commands.
+ * <p>
+ * Every reply is delayed by a fixed latency from the moment its request
+ * arrived, which models the round trip of a slow network. When pipelining is
+ * enabled, requests that arrive back to back on one connection are answered
+ * in order and their delays overlap, as they would over a real link. When it
+ * is disabled, the simulator behaves like a web server that answers a single
+ * request per connection and then closes it.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueServerSimulator
+{
+    /** The length of the system information reply. */
+    private static final int SYSTEM_INFO_LEN = 78;
+
+    /** The length of the playback status reply. */
+    private static final int PLAYBACK_STATUS_LEN = 48;
+
+    /** The length of the detailed playback status reply. */
+    private static final int DETAILED_STATUS_LEN = 96;
+
+    /** The length of the output levels reply. */
+    private static final int OUTPUT_LEN = 512;
+
+    /** Creates the connection threads. */
+    private static final ThreadFactory THREAD_FACTORY =
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("cueserver-simulator-%d")
+                    .build();
+
+    /** The delay of every reply in nanoseconds. */
+    private final long latencyNanos;
+
+    /** {@code true} if pipelined requests are answered. */
+    private final boolean pipelining;
+
+    /** Accepts connections. */
+    private ServerSocket serverSocket;
+
+    /**
+     * Creates a new {@code CueServerSimulator}.
+     *
+     * @param latencyMillis the delay of every reply. Cannot be negative.
+     * @param pipelining {@code true} to answer pipelined requests,
+     *                   {@code false} to close each connection after its
+     *                   first reply.
+     * @throws IllegalArgumentException if {@code latencyMillis} is negative.
+     */
+    public CueServerSimulator(long latencyMillis, boolean pipelining)
+    {
+        checkArgument(latencyMillis >= 0, "latencyMillis cannot be negative");
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+        this.pipelining = pipelining;
+    }
+
+    /**
+     * Starts listening on a free port of the loopback interface.
+     *
+     * @throws IOException if the port could not be opened.
+     * @throws IllegalStateException if the simulator was already started.
+     */
+    public void start() throws IOException
+    {
+        if(serverSocket != null)
+        {
+            throw new IllegalStateException("already started");
+        }
+        serverSocket = new ServerSocket(0, 50,
+                InetAddress.getLoopbackAddress());
+        THREAD_FACTORY.newThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        }).start();
+    }
+
+    /**
+     * Gets the URL of the simulator, without the port.
+     *
+     * @return Never {@code null}.
+     */
+    public String getUrl()
+    {
+        return "http://" +
+                InetAddress.getLoopbackAddress().getHostAddress();
+    }
+
+    /**
+     * Gets the port the simulator listens on.
+     *
+     * @return the port.
+     * @throws IllegalStateException if the simulator was not started.
+     */
+    public int getPort()
+    {
+        if(serverSocket == null)
+        {
+            throw new IllegalStateException("not started");
+        }
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Stops accepting connections. Open connections are closed by their
+     * clients.
+     */
+    public void stop()
+    {
+        if(serverSocket != null)
+        {
+            try
+            {
+                serverSocket.close();
+            }
+            catch (IOException e)
+            {
+                // nothing else to release
+            }
+        }
+    }
+
+    /**
+     * Accepts connections until the simulator is stopped.
+     */
+    private void accept()
+    {
+        while(!serverSocket.isClosed())
+        {
+            try
+            {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                BlockingQueue<PendingReply> replies =
+                        new LinkedBlockingQueue<PendingReply>();
+                AtomicInteger users = new AtomicInteger(2);
+                THREAD_FACTORY.newThread(
+                        new Reader(socket, users, replies)).start();
+                THREAD_FACTORY.newThread(
+                        new Writer(socket, users, replies)).start();
+            }
+            catch (IOException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes a connection once both its reader and its writer are done with
+     * it.
+     *
+     * @param socket the connection.
+     * @param users the number of threads still using the connection.
+     */
+    private static void release(Socket socket, AtomicInteger users)
+    {
+        if(users.decrementAndGet() == 0)
+        {
+            try
+            {
+                socket.close();
+            }
+            catch (IOException e)
+            {
+                // nothing else to release
+            }
+        }
+    }
+
+    /**
+     * Builds the reply to a request.
+     *
+     * @param path the path of the request.
+     * @param close {@code true} if the connection is closed after the reply.
+     * @return the reply, including its headers.
+     */
+    private static byte[] buildReply(String path, boolean close)
+    {
+        int length = 0;
+        if(path.contains("req=SI"))
+        {
+            length = SYSTEM_INFO_LEN;
+        }
+        else if(path.contains("req=PS"))
+        {
+            length = PLAYBACK_STATUS_LEN;
+        }
+        else if(path.contains("req=PI"))
+        {
+            length = DETAILED_STATUS_LEN;
+        }
+        else if(path.contains("req=OUT"))
+        {
+            length = OUTPUT_LEN;
+        }
+
+        byte[] headers = ("HTTP/1.1 200 OK\r\nContent-Length: " + length +
+                (close ? "\r\nConnection: close" : "") + "\r\n\r\n")
+                .getBytes(Charsets.US_ASCII);
+        byte[] reply = new byte[headers.length + length];
+        System.arraycopy(headers, 0, reply, 0, headers.length);
+        return reply;
+    }
+
+    /**
+     * A reply waiting for its latency to pass.
+     */
+    private static class PendingReply
+    {
+        /** The reply, or {@code null} to close the connection. */
+        private final byte[] bytes;
+
+        /** When the reply is due. */
+        private final long dueNanos;
+
+        /**
+         * Creates a new {@code PendingReply}.
+         *
+         * @param bytes the reply, or {@code null} to close the connection.
+         * @param dueNanos when the reply is due.
+         */
+        private PendingReply(byte[] bytes, long dueNanos)
+        {
+            this.bytes = bytes;
+            this.dueNanos = dueNanos;
+        }
+    }
+
+    /**
+     * Reads the requests on a connection and queues their replies.
+     */
+    private class Reader implements Runnable
+    {
+        /** The connection. */
+        private final Socket socket;
+
+        /** The number of threads still using the connection. */
+        private final AtomicInteger users;
+
+        /** Receives the replies. */
+        private final BlockingQueue<PendingReply> replies;
+
+        /**
+         * Creates a new {@code Reader}.
+         *
+         * @param socket the connection.
+         * @param users the number of threads still using the connection.
+         * @param replies receives the replies.
+         */
+        private Reader(Socket socket, AtomicInteger users,
+                       BlockingQueue<PendingReply> replies)
+        {
+            this.socket = socket;
+            this.users = users;
+            this.replies = replies;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run()
+        {
+            try
+            {
+                InputStream in =
+                        new BufferedInputStream(socket.getInputStream());
+                String path = readRequest(in);
+                while(path != null)
+                {
+                    replies.add(new PendingReply(buildReply(path, !pipelining),
+                            System.nanoTime() + latencyNanos));
+                    if(!pipelining)
+                    {
+                        // answer only the first request, and discard the
+                        // rest so closing does not reset the connection
+                        replies.add(new PendingReply(null, 0));
+                        while(in.read() >= 0)
+                        {
+                            // discard
+                        }
+                        break;
+                    }
+                    path = readRequest(in);
+                }
+            }
+            catch (IOException e)
+            {
+                // the client closed the connection
+            }
+            finally
+            {
+                replies.add(new PendingReply(null, 0));
+                release(socket, users);
+            }
+        }
+
+        /**
+         * Reads a request up to the blank line after its headers.
+         *
+         * @param in the stream to read.
+         * @return the path of the request, or {@code null} at the end of the
+         *         stream.
+         * @throws IOException if the request could not be read.
+         */
+        private String readRequest(InputStream in) throws IOException
+        {
+            StringBuilder request = new StringBuilder();
+            int matched = 0;
+            while(matched < 4)
+            {
+                int read = in.read();
+                if(read < 0)
+                {
+                    return null;
+                }
+                request.append((char) read);
+                matched = read == (matched % 2 == 0 ? '\r' : '\n') ?
+                        matched + 1 : read == '\r' ? 1 : 0;
+            }
+            String[] requestLine = request.toString().split(" ");
+            return requestLine.length > 1 ? requestLine[1] : "";
+        }
+    }
+
+    /**
+     * Writes the queued replies of a connection once they are due.
+     */
+    private static class Writer implements Runnable
+    {
+        /** The connection. */
+        private final Socket socket;
+
+        /** The number of threads still using the connection. */
+        private final AtomicInteger users;
+
+        /** The replies to write. */
+        private final BlockingQueue<PendingReply> replies;
+
+        /**
+         * Creates a new {@code Writer}.
+         *
+         * @param socket the connection.
+         * @param users the number of threads still using the connection.
+         * @param replies the replies to write.
+         */
+        private Writer(Socket socket, AtomicInteger users,
+                       BlockingQueue<PendingReply> replies)
+        {
+            this.socket = socket;
+            this.users = users;
+            this.replies = replies;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run()
+        {
+            try
+            {
+                OutputStream out =
+                        new BufferedOutputStream(socket.getOutputStream());
+                PendingReply reply = replies.take();
+                while(reply.bytes != null)
+                {
+                    long wait = reply.dueNanos - System.nanoTime();
+                    if(wait > 0)
+                    {
+                        out.flush();
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    out.write(reply.bytes);
+                    if(replies.isEmpty())
+                    {
+                        out.flush();
+                    }
+                    reply = replies.take();
+                }
+                out.flush();
+                socket.shutdownOutput();
+            }
+            catch (IOException e)
+            {
+                // the client closed the connection
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                release(socket, users);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package org.urbanbyte.cueserver.cli;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the argument parsing of the {@link CliRunner} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class CliRunnerTest
+{
+    /**
+     * Without arguments the demo server is used interactively.
+     */
+    @Test
+    public void defaults()
+    {
+        CliRunner.Arguments arguments =
+                CliRunner.Arguments.parse(new String[0]);
+
+        assertThat(arguments.defaultUrl, is(true));
+        assertThat(arguments.url, is("http://demo1.cueserver.com"));
+        assertThat(arguments.port, is(100));
+        assertThat(arguments.script, is(nullValue()));
+        assertThat(arguments.batchSize, is(1));
+        assertThat(arguments.universeCount, is(1));
+    }
+
+    /**
+     * The URL, port and options are parsed.
+     */
+    @Test
+    public void allArguments()
+    {
+        CliRunner.Arguments arguments = CliRunner.Arguments.parse(
+                new String[]{"http://cs", "80", "--script", "-",
+                        "--batch", "16", "--universes", "4"});
+
+        assertThat(arguments.defaultUrl, is(false));
+        assertThat(arguments.url, is("http://cs"));
+        assertThat(arguments.port, is(80));
+        assertThat(arguments.script, is("-"));
+        assertThat(arguments.batchSize, is(16));
+        assertThat(arguments.universeCount, is(4));
+    }
+
+    /**
+     * A batch size that is not positive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBatchSize()
+    {
+        CliRunner.Arguments.parse(new String[]{"--batch", "0"});
+    }
+
+    /**
+     * More universes than a client drives will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidUniverseCount()
+    {
+        CliRunner.Arguments.parse(new String[]{"--universes", "9"});
+    }
+
+    /**
+     * A port that is not a number will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPort()
+    {
+        CliRunner.Arguments.parse(new String[]{"http://cs", "http"});
+    }
+
+    /**
+     * A port out of bounds will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void portOutOfBounds()
+    {
+        CliRunner.Arguments.parse(new String[]{"http://cs", "70000"});
+    }
+
+    /**
+     * A URL without a port will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void missingPort()
+    {
+        CliRunner.Arguments.parse(new String[]{"http://cs"});
+    }
+
+    /**
+     * An option without a value will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void missingValue()
+    {
+        CliRunner.Arguments.parse(new String[]{"--batch"});
+    }
+
+    /**
+     * An unknown option will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOption()
+    {
+        CliRunner.Arguments.parse(new String[]{"--verbose", "1"});
+    }
+}
@@ -0,0 +1,134 @@
+package org.urbanbyte.cueserver.cli;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+import org.urbanbyte.cueserver.http.HttpTransport;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link ScriptRunner} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class ScriptRunnerTest
+{
+    /** Mocked transport of the client. */
+    private HttpTransport transport;
+
+    /** The client the commands are sent with. */
+    private HttpCueServerClient client;
+
+    /** Receives the report. */
+    private final ByteArrayOutputStream report = new ByteArrayOutputStream();
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        transport = mock(HttpTransport.class);
+        when(transport.submitHttpGetRequest(anyString()))
+                .thenReturn(new Integer[0]);
+        client = new HttpCueServerClient("cs", 80, transport);
+    }
+
+    /**
+     * Commands are sent in batches and reported with the batch time.
+     *
+     * @throws IOException if the script could not be read.
+     */
+    @Test
+    public void batchedCommands() throws IOException
+    {
+        int errors = run(2, "# a comment\nplay 1\n\nclear 2\nset 5 255\n");
+
+        assertThat(errors, is(0));
+        verify(transport, times(2)).submitHttpGetRequest(anyString());
+        String output = report.toString();
+        assertThat(output, containsString("play 1"));
+        assertThat(output, containsString("ms batch"));
+        assertThat(output, containsString(
+                "3 commands in 2 requests, 0 failed, 0 errors"));
+    }
+
+    /**
+     * Lines that cannot be parsed are reported and counted.
+     *
+     * @throws IOException if the script could not be read.
+     */
+    @Test
+    public void invalidLine() throws IOException
+    {
+        int errors = run(1, "play\njump 3\nplay 2\n");
+
+        assertThat(errors, is(2));
+        String output = report.toString();
+        assertThat(output, containsString("line 1: play"));
+        assertThat(output, containsString("line 2: jump 3"));
+        assertThat(output, containsString(
+                "1 commands in 1 requests, 0 failed, 2 errors"));
+    }
+
+    /**
+     * Commands whose request failed are marked and counted.
+     *
+     * @throws IOException if the script could not be read.
+     */
+    @Test
+    public void failedRequest() throws IOException
+    {
+        when(transport.submitHttpGetRequest(contains("CL")))
+                .thenReturn(null);
+
+        int errors = run(1, "play 1\nclear 1\nlevels 1 0,0,7\n");
+
+        assertThat(errors, is(1));
+        String output = report.toString();
+        for(String line : output.split("\n"))
+        {
+            assertThat(line.endsWith("FAILED"), is(line.startsWith("clear")));
+        }
+        assertThat(output, containsString(
+                "3 commands in 3 requests, 1 failed, 0 errors"));
+    }
+
+    /**
+     * A batch size that is not positive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBatchSize()
+    {
+        new ScriptRunner(client, 0, new PrintStream(report));
+    }
+
+    /**
+     * Runs a script.
+     *
+     * @param batchSize the maximum number of commands in each request.
+     * @param script the lines of the script.
+     * @return the number of lines that could not be parsed or sent.
+     * @throws IOException if the script could not be read.
+     */
+    private int run(int batchSize, String script) throws IOException
+    {
+        return new ScriptRunner(client, batchSize, new PrintStream(report))
+                .run(new BufferedReader(new StringReader(script)));
+    }
+}
@@ -1,5 +1,6 @@
 package org.urbanbyte.cueserver;
 
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
 import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
 import org.urbanbyte.cueserver.data.playback.Playback;
 import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
@@ -10,6 +11,11 @@ import org.urbanbyte.cueserver.data.system.SystemInfo;
  * have the ability to retrieve state related information, and send commands to
  * a CueServer.
  * <p>
+ * Clients can drive several DMX universes. Commands number the channels of
+ * all universes consecutively, so with two universes channels 1 to 512 are in
+ * universe 1 and channels 513 to 1024 in universe 2. The overloads that take
+ * a universe do this conversion.
+ * <p>
  * author: Chris Reising
  */
 public interface CueServerClient
@@ -50,6 +56,39 @@ public interface CueServerClient
      */
     Integer[] getOutputLevels();
 
+    /**
+     * Gets the current output levels of a universe.
+     *
+     * @param universe the universe to read. Must be within
+     *                 [1, {@link #getUniverseCount()}].
+     * @return The current output levels between [0, 255]. The array will always
+     *         contain a full DMX universe. This method will return
+     *         {@code null} if there was an error communicating with the
+     *         CueServer.
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    Integer[] getOutputLevels(int universe);
+
+    /**
+     * Gets the number of DMX universes the client drives.
+     *
+     * @return a positive number.
+     */
+    int getUniverseCount();
+
+    /**
+     * Gets the system information, the playback status, the detailed status
+     * of every playback and the output levels in one call. The parts are read
+     * together, so they describe the CueServer at nearly the same moment,
+     * unlike separate calls to the other getters. The output levels are
+     * those of universe 1 only; read other universes with
+     * {@link #getOutputLevels(int)}.
+     *
+     * @return Never {@code null}. Parts that could not be read are
+     *         {@code null} within the snapshot.
+     */
+    DeviceSnapshot getSnapshot();
+
     /**
      * Executes the given cue number on {@link Playback#PLAYBACK_1}.
      *
@@ -84,7 +123,8 @@ public interface CueServerClient
      * Sets the given channel to a level on {@link Playback#PLAYBACK_1} using a
      * time of 0.
      *
-     * @param channel The channel to set. Must be within [1, 512].
+     * @param channel The channel to set. Must be within
+     *                [1, 512 * {@link #getUniverseCount()}].
      * @param value The value of the channel level. Must be within [0, 255].
      * @throws IllegalArgumentException if any argument is out of bounds.
      */
@@ -94,7 +134,8 @@ public interface CueServerClient
      * Sets the given channel to a level on {@link Playback#PLAYBACK_1} using
      * the provided time.
      *
-     * @param channel The channel to set. Must be within [1, 512].
+     * @param channel The channel to set. Must be within
+     *                [1, 512 * {@link #getUniverseCount()}].
      * @param value The value of the channel level. Must be within [0, 255].
      * @param timeSeconds The time in seconds for the channel to complete its
      *                    transition. Must be within [0, 65000]. The precision
@@ -107,7 +148,8 @@ public interface CueServerClient
      * Sets the given channel to a level on the provided playback and using the
      * provided time.
      *
-     * @param channel The channel to set. Must be within [1, 512].
+     * @param channel The channel to set. Must be within
+     *                [1, 512 * {@link #getUniverseCount()}].
      * @param value The value of the channel level. Must be within [0, 255].
      * @param timeSeconds The time in seconds for the channel to complete its
      *                    transition. Must be within [0, 65000]. The precision
@@ -123,8 +165,10 @@ public interface CueServerClient
      * Sets the range of channels to a level on {@link Playback#PLAYBACK_1}
      * using a time of 0.
      *
-     * @param startChannel The beginning of the range. Must be within [1, 512].
-     * @param endChannel The end of the range. Must be within [1, 512].
+     * @param startChannel The beginning of the range. Must be within
+     *                     [1, 512 * {@link #getUniverseCount()}].
+     * @param endChannel The end of the range. Must be within
+     *                   [1, 512 * {@link #getUniverseCount()}].
      * @param value The value of the channel level. Must be within [0, 255].
      * @throws IllegalArgumentException if the end if greater than the start
      *                                  range, or if any value is outside of its
@@ -136,8 +180,10 @@ public interface CueServerClient
      * Sets the range of channels to a level on {@link Playback#PLAYBACK_1}
      * using the provided time.
      *
-     * @param startChannel The beginning of the range. Must be within [1, 512].
-     * @param endChannel The end of the range. Must be within [1, 512].
+     * @param startChannel The beginning of the range. Must be within
+     *                     [1, 512 * {@link #getUniverseCount()}].
+     * @param endChannel The end of the range. Must be within
+     *                   [1, 512 * {@link #getUniverseCount()}].
      * @param value The value of the channel level. Must be within [0, 255].
      * @param timeSeconds The time in seconds for the channel to complete its
      *                    transition. Must be within [0, 65000].
@@ -152,8 +198,10 @@ public interface CueServerClient
      * Sets the range of channels to a level on {@link Playback#PLAYBACK_1}
      * using the provided time.
      *
-     * @param startChannel The beginning of the range. Must be within [1, 512].
-     * @param endChannel The end of the range. Must be within [1, 512].
+     * @param startChannel The beginning of the range. Must be within
+     *                     [1, 512 * {@link #getUniverseCount()}].
+     * @param endChannel The end of the range. Must be within
+     *                   [1, 512 * {@link #getUniverseCount()}].
      * @param value The value of the channel level. Must be within [0, 255].
      * @param timeSeconds The time in seconds for the channel to complete its
      *                    transition. Must be within [0, 65000]. The precision
@@ -167,6 +215,72 @@ public interface CueServerClient
     void setChannelRange(int startChannel, int endChannel, int value,
                          double timeSeconds, Playback playback);
 
+    /**
+     * Sets a channel of a universe to a level on the provided playback and
+     * using the provided time.
+     *
+     * @param universe the universe of the channel. Must be within
+     *                 [1, {@link #getUniverseCount()}].
+     * @param channel The channel within the universe. Must be within
+     *                [1, 512].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The time in seconds for the channel to complete its
+     *                    transition. Must be within [0, 65000]. The precision
+     *                    is up to a tenth of a second.
+     * @param playback the playback controlling the channel.
+     * @throws IllegalArgumentException if any argument is out of its bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    void setChannel(int universe, int channel, int value, double timeSeconds,
+                    Playback playback);
+
+    /**
+     * Sets a range of channels of a universe to a level on the provided
+     * playback and using the provided time.
+     *
+     * @param universe the universe of the channels. Must be within
+     *                 [1, {@link #getUniverseCount()}].
+     * @param startChannel The beginning of the range within the universe.
+     *                     Must be within [1, 512].
+     * @param endChannel The end of the range within the universe. Must be
+     *                   within [1, 512].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The time in seconds for the channel to complete its
+     *                    transition. Must be within [0, 65000]. The precision
+     *                    is up to a tenth of a second.
+     * @param playback the playback controlling the channels.
+     * @throws IllegalArgumentException if the end is greater than the start
+     *                                  range, or if any value is outside of its
+     *                                  bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    void setChannelRange(int universe, int startChannel, int endChannel,
+                         int value, double timeSeconds, Playback playback);
+
+    /**
+     * Sets consecutive channels to the given levels on the provided playback
+     * and using the provided time, for example to apply a captured look.
+     * Runs of equal levels are sent as a single range command and the
+     * commands are sent together in as few requests as possible.
+     *
+     * @param startChannel the channel of the first level. Must be within
+     *                     [1, 512 * {@link #getUniverseCount()}].
+     * @param levels the levels, unsigned, of {@code startChannel} and the
+     *               channels that follow it. The last channel must be valid.
+     * @param timeSeconds The time in seconds for the channels to complete
+     *                    their transition. Must be within [0, 65000]. The
+     *                    precision is up to a tenth of a second.
+     * @param playback the playback controlling the channels.
+     * @return the number of requests sent to the CueServer and how many of
+     *         them failed. Never {@code null}.
+     * @throws IllegalArgumentException if any channel or the time is out of
+     *                                  its bounds.
+     * @throws NullPointerException if {@code levels} or {@code playback} is
+     *                              {@code null}.
+     */
+    SubmitResult setLevels(int startChannel, byte[] levels,
+                           double timeSeconds, Playback playback);
+
     /**
      * Records a cue.
      *
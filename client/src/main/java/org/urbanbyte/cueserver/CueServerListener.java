@@ -0,0 +1,64 @@
+package org.urbanbyte.cueserver;
+
+import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+/**
+ * Receives the commands a client sends to a CueServer and the state it reads
+ * back. Listeners are called on the thread that made the request, after the
+ * request has completed, and must not block. Commands whose request failed
+ * are not reported.
+ * <p>
+ * author: Chris Reising
+ */
+public interface CueServerListener
+{
+    /**
+     * Called after a cue was played.
+     *
+     * @param cueNumber the cue number.
+     * @param playback the playback the cue was played on.
+     */
+    void cuePlayed(double cueNumber, Playback playback);
+
+    /**
+     * Called after a playback was cleared.
+     *
+     * @param playback the playback.
+     */
+    void playbackCleared(Playback playback);
+
+    /**
+     * Called after a single channel or a range of channels was set.
+     *
+     * @param startChannel the first channel, numbered across all universes.
+     * @param endChannel the last channel, numbered across all universes.
+     * @param value the level, within [0, 255].
+     * @param timeSeconds the transition time in seconds.
+     * @param playback the playback controlling the channels.
+     */
+    void channelsSet(int startChannel, int endChannel, int value,
+                     double timeSeconds, Playback playback);
+
+    /**
+     * Called after the playback status was read.
+     *
+     * @param status the status. Never {@code null}.
+     */
+    void playbackStatusRead(PlaybackStatus status);
+
+    /**
+     * Called after the detailed status of a playback was read.
+     *
+     * @param status the status. Never {@code null}.
+     */
+    void detailedPlaybackStatusRead(DetailedPlaybackStatus status);
+
+    /**
+     * Called after the output levels of universe 1 were read.
+     *
+     * @param levels the levels. Never {@code null}.
+     */
+    void outputLevelsRead(Integer[] levels);
+}
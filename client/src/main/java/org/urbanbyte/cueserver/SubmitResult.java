@@ -0,0 +1,75 @@
+package org.urbanbyte.cueserver;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The outcome of sending a group of commands in one or more requests. The
+ * commands of a failed request may or may not have been executed.
+ * <p>
+ * author: Chris Reising
+ */
+public final class SubmitResult
+{
+    /** The number of requests sent to the CueServer. */
+    private final int requestCount;
+
+    /** The number of those requests that failed. */
+    private final int failedCount;
+
+    /**
+     * Creates a new {@code SubmitResult}.
+     *
+     * @param requestCount the number of requests sent. Must not be negative.
+     * @param failedCount the number of those requests that failed. Must be
+     *                    within [0, {@code requestCount}].
+     * @throws IllegalArgumentException if a count is out of bounds.
+     */
+    public SubmitResult(int requestCount, int failedCount)
+    {
+        checkArgument(requestCount >= 0, "requestCount cannot be negative");
+        checkArgument(failedCount >= 0 && failedCount <= requestCount,
+                "failedCount must be within [0, requestCount]");
+        this.requestCount = requestCount;
+        this.failedCount = failedCount;
+    }
+
+    /**
+     * Gets the number of requests sent to the CueServer.
+     *
+     * @return the number of requests, including those that failed.
+     */
+    public int getRequestCount()
+    {
+        return requestCount;
+    }
+
+    /**
+     * Gets the number of requests that failed.
+     *
+     * @return the number of failed requests.
+     */
+    public int getFailedCount()
+    {
+        return failedCount;
+    }
+
+    /**
+     * Checks if every request succeeded.
+     *
+     * @return {@code true} if no request failed.
+     */
+    public boolean isSuccessful()
+    {
+        return failedCount == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "SubmitResult{requestCount=" + requestCount +
+                ", failedCount=" + failedCount + "}";
+    }
+}
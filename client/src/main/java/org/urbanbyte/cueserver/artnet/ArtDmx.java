@@ -0,0 +1,153 @@
+package org.urbanbyte.cueserver.artnet;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Reads and writes Art-Net ArtDmx packets, which carry the levels of one DMX
+ * universe. The packets are read from and written to reused buffers without
+ * creating any objects.
+ * <p>
+ * author: Chris Reising
+ */
+final class ArtDmx
+{
+    /** The UDP port of Art-Net. */
+    static final int PORT = 6454;
+
+    /** The ID at the start of every Art-Net packet. */
+    private static final byte[] ID =
+            {'A', 'r', 't', '-', 'N', 'e', 't', 0};
+
+    /** The opcode of an ArtDmx packet. */
+    private static final int OP_DMX = 0x5000;
+
+    /** The protocol version written, and the oldest that is read. */
+    private static final int PROTOCOL_VERSION = 14;
+
+    /** Offset of the sequence number within a packet. */
+    static final int SEQUENCE_OFFSET = 12;
+
+    /** The size of the header before the levels. */
+    static final int HEADER_SIZE = 18;
+
+    /** The number of channels of a universe. */
+    static final int CHANNEL_COUNT = 512;
+
+    /** The largest packet. */
+    static final int MAX_PACKET_SIZE = HEADER_SIZE + CHANNEL_COUNT;
+
+    /** The largest port address. */
+    static final int MAX_PORT_ADDRESS = 0x7FFF;
+
+    /**
+     * Not used.
+     */
+    private ArtDmx()
+    {
+    }
+
+    /**
+     * Gets the port address of a packet, which identifies its universe.
+     *
+     * @param packet the packet, from position 0 to its limit.
+     * @return the port address, or -1 if the packet is not an ArtDmx packet.
+     */
+    static int readPortAddress(ByteBuffer packet)
+    {
+        if(packet.limit() < HEADER_SIZE)
+        {
+            return -1;
+        }
+        for(int i = 0 ; i < ID.length ; i++)
+        {
+            if(packet.get(i) != ID[i])
+            {
+                return -1;
+            }
+        }
+        int opcode = (packet.get(8) & 0xFF) | (packet.get(9) & 0xFF) << 8;
+        int version = (packet.get(10) & 0xFF) << 8 | (packet.get(11) & 0xFF);
+        if(opcode != OP_DMX || version < PROTOCOL_VERSION)
+        {
+            return -1;
+        }
+        return (packet.get(15) & 0x7F) << 8 | (packet.get(14) & 0xFF);
+    }
+
+    /**
+     * Copies the levels of an ArtDmx packet. Channels beyond the length of
+     * the packet are not changed.
+     *
+     * @param packet the packet, from position 0 to its limit.
+     * @param dest receives the levels, channel 1 first.
+     * @return the number of levels copied.
+     */
+    static int readLevels(ByteBuffer packet, byte[] dest)
+    {
+        int length = (packet.get(16) & 0xFF) << 8 | (packet.get(17) & 0xFF);
+        length = Math.min(length, packet.limit() - HEADER_SIZE);
+        length = Math.min(length, Math.min(dest.length, CHANNEL_COUNT));
+        for(int i = 0 ; i < length ; i++)
+        {
+            dest[i] = packet.get(HEADER_SIZE + i);
+        }
+        return length;
+    }
+
+    /**
+     * Writes the header of an ArtDmx packet with a full universe, so that
+     * only the sequence number and the levels need to be written for each
+     * packet.
+     *
+     * @param dest receives the header at index 0. Its position and limit
+     *             are not changed. Must hold at least
+     *             {@link #MAX_PACKET_SIZE} bytes.
+     * @param portAddress the port address of the universe.
+     * @throws IllegalArgumentException if the port address is not valid.
+     */
+    static void writeHeader(ByteBuffer dest, int portAddress)
+    {
+        checkArgument(portAddress >= 0 && portAddress <= MAX_PORT_ADDRESS,
+                "invalid port address");
+        for(int i = 0 ; i < ID.length ; i++)
+        {
+            dest.put(i, ID[i]);
+        }
+        dest.put(8, (byte) OP_DMX).put(9, (byte) (OP_DMX >> 8));
+        dest.put(10, (byte) 0).put(11, (byte) PROTOCOL_VERSION);
+        dest.put(SEQUENCE_OFFSET, (byte) 0).put(13, (byte) 0);
+        dest.put(14, (byte) portAddress).put(15, (byte) (portAddress >> 8));
+        dest.put(16, (byte) (CHANNEL_COUNT >> 8));
+        dest.put(17, (byte) CHANNEL_COUNT);
+    }
+
+    /**
+     * Writes an ArtDmx packet with a full universe.
+     *
+     * @param dest receives the packet. It is cleared first and flipped once
+     *             the packet is written. Must hold at least
+     *             {@link #MAX_PACKET_SIZE} bytes.
+     * @param portAddress the port address of the universe.
+     * @param sequence the sequence number, within [0, 255]; 0 disables
+     *                 reordering by receivers.
+     * @param levels the 512 levels, channel 1 first.
+     * @throws IllegalArgumentException if the port address is not valid or
+     *                                  there are not 512 levels.
+     */
+    static void write(ByteBuffer dest,
+                      int portAddress,
+                      int sequence,
+                      byte[] levels)
+    {
+        checkArgument(levels.length == CHANNEL_COUNT,
+                "a universe has 512 levels");
+        writeHeader(dest, portAddress);
+        dest.put(SEQUENCE_OFFSET, (byte) sequence);
+        dest.clear();
+        dest.position(HEADER_SIZE);
+        dest.put(levels);
+        dest.flip();
+    }
+}
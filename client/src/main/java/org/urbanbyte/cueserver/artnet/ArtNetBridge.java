@@ -0,0 +1,436 @@
+package org.urbanbyte.cueserver.artnet;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.data.output.DmxBuffer;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Drives a CueServer from a lighting console that outputs Art-Net. ArtDmx
+ * packets are received on a UDP channel into a reused direct buffer, and only
+ * the latest frame of each universe is kept. At most a few times per second
+ * the bridge compares each universe with the levels it last sent and sends
+ * just the changed channels, with runs of equal levels combined into range
+ * commands, in one {@link CommandBatch}.
+ * <p>
+ * A console sends each universe about 44 times per second whether or not
+ * anything changed. Coalescing the frames and sending only the differences
+ * keeps the load on the CueServer to a handful of requests per second. The
+ * first frame of a universe is sent in full, since the levels on the device
+ * are not known. The levels are only taken as sent once every request of
+ * the batch succeeded; after a failed request the universes of the batch are
+ * sent in full again, since it is not known which of their levels arrived.
+ * <p>
+ * author: Chris Reising
+ */
+public class ArtNetBridge
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(ArtNetBridge.class);
+
+    /** The default number of batches sent per second. */
+    public static final double DEFAULT_MAX_SEND_RATE = 10;
+
+    /** The port Art-Net is received on by default. */
+    public static final int ART_NET_PORT = ArtDmx.PORT;
+
+    /** The client of the CueServer. */
+    private final HttpCueServerClient client;
+
+    /** The playback the channels are set on. */
+    private final Playback playback;
+
+    /** The universes that are forwarded, by Art-Net port address. */
+    private final ConcurrentMap<Integer, Universe> universes =
+            new ConcurrentHashMap<Integer, Universe>();
+
+    /** The number of ArtDmx packets received for a mapped universe. */
+    private final AtomicLong packetCount = new AtomicLong();
+
+    /** The number of requests sent to the CueServer. */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** The most batches sent per second. */
+    private volatile double maxSendRate = DEFAULT_MAX_SEND_RATE;
+
+    /** Receives the packets; {@code null} unless started. */
+    private DatagramChannel channel;
+
+    /** Runs the receiving and sending threads; {@code null} unless started. */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a new {@code ArtNetBridge}. No universe is forwarded until it
+     * is mapped.
+     *
+     * @param client the client of the CueServer.
+     * @param playback the playback the channels are set on.
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    public ArtNetBridge(HttpCueServerClient client, Playback playback)
+    {
+        this.client = checkNotNull(client, "client cannot be null");
+        this.playback = checkNotNull(playback, "playback cannot be null");
+    }
+
+    /**
+     * Forwards an Art-Net universe to a universe of the CueServer.
+     *
+     * @param portAddress the Art-Net port address (net, sub-net and
+     *                    universe). Must be within [0, 32767].
+     * @param universe the universe of the CueServer. Must be within
+     *                 [1, universe count of the client].
+     * @throws IllegalArgumentException if either argument is out of bounds.
+     */
+    public void mapUniverse(int portAddress, int universe)
+    {
+        checkArgument(portAddress >= 0 &&
+                portAddress <= ArtDmx.MAX_PORT_ADDRESS,
+                "invalid port address: %s", portAddress);
+        checkArgument(universe >= 1 && universe <= client.getUniverseCount(),
+                "invalid universe: %s", universe);
+        universes.put(portAddress, new Universe(universe));
+    }
+
+    /**
+     * Sets how often changes are sent to the CueServer. A batch is never
+     * sent while the previous one is still being sent, so a slow device is
+     * sent fewer batches.
+     *
+     * @param sendsPerSecond the most batches per second. Must be positive.
+     *                       Takes effect the next time the bridge starts.
+     * @throws IllegalArgumentException if the rate is not positive.
+     */
+    public void setMaxSendRate(double sendsPerSecond)
+    {
+        checkArgument(sendsPerSecond > 0, "sendsPerSecond must be positive");
+        maxSendRate = sendsPerSecond;
+    }
+
+    /**
+     * Starts receiving Art-Net and sending the changes.
+     *
+     * @param address the address to receive on, such as port
+     *                {@link #ART_NET_PORT} of all interfaces.
+     * @throws IOException if the address could not be bound.
+     * @throws NullPointerException if {@code address} is {@code null}.
+     * @throws IllegalStateException if the bridge is already started.
+     */
+    public synchronized void start(InetSocketAddress address)
+            throws IOException
+    {
+        checkNotNull(address, "address cannot be null");
+        checkState(channel == null, "bridge already started");
+        channel = DatagramChannel.open();
+        try
+        {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(address);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            channel = null;
+            throw e;
+        }
+
+        executor = Executors.newScheduledThreadPool(2,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cueserver-artnet-%d")
+                        .build());
+        final DatagramChannel receiving = channel;
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                receiveLoop(receiving);
+            }
+        });
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / maxSendRate);
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch (RuntimeException e)
+                {
+                    // an exception would cancel the scheduled sends
+                    LOGGER.error("Error sending Art-Net levels.", e);
+                }
+            }
+        }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops receiving Art-Net. Changes that were not sent yet are dropped.
+     */
+    public synchronized void stop()
+    {
+        if(channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                LOGGER.debug("Error closing the Art-Net channel", e);
+            }
+            executor.shutdownNow();
+            channel = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Gets the port the bridge receives on.
+     *
+     * @return the port, or -1 if the bridge is not started.
+     */
+    public synchronized int getLocalPort()
+    {
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of ArtDmx packets received for mapped universes.
+     *
+     * @return the number of packets.
+     */
+    public long getPacketCount()
+    {
+        return packetCount.get();
+    }
+
+    /**
+     * Gets the number of requests sent to the CueServer.
+     *
+     * @return the number of requests.
+     */
+    public long getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    /**
+     * Keeps the levels of a received packet if it is an ArtDmx packet of a
+     * mapped universe.
+     *
+     * @param packet the packet, from position 0 to its limit.
+     * @return {@code true} if the packet was kept.
+     */
+    boolean receive(ByteBuffer packet)
+    {
+        int portAddress = ArtDmx.readPortAddress(packet);
+        Universe universe = portAddress < 0 ? null :
+                universes.get(portAddress);
+        if(universe == null)
+        {
+            return false;
+        }
+        synchronized(universe)
+        {
+            ArtDmx.readLevels(packet, universe.latest);
+            universe.dirty = true;
+        }
+        packetCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Sends the channels that changed since the last send, in one batch.
+     *
+     * @return the number of requests sent.
+     */
+    int flush()
+    {
+        CommandBatch batch = client.newBatch();
+        List<Universe> changed = new ArrayList<Universe>();
+        for(Universe universe : universes.values())
+        {
+            synchronized(universe)
+            {
+                if(!universe.dirty)
+                {
+                    continue;
+                }
+                System.arraycopy(universe.latest, 0, universe.frame, 0,
+                        ArtDmx.CHANNEL_COUNT);
+                universe.dirty = false;
+            }
+            if(addChanges(batch, universe))
+            {
+                changed.add(universe);
+            }
+        }
+        if(changed.isEmpty())
+        {
+            return 0;
+        }
+        int requests = batch.submit();
+        requestCount.addAndGet(requests);
+
+        boolean failed = batch.getFailedCount() > 0;
+        for(Universe universe : changed)
+        {
+            if(failed)
+            {
+                universe.initialized = false;
+                synchronized(universe)
+                {
+                    universe.dirty = true;
+                }
+            }
+            else
+            {
+                System.arraycopy(universe.frame, 0, universe.sent, 0,
+                        ArtDmx.CHANNEL_COUNT);
+                universe.initialized = true;
+            }
+        }
+        if(failed)
+        {
+            LOGGER.warn("{} of {} Art-Net requests failed; resending the " +
+                    "universes in full.", batch.getFailedCount(), requests);
+        }
+        return requests;
+    }
+
+    /**
+     * Adds the commands for the channels of a universe whose level differs
+     * from the level last sent. The levels are not taken as sent until the
+     * batch succeeded.
+     *
+     * @param batch the batch to add the commands to.
+     * @param universe the universe, with its latest frame copied.
+     * @return {@code true} if any command was added.
+     */
+    private boolean addChanges(CommandBatch batch, Universe universe)
+    {
+        boolean changed = false;
+        byte[] frame = universe.frame;
+        byte[] sent = universe.sent;
+        int firstChannel = (universe.number - 1) *
+                DmxBuffer.CHANNELS_PER_UNIVERSE + 1;
+        if(!universe.initialized)
+        {
+            batch.setLevels(firstChannel, frame, 0, playback);
+            changed = true;
+        }
+        else
+        {
+            int index = 0;
+            while(index < ArtDmx.CHANNEL_COUNT)
+            {
+                if(frame[index] == sent[index])
+                {
+                    index++;
+                    continue;
+                }
+                int end = index + 1;
+                while(end < ArtDmx.CHANNEL_COUNT && frame[end] != sent[end])
+                {
+                    end++;
+                }
+                batch.setLevels(firstChannel + index,
+                        Arrays.copyOfRange(frame, index, end), 0, playback);
+                changed = true;
+                index = end;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Receives packets until the channel is closed.
+     *
+     * @param receiving the channel.
+     */
+    private void receiveLoop(DatagramChannel receiving)
+    {
+        ByteBuffer packet = ByteBuffer.allocateDirect(ArtDmx.MAX_PACKET_SIZE);
+        while(receiving.isOpen())
+        {
+            try
+            {
+                packet.clear();
+                receiving.receive(packet);
+                packet.flip();
+                receive(packet);
+            }
+            catch (ClosedChannelException e)
+            {
+                break;
+            }
+            catch (IOException e)
+            {
+                LOGGER.warn("Error receiving Art-Net.", e);
+            }
+        }
+    }
+
+    /**
+     * The state of a forwarded universe.
+     */
+    private static class Universe
+    {
+        /** The universe of the CueServer. */
+        private final int number;
+
+        /** The latest levels received, guarded by the universe. */
+        private final byte[] latest = new byte[ArtDmx.CHANNEL_COUNT];
+
+        /** The levels being sent, only used by the sending thread. */
+        private final byte[] frame = new byte[ArtDmx.CHANNEL_COUNT];
+
+        /** The levels last sent, only used by the sending thread. */
+        private final byte[] sent = new byte[ArtDmx.CHANNEL_COUNT];
+
+        /** {@code true} if levels were received since the last send, or the
+         * last send failed; guarded by the universe. */
+        private boolean dirty;
+
+        /** {@code true} once the universe was sent in full, only used by the
+         * sending thread. */
+        private boolean initialized;
+
+        /**
+         * Creates a new {@code Universe}.
+         *
+         * @param number the universe of the CueServer.
+         */
+        private Universe(int number)
+        {
+            this.number = number;
+        }
+    }
+}
@@ -0,0 +1,374 @@
+package org.urbanbyte.cueserver.artnet;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Mirrors the DMX output of a CueServer as Art-Net or sACN, so that
+ * visualizers and recorders that speak those protocols can follow it. The
+ * output of each mapped universe is polled with
+ * {@link HttpCueServerClient#getOutputLevels(int)} and sent whenever it
+ * changed, and at least once per keep-alive interval so that receivers do
+ * not consider the source lost.
+ * <p>
+ * Each universe has its own direct buffer holding a complete packet. The
+ * header is written once when the universe is mapped; a poll only copies the
+ * levels into the buffer, which also serves to detect changes, and updates
+ * the sequence number.
+ * <p>
+ * author: Chris Reising
+ */
+public class DmxMirror
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(DmxMirror.class);
+
+    /** The default time between polls. */
+    public static final long DEFAULT_POLL_PERIOD_MILLIS = 100;
+
+    /** The default longest time between two packets of a universe. */
+    public static final long DEFAULT_KEEP_ALIVE_MILLIS = 1000;
+
+    /** The name sACN receivers show for the source. */
+    private static final String SOURCE_NAME = "CueServer Client";
+
+    /** The client of the CueServer. */
+    private final HttpCueServerClient client;
+
+    /** The protocol the output is sent with. */
+    private final OutputProtocol protocol;
+
+    /** Where the packets are sent, or {@code null} to multicast sACN. */
+    private final InetSocketAddress destination;
+
+    /** Identifies this source to sACN receivers. */
+    private final UUID cid = UUID.randomUUID();
+
+    /** The mirrored universes. */
+    private final List<Output> outputs = new CopyOnWriteArrayList<Output>();
+
+    /** The number of packets sent. */
+    private final AtomicLong packetCount = new AtomicLong();
+
+    /** The time between polls. */
+    private volatile long pollPeriodMillis = DEFAULT_POLL_PERIOD_MILLIS;
+
+    /** The longest time between two packets of a universe. */
+    private volatile long keepAliveNanos =
+            TimeUnit.MILLISECONDS.toNanos(DEFAULT_KEEP_ALIVE_MILLIS);
+
+    /** Sends the packets; {@code null} unless started. */
+    private DatagramChannel channel;
+
+    /** Runs the polls; {@code null} unless started. */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a new {@code DmxMirror}. No universe is mirrored until it is
+     * mapped.
+     *
+     * @param client the client of the CueServer.
+     * @param protocol the protocol the output is sent with.
+     * @param destination where the packets are sent, such as a receiver or
+     *                    a broadcast address on the protocol's
+     *                    {@link OutputProtocol#getDefaultPort() port}. May be
+     *                    {@code null} for sACN, to send each universe to its
+     *                    multicast group.
+     * @throws NullPointerException if {@code client} or {@code protocol} is
+     *                              {@code null}, or {@code destination} is
+     *                              {@code null} for Art-Net.
+     */
+    public DmxMirror(HttpCueServerClient client,
+                     OutputProtocol protocol,
+                     InetSocketAddress destination)
+    {
+        this.client = checkNotNull(client, "client cannot be null");
+        this.protocol = checkNotNull(protocol, "protocol cannot be null");
+        if(protocol == OutputProtocol.ART_NET)
+        {
+            checkNotNull(destination, "destination cannot be null");
+        }
+        this.destination = destination;
+    }
+
+    /**
+     * Mirrors a universe of the CueServer.
+     *
+     * @param universe the universe of the CueServer. Must be within
+     *                 [1, universe count of the client].
+     * @param outputUniverse the Art-Net port address, within [0, 32767], or
+     *                       the sACN universe, within [1, 63999].
+     * @throws IllegalArgumentException if either universe is out of bounds.
+     */
+    public void mapUniverse(int universe, int outputUniverse)
+    {
+        checkArgument(universe >= 1 && universe <= client.getUniverseCount(),
+                "invalid universe: %s", universe);
+        ByteBuffer packet;
+        InetSocketAddress target = destination;
+        if(protocol == OutputProtocol.ART_NET)
+        {
+            packet = ByteBuffer.allocateDirect(ArtDmx.MAX_PACKET_SIZE);
+            ArtDmx.writeHeader(packet, outputUniverse);
+        }
+        else
+        {
+            packet = ByteBuffer.allocateDirect(Sacn.PACKET_SIZE);
+            Sacn.writeHeader(packet, outputUniverse, cid, SOURCE_NAME);
+            if(target == null)
+            {
+                target = new InetSocketAddress(
+                        Sacn.multicastGroup(outputUniverse), Sacn.PORT);
+            }
+        }
+        outputs.add(new Output(universe, packet, target));
+    }
+
+    /**
+     * Sets the time between polls of the output.
+     *
+     * @param periodMillis the time between polls. Must be positive. Takes
+     *                     effect the next time the mirror starts.
+     * @throws IllegalArgumentException if the period is not positive.
+     */
+    public void setPollPeriod(long periodMillis)
+    {
+        checkArgument(periodMillis > 0, "periodMillis must be positive");
+        pollPeriodMillis = periodMillis;
+    }
+
+    /**
+     * Sets the longest time between two packets of a universe. A universe
+     * that did not change is sent again once this time has passed.
+     *
+     * @param keepAliveMillis the longest time. Must be positive.
+     * @throws IllegalArgumentException if the time is not positive.
+     */
+    public void setKeepAlive(long keepAliveMillis)
+    {
+        checkArgument(keepAliveMillis > 0, "keepAliveMillis must be positive");
+        keepAliveNanos = TimeUnit.MILLISECONDS.toNanos(keepAliveMillis);
+    }
+
+    /**
+     * Starts polling the output and sending it.
+     *
+     * @throws IOException if the channel could not be opened.
+     * @throws IllegalStateException if the mirror is already started.
+     */
+    public synchronized void start() throws IOException
+    {
+        checkState(channel == null, "mirror already started");
+        channel = DatagramChannel.open();
+        channel.socket().setBroadcast(true);
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cueserver-mirror-%d")
+                        .build());
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    poll();
+                }
+                catch (RuntimeException e)
+                {
+                    LOGGER.error("Error mirroring the output.", e);
+                }
+            }
+        }, pollPeriodMillis, pollPeriodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops polling and sending.
+     */
+    public synchronized void stop()
+    {
+        if(channel != null)
+        {
+            executor.shutdownNow();
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                LOGGER.debug("Error closing the mirror channel", e);
+            }
+            channel = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Gets the number of packets sent.
+     *
+     * @return the number of packets.
+     */
+    public long getPacketCount()
+    {
+        return packetCount.get();
+    }
+
+    /**
+     * Polls the output of every mapped universe and sends the universes that
+     * changed or are due for a keep-alive.
+     *
+     * @return the number of packets sent.
+     */
+    int poll()
+    {
+        DatagramChannel sending;
+        synchronized(this)
+        {
+            sending = channel;
+        }
+        if(sending == null)
+        {
+            return 0;
+        }
+
+        int sent = 0;
+        for(Output output : outputs)
+        {
+            Integer[] levels = client.getOutputLevels(output.universe);
+            boolean changed = levels != null && output.copy(levels);
+            long now = System.nanoTime();
+            if(!changed && (!output.initialized ||
+                    now - output.lastSentNanos < keepAliveNanos))
+            {
+                continue;
+            }
+            try
+            {
+                output.send(sending, now);
+                sent++;
+            }
+            catch (IOException e)
+            {
+                LOGGER.warn("Error sending universe " + output.universe +
+                        ".", e);
+            }
+        }
+        packetCount.addAndGet(sent);
+        return sent;
+    }
+
+    /**
+     * A mirrored universe and its packet.
+     */
+    private class Output
+    {
+        /** The universe of the CueServer. */
+        private final int universe;
+
+        /** The packet, whose levels are those last polled. */
+        private final ByteBuffer packet;
+
+        /** Where the packet is sent. */
+        private final InetSocketAddress target;
+
+        /** Offset of the levels within the packet. */
+        private final int dataOffset;
+
+        /** Offset of the sequence number within the packet. */
+        private final int sequenceOffset;
+
+        /** The sequence number of the last packet. */
+        private int sequence;
+
+        /** {@code true} once levels were polled. */
+        private boolean initialized;
+
+        /** When the last packet was sent. */
+        private long lastSentNanos;
+
+        /**
+         * Creates a new {@code Output}.
+         *
+         * @param universe the universe of the CueServer.
+         * @param packet the packet, with its header written.
+         * @param target where the packet is sent.
+         */
+        private Output(int universe,
+                       ByteBuffer packet,
+                       InetSocketAddress target)
+        {
+            this.universe = universe;
+            this.packet = packet;
+            this.target = target;
+            boolean artNet = protocol == OutputProtocol.ART_NET;
+            dataOffset = artNet ? ArtDmx.HEADER_SIZE : Sacn.DATA_OFFSET;
+            sequenceOffset = artNet ?
+                    ArtDmx.SEQUENCE_OFFSET : Sacn.SEQUENCE_OFFSET;
+        }
+
+        /**
+         * Copies polled levels into the packet.
+         *
+         * @param levels the levels; {@code null} levels are not changed.
+         * @return {@code true} if a level changed, or if these are the first
+         *         levels polled.
+         */
+        private boolean copy(Integer[] levels)
+        {
+            boolean changed = !initialized;
+            int count = Math.min(levels.length, ArtDmx.CHANNEL_COUNT);
+            for(int i = 0 ; i < count ; i++)
+            {
+                if(levels[i] != null)
+                {
+                    byte level = levels[i].byteValue();
+                    if(packet.get(dataOffset + i) != level)
+                    {
+                        packet.put(dataOffset + i, level);
+                        changed = true;
+                    }
+                }
+            }
+            initialized = true;
+            return changed;
+        }
+
+        /**
+         * Sends the packet with the next sequence number.
+         *
+         * @param sending the channel.
+         * @param now the current time.
+         * @throws IOException if the packet could not be sent.
+         */
+        private void send(DatagramChannel sending, long now)
+                throws IOException
+        {
+            // Art-Net reserves sequence 0 for receivers that do not reorder
+            sequence = sequence % 255 + 1;
+            packet.put(sequenceOffset, (byte) sequence);
+            packet.clear();
+            sending.send(packet, target);
+            lastSentNanos = now;
+        }
+    }
+}
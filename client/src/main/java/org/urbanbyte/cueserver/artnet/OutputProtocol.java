@@ -0,0 +1,37 @@
+package org.urbanbyte.cueserver.artnet;
+
+/**
+ * The protocols a {@link DmxMirror} can send the output of a CueServer with.
+ * <p>
+ * author: Chris Reising
+ */
+public enum OutputProtocol
+{
+    /** Art-Net ArtDmx packets, on UDP port 6454. */
+    ART_NET(ArtDmx.PORT),
+    /** sACN (ANSI E1.31) data packets, on UDP port 5568. */
+    SACN(Sacn.PORT);
+
+    /** The UDP port receivers listen on. */
+    private final int defaultPort;
+
+    /**
+     * Creates a new {@code OutputProtocol}.
+     *
+     * @param defaultPort the UDP port receivers listen on.
+     */
+    OutputProtocol(int defaultPort)
+    {
+        this.defaultPort = defaultPort;
+    }
+
+    /**
+     * Gets the UDP port receivers of the protocol listen on.
+     *
+     * @return the port.
+     */
+    public int getDefaultPort()
+    {
+        return defaultPort;
+    }
+}
@@ -0,0 +1,145 @@
+package org.urbanbyte.cueserver.artnet;
+
+import com.google.common.base.Charsets;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Writes sACN (ANSI E1.31) data packets, which carry the levels of one DMX
+ * universe. The header is written once into a reused buffer; each packet then
+ * only needs its sequence number and levels.
+ * <p>
+ * author: Chris Reising
+ */
+final class Sacn
+{
+    /** The UDP port of sACN. */
+    static final int PORT = 5568;
+
+    /** The size of a packet with a full universe. */
+    static final int PACKET_SIZE = 638;
+
+    /** Offset of the sequence number within a packet. */
+    static final int SEQUENCE_OFFSET = 111;
+
+    /** Offset of the universe within a packet. */
+    static final int UNIVERSE_OFFSET = 113;
+
+    /** Offset of the first level within a packet, after the start code. */
+    static final int DATA_OFFSET = 126;
+
+    /** The largest universe. */
+    static final int MAX_UNIVERSE = 63999;
+
+    /** The identifier of the ACN packets. */
+    private static final byte[] PACKET_IDENTIFIER =
+            {'A', 'S', 'C', '-', 'E', '1', '.', '1', '7', 0, 0, 0};
+
+    /** The vector of the root layer of a data packet. */
+    private static final int VECTOR_ROOT_DATA = 0x00000004;
+
+    /** The vector of the framing layer of a data packet. */
+    private static final int VECTOR_FRAMING_DATA = 0x00000002;
+
+    /** The vector of the DMP layer of a data packet. */
+    private static final int VECTOR_DMP_SET_PROPERTY = 0x02;
+
+    /** The priority of the packets. */
+    private static final int PRIORITY = 100;
+
+    /** The length of the source name field. */
+    private static final int SOURCE_NAME_SIZE = 64;
+
+    /** The flags written before each layer length. */
+    private static final int FLAGS = 0x7000;
+
+    /**
+     * Not used.
+     */
+    private Sacn()
+    {
+    }
+
+    /**
+     * Writes the header of a data packet with a full universe.
+     *
+     * @param dest receives the header at index 0. Its position and limit are
+     *             not changed. Must hold at least {@link #PACKET_SIZE}
+     *             bytes.
+     * @param universe the universe, within [1, 63999].
+     * @param cid identifies the source.
+     * @param sourceName the name of the source; truncated to 63 bytes.
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    static void writeHeader(ByteBuffer dest,
+                            int universe,
+                            UUID cid,
+                            String sourceName)
+    {
+        checkArgument(universe >= 1 && universe <= MAX_UNIVERSE,
+                "invalid universe");
+        // root layer
+        dest.putShort(0, (short) 0x0010);
+        dest.putShort(2, (short) 0);
+        for(int i = 0 ; i < PACKET_IDENTIFIER.length ; i++)
+        {
+            dest.put(4 + i, PACKET_IDENTIFIER[i]);
+        }
+        dest.putShort(16, (short) (FLAGS | (PACKET_SIZE - 16)));
+        dest.putInt(18, VECTOR_ROOT_DATA);
+        dest.putLong(22, cid.getMostSignificantBits());
+        dest.putLong(30, cid.getLeastSignificantBits());
+
+        // framing layer
+        dest.putShort(38, (short) (FLAGS | (PACKET_SIZE - 38)));
+        dest.putInt(40, VECTOR_FRAMING_DATA);
+        byte[] name = sourceName.getBytes(Charsets.UTF_8);
+        for(int i = 0 ; i < SOURCE_NAME_SIZE ; i++)
+        {
+            dest.put(44 + i, i < Math.min(name.length, SOURCE_NAME_SIZE - 1) ?
+                    name[i] : 0);
+        }
+        dest.put(108, (byte) PRIORITY);
+        dest.putShort(109, (short) 0);
+        dest.put(SEQUENCE_OFFSET, (byte) 0);
+        dest.put(112, (byte) 0);
+        dest.putShort(UNIVERSE_OFFSET, (short) universe);
+
+        // DMP layer
+        dest.putShort(115, (short) (FLAGS | (PACKET_SIZE - 115)));
+        dest.put(117, (byte) VECTOR_DMP_SET_PROPERTY);
+        dest.put(118, (byte) 0xA1);
+        dest.putShort(119, (short) 0);
+        dest.putShort(121, (short) 1);
+        dest.putShort(123, (short) (ArtDmx.CHANNEL_COUNT + 1));
+        dest.put(DATA_OFFSET - 1, (byte) 0);
+    }
+
+    /**
+     * Gets the multicast group receivers of a universe listen on.
+     *
+     * @param universe the universe, within [1, 63999].
+     * @return the group, {@code 239.255.<high byte>.<low byte>}.
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    static InetAddress multicastGroup(int universe)
+    {
+        checkArgument(universe >= 1 && universe <= MAX_UNIVERSE,
+                "invalid universe");
+        try
+        {
+            return InetAddress.getByAddress(new byte[]{(byte) 239,
+                    (byte) 255, (byte) (universe >> 8), (byte) universe});
+        }
+        catch (UnknownHostException e)
+        {
+            // not thrown for an address of the right length
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package org.urbanbyte.cueserver.data;
+
+import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+import org.urbanbyte.cueserver.data.system.SystemInfo;
+
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * The complete state of a CueServer read in one call: the system information,
+ * the playback status, the detailed status of every playback and the output
+ * levels. Each part carries the time it was captured, so callers can tell how
+ * far apart the parts were read.
+ * <p>
+ * A part that could not be read is {@code null} and has a capture time of 0.
+ * Snapshots are immutable.
+ * <p>
+ * author: Chris Reising
+ */
+public class DeviceSnapshot
+{
+    /** The number of playbacks a snapshot contains. */
+    private static final int PLAYBACK_COUNT = Playback.values().length;
+
+    /** The system information. */
+    private final SystemInfo systemInfo;
+
+    /** When the system information was captured. */
+    private final long systemInfoTime;
+
+    /** The playback status. */
+    private final PlaybackStatus playbackStatus;
+
+    /** When the playback status was captured. */
+    private final long playbackStatusTime;
+
+    /** The detailed status of each playback, indexed by ordinal. */
+    private final DetailedPlaybackStatus[] detailedStatuses;
+
+    /** When each detailed status was captured, indexed by ordinal. */
+    private final long[] detailedStatusTimes;
+
+    /** The output levels. */
+    private final Integer[] outputLevels;
+
+    /** When the output levels were captured. */
+    private final long outputLevelsTime;
+
+    /**
+     * Creates a new {@code DeviceSnapshot} from the builder.
+     *
+     * @param builder the builder.
+     */
+    private DeviceSnapshot(Builder builder)
+    {
+        systemInfo = builder.systemInfo;
+        systemInfoTime = builder.systemInfoTime;
+        playbackStatus = builder.playbackStatus;
+        playbackStatusTime = builder.playbackStatusTime;
+        detailedStatuses = builder.detailedStatuses.clone();
+        detailedStatusTimes = builder.detailedStatusTimes.clone();
+        outputLevels = builder.outputLevels == null ?
+                null : builder.outputLevels.clone();
+        outputLevelsTime = builder.outputLevelsTime;
+    }
+
+    /**
+     * Gets the system information.
+     *
+     * @return {@code null} if it could not be read.
+     */
+    public SystemInfo getSystemInfo()
+    {
+        return systemInfo;
+    }
+
+    /**
+     * Gets when the system information was captured.
+     *
+     * @return the time in milliseconds since the epoch, or 0 if it could not
+     *         be read.
+     */
+    public long getSystemInfoTime()
+    {
+        return systemInfoTime;
+    }
+
+    /**
+     * Gets the playback status.
+     *
+     * @return {@code null} if it could not be read.
+     */
+    public PlaybackStatus getPlaybackStatus()
+    {
+        return playbackStatus;
+    }
+
+    /**
+     * Gets when the playback status was captured.
+     *
+     * @return the time in milliseconds since the epoch, or 0 if it could not
+     *         be read.
+     */
+    public long getPlaybackStatusTime()
+    {
+        return playbackStatusTime;
+    }
+
+    /**
+     * Gets the detailed status of a playback.
+     *
+     * @param playback the playback.
+     * @return {@code null} if it could not be read.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    public DetailedPlaybackStatus getDetailedPlaybackStatus(Playback playback)
+    {
+        return detailedStatuses[playback.ordinal()];
+    }
+
+    /**
+     * Gets when the detailed status of a playback was captured.
+     *
+     * @param playback the playback.
+     * @return the time in milliseconds since the epoch, or 0 if it could not
+     *         be read.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    public long getDetailedPlaybackStatusTime(Playback playback)
+    {
+        return detailedStatusTimes[playback.ordinal()];
+    }
+
+    /**
+     * Gets the output levels.
+     *
+     * @return a copy of the levels, or {@code null} if they could not be read.
+     */
+    public Integer[] getOutputLevels()
+    {
+        return outputLevels == null ? null : outputLevels.clone();
+    }
+
+    /**
+     * Gets when the output levels were captured.
+     *
+     * @return the time in milliseconds since the epoch, or 0 if they could not
+     *         be read.
+     */
+    public long getOutputLevelsTime()
+    {
+        return outputLevelsTime;
+    }
+
+    /**
+     * Checks whether every part of the snapshot was read.
+     *
+     * @return {@code true} if no part is {@code null}.
+     */
+    public boolean isComplete()
+    {
+        if(systemInfo == null || playbackStatus == null ||
+                outputLevels == null)
+        {
+            return false;
+        }
+        for(DetailedPlaybackStatus status : detailedStatuses)
+        {
+            if(status == null)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the time between the first and the last part that was captured.
+     * The smaller the spread, the closer the parts are to a single moment.
+     *
+     * @return the spread in milliseconds, or 0 if no part was read.
+     */
+    public long getCaptureSpreadMillis()
+    {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        long[] times = Arrays.copyOf(detailedStatusTimes, PLAYBACK_COUNT + 3);
+        times[PLAYBACK_COUNT] = systemInfoTime;
+        times[PLAYBACK_COUNT + 1] = playbackStatusTime;
+        times[PLAYBACK_COUNT + 2] = outputLevelsTime;
+        for(long time : times)
+        {
+            if(time > 0)
+            {
+                first = Math.min(first, time);
+                last = Math.max(last, time);
+            }
+        }
+        return first == Long.MAX_VALUE ? 0 : last - first;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString()
+    {
+        return "DeviceSnapshot{" +
+                "systemInfo=" + systemInfo +
+                ", playbackStatus=" + playbackStatus +
+                ", detailedStatuses=" + Arrays.toString(detailedStatuses) +
+                ", outputLevels=" + (outputLevels == null ?
+                        "null" : outputLevels.length + " channels") +
+                ", captureSpreadMillis=" + getCaptureSpreadMillis() +
+                '}';
+    }
+
+    /**
+     * Builder for the {@link DeviceSnapshot} object.
+     */
+    public static class Builder
+    {
+        /** The system information. */
+        private SystemInfo systemInfo;
+
+        /** When the system information was captured. */
+        private long systemInfoTime;
+
+        /** The playback status. */
+        private PlaybackStatus playbackStatus;
+
+        /** When the playback status was captured. */
+        private long playbackStatusTime;
+
+        /** The detailed status of each playback, indexed by ordinal. */
+        private final DetailedPlaybackStatus[] detailedStatuses =
+                new DetailedPlaybackStatus[PLAYBACK_COUNT];
+
+        /** When each detailed status was captured, indexed by ordinal. */
+        private final long[] detailedStatusTimes = new long[PLAYBACK_COUNT];
+
+        /** The output levels. */
+        private Integer[] outputLevels;
+
+        /** When the output levels were captured. */
+        private long outputLevelsTime;
+
+        /**
+         * Sets the system information.
+         *
+         * @param systemInfo the system information. Can be {@code null}.
+         * @param timeMillis when it was captured. Ignored if
+         *                   {@code systemInfo} is {@code null}.
+         * @return this builder.
+         */
+        public Builder setSystemInfo(SystemInfo systemInfo, long timeMillis)
+        {
+            this.systemInfo = systemInfo;
+            this.systemInfoTime = systemInfo == null ? 0 : timeMillis;
+            return this;
+        }
+
+        /**
+         * Sets the playback status.
+         *
+         * @param playbackStatus the playback status. Can be {@code null}.
+         * @param timeMillis when it was captured. Ignored if
+         *                   {@code playbackStatus} is {@code null}.
+         * @return this builder.
+         */
+        public Builder setPlaybackStatus(PlaybackStatus playbackStatus,
+                                         long timeMillis)
+        {
+            this.playbackStatus = playbackStatus;
+            this.playbackStatusTime = playbackStatus == null ? 0 : timeMillis;
+            return this;
+        }
+
+        /**
+         * Sets the detailed status of a playback.
+         *
+         * @param playback the playback.
+         * @param status the detailed status. Can be {@code null}.
+         * @param timeMillis when it was captured. Ignored if {@code status}
+         *                   is {@code null}.
+         * @return this builder.
+         * @throws NullPointerException if {@code playback} is {@code null}.
+         */
+        public Builder setDetailedPlaybackStatus(Playback playback,
+                                                 DetailedPlaybackStatus status,
+                                                 long timeMillis)
+        {
+            checkNotNull(playback, "playback cannot be null");
+            detailedStatuses[playback.ordinal()] = status;
+            detailedStatusTimes[playback.ordinal()] =
+                    status == null ? 0 : timeMillis;
+            return this;
+        }
+
+        /**
+         * Sets the output levels. The levels are copied when the snapshot is
+         * built.
+         *
+         * @param outputLevels the output levels. Can be {@code null}.
+         * @param timeMillis when they were captured. Ignored if
+         *                   {@code outputLevels} is {@code null}.
+         * @return this builder.
+         */
+        public Builder setOutputLevels(Integer[] outputLevels, long timeMillis)
+        {
+            this.outputLevels = outputLevels;
+            this.outputLevelsTime = outputLevels == null ? 0 : timeMillis;
+            return this;
+        }
+
+        /**
+         * Builds a new {@link DeviceSnapshot}.
+         *
+         * @return Never {@code null}.
+         */
+        public DeviceSnapshot build()
+        {
+            return new DeviceSnapshot(this);
+        }
+    }
+}
@@ -4,15 +4,24 @@ package org.urbanbyte.cueserver.data.cue;
 import static com.google.common.base.Preconditions.*;
 
 /**
- * Contains the name and number of a cue.
+ * Contains the name and number of a cue. The CueServer stores cue numbers in
+ * tenths, so two cues are equal if they have the same number of tenths. The
+ * name is not compared: a cue renamed on the device is still the same cue.
+ * Instances are immutable and may be shared.
  * <p>
  * author: Chris Reising
  */
 public class Cue
 {
+    /** The tenths reported by {@link #tenthsOf(Cue)} when there is no cue. */
+    public static final int NO_TENTHS = -1;
+
     /** The cue number. */
     private final double number;
 
+    /** The cue number in tenths (e.g., 10.1 is 101). */
+    private final int tenths;
+
     /** The name of the cue. */
     private final String name;
 
@@ -38,6 +47,7 @@ public class Cue
     {
         checkArgument(number > 0, "the cue number must be >= 0");
         this.number = number;
+        this.tenths = CueCodec.toTenths(number);
         this.name = name;
     }
 
@@ -51,6 +61,29 @@ public class Cue
         return number;
     }
 
+    /**
+     * Gets the cue number in tenths. Unlike {@link #getNumber()}, this value
+     * is exact and may be compared directly.
+     *
+     * @return the cue number multiplied by 10 and rounded to an integer.
+     */
+    public int getTenths()
+    {
+        return tenths;
+    }
+
+    /**
+     * Gets the tenths of a cue that may be missing.
+     *
+     * @param cue the cue. May be {@code null}.
+     * @return the tenths, or {@link #NO_TENTHS} if {@code cue} is
+     * {@code null}.
+     */
+    public static int tenthsOf(Cue cue)
+    {
+        return cue == null ? NO_TENTHS : cue.getTenths();
+    }
+
     /**
      * Gets the name of the cue.
      *
@@ -61,6 +94,28 @@ public class Cue
         return name;
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o)
+        {
+            return true;
+        }
+        if(o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+
+        Cue cue = (Cue) o;
+        return tenths == cue.tenths;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return tenths;
+    }
+
     @Override
     public String toString()
     {
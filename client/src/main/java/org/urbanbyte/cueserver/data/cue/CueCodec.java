@@ -0,0 +1,107 @@
+package org.urbanbyte.cueserver.data.cue;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Converts cue numbers between the CueServer's raw 16 bit tenths value, the
+ * {@link Cue} object and the decimal text used in commands.
+ * <p>
+ * Decoded cues without a name are interned by their raw value. Since a
+ * playback's cue rarely changes between status polls, decoding the same raw
+ * value again returns the same immutable {@link Cue} instance instead of
+ * allocating a new one. Named cues are not interned: the same raw value is
+ * named differently on different devices, and caching one name per value
+ * would only have the names evict each other.
+ * <p>
+ * author: Chris Reising
+ */
+public final class CueCodec
+{
+    /** Number of values a 16 bit cue number can have. */
+    private static final int RAW_VALUE_COUNT = 65536;
+
+    /** Raw value used by the CueServer when there is no cue. */
+    private static final int NO_CUE = 0;
+
+    /** Raw value used by the CueServer when the cue is not defined. */
+    private static final int UNDEFINED_CUE = 65535;
+
+    /** The unnamed cue of each raw value. */
+    private static final AtomicReferenceArray<Cue> CACHE =
+            new AtomicReferenceArray<Cue>(RAW_VALUE_COUNT);
+
+    /**
+     * Utility class, do not instantiate.
+     */
+    private CueCodec()
+    {
+    }
+
+    /**
+     * Decodes the raw 16 bit cue number from the CueServer.
+     *
+     * @param rawNumber the cue number in tenths.
+     * @param name the name of the cue, or {@code null} if it is not known.
+     * @return {@code null} if the raw number is 0 or 65535, otherwise a cue
+     *         with the given number and name.
+     */
+    public static Cue decode(int rawNumber, String name)
+    {
+        if(rawNumber <= NO_CUE || rawNumber >= UNDEFINED_CUE)
+        {
+            return null;
+        }
+
+        if(name != null)
+        {
+            return new Cue(rawNumber / 10d, name);
+        }
+        Cue cue = CACHE.get(rawNumber);
+        if(cue == null)
+        {
+            cue = new Cue(rawNumber / 10d, null);
+            CACHE.set(rawNumber, cue);
+        }
+        return cue;
+    }
+
+    /**
+     * Converts a decimal value into tenths. The CueServer only supports one
+     * decimal place; any remaining places are rounded away.
+     *
+     * @param value the value to convert.
+     * @return the value multiplied by 10 and rounded to an integer.
+     */
+    public static int toTenths(double value)
+    {
+        return (int) Math.round(value * 10);
+    }
+
+    /**
+     * Formats a value in tenths as a decimal number with one decimal place
+     * (e.g., 101 is formatted as "10.1"). Unlike {@code String.format}, the
+     * result does not depend on the default locale.
+     *
+     * @param tenths the value in tenths. Must not be negative.
+     * @return Never {@code null}.
+     */
+    public static String formatTenths(int tenths)
+    {
+        return new StringBuilder(8)
+                .append(tenths / 10)
+                .append('.')
+                .append(tenths % 10)
+                .toString();
+    }
+
+    /**
+     * Formats a decimal value with one decimal place.
+     *
+     * @param value the value to format. Must not be negative.
+     * @return Never {@code null}.
+     */
+    public static String format(double value)
+    {
+        return formatTenths(toTenths(value));
+    }
+}
@@ -0,0 +1,229 @@
+package org.urbanbyte.cueserver.data.output;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds the levels of one or more DMX universes in a single contiguous byte
+ * array. Universe {@code u} occupies the 512 bytes starting at
+ * {@code (u - 1) * 512}, so a channel is found with one multiplication and no
+ * per-universe objects or boxed values.
+ * <p>
+ * Each universe has a version that is incremented whenever one of its levels
+ * changes. Consumers remember the version they last saw and call
+ * {@link #hasChanged(int, long)} to skip universes that did not change, for
+ * example when redrawing or forwarding the output.
+ * <p>
+ * The buffer is thread safe.
+ * <p>
+ * author: Chris Reising
+ */
+public class DmxBuffer
+{
+    /** The number of channels in a universe. */
+    public static final int CHANNELS_PER_UNIVERSE = 512;
+
+    /** The number of universes in the buffer. */
+    private final int universeCount;
+
+    /** The levels of every universe, one after the other. */
+    private final byte[] levels;
+
+    /** The version of each universe, indexed by universe - 1. */
+    private final long[] versions;
+
+    /**
+     * Creates a new {@code DmxBuffer} with every level at 0.
+     *
+     * @param universeCount the number of universes. Must be positive.
+     * @throws IllegalArgumentException if {@code universeCount} is not
+     *                                  positive.
+     */
+    public DmxBuffer(int universeCount)
+    {
+        checkArgument(universeCount > 0, "universeCount must be positive");
+        this.universeCount = universeCount;
+        this.levels = new byte[universeCount * CHANNELS_PER_UNIVERSE];
+        this.versions = new long[universeCount];
+    }
+
+    /**
+     * Gets the number of universes in the buffer.
+     *
+     * @return a positive number.
+     */
+    public int getUniverseCount()
+    {
+        return universeCount;
+    }
+
+    /**
+     * Gets the level of a channel.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @param channel the channel. Must be within [1, 512].
+     * @return the level, within [0, 255].
+     * @throws IllegalArgumentException if the universe or channel is not
+     *                                  valid.
+     */
+    public synchronized int getLevel(int universe, int channel)
+    {
+        return levels[index(universe, channel)] & 0xFF;
+    }
+
+    /**
+     * Sets the level of a channel.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @param channel the channel. Must be within [1, 512].
+     * @param level the level. Must be within [0, 255].
+     * @return {@code true} if the level changed.
+     * @throws IllegalArgumentException if any argument is not valid.
+     */
+    public synchronized boolean setLevel(int universe, int channel, int level)
+    {
+        checkArgument(level >= 0 && level <= 255,
+                "level must be within [0, 255]");
+        int index = index(universe, channel);
+        if((levels[index] & 0xFF) == level)
+        {
+            return false;
+        }
+        levels[index] = (byte) level;
+        versions[universe - 1]++;
+        return true;
+    }
+
+    /**
+     * Replaces the levels of a universe, for example with the reply of an
+     * output levels request. {@code null} levels are left unchanged.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @param values the new levels, starting at channel 1. At most 512 are
+     *               used; each must be within [0, 255].
+     * @return the number of channels that changed.
+     * @throws NullPointerException if {@code values} is {@code null}.
+     * @throws IllegalArgumentException if the universe or a level is not
+     *                                  valid.
+     */
+    public synchronized int update(int universe, Integer[] values)
+    {
+        checkNotNull(values, "values cannot be null");
+        int offset = index(universe, 1);
+        int count = Math.min(values.length, CHANNELS_PER_UNIVERSE);
+        int changed = 0;
+        for(int channel = 0 ; channel < count ; channel++)
+        {
+            Integer value = values[channel];
+            if(value == null)
+            {
+                continue;
+            }
+            checkArgument(value >= 0 && value <= 255,
+                    "level must be within [0, 255]");
+            if((levels[offset + channel] & 0xFF) != value)
+            {
+                levels[offset + channel] = (byte) (int) value;
+                changed++;
+            }
+        }
+        if(changed > 0)
+        {
+            versions[universe - 1]++;
+        }
+        return changed;
+    }
+
+    /**
+     * Copies the levels of a universe.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @param dest receives the 512 levels of the universe as raw bytes.
+     * @param destOffset where in {@code dest} to start writing.
+     * @return the version of the copied levels.
+     * @throws NullPointerException if {@code dest} is {@code null}.
+     * @throws IllegalArgumentException if the universe is not valid.
+     * @throws IndexOutOfBoundsException if {@code dest} is too small.
+     */
+    public synchronized long copyUniverse(int universe, byte[] dest,
+                                          int destOffset)
+    {
+        System.arraycopy(levels, index(universe, 1), dest, destOffset,
+                CHANNELS_PER_UNIVERSE);
+        return versions[universe - 1];
+    }
+
+    /**
+     * Gets the levels of a universe.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @return a new array of the 512 levels, within [0, 255].
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    public synchronized Integer[] getUniverse(int universe)
+    {
+        int offset = index(universe, 1);
+        Integer[] values = new Integer[CHANNELS_PER_UNIVERSE];
+        for(int channel = 0 ; channel < CHANNELS_PER_UNIVERSE ; channel++)
+        {
+            values[channel] = levels[offset + channel] & 0xFF;
+        }
+        return values;
+    }
+
+    /**
+     * Gets the version of a universe. The version starts at 0 and is
+     * incremented every time a level of the universe changes.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @return the version.
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    public synchronized long getVersion(int universe)
+    {
+        checkUniverse(universe);
+        return versions[universe - 1];
+    }
+
+    /**
+     * Checks whether a universe changed since a version was seen.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @param seenVersion the version last seen by the caller.
+     * @return {@code true} if a level of the universe changed since.
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    public boolean hasChanged(int universe, long seenVersion)
+    {
+        return getVersion(universe) != seenVersion;
+    }
+
+    /**
+     * Gets the index of a channel in {@link #levels}.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @param channel the channel. Must be within [1, 512].
+     * @return the index.
+     * @throws IllegalArgumentException if the universe or channel is not
+     *                                  valid.
+     */
+    private int index(int universe, int channel)
+    {
+        checkUniverse(universe);
+        checkArgument(channel >= 1 && channel <= CHANNELS_PER_UNIVERSE,
+                "channel must be within [1, 512]");
+        return (universe - 1) * CHANNELS_PER_UNIVERSE + channel - 1;
+    }
+
+    /**
+     * Checks that a universe is in the buffer.
+     *
+     * @param universe the universe.
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    private void checkUniverse(int universe)
+    {
+        checkArgument(universe >= 1 && universe <= universeCount,
+                "universe must be within [1, %s]", universeCount);
+    }
+}
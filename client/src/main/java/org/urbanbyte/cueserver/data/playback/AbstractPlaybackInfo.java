@@ -1,5 +1,6 @@
 package org.urbanbyte.cueserver.data.playback;
 
+import com.google.common.base.Objects;
 import org.urbanbyte.cueserver.data.cue.Cue;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -65,6 +66,36 @@ public abstract class AbstractPlaybackInfo
         return nextCue;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o)
+        {
+            return true;
+        }
+        if(o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+
+        AbstractPlaybackInfo that = (AbstractPlaybackInfo) o;
+        return playback == that.playback &&
+                Objects.equal(currentCue, that.currentCue) &&
+                Objects.equal(nextCue, that.nextCue);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return Objects.hashCode(playback, currentCue, nextCue);
+    }
+
     /**
      * {@inheritDoc}
      */
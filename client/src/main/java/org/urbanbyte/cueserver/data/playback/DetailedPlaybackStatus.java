@@ -1,5 +1,6 @@
 package org.urbanbyte.cueserver.data.playback;
 
+import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import org.urbanbyte.cueserver.data.cue.Cue;
 
@@ -90,6 +91,28 @@ public class DetailedPlaybackStatus extends AbstractPlaybackInfo
         return linkedCue;
     }
 
+    @Override
+    public boolean equals(Object o)
+    {
+        if(!super.equals(o))
+        {
+            return false;
+        }
+
+        DetailedPlaybackStatus that = (DetailedPlaybackStatus) o;
+        return timingDisabled == that.timingDisabled &&
+                masterLevel == that.masterLevel &&
+                combineMode == that.combineMode &&
+                Objects.equal(linkedCue, that.linkedCue);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return 31 * super.hashCode() + Objects.hashCode(timingDisabled,
+                masterLevel, combineMode, linkedCue);
+    }
+
     @Override
     public String toString()
     {
@@ -35,4 +35,22 @@ public enum Playback
         return playbackId;
     }
 
+    /**
+     * Gets the playback with the given ID.
+     *
+     * @param playbackId the ID of the playback.
+     * @return Never {@code null}.
+     * @throws IllegalArgumentException if no playback has the given ID.
+     */
+    public static Playback forId(int playbackId)
+    {
+        Playback[] playbacks = values();
+        if(playbackId < 1 || playbackId > playbacks.length)
+        {
+            throw new IllegalArgumentException(
+                    "Playback ID unknown: " + playbackId);
+        }
+        return playbacks[playbackId - 1];
+    }
+
 }
@@ -2,41 +2,114 @@ package org.urbanbyte.cueserver.data.playback;
 
 import com.google.common.base.Preconditions;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
 /**
  * Contains the playback status for each playback available in the CueServer.
+ * The playbacks are stored in a flat array indexed by
+ * {@link Playback#ordinal()}, so {@link #get(Playback)} is a single array
+ * read.
+ * <p>
+ * A status normally contains all four playbacks. Models that expose fewer
+ * playbacks may build a status with a smaller playback count, in which case
+ * only the first {@link #getPlaybackCount()} playbacks are available. The
+ * per-playback getters still never return {@code null}: a playback beyond the
+ * count is reported without a current or next cue.
  * <p>
  * author: Chris Reising
  */
-public class PlaybackStatus
+public class PlaybackStatus implements Iterable<PlaybackInfo>
 {
-    /** The state of playback #1. */
-    private final PlaybackInfo playbackInfo1;
+    /** The number of playbacks supported by the client. */
+    public static final int MAX_PLAYBACK_COUNT = Playback.values().length;
+
+    /** Reported for each playback beyond the playback count, by ordinal. */
+    private static final PlaybackInfo[] ABSENT =
+            new PlaybackInfo[MAX_PLAYBACK_COUNT];
 
-    /** The state of playback #2. */
-    private final PlaybackInfo playbackInfo2;
+    static
+    {
+        for(Playback playback : Playback.values())
+        {
+            ABSENT[playback.ordinal()] = new PlaybackInfo.Builder()
+                    .setPlayback(playback)
+                    .build();
+        }
+    }
 
-    /** The state of playback #3. */
-    private final PlaybackInfo playbackInfo3;
+    /** The state of each playback, indexed by ordinal. */
+    private final PlaybackInfo[] playbackInfos;
 
-    /** The state of playback #4. */
-    private final PlaybackInfo playbackInfo4;
+    /** Read only view of {@link #playbackInfos}. */
+    private final List<PlaybackInfo> playbackInfoList;
 
     /**
      * Creates a new {@code PlaybackStatus} from the builder.
      *
      * @param builder the builder.
-     * @throws NullPointerException if {@code builder} is {@code null}.
+     * @throws NullPointerException if {@code builder} is {@code null}, or if
+     *                              any playback within the playback count
+     *                              was not set.
      */
     private PlaybackStatus(Builder builder)
     {
-        this.playbackInfo1 = Preconditions.checkNotNull(builder.getPlayback1(),
-                "playback1 cannot be null");
-        this.playbackInfo2 = Preconditions.checkNotNull(builder.getPlayback2(),
-                "playback2 cannot be null");
-        this.playbackInfo3 = Preconditions.checkNotNull(builder.getPlayback3(),
-                "playback3 cannot be null");
-        this.playbackInfo4 = Preconditions.checkNotNull(builder.getPlayback4(),
-                "playback4 cannot be null");
+        int count = builder.getPlaybackCount();
+        playbackInfos = new PlaybackInfo[count];
+        for(int index = 0 ; index < count ; index++)
+        {
+            playbackInfos[index] = Preconditions.checkNotNull(
+                    builder.playbackInfos[index],
+                    "playback" + (index + 1) + " cannot be null");
+        }
+        playbackInfoList =
+                Collections.unmodifiableList(Arrays.asList(playbackInfos));
+    }
+
+    /**
+     * Gets the {@link PlaybackInfo} for the given playback.
+     *
+     * @param playback the playback to get.
+     * @return {@code null} if the playback is not within the playback count.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    public PlaybackInfo get(Playback playback)
+    {
+        int index = playback.ordinal();
+        return index < playbackInfos.length ? playbackInfos[index] : null;
+    }
+
+    /**
+     * Gets the number of playbacks contained in the status.
+     *
+     * @return a value within [1, {@link #MAX_PLAYBACK_COUNT}].
+     */
+    public int getPlaybackCount()
+    {
+        return playbackInfos.length;
+    }
+
+    /**
+     * Gets all of the playbacks in order.
+     *
+     * @return Never {@code null}. The list cannot be modified.
+     */
+    public List<PlaybackInfo> getPlaybacks()
+    {
+        return playbackInfoList;
+    }
+
+    /**
+     * Iterates over the playbacks in order.
+     *
+     * @return Never {@code null}.
+     */
+    @Override
+    public Iterator<PlaybackInfo> iterator()
+    {
+        return playbackInfoList.iterator();
     }
 
     /**
@@ -46,37 +119,79 @@ public class PlaybackStatus
      */
     public PlaybackInfo getPlayback1()
     {
-        return playbackInfo1;
+        return get(Playback.PLAYBACK_1);
     }
 
     /**
      * Gets the {@link PlaybackInfo} for playback 2.
      *
-     * @return Never {@code null}.
+     * @return Never {@code null}. Without a current or next cue if the status
+     *         contains fewer than two playbacks.
      */
     public PlaybackInfo getPlayback2()
     {
-        return playbackInfo2;
+        return getOrAbsent(Playback.PLAYBACK_2);
     }
 
     /**
      * Gets the {@link PlaybackInfo} for playback 3.
      *
-     * @return Never {@code null}.
+     * @return Never {@code null}. Without a current or next cue if the status
+     *         contains fewer than three playbacks.
      */
     public PlaybackInfo getPlayback3()
     {
-        return playbackInfo3;
+        return getOrAbsent(Playback.PLAYBACK_3);
     }
 
     /**
      * Gets the {@link PlaybackInfo} for playback 4.
      *
-     * @return Never {@code null}.
+     * @return Never {@code null}. Without a current or next cue if the status
+     *         contains fewer than four playbacks.
      */
     public PlaybackInfo getPlayback4()
     {
-        return playbackInfo4;
+        return getOrAbsent(Playback.PLAYBACK_4);
+    }
+
+    /**
+     * Gets the {@link PlaybackInfo} for the given playback, or a playback
+     * without cues if it is beyond the playback count.
+     *
+     * @param playback the playback to get.
+     * @return Never {@code null}.
+     */
+    private PlaybackInfo getOrAbsent(Playback playback)
+    {
+        PlaybackInfo info = get(playback);
+        return info == null ? ABSENT[playback.ordinal()] : info;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if(this == o)
+        {
+            return true;
+        }
+        if(o == null || getClass() != o.getClass())
+        {
+            return false;
+        }
+        return Arrays.equals(playbackInfos, ((PlaybackStatus) o).playbackInfos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode()
+    {
+        return Arrays.hashCode(playbackInfos);
     }
 
     /**
@@ -85,12 +200,17 @@ public class PlaybackStatus
     @Override
     public String toString()
     {
-        return "PlaybackStatus{" +
-                "playbackInfo1=" + playbackInfo1 +
-                ", playbackInfo2=" + playbackInfo2 +
-                ", playbackInfo3=" + playbackInfo3 +
-                ", playbackInfo4=" + playbackInfo4 +
-                '}';
+        StringBuilder builder = new StringBuilder("PlaybackStatus{");
+        for(int index = 0 ; index < playbackInfos.length ; index++)
+        {
+            if(index > 0)
+            {
+                builder.append(", ");
+            }
+            builder.append("playbackInfo").append(index + 1).append('=')
+                    .append(playbackInfos[index]);
+        }
+        return builder.append('}').toString();
     }
 
     /**
@@ -98,17 +218,67 @@ public class PlaybackStatus
      */
     public static class Builder
     {
-        /** The state of playback #1. */
-        private PlaybackInfo playbackInfo1;
+        /** The state of each playback, indexed by ordinal. */
+        private final PlaybackInfo[] playbackInfos =
+                new PlaybackInfo[MAX_PLAYBACK_COUNT];
+
+        /** The number of playbacks the status will contain. */
+        private int playbackCount = MAX_PLAYBACK_COUNT;
+
+        /**
+         * Gets the value currently set for the given playback.
+         *
+         * @param playback the playback.
+         * @return Can be {@code null}.
+         * @throws NullPointerException if {@code playback} is {@code null}.
+         */
+        public PlaybackInfo get(Playback playback)
+        {
+            return playbackInfos[playback.ordinal()];
+        }
 
-        /** The state of playback #2. */
-        private PlaybackInfo playbackInfo2;
+        /**
+         * Sets the value for the given playback.
+         *
+         * @param playback the playback.
+         * @param playbackInfo the value for the playback.
+         * @return a reference to {@code this} builder.
+         * @throws NullPointerException if {@code playback} is {@code null}.
+         */
+        public Builder set(Playback playback, PlaybackInfo playbackInfo)
+        {
+            playbackInfos[playback.ordinal()] = playbackInfo;
+            return this;
+        }
 
-        /** The state of playback #3. */
-        private PlaybackInfo playbackInfo3;
+        /**
+         * Gets the number of playbacks the status will contain.
+         *
+         * @return a value within [1, {@link #MAX_PLAYBACK_COUNT}].
+         */
+        public int getPlaybackCount()
+        {
+            return playbackCount;
+        }
 
-        /** The state of playback #4. */
-        private PlaybackInfo playbackInfo4;
+        /**
+         * Sets the number of playbacks the status will contain. Defaults to
+         * {@link #MAX_PLAYBACK_COUNT}.
+         *
+         * @param playbackCount the number of playbacks exposed by the model.
+         * @return a reference to {@code this} builder.
+         * @throws IllegalArgumentException if the count is not within
+         *                                  [1, {@link #MAX_PLAYBACK_COUNT}].
+         */
+        public Builder setPlaybackCount(int playbackCount)
+        {
+            Preconditions.checkArgument(playbackCount > 0 &&
+                    playbackCount <= MAX_PLAYBACK_COUNT,
+                    "playbackCount must be within [1, %s]",
+                    MAX_PLAYBACK_COUNT);
+            this.playbackCount = playbackCount;
+            return this;
+        }
 
         /**
          * Gets the value currently set for playback 1.
@@ -117,7 +287,7 @@ public class PlaybackStatus
          */
         public PlaybackInfo getPlayback1()
         {
-            return playbackInfo1;
+            return get(Playback.PLAYBACK_1);
         }
 
         /**
@@ -128,8 +298,7 @@ public class PlaybackStatus
          */
         public Builder setPlayback1(PlaybackInfo playbackInfo1)
         {
-            this.playbackInfo1 = playbackInfo1;
-            return this;
+            return set(Playback.PLAYBACK_1, playbackInfo1);
         }
 
         /**
@@ -139,7 +308,7 @@ public class PlaybackStatus
          */
         public PlaybackInfo getPlayback2()
         {
-            return playbackInfo2;
+            return get(Playback.PLAYBACK_2);
         }
 
         /**
@@ -150,8 +319,7 @@ public class PlaybackStatus
          */
         public Builder setPlayback2(PlaybackInfo playbackInfo2)
         {
-            this.playbackInfo2 = playbackInfo2;
-            return this;
+            return set(Playback.PLAYBACK_2, playbackInfo2);
         }
 
         /**
@@ -161,7 +329,7 @@ public class PlaybackStatus
          */
         public PlaybackInfo getPlayback3()
         {
-            return playbackInfo3;
+            return get(Playback.PLAYBACK_3);
         }
 
         /**
@@ -172,8 +340,7 @@ public class PlaybackStatus
          */
         public Builder setPlayback3(PlaybackInfo playbackInfo3)
         {
-            this.playbackInfo3 = playbackInfo3;
-            return this;
+            return set(Playback.PLAYBACK_3, playbackInfo3);
         }
 
         /**
@@ -183,7 +350,7 @@ public class PlaybackStatus
          */
         public PlaybackInfo getPlayback4()
         {
-            return playbackInfo4;
+            return get(Playback.PLAYBACK_4);
         }
 
         /**
@@ -194,15 +361,15 @@ public class PlaybackStatus
          */
         public Builder setPlayback4(PlaybackInfo playbackInfo4)
         {
-            this.playbackInfo4 = playbackInfo4;
-            return this;
+            return set(Playback.PLAYBACK_4, playbackInfo4);
         }
 
         /**
          * Builds a {@link PlaybackInfo} from the values in the builder.
          *
          * @return Never {@code null}.
-         * @throws NullPointerException if any of the playbacks are null.
+         * @throws NullPointerException if any of the playbacks within the
+         *                              playback count are null.
          */
         public PlaybackStatus build()
         {
@@ -1,5 +1,11 @@
 package org.urbanbyte.cueserver.data.system;
 
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Pattern;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -10,6 +16,45 @@ import static com.google.common.base.Preconditions.*;
  */
 public class SystemInfo
 {
+    /** Returned when the time of the device cannot be parsed. */
+    public static final long UNKNOWN_TIME = -1;
+
+    /**
+     * The formats of the time reported by the device, most likely first. The
+     * first is the 24 character format of the C {@code ctime} function.
+     */
+    private static final String[] TIME_FORMATS = {
+            "EEE MMM d HH:mm:ss yyyy",
+            "yyyy/MM/dd HH:mm:ss",
+            "yyyy-MM-dd HH:mm:ss",
+            "MM/dd/yyyy HH:mm:ss",
+            "MM/dd/yyyy hh:mm:ss a"};
+
+    /**
+     * A strict parser for each of {@link #TIME_FORMATS}, per thread, since
+     * {@link SimpleDateFormat} is costly to create and not thread safe.
+     */
+    private static final ThreadLocal<SimpleDateFormat[]> TIME_PARSERS =
+            new ThreadLocal<SimpleDateFormat[]>()
+            {
+                @Override
+                protected SimpleDateFormat[] initialValue()
+                {
+                    SimpleDateFormat[] parsers =
+                            new SimpleDateFormat[TIME_FORMATS.length];
+                    for(int i = 0 ; i < parsers.length ; i++)
+                    {
+                        parsers[i] = new SimpleDateFormat(TIME_FORMATS[i],
+                                Locale.US);
+                        parsers[i].setLenient(false);
+                    }
+                    return parsers;
+                }
+            };
+
+    /** Runs of white space in the time, such as the padding of ctime. */
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
     /** The name of the CueServer. */
     private final String deviceName;
 
@@ -98,6 +143,46 @@ public class SystemInfo
         return time;
     }
 
+    /**
+     * Parses the time from the device, taking it to be in the time zone of
+     * this JVM.
+     *
+     * @return the time in milliseconds since the epoch, or
+     *         {@link #UNKNOWN_TIME} if it could not be parsed.
+     * @see #getTimeMillis(TimeZone)
+     */
+    public long getTimeMillis()
+    {
+        return getTimeMillis(TimeZone.getDefault());
+    }
+
+    /**
+     * Parses the time from the device. The device reports its local time to
+     * the second, without a time zone.
+     *
+     * @param zone the time zone the device is set to.
+     * @return the time in milliseconds since the epoch, or
+     *         {@link #UNKNOWN_TIME} if it could not be parsed.
+     * @throws NullPointerException if {@code zone} is {@code null}.
+     */
+    public long getTimeMillis(TimeZone zone)
+    {
+        checkNotNull(zone, "zone cannot be null");
+        // ctime pads the day of the month with a space
+        String normalized = WHITESPACE.matcher(time.trim()).replaceAll(" ");
+        for(SimpleDateFormat parser : TIME_PARSERS.get())
+        {
+            parser.setTimeZone(zone);
+            ParsePosition position = new ParsePosition(0);
+            Date parsed = parser.parse(normalized, position);
+            if(parsed != null && position.getIndex() == normalized.length())
+            {
+                return parsed.getTime();
+            }
+        }
+        return UNKNOWN_TIME;
+    }
+
     /**
      * {@code true} if the device uses a password, {@code false} if not.
      *
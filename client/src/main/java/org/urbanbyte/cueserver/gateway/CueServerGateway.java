@@ -0,0 +1,621 @@
+package org.urbanbyte.cueserver.gateway;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+import org.urbanbyte.cueserver.state.DeviceStateHolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shares the CueServers of a site between any number of local consumers.
+ * Each device is polled once, with {@link HttpCueServerClient#getSnapshot()},
+ * at the period of its fastest subscriber, and every subscriber is handed
+ * the cached result at its own period. Consumers that only need the latest
+ * state can read it with {@link #getSnapshot(String)} without sending a
+ * request at all. The load on a device therefore depends on the fastest
+ * consumer, not the number of consumers.
+ * <p>
+ * Writes are forwarded through a queue per device. They are applied in the
+ * order they were submitted, and the writes waiting together are sent in a
+ * single {@link CommandBatch}, so a burst of writes from many consumers costs
+ * the device only a few requests.
+ * <p>
+ * The gateway is thread safe.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueServerGateway
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(CueServerGateway.class);
+
+    /** The number of threads of the default executor. */
+    private static final int DEFAULT_THREADS = 4;
+
+    /** Polls the devices and forwards the writes. */
+    private final ScheduledExecutorService executor;
+
+    /** The devices, by name. */
+    private final ConcurrentMap<String, Device> devices =
+            new ConcurrentHashMap<String, Device>();
+
+    /**
+     * Creates a new {@code CueServerGateway} that runs on a small pool of
+     * daemon threads.
+     */
+    public CueServerGateway()
+    {
+        this(Executors.newScheduledThreadPool(DEFAULT_THREADS,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cueserver-gateway-%d")
+                        .build()));
+    }
+
+    /**
+     * Creates a new {@code CueServerGateway}. Polls block a thread for the
+     * duration of the requests, so gateways for many devices should use an
+     * executor with several threads.
+     *
+     * @param executor polls the devices and forwards the writes.
+     * @throws NullPointerException if {@code executor} is {@code null}.
+     */
+    public CueServerGateway(ScheduledExecutorService executor)
+    {
+        this.executor = checkNotNull(executor, "executor cannot be null");
+    }
+
+    /**
+     * Adds a device. The device is not polled until it has a subscriber.
+     *
+     * @param name the name consumers use for the device.
+     * @param client the client of the device.
+     * @throws NullPointerException if either argument is {@code null}.
+     * @throws IllegalArgumentException if a device with the name already
+     *                                  exists.
+     */
+    public void addDevice(String name, HttpCueServerClient client)
+    {
+        checkNotNull(name, "name cannot be null");
+        checkNotNull(client, "client cannot be null");
+        checkArgument(devices.putIfAbsent(name, new Device(name, client)) ==
+                null, "device already exists: %s", name);
+    }
+
+    /**
+     * Removes a device and cancels its subscriptions. Writes already
+     * submitted are still sent.
+     *
+     * @param name the name of the device.
+     */
+    public void removeDevice(String name)
+    {
+        Device device = devices.remove(name);
+        if(device != null)
+        {
+            for(Subscription subscription : device.subscriptions)
+            {
+                subscription.cancel();
+            }
+            device.subscriptions.clear();
+            device.reschedule();
+        }
+    }
+
+    /**
+     * Gets the names of the devices.
+     *
+     * @return Never {@code null}. The set cannot be modified.
+     */
+    public Set<String> getDeviceNames()
+    {
+        return Collections.unmodifiableSet(devices.keySet());
+    }
+
+    /**
+     * Subscribes to the state of a device. If the period is shorter than the
+     * device's current poll period, the device is polled at the new period
+     * from now on.
+     *
+     * @param device the name of the device.
+     * @param periodMillis how often the listener wants the state. Must be
+     *                     positive.
+     * @param listener receives the state.
+     * @return the subscription, which cancels the listener.
+     * @throws NullPointerException if {@code device} or {@code listener} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if the device does not exist or the
+     *                                  period is not positive.
+     */
+    public Subscription subscribe(String device,
+                                  long periodMillis,
+                                  SnapshotListener listener)
+    {
+        checkArgument(periodMillis > 0, "periodMillis must be positive");
+        checkNotNull(listener, "listener cannot be null");
+        Device target = getDevice(device);
+        Subscription subscription =
+                new Subscription(this, device, periodMillis, listener);
+        target.subscriptions.add(subscription);
+        target.reschedule();
+        return subscription;
+    }
+
+    /**
+     * Gets the latest state polled from a device, without sending a request.
+     *
+     * @param device the name of the device.
+     * @return {@code null} if the device has not been polled yet.
+     * @throws NullPointerException if {@code device} is {@code null}.
+     * @throws IllegalArgumentException if the device does not exist.
+     */
+    public DeviceSnapshot getSnapshot(String device)
+    {
+        return getDevice(device).snapshot;
+    }
+
+    /**
+     * Gets the holder of the latest state polled from a device. Render
+     * threads and other frequent readers can copy the output levels and
+     * playbacks from it without locking or allocating.
+     *
+     * @param device the name of the device.
+     * @return Never {@code null}. Holds no state until the device is polled.
+     * @throws NullPointerException if {@code device} is {@code null}.
+     * @throws IllegalArgumentException if the device does not exist.
+     */
+    public DeviceStateHolder getStateHolder(String device)
+    {
+        return getDevice(device).state;
+    }
+
+    /**
+     * Gets the period a device is polled at.
+     *
+     * @param device the name of the device.
+     * @return the period in milliseconds, or 0 if the device has no
+     *         subscribers.
+     * @throws NullPointerException if {@code device} is {@code null}.
+     * @throws IllegalArgumentException if the device does not exist.
+     */
+    public long getPollPeriodMillis(String device)
+    {
+        Device target = getDevice(device);
+        synchronized(target)
+        {
+            return target.pollPeriodMillis == Long.MAX_VALUE ?
+                    0 : target.pollPeriodMillis;
+        }
+    }
+
+    /**
+     * Gets the number of times a device was polled.
+     *
+     * @param device the name of the device.
+     * @return the number of polls.
+     * @throws NullPointerException if {@code device} is {@code null}.
+     * @throws IllegalArgumentException if the device does not exist.
+     */
+    public long getPollCount(String device)
+    {
+        return getDevice(device).pollCount.get();
+    }
+
+    /**
+     * Queues a write to a device.
+     *
+     * @param device the name of the device.
+     * @param write adds the commands of the write to a batch.
+     * @return completes once the write was sent, or fails with the exception
+     *         thrown by {@link DeviceWrite#addTo(CommandBatch)}, or with an
+     *         {@link IOException} if a request of the batch it was sent in
+     *         failed. The commands of a failed write may or may not have been
+     *         executed. Cancelled if the gateway is shut down before the
+     *         write is sent.
+     * @throws NullPointerException if either argument is {@code null}.
+     * @throws IllegalArgumentException if the device does not exist.
+     */
+    public ListenableFuture<Void> write(String device, DeviceWrite write)
+    {
+        checkNotNull(write, "write cannot be null");
+        Device target = getDevice(device);
+        PendingWrite pending = new PendingWrite(write);
+        target.writes.add(pending);
+        target.scheduleDrain();
+        return pending.result;
+    }
+
+    /**
+     * Stops polling every device and shuts down the executor. Writes that
+     * have not been sent are cancelled, and so are writes submitted
+     * afterwards.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+        for(Device device : devices.values())
+        {
+            device.cancelWrites();
+        }
+    }
+
+    /**
+     * Removes a cancelled subscription.
+     *
+     * @param subscription the subscription.
+     */
+    void unsubscribe(Subscription subscription)
+    {
+        Device device = devices.get(subscription.getDevice());
+        if(device != null && device.subscriptions.remove(subscription))
+        {
+            device.reschedule();
+        }
+    }
+
+    /**
+     * Gets a device.
+     *
+     * @param name the name of the device.
+     * @return Never {@code null}.
+     * @throws NullPointerException if {@code name} is {@code null}.
+     * @throws IllegalArgumentException if the device does not exist.
+     */
+    private Device getDevice(String name)
+    {
+        checkNotNull(name, "device cannot be null");
+        Device device = devices.get(name);
+        checkArgument(device != null, "unknown device: %s", name);
+        return device;
+    }
+
+    /**
+     * A device and the state the gateway keeps for it.
+     */
+    private class Device
+    {
+        /** The name of the device. */
+        private final String name;
+
+        /** The client of the device. */
+        private final HttpCueServerClient client;
+
+        /** The listeners of the device. */
+        private final List<Subscription> subscriptions =
+                new CopyOnWriteArrayList<Subscription>();
+
+        /** The writes waiting to be sent. */
+        private final Queue<PendingWrite> writes =
+                new ConcurrentLinkedQueue<PendingWrite>();
+
+        /** {@code true} while the writes are being sent. */
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        /** The number of polls. */
+        private final AtomicLong pollCount = new AtomicLong();
+
+        /** The latest state polled. */
+        private volatile DeviceSnapshot snapshot;
+
+        /** The latest state polled, for readers that must not allocate. */
+        private final DeviceStateHolder state = new DeviceStateHolder();
+
+        /** The poll period, or {@code Long.MAX_VALUE} if not polled. */
+        private long pollPeriodMillis = Long.MAX_VALUE;
+
+        /** The next poll, or {@code null} if none is scheduled. */
+        private ScheduledFuture<?> pollTask;
+
+        /** Identifies the latest scheduled poll; older ones do nothing. */
+        private long pollGeneration;
+
+        /** {@code true} while a poll is running. */
+        private boolean polling;
+
+        /** When the last poll started, or 0 if the device was not polled. */
+        private long lastPollNanos;
+
+        /**
+         * Creates a new {@code Device}.
+         *
+         * @param name the name of the device.
+         * @param client the client of the device.
+         */
+        private Device(String name, HttpCueServerClient client)
+        {
+            this.name = name;
+            this.client = client;
+        }
+
+        /**
+         * Polls the device at the period of its fastest subscriber, or stops
+         * polling it if it has none. A poll that is running schedules the
+         * next one itself when it ends, so polls never overlap; the
+         * subscriptions and the state holder rely on a single poll thread.
+         */
+        private synchronized void reschedule()
+        {
+            long fastest = Long.MAX_VALUE;
+            for(Subscription subscription : subscriptions)
+            {
+                fastest = Math.min(fastest, subscription.getPeriodMillis());
+            }
+            if(fastest == pollPeriodMillis)
+            {
+                return;
+            }
+
+            pollPeriodMillis = fastest;
+            if(fastest != Long.MAX_VALUE)
+            {
+                LOGGER.debug("Polling {} every {} ms", name, fastest);
+            }
+            if(!polling)
+            {
+                scheduleNextPoll();
+            }
+        }
+
+        /**
+         * Replaces the scheduled poll with one a period after the start of
+         * the last poll, or none if the device has no subscribers. Must hold
+         * the device's lock.
+         */
+        private void scheduleNextPoll()
+        {
+            if(pollTask != null)
+            {
+                pollTask.cancel(false);
+                pollTask = null;
+            }
+            final long generation = ++pollGeneration;
+            if(pollPeriodMillis == Long.MAX_VALUE)
+            {
+                return;
+            }
+
+            long delay = 0;
+            if(lastPollNanos != 0)
+            {
+                delay = Math.max(0, lastPollNanos - System.nanoTime() +
+                        TimeUnit.MILLISECONDS.toNanos(pollPeriodMillis));
+            }
+            try
+            {
+                pollTask = executor.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        poll(generation);
+                    }
+                }, delay, TimeUnit.NANOSECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                LOGGER.debug("Not polling {}: the gateway was shut down",
+                        name);
+            }
+        }
+
+        /**
+         * Polls the device, notifies the subscribers that are due and
+         * schedules the next poll.
+         *
+         * @param generation identifies the poll; a poll that was replaced
+         *                   before it started does nothing.
+         */
+        private void poll(long generation)
+        {
+            long period;
+            synchronized(this)
+            {
+                if(generation != pollGeneration || polling)
+                {
+                    return;
+                }
+                polling = true;
+                pollTask = null;
+                lastPollNanos = System.nanoTime();
+                period = pollPeriodMillis;
+            }
+
+            try
+            {
+                DeviceSnapshot polled = client.getSnapshot();
+                if(polled == null)
+                {
+                    // the poll was interrupted
+                    return;
+                }
+                snapshot = polled;
+                state.update(polled);
+                pollCount.incrementAndGet();
+
+                long now = System.nanoTime();
+                long slack = TimeUnit.MILLISECONDS.toNanos(period) / 2;
+                for(Subscription subscription : subscriptions)
+                {
+                    try
+                    {
+                        subscription.notifyIfDue(polled, now, slack);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        LOGGER.error("Subscriber of " + name + " failed.", e);
+                    }
+                }
+            }
+            catch (RuntimeException e)
+            {
+                LOGGER.error("Error while polling " + name + ".", e);
+            }
+            finally
+            {
+                synchronized(this)
+                {
+                    polling = false;
+                    scheduleNextPoll();
+                }
+            }
+        }
+
+        /**
+         * Starts sending the waiting writes unless they are already being
+         * sent.
+         */
+        private void scheduleDrain()
+        {
+            if(draining.compareAndSet(false, true))
+            {
+                try
+                {
+                    executor.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            drain();
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e)
+                {
+                    draining.set(false);
+                    cancelWrites();
+                }
+            }
+        }
+
+        /**
+         * Cancels the writes that are waiting, since the gateway was shut
+         * down and they will never be sent.
+         */
+        private void cancelWrites()
+        {
+            PendingWrite pending = writes.poll();
+            while(pending != null)
+            {
+                pending.result.cancel(false);
+                pending = writes.poll();
+            }
+        }
+
+        /**
+         * Sends the waiting writes in one batch, in order.
+         */
+        private void drain()
+        {
+            try
+            {
+                CommandBatch batch = client.newBatch();
+                List<PendingWrite> added = new ArrayList<PendingWrite>();
+                PendingWrite pending = writes.poll();
+                while(pending != null)
+                {
+                    // a write that fails partway through sends no commands
+                    CommandBatch own = client.newBatch();
+                    try
+                    {
+                        pending.write.addTo(own);
+                        batch.addAll(own);
+                        added.add(pending);
+                    }
+                    catch (RuntimeException e)
+                    {
+                        pending.result.setException(e);
+                    }
+                    pending = writes.poll();
+                }
+
+                try
+                {
+                    int requests = batch.submit();
+                    int failed = batch.getFailedCount();
+                    if(failed > 0)
+                    {
+                        IOException failure = new IOException(failed + " of " +
+                                requests + " requests to " + name + " failed.");
+                        LOGGER.error("Error while writing to " + name + ".",
+                                failure);
+                        for(PendingWrite write : added)
+                        {
+                            write.result.setException(failure);
+                        }
+                    }
+                    else
+                    {
+                        for(PendingWrite write : added)
+                        {
+                            write.result.set(null);
+                        }
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    LOGGER.error("Error while writing to " + name + ".", e);
+                    for(PendingWrite write : added)
+                    {
+                        write.result.setException(e);
+                    }
+                }
+            }
+            finally
+            {
+                draining.set(false);
+                if(!writes.isEmpty())
+                {
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    /**
+     * A write waiting to be sent.
+     */
+    private static class PendingWrite
+    {
+        /** The write. */
+        private final DeviceWrite write;
+
+        /** Completes once the write was sent. */
+        private final SettableFuture<Void> result = SettableFuture.create();
+
+        /**
+         * Creates a new {@code PendingWrite}.
+         *
+         * @param write the write.
+         */
+        private PendingWrite(DeviceWrite write)
+        {
+            this.write = write;
+        }
+    }
+}
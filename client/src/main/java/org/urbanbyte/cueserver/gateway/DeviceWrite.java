@@ -0,0 +1,22 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.urbanbyte.cueserver.http.CommandBatch;
+
+/**
+ * A write forwarded to a CueServer by a {@link CueServerGateway}. Writes to
+ * the same device are applied in the order they were submitted, and writes
+ * that are waiting together are sent in one batch.
+ * <p>
+ * author: Chris Reising
+ */
+public interface DeviceWrite
+{
+    /**
+     * Adds the commands of the write to a batch. If a command is not valid,
+     * the exception fails the write and none of its commands are sent.
+     *
+     * @param batch the batch to add the commands to.
+     * @throws IllegalArgumentException if a command is not valid.
+     */
+    void addTo(CommandBatch batch);
+}
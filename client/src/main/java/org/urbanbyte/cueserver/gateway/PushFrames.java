@@ -0,0 +1,159 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Encodes the binary messages sent by a {@link PushServer}. Every message
+ * starts with its type, and all numbers are big endian:
+ * <ul>
+ *     <li>{@link #STATUS}: the number of playbacks, then for each playback its
+ *     ID (1 byte) and the tenths of its current and next cue (4 bytes each,
+ *     {@link #NO_CUE} if there is none).</li>
+ *     <li>{@link #LEVELS}: the 512 levels of the DMX output, one byte
+ *     each.</li>
+ *     <li>{@link #DELTA}: the number of changed channels (2 bytes), then for
+ *     each change the channel (2 bytes) and its new level (1 byte).</li>
+ * </ul>
+ * <p>
+ * author: Chris Reising
+ */
+final class PushFrames
+{
+    /** The type of a playback status message. */
+    static final byte STATUS = 1;
+
+    /** The type of a message with every output level. */
+    static final byte LEVELS = 2;
+
+    /** The type of a message with the changed output levels. */
+    static final byte DELTA = 3;
+
+    /** The cue tenths sent when a playback has no cue. */
+    static final int NO_CUE = Cue.NO_TENTHS;
+
+    /** The number of channels of the DMX output. */
+    static final int CHANNEL_COUNT = 512;
+
+    /** The bytes of each change in a delta message. */
+    private static final int CHANGE_SIZE = 3;
+
+    /** The bytes of each playback in a status message. */
+    private static final int PLAYBACK_SIZE = 9;
+
+    /**
+     * Not used.
+     */
+    private PushFrames()
+    {
+    }
+
+    /**
+     * Encodes a playback status message.
+     *
+     * @param status the status of the playbacks.
+     * @return the message.
+     */
+    static byte[] encodeStatus(PlaybackStatus status)
+    {
+        int count = status.getPlaybackCount();
+        ByteBuffer message = ByteBuffer.allocate(2 + count * PLAYBACK_SIZE);
+        message.put(STATUS).put((byte) count);
+        for(PlaybackInfo info : status)
+        {
+            message.put((byte) info.getPlayback().getPlaybackId());
+            message.putInt(Cue.tenthsOf(info.getCurrentCue()));
+            message.putInt(Cue.tenthsOf(info.getNextCue()));
+        }
+        return message.array();
+    }
+
+    /**
+     * Encodes a message with every output level.
+     *
+     * @param levels the levels of the DMX output.
+     * @return the message.
+     * @throws IllegalArgumentException if there are not 512 levels.
+     */
+    static byte[] encodeLevels(byte[] levels)
+    {
+        checkArgument(levels.length == CHANNEL_COUNT,
+                "expected %s levels", CHANNEL_COUNT);
+        byte[] message = new byte[1 + CHANNEL_COUNT];
+        message[0] = LEVELS;
+        System.arraycopy(levels, 0, message, 1, CHANNEL_COUNT);
+        return message;
+    }
+
+    /**
+     * Encodes the changes between two sets of output levels. When so many
+     * channels changed that a delta would not be smaller, every level is
+     * sent instead.
+     *
+     * @param previous the levels that were last sent.
+     * @param current the new levels.
+     * @return a {@link #DELTA} or {@link #LEVELS} message, or {@code null}
+     *         if no level changed.
+     * @throws IllegalArgumentException if either array does not hold 512
+     *                                  levels.
+     */
+    static byte[] encodeDelta(byte[] previous, byte[] current)
+    {
+        checkArgument(previous.length == CHANNEL_COUNT &&
+                current.length == CHANNEL_COUNT,
+                "expected %s levels", CHANNEL_COUNT);
+        int changed = 0;
+        for(int i = 0 ; i < CHANNEL_COUNT ; i++)
+        {
+            if(previous[i] != current[i])
+            {
+                changed++;
+            }
+        }
+        if(changed == 0)
+        {
+            return null;
+        }
+        if(3 + changed * CHANGE_SIZE >= 1 + CHANNEL_COUNT)
+        {
+            return encodeLevels(current);
+        }
+
+        ByteBuffer message = ByteBuffer.allocate(3 + changed * CHANGE_SIZE);
+        message.put(DELTA).putShort((short) changed);
+        for(int i = 0 ; i < CHANNEL_COUNT ; i++)
+        {
+            if(previous[i] != current[i])
+            {
+                message.putShort((short) (i + 1)).put(current[i]);
+            }
+        }
+        return message.array();
+    }
+
+    /**
+     * Converts decoded output levels to bytes. Levels that were not read are
+     * sent as 0.
+     *
+     * @param levels the levels of the DMX output.
+     * @return the 512 levels.
+     */
+    static byte[] toBytes(Integer[] levels)
+    {
+        byte[] bytes = new byte[CHANNEL_COUNT];
+        int count = Math.min(levels.length, CHANNEL_COUNT);
+        for(int i = 0 ; i < count ; i++)
+        {
+            if(levels[i] != null)
+            {
+                bytes[i] = (byte) levels[i].intValue();
+            }
+        }
+        return bytes;
+    }
+}
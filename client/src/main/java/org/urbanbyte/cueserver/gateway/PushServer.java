@@ -0,0 +1,372 @@
+package org.urbanbyte.cueserver.gateway;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Streams the state of one CueServer to browser dashboards over WebSockets.
+ * The server subscribes to the device on a {@link CueServerGateway}, so the
+ * device is polled once no matter how many dashboards are connected, and each
+ * change is encoded once and the same bytes are sent to every dashboard.
+ * <p>
+ * Messages are binary and compact; see {@link PushFrames} for the layout. A
+ * dashboard that connects first receives the playback status and every
+ * output level. After that it only receives a status message when a playback
+ * changed, and a delta message with the channels whose level changed.
+ * <p>
+ * The number of connections is capped, and a connection that does not
+ * complete its handshake within {@link #HANDSHAKE_TIMEOUT_MILLIS} is closed,
+ * so clients that connect and stay silent, or send their request a byte at a
+ * time, cannot exhaust the server's threads.
+ * <p>
+ * author: Chris Reising
+ */
+public class PushServer implements SnapshotListener
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(PushServer.class);
+
+    /** The default largest number of connections, including handshakes. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 64;
+
+    /** The longest time a client may take to send its whole handshake. */
+    public static final int HANDSHAKE_TIMEOUT_MILLIS = 5000;
+
+    /** The gateway polling the device. */
+    private final CueServerGateway gateway;
+
+    /** The name of the device. */
+    private final String device;
+
+    /** How often the device is polled for the dashboards. */
+    private final long periodMillis;
+
+    /** The port to listen on; 0 picks a free port. */
+    private final int port;
+
+    /** Limits the number of connections being served. */
+    private final Semaphore connectionPermits;
+
+    /** The connected dashboards. */
+    private final List<WebSocketConnection> connections =
+            new CopyOnWriteArrayList<WebSocketConnection>();
+
+    /** Guards the latest state and the order of the messages. */
+    private final Object lock = new Object();
+
+    /** The playback status last sent, guarded by {@link #lock}. */
+    private PlaybackStatus status;
+
+    /** The output levels last sent, guarded by {@link #lock}. */
+    private byte[] levels;
+
+    /** Accepts dashboards; {@code null} until started. */
+    private ServerSocket serverSocket;
+
+    /** Runs the threads of the server and its connections. */
+    private ExecutorService executor;
+
+    /** The subscription to the device; {@code null} until started. */
+    private Subscription subscription;
+
+    /**
+     * Creates a new {@code PushServer} that accepts up to
+     * {@link #DEFAULT_MAX_CONNECTIONS} connections. The server does nothing
+     * until it is started.
+     *
+     * @param gateway the gateway polling the device.
+     * @param device the name of the device on the gateway.
+     * @param periodMillis how often the device is polled for the
+     *                     dashboards. Must be positive.
+     * @param port the port to listen on, or 0 to pick a free port.
+     * @throws NullPointerException if {@code gateway} or {@code device} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if the period is not positive or the
+     *                                  port is not valid.
+     */
+    public PushServer(CueServerGateway gateway,
+                      String device,
+                      long periodMillis,
+                      int port)
+    {
+        this(gateway, device, periodMillis, port, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Creates a new {@code PushServer}. The server does nothing until it is
+     * started.
+     *
+     * @param gateway the gateway polling the device.
+     * @param device the name of the device on the gateway.
+     * @param periodMillis how often the device is polled for the
+     *                     dashboards. Must be positive.
+     * @param port the port to listen on, or 0 to pick a free port.
+     * @param maxConnections the largest number of connections, including
+     *                       those still in their handshake. Further clients
+     *                       are disconnected. Must be positive.
+     * @throws NullPointerException if {@code gateway} or {@code device} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if the period or the maximum is not
+     *                                  positive, or the port is not valid.
+     */
+    public PushServer(CueServerGateway gateway,
+                      String device,
+                      long periodMillis,
+                      int port,
+                      int maxConnections)
+    {
+        checkArgument(periodMillis > 0, "periodMillis must be positive");
+        checkArgument(port >= 0 && port <= 0xFFFF, "invalid port: %s", port);
+        checkArgument(maxConnections > 0, "maxConnections must be positive");
+        this.gateway = checkNotNull(gateway, "gateway cannot be null");
+        this.device = checkNotNull(device, "device cannot be null");
+        this.periodMillis = periodMillis;
+        this.port = port;
+        this.connectionPermits = new Semaphore(maxConnections);
+    }
+
+    /**
+     * Starts listening for dashboards and subscribes to the device.
+     *
+     * @throws IOException if the port could not be bound.
+     * @throws IllegalStateException if the server was already started.
+     * @throws IllegalArgumentException if the device does not exist on the
+     *                                  gateway.
+     */
+    public synchronized void start() throws IOException
+    {
+        checkState(serverSocket == null, "server already started");
+        serverSocket = new ServerSocket(port);
+        executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("cueserver-push-%d")
+                .build());
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        });
+        subscription = gateway.subscribe(device, periodMillis, this);
+    }
+
+    /**
+     * Stops the server, cancelling its subscription and disconnecting every
+     * dashboard. A stopped server cannot be started again.
+     */
+    public synchronized void stop()
+    {
+        if(subscription != null)
+        {
+            subscription.cancel();
+        }
+        if(serverSocket != null)
+        {
+            try
+            {
+                serverSocket.close();
+            }
+            catch (IOException e)
+            {
+                LOGGER.debug("Error closing the push server", e);
+            }
+            executor.shutdownNow();
+        }
+        for(WebSocketConnection connection : connections)
+        {
+            connection.close();
+        }
+        connections.clear();
+    }
+
+    /**
+     * Gets the port the server listens on.
+     *
+     * @return the port, or -1 if the server was not started.
+     */
+    public synchronized int getPort()
+    {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    /**
+     * Gets the number of connected dashboards.
+     *
+     * @return the number of dashboards.
+     */
+    public int getConnectionCount()
+    {
+        return connections.size();
+    }
+
+    /**
+     * Sends the changes of the device to every dashboard.
+     *
+     * @param device the name of the device.
+     * @param snapshot the state of the device.
+     */
+    @Override
+    public void snapshotPolled(String device, DeviceSnapshot snapshot)
+    {
+        synchronized(lock)
+        {
+            PlaybackStatus newStatus = snapshot.getPlaybackStatus();
+            if(newStatus != null && !newStatus.equals(status))
+            {
+                status = newStatus;
+                broadcast(PushFrames.encodeStatus(newStatus));
+            }
+
+            Integer[] outputLevels = snapshot.getOutputLevels();
+            if(outputLevels != null)
+            {
+                byte[] newLevels = PushFrames.toBytes(outputLevels);
+                byte[] message = levels == null ?
+                        PushFrames.encodeLevels(newLevels) :
+                        PushFrames.encodeDelta(levels, newLevels);
+                levels = newLevels;
+                if(message != null)
+                {
+                    broadcast(message);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a message to every dashboard, dropping the dashboards that
+     * disconnected or fell behind.
+     *
+     * @param message the message.
+     */
+    private void broadcast(byte[] message)
+    {
+        for(WebSocketConnection connection : connections)
+        {
+            if(!connection.send(message))
+            {
+                connections.remove(connection);
+            }
+        }
+    }
+
+    /**
+     * Accepts dashboards until the server is stopped.
+     */
+    private void accept()
+    {
+        while(!serverSocket.isClosed())
+        {
+            try
+            {
+                final Socket socket = serverSocket.accept();
+                if(!connectionPermits.tryAcquire())
+                {
+                    LOGGER.debug("Too many push connections, closing {}",
+                            socket.getRemoteSocketAddress());
+                    socket.close();
+                    continue;
+                }
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        serve(socket);
+                    }
+                });
+            }
+            catch (IOException e)
+            {
+                LOGGER.debug("Push server stopped accepting", e);
+            }
+        }
+    }
+
+    /**
+     * Upgrades a socket to a WebSocket, sends it the current state and
+     * reads from it until it disconnects, then releases its permit.
+     *
+     * @param socket the socket of the dashboard.
+     */
+    private void serve(Socket socket)
+    {
+        try
+        {
+            serveConnection(socket);
+        }
+        finally
+        {
+            connectionPermits.release();
+        }
+    }
+
+    /**
+     * Upgrades a socket to a WebSocket, sends it the current state and
+     * reads from it until it disconnects.
+     *
+     * @param socket the socket of the dashboard.
+     */
+    private void serveConnection(Socket socket)
+    {
+        final WebSocketConnection connection =
+                new WebSocketConnection(socket);
+        try
+        {
+            socket.setTcpNoDelay(true);
+            if(!connection.handshake(HANDSHAKE_TIMEOUT_MILLIS))
+            {
+                return;
+            }
+            // dashboards rarely send anything once connected
+            socket.setSoTimeout(0);
+        }
+        catch (IOException e)
+        {
+            connection.close();
+            return;
+        }
+
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                connection.writeFrames();
+            }
+        });
+        synchronized(lock)
+        {
+            if(status != null)
+            {
+                connection.send(PushFrames.encodeStatus(status));
+            }
+            if(levels != null)
+            {
+                connection.send(PushFrames.encodeLevels(levels));
+            }
+            connections.add(connection);
+        }
+        connection.readFrames();
+        connections.remove(connection);
+    }
+}
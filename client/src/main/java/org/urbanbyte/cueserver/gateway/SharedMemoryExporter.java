@@ -0,0 +1,350 @@
+package org.urbanbyte.cueserver.gateway;
+
+import com.google.common.base.Charsets;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Publishes the latest state of gateway devices into a memory-mapped file,
+ * so that other processes on the host can read live output levels and cues
+ * from shared memory instead of polling the devices themselves. Subscribe
+ * the exporter to each device on a {@link CueServerGateway}; a device gets
+ * the next free slot the first time it is polled.
+ * <p>
+ * The layout is fixed. All numbers are little endian.
+ * <pre>
+ * File header, 64 bytes:
+ *   0  magic         4 bytes, "CSXP"
+ *   4  version       u32, 1
+ *   8  slot count    u32
+ *   12 slot size     u32, 640
+ *   16 reserved      48 bytes
+ * Slot n, at 64 + n * 640:
+ *   0  sequence      u64, odd while the slot is being written
+ *   8  time          u64, milliseconds since the epoch of the poll
+ *   16 device name   32 bytes, UTF-8, truncated or padded with 0
+ *   48 playbacks     u32, number of playbacks
+ *   52 cue words     4 x (i32 current cue, i32 next cue) in tenths, -1 if
+ *                    there is no cue
+ *   84 reserved      12 bytes
+ *   96 levels        512 bytes, channel 1 first
+ *   608 reserved     32 bytes
+ * </pre>
+ * A reader copies a slot only while its sequence is even and unchanged:
+ * read the sequence, skip the slot if it is odd, copy the fields, then read
+ * the sequence again and retry if it differs. The sequence of a slot that
+ * was never written is 0.
+ * <p>
+ * Slots are written without any system call. Each slot has a single writer,
+ * the poll of its device. A new exporter replaces the file rather than
+ * truncating it, so readers that still map the old file keep reading it.
+ * <p>
+ * author: Chris Reising
+ */
+public class SharedMemoryExporter implements SnapshotListener, Closeable
+{
+    /** The magic number at the start of the file. */
+    static final byte[] MAGIC = {'C', 'S', 'X', 'P'};
+
+    /** The version of the layout. */
+    static final int VERSION = 1;
+
+    /** The size of the file header. */
+    static final int HEADER_SIZE = 64;
+
+    /** The size of each slot. */
+    static final int SLOT_SIZE = 640;
+
+    /** Offset of the sequence within a slot. */
+    static final int SEQUENCE = 0;
+
+    /** Offset of the poll time within a slot. */
+    static final int TIME = 8;
+
+    /** Offset of the device name within a slot. */
+    static final int NAME = 16;
+
+    /** The longest device name, in bytes. */
+    static final int NAME_SIZE = 32;
+
+    /** Offset of the playback count within a slot. */
+    static final int PLAYBACK_COUNT = 48;
+
+    /** Offset of the cue words within a slot. */
+    static final int CUES = 52;
+
+    /** Offset of the output levels within a slot. */
+    static final int LEVELS = 96;
+
+    /** The number of output levels in a slot. */
+    static final int CHANNEL_COUNT = 512;
+
+    /** The cue written for a playback without a cue. */
+    static final int NO_CUE = Cue.NO_TENTHS;
+
+    /** The mapped file. */
+    private final MappedByteBuffer buffer;
+
+    /** The number of slots. */
+    private final int slotCount;
+
+    /** The slot of each device. */
+    private final ConcurrentMap<String, Integer> slots =
+            new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * {@code Unsafe.storeFence()} bound to the {@code Unsafe} instance, or
+     * {@code null} if the JVM has none. It is resolved once, since a
+     * reflective call on every write would be too slow.
+     */
+    private static final MethodHandle STORE_FENCE;
+
+    static
+    {
+        MethodHandle storeFence = null;
+        try
+        {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            storeFence = MethodHandles.lookup()
+                    .unreflect(type.getMethod("storeFence"))
+                    .bindTo(unsafe);
+        }
+        catch (Exception e)
+        {
+            // Java 7 has no store fence; the volatile fallback is used
+        }
+        STORE_FENCE = storeFence;
+    }
+
+    /** Written then read when there is no store fence. */
+    private volatile int fence;
+
+    /**
+     * Creates the file and maps it into memory. An existing file is replaced
+     * by renaming a new file over it; it is never truncated, since other
+     * processes may still map it and would fault reading past its end.
+     *
+     * @param file the file to publish to.
+     * @param slotCount the number of devices the file can hold. Must be
+     *                  positive.
+     * @throws IOException if the file could not be created, mapped or moved
+     *                     into place.
+     * @throws NullPointerException if {@code file} is {@code null}.
+     * @throws IllegalArgumentException if {@code slotCount} is not positive.
+     */
+    public SharedMemoryExporter(File file, int slotCount) throws IOException
+    {
+        checkNotNull(file, "file cannot be null");
+        checkArgument(slotCount > 0, "slotCount must be positive");
+        this.slotCount = slotCount;
+
+        int size = HEADER_SIZE + slotCount * SLOT_SIZE;
+        File temp = File.createTempFile(file.getName(), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        try
+        {
+            RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+            try
+            {
+                raf.setLength(size);
+                buffer = raf.getChannel().map(
+                        FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+            finally
+            {
+                raf.close();
+            }
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            for(int i = 0 ; i < MAGIC.length ; i++)
+            {
+                buffer.put(i, MAGIC[i]);
+            }
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, slotCount);
+            buffer.putInt(12, SLOT_SIZE);
+
+            // the header is complete before any reader can open the file
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e)
+        {
+            temp.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the slot of a device.
+     *
+     * @param device the name of the device.
+     * @return the index of the slot, or -1 if the device has none yet.
+     */
+    public int getSlot(String device)
+    {
+        Integer slot = slots.get(device);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Writes the state of a device into its slot. Parts of the snapshot
+     * that were not read keep their previous values. Devices polled after
+     * every slot was taken are not exported.
+     *
+     * @param device the name of the device.
+     * @param snapshot the state of the device.
+     */
+    @Override
+    public void snapshotPolled(String device, DeviceSnapshot snapshot)
+    {
+        int slot = slotOf(device);
+        if(slot < 0)
+        {
+            return;
+        }
+        int base = HEADER_SIZE + slot * SLOT_SIZE;
+        long sequence = buffer.getLong(base + SEQUENCE);
+        buffer.putLong(base + SEQUENCE, sequence + 1);
+        // the odd sequence must be visible before any of the fields
+        storeFence();
+
+        buffer.putLong(base + TIME, System.currentTimeMillis());
+        PlaybackStatus status = snapshot.getPlaybackStatus();
+        if(status != null)
+        {
+            buffer.putInt(base + PLAYBACK_COUNT, status.getPlaybackCount());
+            // playbacks missing from this status lose the cues of the last
+            for(int i = 0 ; i < PlaybackStatus.MAX_PLAYBACK_COUNT * 2 ; i++)
+            {
+                buffer.putInt(base + CUES + i * 4, NO_CUE);
+            }
+            for(PlaybackInfo info : status)
+            {
+                int offset = base + CUES + info.getPlayback().ordinal() * 8;
+                buffer.putInt(offset, Cue.tenthsOf(info.getCurrentCue()));
+                buffer.putInt(offset + 4, Cue.tenthsOf(info.getNextCue()));
+            }
+        }
+        Integer[] levels = snapshot.getOutputLevels();
+        if(levels != null)
+        {
+            int count = Math.min(levels.length, CHANNEL_COUNT);
+            for(int i = 0 ; i < count ; i++)
+            {
+                if(levels[i] != null)
+                {
+                    buffer.put(base + LEVELS + i, levels[i].byteValue());
+                }
+            }
+        }
+
+        // and the fields before the even sequence
+        storeFence();
+        buffer.putLong(base + SEQUENCE, sequence + 2);
+    }
+
+    /**
+     * Stops exporting. The mapping is released once it is garbage collected;
+     * the file keeps the last values written.
+     */
+    @Override
+    public void close()
+    {
+        buffer.force();
+    }
+
+    /**
+     * Gets the slot of a device, assigning the next free slot to a new
+     * device.
+     *
+     * @param device the name of the device.
+     * @return the index of the slot, or -1 if every slot is taken.
+     */
+    private int slotOf(String device)
+    {
+        Integer slot = slots.get(device);
+        if(slot != null)
+        {
+            return slot;
+        }
+        synchronized(slots)
+        {
+            slot = slots.get(device);
+            if(slot != null)
+            {
+                return slot;
+            }
+            if(slots.size() >= slotCount)
+            {
+                return -1;
+            }
+
+            int index = slots.size();
+            int base = HEADER_SIZE + index * SLOT_SIZE;
+            byte[] name = device.getBytes(Charsets.UTF_8);
+            int length = Math.min(name.length, NAME_SIZE);
+            for(int i = 0 ; i < length ; i++)
+            {
+                buffer.put(base + NAME + i, name[i]);
+            }
+            for(int i = 0 ; i < PlaybackStatus.MAX_PLAYBACK_COUNT * 2 ; i++)
+            {
+                buffer.putInt(base + CUES + i * 4, NO_CUE);
+            }
+            slots.put(device, index);
+            return index;
+        }
+    }
+
+    /**
+     * Keeps the stores before this call from being reordered with the stores
+     * after it. A volatile store alone would not: it only keeps earlier
+     * stores before it, and later stores may still move ahead of it.
+     * <p>
+     * Without {@code Unsafe.storeFence()} a volatile store and load are used
+     * instead. That is best-effort only: the Java memory model says nothing
+     * about readers in another process, so this relies on the JVM emitting
+     * a full fence for the pair, as HotSpot does.
+     */
+    private void storeFence()
+    {
+        if(STORE_FENCE != null)
+        {
+            try
+            {
+                STORE_FENCE.invokeExact();
+                return;
+            }
+            catch (Throwable e)
+            {
+                // fall back to the volatile store and load
+            }
+        }
+        fence = 1;
+        int ignored = fence;
+    }
+}
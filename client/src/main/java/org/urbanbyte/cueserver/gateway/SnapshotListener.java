@@ -0,0 +1,21 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+
+/**
+ * Receives the state of a CueServer polled by a {@link CueServerGateway}, at
+ * the period the listener subscribed with.
+ * <p>
+ * author: Chris Reising
+ */
+public interface SnapshotListener
+{
+    /**
+     * Called with the latest state of a device. Called on a gateway thread;
+     * implementations should return quickly.
+     *
+     * @param device the name of the device.
+     * @param snapshot the state of the device. Never {@code null}.
+     */
+    void snapshotPolled(String device, DeviceSnapshot snapshot);
+}
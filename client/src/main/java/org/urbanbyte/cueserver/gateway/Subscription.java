@@ -0,0 +1,121 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A listener's subscription to the state of a device polled by a
+ * {@link CueServerGateway}. The listener is notified at most about once per
+ * period until the subscription is cancelled.
+ * <p>
+ * author: Chris Reising
+ */
+public class Subscription
+{
+    /** The gateway the subscription belongs to. */
+    private final CueServerGateway gateway;
+
+    /** The name of the device. */
+    private final String device;
+
+    /** How often the listener wants the state of the device. */
+    private final long periodMillis;
+
+    /** Receives the state of the device. */
+    private final SnapshotListener listener;
+
+    /** When the listener was last notified, or 0 if it never was. */
+    private long lastNotifiedNanos;
+
+    /** {@code true} once the subscription was cancelled. */
+    private volatile boolean cancelled;
+
+    /**
+     * Creates a new {@code Subscription}.
+     *
+     * @param gateway the gateway the subscription belongs to.
+     * @param device the name of the device.
+     * @param periodMillis how often the listener wants the state.
+     * @param listener receives the state of the device.
+     */
+    Subscription(CueServerGateway gateway,
+                 String device,
+                 long periodMillis,
+                 SnapshotListener listener)
+    {
+        this.gateway = gateway;
+        this.device = device;
+        this.periodMillis = periodMillis;
+        this.listener = listener;
+    }
+
+    /**
+     * Gets the name of the device.
+     *
+     * @return Never {@code null}.
+     */
+    public String getDevice()
+    {
+        return device;
+    }
+
+    /**
+     * Gets how often the listener wants the state of the device.
+     *
+     * @return the period in milliseconds.
+     */
+    public long getPeriodMillis()
+    {
+        return periodMillis;
+    }
+
+    /**
+     * Checks whether the subscription was cancelled.
+     *
+     * @return {@code true} if it was cancelled.
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Stops notifying the listener. The device is polled more slowly, or not
+     * at all, if this was its fastest subscription.
+     */
+    public void cancel()
+    {
+        if(!cancelled)
+        {
+            cancelled = true;
+            gateway.unsubscribe(this);
+        }
+    }
+
+    /**
+     * Notifies the listener if its period has elapsed. Only called by the
+     * device's poll, which never runs concurrently with itself.
+     *
+     * @param snapshot the state of the device.
+     * @param nowNanos the current time.
+     * @param slackNanos how early the listener may be notified, so that a
+     *                   poll that arrives slightly before the period elapses
+     *                   is not skipped.
+     * @return {@code true} if the listener was notified.
+     */
+    boolean notifyIfDue(DeviceSnapshot snapshot,
+                        long nowNanos,
+                        long slackNanos)
+    {
+        if(cancelled || (lastNotifiedNanos != 0 && nowNanos -
+                lastNotifiedNanos < TimeUnit.MILLISECONDS.toNanos(
+                        periodMillis) - slackNanos))
+        {
+            return false;
+        }
+        lastNotifiedNanos = nowNanos;
+        listener.snapshotPolled(device, snapshot);
+        return true;
+    }
+}
@@ -0,0 +1,383 @@
+package org.urbanbyte.cueserver.gateway;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A server side WebSocket connection of a {@link PushServer}. Only what a
+ * push server needs is supported: the opening handshake, binary messages to
+ * the browser, and pings and close frames from it. Messages received from
+ * the browser are ignored.
+ * <p>
+ * Messages are queued and written by the connection's own thread, so a slow
+ * browser never holds up the poll that produced them. A browser that falls so
+ * far behind that its queue fills is disconnected; once it reconnects it
+ * receives the full state again.
+ * <p>
+ * author: Chris Reising
+ */
+class WebSocketConnection
+{
+    /** Appended to the key of a handshake before it is hashed. */
+    static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /** The opcode of a binary message. */
+    static final int OPCODE_BINARY = 0x2;
+
+    /** The opcode of a close frame. */
+    static final int OPCODE_CLOSE = 0x8;
+
+    /** The opcode of a ping. */
+    static final int OPCODE_PING = 0x9;
+
+    /** The opcode of a pong. */
+    static final int OPCODE_PONG = 0xA;
+
+    /** The close status sent when a browser breaks the protocol. */
+    static final int STATUS_PROTOCOL_ERROR = 1002;
+
+    /** The number of frames that can wait to be written. */
+    private static final int QUEUE_CAPACITY = 64;
+
+    /** The largest handshake request that is accepted. */
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    /** The largest message accepted from a browser. */
+    private static final int MAX_PAYLOAD_SIZE = 4096;
+
+    /** Queued to stop the writing thread. */
+    private static final byte[] STOP = new byte[0];
+
+    /** The socket of the browser. */
+    private final Socket socket;
+
+    /** The frames waiting to be written. */
+    private final BlockingQueue<byte[]> outgoing =
+            new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY + 1);
+
+    /** {@code true} once the connection was closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new {@code WebSocketConnection}.
+     *
+     * @param socket the socket of the browser.
+     */
+    WebSocketConnection(Socket socket)
+    {
+        this.socket = socket;
+    }
+
+    /**
+     * Reads the opening handshake and accepts it if it is a WebSocket
+     * upgrade. Other requests are answered with 400 and closed.
+     *
+     * @param timeoutMillis the longest time the whole request may take to
+     *                      arrive. The socket's read timeout only bounds
+     *                      each read, which a client sending a byte at a
+     *                      time would never exceed.
+     * @return {@code true} if the connection was upgraded.
+     * @throws SocketTimeoutException if the request did not arrive in time.
+     * @throws IOException if the socket failed.
+     */
+    boolean handshake(int timeoutMillis) throws IOException
+    {
+        Map<String, String> headers = readRequestHeaders(System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(timeoutMillis));
+        String key = headers == null ? null :
+                headers.get("sec-websocket-key");
+        String upgrade = headers == null ? null : headers.get("upgrade");
+        OutputStream out = socket.getOutputStream();
+        if(key == null || !"websocket".equalsIgnoreCase(upgrade))
+        {
+            out.write(("HTTP/1.1 400 Bad Request\r\n" +
+                    "Connection: close\r\n" +
+                    "Content-Length: 0\r\n\r\n").getBytes(Charsets.US_ASCII));
+            out.flush();
+            close();
+            return false;
+        }
+
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n")
+                .getBytes(Charsets.US_ASCII));
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Queues a binary message.
+     *
+     * @param message the message.
+     * @return {@code false} if the connection is closed, or was closed
+     *         because the browser fell behind.
+     */
+    boolean send(byte[] message)
+    {
+        return queue(frame(OPCODE_BINARY, message));
+    }
+
+    /**
+     * Writes the queued frames until the connection is closed, then closes
+     * the socket. Runs on the connection's writing thread.
+     */
+    void writeFrames()
+    {
+        try
+        {
+            OutputStream out = socket.getOutputStream();
+            while(true)
+            {
+                byte[] frame = outgoing.take();
+                if(frame == STOP)
+                {
+                    break;
+                }
+                out.write(frame);
+                if(outgoing.isEmpty())
+                {
+                    out.flush();
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // the browser disconnected
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    /**
+     * Reads frames from the browser until it disconnects, answering pings
+     * and close frames. A frame that is not masked breaks the protocol, so
+     * it is answered with a close frame and ends the connection. Runs on the
+     * connection's reading thread.
+     */
+    void readFrames()
+    {
+        try
+        {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            while(!closed)
+            {
+                int first = in.readUnsignedByte();
+                int second = in.readUnsignedByte();
+                if((second & 0x80) == 0)
+                {
+                    queue(frame(OPCODE_CLOSE, new byte[]{
+                            (byte) (STATUS_PROTOCOL_ERROR >> 8),
+                            (byte) STATUS_PROTOCOL_ERROR}));
+                    break;
+                }
+                long length = second & 0x7F;
+                if(length == 126)
+                {
+                    length = in.readUnsignedShort();
+                }
+                else if(length == 127)
+                {
+                    length = in.readLong();
+                }
+                if(length < 0 || length > MAX_PAYLOAD_SIZE)
+                {
+                    break;
+                }
+
+                byte[] mask = new byte[4];
+                in.readFully(mask);
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                for(int i = 0 ; i < payload.length ; i++)
+                {
+                    payload[i] ^= mask[i % 4];
+                }
+
+                int opcode = first & 0x0F;
+                if(opcode == OPCODE_PING)
+                {
+                    queue(frame(OPCODE_PONG, payload));
+                }
+                else if(opcode == OPCODE_CLOSE)
+                {
+                    queue(frame(OPCODE_CLOSE, new byte[0]));
+                    break;
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            // the browser disconnected
+        }
+        finish();
+    }
+
+    /**
+     * Checks whether the connection was closed.
+     *
+     * @return {@code true} if it was closed.
+     */
+    boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Closes the connection immediately, dropping any queued frames.
+     */
+    void close()
+    {
+        closed = true;
+        outgoing.clear();
+        outgoing.offer(STOP);
+        try
+        {
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // already closed
+        }
+    }
+
+    /**
+     * Lets the queued frames be written, then closes the connection.
+     */
+    private void finish()
+    {
+        closed = true;
+        outgoing.offer(STOP);
+    }
+
+    /**
+     * Queues a frame, closing the connection if the browser fell behind.
+     *
+     * @param frame the frame.
+     * @return {@code false} if the connection is closed.
+     */
+    private boolean queue(byte[] frame)
+    {
+        if(closed)
+        {
+            return false;
+        }
+        if(outgoing.size() >= QUEUE_CAPACITY || !outgoing.offer(frame))
+        {
+            close();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Computes the accept key of a handshake.
+     *
+     * @param key the {@code Sec-WebSocket-Key} of the request.
+     * @return the value of {@code Sec-WebSocket-Accept}.
+     */
+    static String acceptKey(String key)
+    {
+        return BaseEncoding.base64().encode(Hashing.sha1().hashString(
+                key.trim() + ACCEPT_GUID, Charsets.US_ASCII).asBytes());
+    }
+
+    /**
+     * Wraps a payload in a final, unmasked frame.
+     *
+     * @param opcode the opcode of the frame.
+     * @param payload the payload.
+     * @return the frame.
+     */
+    static byte[] frame(int opcode, byte[] payload)
+    {
+        int header = payload.length < 126 ? 2 :
+                payload.length <= 0xFFFF ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(header + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        if(header == 2)
+        {
+            frame.put((byte) payload.length);
+        }
+        else if(header == 4)
+        {
+            frame.put((byte) 126).putShort((short) payload.length);
+        }
+        else
+        {
+            frame.put((byte) 127).putLong(payload.length);
+        }
+        return frame.put(payload).array();
+    }
+
+    /**
+     * Reads the headers of an HTTP request.
+     *
+     * @param deadlineNanos when the whole request must have arrived.
+     * @return the headers with lower case names, or {@code null} if the
+     *         request is too large or incomplete.
+     * @throws SocketTimeoutException if the deadline passed.
+     * @throws IOException if the socket failed.
+     */
+    private Map<String, String> readRequestHeaders(long deadlineNanos)
+            throws IOException
+    {
+        InputStream in = socket.getInputStream();
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        int matched = 0;
+        while(matched < 4)
+        {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(
+                    deadlineNanos - System.nanoTime());
+            if(remaining <= 0)
+            {
+                throw new SocketTimeoutException(
+                        "The handshake took too long.");
+            }
+            socket.setSoTimeout((int) remaining);
+            int b = in.read();
+            if(b < 0 || request.size() >= MAX_REQUEST_SIZE)
+            {
+                return null;
+            }
+            request.write(b);
+            boolean expected = (matched % 2 == 0) ? b == '\r' : b == '\n';
+            matched = expected ? matched + 1 : (b == '\r' ? 1 : 0);
+        }
+
+        Map<String, String> headers = new HashMap<String, String>();
+        String[] lines = new String(request.toByteArray(),
+                Charsets.ISO_8859_1).split("\r\n");
+        for(int i = 1 ; i < lines.length ; i++)
+        {
+            int colon = lines[i].indexOf(':');
+            if(colon > 0)
+            {
+                headers.put(lines[i].substring(0, colon).trim()
+                                .toLowerCase(Locale.ENGLISH),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,26 @@
+package org.urbanbyte.cueserver.http;
+
+/**
+ * A transport whose requests can be aborted by another thread while they are
+ * in flight. Aborting a request closes its connection, so a request whose
+ * reply is no longer needed does not hold a pooled connection until the
+ * reply arrives.
+ * <p>
+ * author: Chris Reising
+ */
+public interface AbortableHttpTransport extends HttpTransport
+{
+    /**
+     * Submits the provided URL as a HTTP get request that can be aborted. An
+     * aborted request is not retried.
+     *
+     * @param fullUrl the URL to submit.
+     * @param abort aborts the request when {@link RequestAbort#abort()} is
+     *              called, even before the request was sent.
+     * @return the bytes read from the request as integers with value
+     *         [0, 255], or {@code null} if the request failed or was
+     *         aborted.
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    Integer[] submitHttpGetRequest(String fullUrl, RequestAbort abort);
+}
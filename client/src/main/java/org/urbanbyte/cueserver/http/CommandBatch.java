@@ -0,0 +1,540 @@
+package org.urbanbyte.cueserver.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.data.playback.Playback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Collects commands for a CueServer and sends them in as few
+ * {@code exe.cgi} requests as possible. The CueServer executes commands
+ * separated by a semicolon in order, so a batch costs one round trip per
+ * request instead of one per command. Commands are split across several
+ * requests only when a single request would exceed the maximum command
+ * length.
+ * <p>
+ * Commands are validated when they are added. A batch is not thread safe and
+ * may be reused after it has been submitted. The client's listeners are
+ * notified of the commands of each request that succeeded once all of the
+ * requests have been sent.
+ * <p>
+ * author: Chris Reising
+ */
+public class CommandBatch
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(CommandBatch.class);
+
+    /** Default maximum length of the commands sent in a single request. */
+    public static final int DEFAULT_MAX_COMMAND_LENGTH = 1024;
+
+    /** The client the commands are sent with. */
+    private final HttpCueServerClient client;
+
+    /** The maximum length of the commands sent in a single request. */
+    private final int maxCommandLength;
+
+    /** The commands waiting to be sent. */
+    private final List<String> commands = new ArrayList<String>();
+
+    /** Notify the client's listeners once each command has been sent, or
+     * {@code null} for commands that are not reported. */
+    private final List<Runnable> notifications = new ArrayList<Runnable>();
+
+    /** The number of requests of the last submit that failed. */
+    private int failedCount;
+
+    /** Whether each command of the last submit was in a failed request. */
+    private boolean[] failedCommands = new boolean[0];
+
+    /**
+     * Creates a new {@code CommandBatch} using the default maximum command
+     * length.
+     *
+     * @param client the client the commands are sent with.
+     * @throws NullPointerException if {@code client} is {@code null}.
+     */
+    CommandBatch(HttpCueServerClient client)
+    {
+        this(client, DEFAULT_MAX_COMMAND_LENGTH);
+    }
+
+    /**
+     * Creates a new {@code CommandBatch}.
+     *
+     * @param client the client the commands are sent with.
+     * @param maxCommandLength the maximum length of the commands sent in a
+     *                         single request. Must be positive.
+     * @throws NullPointerException if {@code client} is {@code null}.
+     * @throws IllegalArgumentException if {@code maxCommandLength} is not
+     *                                  positive.
+     */
+    CommandBatch(HttpCueServerClient client, int maxCommandLength)
+    {
+        checkArgument(maxCommandLength > 0,
+                "maxCommandLength must be positive");
+        this.client = checkNotNull(client, "client cannot be null");
+        this.maxCommandLength = maxCommandLength;
+    }
+
+    /**
+     * Adds a command that plays a cue.
+     *
+     * @param cueNumber the cue number to execute. Must be positive.
+     * @param playback the playback to execute the cue on.
+     * @return {@code this} batch.
+     * @throws IllegalArgumentException if {@code cueNumber} is not positive.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     * @see org.urbanbyte.cueserver.CueServerClient#playCue(double, Playback)
+     */
+    public CommandBatch playCue(final double cueNumber,
+                                final Playback playback)
+    {
+        return add(client.playCueCommand(cueNumber, playback), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                client.fireCuePlayed(cueNumber, playback);
+            }
+        });
+    }
+
+    /**
+     * Adds a command that clears a playback.
+     *
+     * @param playback the playback to clear.
+     * @return {@code this} batch.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     * @see org.urbanbyte.cueserver.CueServerClient#clearPlayback(Playback)
+     */
+    public CommandBatch clearPlayback(final Playback playback)
+    {
+        return add(client.clearPlaybackCommand(playback), new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                client.firePlaybackCleared(playback);
+            }
+        });
+    }
+
+    /**
+     * Adds a command that sets a channel.
+     *
+     * @param channel The channel to set. Must be within
+     *                [1, 512 * universe count].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The time in seconds for the channel to complete its
+     *                    transition. Must be within [0, 65000].
+     * @param playback the playback controlling the channel.
+     * @return {@code this} batch.
+     * @throws IllegalArgumentException if any argument is out of its bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     * @see org.urbanbyte.cueserver.CueServerClient#setChannel(int, int,
+     *      double, Playback)
+     */
+    public CommandBatch setChannel(int channel,
+                                   int value,
+                                   double timeSeconds,
+                                   Playback playback)
+    {
+        return add(client.setChannelCommand(channel, value, timeSeconds,
+                playback), channelsSet(channel, channel, value, timeSeconds,
+                playback));
+    }
+
+    /**
+     * Adds a command that sets a range of channels.
+     *
+     * @param startChannel The beginning of the range. Must be within
+     *                     [1, 512 * universe count].
+     * @param endChannel The end of the range. Must be within
+     *                   [1, 512 * universe count].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The time in seconds for the channel to complete its
+     *                    transition. Must be within [0, 65000].
+     * @param playback the playback controlling the channels.
+     * @return {@code this} batch.
+     * @throws IllegalArgumentException if the end is greater than the start
+     *                                  range, or if any value is outside of
+     *                                  its bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     * @see org.urbanbyte.cueserver.CueServerClient#setChannelRange(int, int,
+     *      int, double, Playback)
+     */
+    public CommandBatch setChannelRange(int startChannel,
+                                        int endChannel,
+                                        int value,
+                                        double timeSeconds,
+                                        Playback playback)
+    {
+        return add(client.setChannelRangeCommand(startChannel, endChannel,
+                value, timeSeconds, playback), channelsSet(startChannel,
+                endChannel, value, timeSeconds, playback));
+    }
+
+    /**
+     * Adds a command that sets a channel of a universe.
+     *
+     * @param universe the universe of the channel. Must be within
+     *                 [1, universe count].
+     * @param channel The channel within the universe. Must be within
+     *                [1, 512].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The time in seconds for the channel to complete its
+     *                    transition. Must be within [0, 65000].
+     * @param playback the playback controlling the channel.
+     * @return {@code this} batch.
+     * @throws IllegalArgumentException if any argument is out of its bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     * @see org.urbanbyte.cueserver.CueServerClient#setChannel(int, int, int,
+     *      double, Playback)
+     */
+    public CommandBatch setChannel(int universe,
+                                   int channel,
+                                   int value,
+                                   double timeSeconds,
+                                   Playback playback)
+    {
+        return setChannel(client.toAbsoluteChannel(universe, channel), value,
+                timeSeconds, playback);
+    }
+
+    /**
+     * Adds a command that sets a range of channels of a universe.
+     *
+     * @param universe the universe of the channels. Must be within
+     *                 [1, universe count].
+     * @param startChannel The beginning of the range within the universe.
+     *                     Must be within [1, 512].
+     * @param endChannel The end of the range within the universe. Must be
+     *                   within [1, 512].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The time in seconds for the channel to complete its
+     *                    transition. Must be within [0, 65000].
+     * @param playback the playback controlling the channels.
+     * @return {@code this} batch.
+     * @throws IllegalArgumentException if the end is greater than the start
+     *                                  range, or if any value is outside of
+     *                                  its bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     * @see org.urbanbyte.cueserver.CueServerClient#setChannelRange(int, int,
+     *      int, int, double, Playback)
+     */
+    public CommandBatch setChannelRange(int universe,
+                                        int startChannel,
+                                        int endChannel,
+                                        int value,
+                                        double timeSeconds,
+                                        Playback playback)
+    {
+        return setChannelRange(client.toAbsoluteChannel(universe, startChannel),
+                client.toAbsoluteChannel(universe, endChannel), value,
+                timeSeconds, playback);
+    }
+
+    /**
+     * Adds the commands that set consecutive channels to the given levels.
+     * Runs of equal levels are combined into a single range command, so a
+     * look with large areas at the same level needs only a few commands.
+     *
+     * @param startChannel the channel of the first level. Must be within
+     *                     [1, 512 * universe count].
+     * @param levels the levels, unsigned, of {@code startChannel} and the
+     *               channels that follow it. The last channel must be valid.
+     * @param timeSeconds The time in seconds for the channels to complete
+     *                    their transition. Must be within [0, 65000].
+     * @param playback the playback controlling the channels.
+     * @return {@code this} batch.
+     * @throws IllegalArgumentException if any channel or the time is out of
+     *                                  its bounds.
+     * @throws NullPointerException if {@code levels} or {@code playback} is
+     *                              {@code null}.
+     * @see org.urbanbyte.cueserver.CueServerClient#setLevels(int, byte[],
+     *      double, Playback)
+     */
+    public CommandBatch setLevels(int startChannel,
+                                  byte[] levels,
+                                  double timeSeconds,
+                                  Playback playback)
+    {
+        checkNotNull(levels, "levels cannot be null");
+        checkNotNull(playback, "playback cannot be null");
+        if(levels.length == 0)
+        {
+            return this;
+        }
+        // validate the whole range before adding any command
+        client.setChannelRangeCommand(startChannel,
+                startChannel + levels.length - 1, 0, timeSeconds, playback);
+
+        int runStart = 0;
+        for(int index = 1 ; index <= levels.length ; index++)
+        {
+            if(index < levels.length && levels[index] == levels[runStart])
+            {
+                continue;
+            }
+            int value = levels[runStart] & 0xFF;
+            if(index - runStart == 1)
+            {
+                setChannel(startChannel + runStart, value, timeSeconds,
+                        playback);
+            }
+            else
+            {
+                setChannelRange(startChannel + runStart,
+                        startChannel + index - 1, value, timeSeconds,
+                        playback);
+            }
+            runStart = index;
+        }
+        return this;
+    }
+
+    /**
+     * Adds a command that records a cue.
+     *
+     * @param cueNumber the cue number to record. Must be positive.
+     * @param uptimeSecs the fade's uptime in seconds. Must be within
+     *                   [0, 65000].
+     * @param downtimeSecs the fade's downtime in seconds. Must be within
+     *                     [0, 65000].
+     * @return {@code this} batch.
+     * @throws IllegalArgumentException if any argument is out of bounds.
+     * @see org.urbanbyte.cueserver.CueServerClient#recordCue(double, double,
+     *      double)
+     */
+    public CommandBatch recordCue(double cueNumber,
+                                  double uptimeSecs,
+                                  double downtimeSecs)
+    {
+        return add(client.recordCueCommand(cueNumber, uptimeSecs,
+                downtimeSecs), null);
+    }
+
+    /**
+     * Moves the commands of another batch to the end of this batch. The
+     * commands keep their order and the other batch is emptied.
+     *
+     * @param other a batch of the same client.
+     * @return {@code this} batch.
+     * @throws NullPointerException if {@code other} is {@code null}.
+     * @throws IllegalArgumentException if {@code other} belongs to another
+     *                                  client.
+     */
+    public CommandBatch addAll(CommandBatch other)
+    {
+        checkArgument(checkNotNull(other, "other cannot be null").client ==
+                client, "other must belong to the same client");
+        commands.addAll(other.commands);
+        notifications.addAll(other.notifications);
+        other.clear();
+        return this;
+    }
+
+    /**
+     * Gets the number of commands waiting to be sent.
+     *
+     * @return the number of commands.
+     */
+    public int size()
+    {
+        return commands.size();
+    }
+
+    /**
+     * Checks if there are commands waiting to be sent.
+     *
+     * @return {@code true} if the batch contains no commands.
+     */
+    public boolean isEmpty()
+    {
+        return commands.isEmpty();
+    }
+
+    /**
+     * Removes all commands from the batch without sending them.
+     */
+    public void clear()
+    {
+        commands.clear();
+        notifications.clear();
+    }
+
+    /**
+     * Sends all of the commands in the batch, in the order they were added,
+     * and empties the batch. The client's listeners are notified of the
+     * commands of each request that succeeded.
+     *
+     * @return the number of requests that were sent to the CueServer.
+     * @see #getFailedCount()
+     */
+    public int submit()
+    {
+        List<Integer> commandCounts = new ArrayList<Integer>();
+        List<String> requests = pack(commandCounts);
+        boolean[] sent = new boolean[requests.size()];
+        failedCount = 0;
+        for(int index = 0 ; index < requests.size() ; index++)
+        {
+            LOGGER.debug("Batch command: {}", requests.get(index));
+            sent[index] = client.submitCommand(requests.get(index));
+            if(!sent[index])
+            {
+                failedCount++;
+            }
+        }
+        commands.clear();
+
+        failedCommands = new boolean[notifications.size()];
+        int command = 0;
+        for(int index = 0 ; index < requests.size() ; index++)
+        {
+            int end = command + commandCounts.get(index);
+            for( ; command < end ; command++)
+            {
+                failedCommands[command] = !sent[index];
+                Runnable notification = notifications.get(command);
+                if(sent[index] && notification != null)
+                {
+                    notification.run();
+                }
+            }
+        }
+        notifications.clear();
+        return requests.size();
+    }
+
+    /**
+     * Gets the number of requests of the last {@link #submit()} that failed.
+     * The commands of a failed request may or may not have been executed.
+     *
+     * @return the number of failed requests.
+     */
+    public int getFailedCount()
+    {
+        return failedCount;
+    }
+
+    /**
+     * Checks if a command of the last {@link #submit()} was part of a request
+     * that failed.
+     *
+     * @param command the index of the command, in the order the commands
+     *                were added.
+     * @return {@code true} if the request carrying the command failed.
+     * @throws IndexOutOfBoundsException if the last submit had no such
+     *                                   command.
+     */
+    public boolean isFailed(int command)
+    {
+        if(command < 0 || command >= failedCommands.length)
+        {
+            throw new IndexOutOfBoundsException("no command " + command);
+        }
+        return failedCommands[command];
+    }
+
+    /**
+     * Joins the commands into requests that do not exceed the maximum command
+     * length. A single command longer than the maximum is sent on its own.
+     *
+     * @return the commands for each request. Never {@code null}.
+     */
+    List<String> pack()
+    {
+        return pack(new ArrayList<Integer>());
+    }
+
+    /**
+     * Joins the commands into requests that do not exceed the maximum command
+     * length. A single command longer than the maximum is sent on its own.
+     *
+     * @param commandCounts receives the number of commands in each request.
+     * @return the commands for each request. Never {@code null}.
+     */
+    private List<String> pack(List<Integer> commandCounts)
+    {
+        List<String> requests = new ArrayList<String>();
+        StringBuilder request = new StringBuilder();
+        int count = 0;
+        for(String command : commands)
+        {
+            if(request.length() > 0 &&
+                    request.length() +
+                            HttpCueServerClient.COMMAND_SEPARATOR.length() +
+                            command.length() > maxCommandLength)
+            {
+                requests.add(request.toString());
+                commandCounts.add(count);
+                request.setLength(0);
+                count = 0;
+            }
+
+            if(request.length() > 0)
+            {
+                request.append(HttpCueServerClient.COMMAND_SEPARATOR);
+            }
+            request.append(command);
+            count++;
+        }
+
+        if(request.length() > 0)
+        {
+            requests.add(request.toString());
+            commandCounts.add(count);
+        }
+        return requests;
+    }
+
+    /**
+     * Creates a notification that a range of channels was set.
+     *
+     * @param startChannel the first channel.
+     * @param endChannel the last channel.
+     * @param value the level.
+     * @param timeSeconds the transition time.
+     * @param playback the playback controlling the channels.
+     * @return Never {@code null}.
+     */
+    private Runnable channelsSet(final int startChannel,
+                                 final int endChannel,
+                                 final int value,
+                                 final double timeSeconds,
+                                 final Playback playback)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                client.fireChannelsSet(startChannel, endChannel, value,
+                        timeSeconds, playback);
+            }
+        };
+    }
+
+    /**
+     * Adds a command to the batch.
+     *
+     * @param command the command to add.
+     * @param notification notifies the listeners once the command has been
+     *                     sent, or {@code null} if it is not reported.
+     * @return {@code this} batch.
+     */
+    private CommandBatch add(String command, Runnable notification)
+    {
+        commands.add(command);
+        notifications.add(notification);
+        return this;
+    }
+}
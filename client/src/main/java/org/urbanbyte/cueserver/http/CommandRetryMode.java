@@ -0,0 +1,19 @@
+package org.urbanbyte.cueserver.http;
+
+/**
+ * How {@code exe.cgi} commands are retried after a failure. Commands are not
+ * idempotent: a retried {@code GO} that had already reached the CueServer
+ * advances the cue twice.
+ * <p>
+ * author: Chris Reising
+ */
+public enum CommandRetryMode
+{
+    /** Commands are never retried. */
+    AT_MOST_ONCE,
+    /**
+     * Commands are only retried when the connection could not be opened, in
+     * which case the command never reached the CueServer.
+     */
+    RETRY_ON_CONNECT_FAILURE
+}
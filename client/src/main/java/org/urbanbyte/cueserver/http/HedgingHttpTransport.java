@@ -0,0 +1,313 @@
+package org.urbanbyte.cueserver.http;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Hedges the idempotent {@code get.cgi} reads of another transport. When a
+ * read has not completed within the 95th percentile of the recently observed
+ * read latencies, a second identical read is sent and whichever reply
+ * arrives first is returned. This cuts the tail latency of status and output
+ * reads on congested networks for roughly 5% more read requests.
+ * <p>
+ * {@code exe.cgi} commands are never hedged, since executing a command twice
+ * can, for example, advance a cue twice. They are passed straight to the
+ * wrapped transport.
+ * <p>
+ * The wrapped transport must be able to send two requests to the same
+ * CueServer at once. A {@link SimpleHttpClient} created with its default
+ * constructor pools two connections per host, which is enough. Once a reply
+ * is returned, the other read is aborted if the wrapped transport is an
+ * {@link AbortableHttpTransport}, so that it releases its connection instead
+ * of holding it until its reply arrives. Interrupting a thread does not stop
+ * blocking socket I/O, so with any other transport the losing read runs to
+ * completion.
+ * <p>
+ * author: Chris Reising
+ */
+public class HedgingHttpTransport implements HttpTransport
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(HedgingHttpTransport.class);
+
+    /** The part of the URL that identifies an idempotent read. */
+    private static final String READ_PATH = "/get.cgi/";
+
+    /** The percentile of the read latency after which a read is hedged. */
+    private static final double HEDGE_PERCENTILE = 0.95;
+
+    /** The number of read latencies the percentile is computed from. */
+    @VisibleForTesting
+    static final int WINDOW_SIZE = 256;
+
+    /** The number of reads to observe before any read is hedged. */
+    @VisibleForTesting
+    static final int MIN_SAMPLES = 20;
+
+    /** The number of new samples after which the percentile is recomputed. */
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    /** The transport the requests are sent with. */
+    private final HttpTransport delegate;
+
+    /** Sends the requests so that the first reply can be returned. */
+    private final ExecutorService executor;
+
+    /** The most recent read latencies in nanoseconds. */
+    private final long[] latencies = new long[WINDOW_SIZE];
+
+    /** The total number of latencies recorded. */
+    private long sampleCount;
+
+    /** Delay before a read is hedged, or -1 until enough reads were seen. */
+    private volatile long hedgeDelayNanos = -1;
+
+    /** The number of reads that were hedged. */
+    private final AtomicLong hedgeCount = new AtomicLong();
+
+    /**
+     * Creates a new {@code HedgingHttpTransport} that sends requests on a
+     * pool of daemon threads.
+     *
+     * @param delegate the transport the requests are sent with.
+     * @throws NullPointerException if {@code delegate} is {@code null}.
+     */
+    public HedgingHttpTransport(HttpTransport delegate)
+    {
+        this(delegate, Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("cueserver-hedge-%d")
+                .build()));
+    }
+
+    /**
+     * Creates a new {@code HedgingHttpTransport}.
+     *
+     * @param delegate the transport the requests are sent with.
+     * @param executor sends the reads. Must be able to run two reads for
+     *                 every caller at once.
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    public HedgingHttpTransport(HttpTransport delegate,
+                                ExecutorService executor)
+    {
+        this.delegate = checkNotNull(delegate, "delegate cannot be null");
+        this.executor = checkNotNull(executor, "executor cannot be null");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer[] submitHttpGetRequest(String fullUrl)
+    {
+        checkNotNull(fullUrl, "fullUrl cannot be null");
+        if(!fullUrl.contains(READ_PATH))
+        {
+            return delegate.submitHttpGetRequest(fullUrl);
+        }
+
+        long delay = hedgeDelayNanos;
+        if(delay < 0)
+        {
+            return new TimedRead(fullUrl).call();
+        }
+
+        CompletionService<Integer[]> completion =
+                new ExecutorCompletionService<Integer[]>(executor);
+        TimedRead primaryRead = new TimedRead(fullUrl);
+        Future<Integer[]> primary = completion.submit(primaryRead);
+        TimedRead hedgeRead = null;
+        Future<Integer[]> hedge = null;
+        try
+        {
+            Future<Integer[]> first =
+                    completion.poll(delay, TimeUnit.NANOSECONDS);
+            if(first == null)
+            {
+                hedgeCount.incrementAndGet();
+                LOGGER.debug("Hedging read: {}", fullUrl);
+                hedgeRead = new TimedRead(fullUrl);
+                hedge = completion.submit(hedgeRead);
+                first = completion.take();
+            }
+
+            Integer[] reply = getReply(first);
+            if(reply == null && hedge != null)
+            {
+                // the first reply failed, wait for the other one
+                reply = getReply(completion.take());
+            }
+            return reply;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        finally
+        {
+            primaryRead.cancel(primary);
+            if(hedge != null)
+            {
+                hedgeRead.cancel(hedge);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of reads that were hedged.
+     *
+     * @return the number of hedged reads.
+     */
+    public long getHedgeCount()
+    {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Gets the delay after which a read is hedged.
+     *
+     * @return the delay in nanoseconds, or -1 if not enough reads have been
+     *         observed to hedge.
+     */
+    public long getHedgeDelayNanos()
+    {
+        return hedgeDelayNanos;
+    }
+
+    /**
+     * Records the latency of a successful read, or the time an abandoned
+     * read had run for.
+     *
+     * @param latencyNanos the latency.
+     */
+    private synchronized void recordLatency(long latencyNanos)
+    {
+        latencies[(int) (sampleCount % WINDOW_SIZE)] = latencyNanos;
+        sampleCount++;
+        if(sampleCount >= MIN_SAMPLES &&
+                (sampleCount % RECOMPUTE_INTERVAL == 0 ||
+                        hedgeDelayNanos < 0))
+        {
+            int count = (int) Math.min(sampleCount, WINDOW_SIZE);
+            long[] sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            hedgeDelayNanos = sorted[(int) (HEDGE_PERCENTILE * (count - 1))];
+        }
+    }
+
+    /**
+     * Gets the reply of a completed read.
+     *
+     * @param future the completed read.
+     * @return the reply, or {@code null} if the read failed.
+     * @throws InterruptedException if the thread was interrupted.
+     */
+    private static Integer[] getReply(Future<Integer[]> future)
+            throws InterruptedException
+    {
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            LOGGER.error("Error while communicating with the server.",
+                    e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Sends a read and records its latency if it succeeds. A read that is
+     * abandoned after running for at least the hedge delay records the time
+     * it had run for, a lower bound of its latency. Otherwise only the reads
+     * that beat the hedge delay would be recorded, the percentile would keep
+     * falling and far more than 5% of the reads would be hedged.
+     */
+    private class TimedRead implements Callable<Integer[]>
+    {
+        /** The URL to read. */
+        private final String fullUrl;
+
+        /** Aborts the read if the delegate supports it. */
+        private final RequestAbort abort = new RequestAbort();
+
+        /** When the read was sent, or 0 if it has not been sent yet. */
+        private volatile long startNanos;
+
+        /** Set once the latency of the read has been recorded. */
+        private final AtomicBoolean recorded = new AtomicBoolean();
+
+        /**
+         * Creates a new {@code TimedRead}.
+         *
+         * @param fullUrl the URL to read.
+         */
+        private TimedRead(String fullUrl)
+        {
+            this.fullUrl = fullUrl;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Integer[] call()
+        {
+            long start = System.nanoTime();
+            startNanos = start;
+            Integer[] reply = delegate instanceof AbortableHttpTransport ?
+                    ((AbortableHttpTransport) delegate)
+                            .submitHttpGetRequest(fullUrl, abort) :
+                    delegate.submitHttpGetRequest(fullUrl);
+            if(reply != null && recorded.compareAndSet(false, true))
+            {
+                recordLatency(System.nanoTime() - start);
+            }
+            return reply;
+        }
+
+        /**
+         * Stops the read if it has not completed, aborting its request so
+         * that its connection is released. Records the time it had run for
+         * if that is at least the hedge delay.
+         *
+         * @param future the future of the read.
+         */
+        private void cancel(Future<Integer[]> future)
+        {
+            if(!future.isDone())
+            {
+                long start = startNanos;
+                long elapsed = System.nanoTime() - start;
+                // a read abandoned sooner says nothing about the tail
+                if(start != 0 && elapsed >= hedgeDelayNanos &&
+                        recorded.compareAndSet(false, true))
+                {
+                    recordLatency(elapsed);
+                }
+                abort.abort();
+                future.cancel(true);
+            }
+        }
+    }
+}
@@ -1,8 +1,15 @@
 package org.urbanbyte.cueserver.http;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.urbanbyte.cueserver.CueServerClient;
+import org.urbanbyte.cueserver.CueServerListener;
+import org.urbanbyte.cueserver.SubmitResult;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
 import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.cue.CueCodec;
+import org.urbanbyte.cueserver.data.output.DmxBuffer;
 import org.urbanbyte.cueserver.data.playback.CombineMode;
 import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
 import org.urbanbyte.cueserver.data.playback.Playback;
@@ -13,6 +20,17 @@ import org.urbanbyte.cueserver.data.system.SystemInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -21,6 +39,11 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * have the ability to retrieve state related information, and send commands to
  * a CueServer using it HTTP interface.
  * <p>
+ * Reads are collapsed: threads that make the same read at the same time
+ * share one request and its decoded result. See
+ * {@link #setReadFreshness(long, TimeUnit)}. Sending a command ends the
+ * sharing, so reads made after a command start a new request.
+ * <p>
  * author: Chris Reising
  */
 public class HttpCueServerClient implements CueServerClient
@@ -35,23 +58,62 @@ public class HttpCueServerClient implements CueServerClient
     /** Expected size of the array returned when requesting playback status. */
     private static final int PLAYBACK_STATUS_ARRAY_LEN = 48;
 
+    /** Number of bytes used for each playback in the playback status. */
+    private static final int PLAYBACK_STATUS_ENTRY_LEN = 12;
+
     /**
      * Expected size of the array returned when requesting detailed playback
      * status.
      */
     private static final int DETAILED_PLAYBACK_STATUS_ARRAY_LEN = 96;
 
+    /** Separates multiple commands sent in a single request. */
+    static final String COMMAND_SEPARATOR = "%3B";
+
+    /** The largest number of universes a client can drive. */
+    public static final int MAX_UNIVERSE_COUNT = 4;
+
     /** The URL used to execute commands. */
     private final String exeUrl;
 
     /** The URL used to get values. */
     private final String getUrl;
 
+    /** How long an idle snapshot thread is kept, in seconds. */
+    private static final long SNAPSHOT_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /** The key of snapshot reads in {@link #reads}. */
+    private static final String SNAPSHOT_KEY = "snapshot";
+
+    /** The URLs read to take a snapshot: SI, PS, PI of each playback, OUT. */
+    private final List<String> snapshotUrls;
+
+    /**
+     * Sends the reads of a snapshot at the same time. It has at most one
+     * daemon thread per read, and its threads end once idle, so the client
+     * does not need to be closed.
+     */
+    private final ThreadPoolExecutor snapshotExecutor;
+
     /** The host and port of the CueServer the client is connected to. */
     private final String url;
 
     /** For submitting HTTP requests. */
-    private final SimpleHttpClient httpClient;
+    private final HttpTransport httpClient;
+
+    /** The number of DMX universes the CueServer drives. */
+    private final int universeCount;
+
+    /** The output levels last read from each universe. */
+    private final DmxBuffer outputBuffer;
+
+    /** Shares the results of concurrent identical reads, keyed by URL. */
+    private final SingleFlight<String, Object> reads =
+            new SingleFlight<String, Object>();
+
+    /** Notified of the commands sent and the state read. */
+    private final List<CueServerListener> listeners =
+            new CopyOnWriteArrayList<CueServerListener>();
 
     /**
      * Creates a new client with a default port of 80.
@@ -82,22 +144,66 @@ public class HttpCueServerClient implements CueServerClient
      *
      * @param host the host name or IP address of the CueServer.
      * @param port the port of the web service. Must be within [0, 65535].
-     * @param httpClient the http client for the web service.
+     * @param httpClient the http client for the web service, such as a
+     *                   {@link SimpleHttpClient} or a
+     *                   {@link HedgingHttpTransport}.
      * @throws IllegalArgumentException if the host or client is {@code null},
      * or if the port is not valid.
      */
     public HttpCueServerClient(String host,
                                 int port,
-                                SimpleHttpClient httpClient)
+                                HttpTransport httpClient)
+    {
+        this(host, port, httpClient, 1);
+    }
+
+    /**
+     * Creates a new client for a CueServer that drives several DMX universes.
+     *
+     * @param host the host name or IP address of the CueServer.
+     * @param port the port of the web service. Must be within [0, 65535].
+     * @param httpClient the http client for the web service.
+     * @param universeCount the number of universes the CueServer drives. Must
+     *                      be within [1, {@link #MAX_UNIVERSE_COUNT}].
+     * @throws IllegalArgumentException if the host or client is {@code null},
+     * or if the port or universe count is not valid.
+     */
+    public HttpCueServerClient(String host,
+                                int port,
+                                HttpTransport httpClient,
+                                int universeCount)
     {
         checkNotNull(host, "host cannot be null");
         checkArgument(port >= 0 && port <= 65535, "port is not valid");
+        checkArgument(universeCount >= 1 &&
+                universeCount <= MAX_UNIVERSE_COUNT,
+                "universeCount must be within [1, %s]", MAX_UNIVERSE_COUNT);
 
         this.httpClient = checkNotNull(httpClient, "httpClient cannot be null");
+        this.universeCount = universeCount;
+        this.outputBuffer = new DmxBuffer(universeCount);
 
         url = host + ":" + port;
         getUrl = url + "/get.cgi/?req=";
         exeUrl = url + "/exe.cgi/?cmd=";
+
+        List<String> urls = new ArrayList<String>();
+        urls.add(getUrl + "SI");
+        urls.add(getUrl + "PS");
+        for(Playback playback : Playback.values())
+        {
+            urls.add(getUrl + "PI&id=" + playback.getPlaybackId());
+        }
+        urls.add(getUrl + "OUT");
+        snapshotUrls = Collections.unmodifiableList(urls);
+
+        snapshotExecutor = new ThreadPoolExecutor(urls.size(), urls.size(),
+                SNAPSHOT_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cueserver-snapshot-%d")
+                        .build());
+        snapshotExecutor.allowCoreThreadTimeOut(true);
     }
 
     /**
@@ -106,10 +212,303 @@ public class HttpCueServerClient implements CueServerClient
     @Override
     public SystemInfo getSystemInfo()
     {
+        final String fullUrl = getUrl + "SI";
+        return (SystemInfo) reads.execute(fullUrl, new Supplier<Object>()
+        {
+            @Override
+            public Object get()
+            {
+                return decodeSystemInfo(
+                        httpClient.submitHttpGetRequest(fullUrl));
+            }
+        });
+    }
+
+    /**
+     * Requests the system information with a request of its own. Unlike
+     * {@link #getSystemInfo()}, the request is not shared with concurrent
+     * reads and a result within the read freshness window is not reused, so
+     * the time it takes is the round trip to the CueServer.
+     *
+     * @return {@code null} if the request failed or the reply is not valid.
+     */
+    public SystemInfo requestSystemInfo()
+    {
+        return decodeSystemInfo(httpClient.submitHttpGetRequest(
+                getUrl + "SI"));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public PlaybackStatus getPlaybackStatus()
+    {
+        final String fullUrl = getUrl + "PS";
+        return (PlaybackStatus) reads.execute(fullUrl, new Supplier<Object>()
+        {
+            @Override
+            public Object get()
+            {
+                PlaybackStatus status = decodePlaybackStatus(
+                        httpClient.submitHttpGetRequest(fullUrl));
+                if(status != null)
+                {
+                    firePlaybackStatusRead(status);
+                }
+                return status;
+            }
+        });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public DetailedPlaybackStatus getDetailedPlaybackInfo(
+            final Playback playback)
+    {
+        final String fullUrl = getUrl + "PI&id=" + playback.getPlaybackId();
+        return (DetailedPlaybackStatus) reads.execute(fullUrl,
+                new Supplier<Object>()
+                {
+                    @Override
+                    public Object get()
+                    {
+                        DetailedPlaybackStatus status =
+                                decodeDetailedPlaybackStatus(playback,
+                                        httpClient.submitHttpGetRequest(
+                                                fullUrl));
+                        if(status != null)
+                        {
+                            fireDetailedPlaybackStatusRead(status);
+                        }
+                        return status;
+                    }
+                });
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer[] getOutputLevels()
+    {
+        return getOutputLevels(1);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The levels are also stored in the {@link #getOutputBuffer() output
+     * buffer}. Listeners are notified of the levels of universe 1 only.
+     * Every caller, and every listener, receives its own copy of the levels.
+     * <p>
+     * Universes after the first are read with {@code OUT&id=<universe>}. This
+     * parameter is not part of the documented CueServer HTTP interface and
+     * has not been verified against a multi-universe device; a CueServer
+     * that ignores the parameter would return universe 1 for every universe.
+     */
+    @Override
+    public Integer[] getOutputLevels(final int universe)
+    {
+        checkUniverse(universe);
+        final String fullUrl = getUrl +
+                (universe == 1 ? "OUT" : "OUT&id=" + universe);
+        final Integer[][] own = new Integer[1][];
+        Integer[] shared = (Integer[]) reads.execute(fullUrl,
+                new Supplier<Object>()
+                {
+                    @Override
+                    public Object get()
+                    {
+                        own[0] = decodeOutputLevels(
+                                httpClient.submitHttpGetRequest(fullUrl));
+                        if(own[0] != null)
+                        {
+                            outputBuffer.update(universe, own[0]);
+                            if(universe == 1)
+                            {
+                                fireOutputLevelsRead(own[0]);
+                            }
+                        }
+                        return own[0];
+                    }
+                });
+        // the shared array is cached for later callers, so none may get it
+        return shared == null ? null : shared.clone();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getUniverseCount()
+    {
+        return universeCount;
+    }
+
+    /**
+     * Gets the output levels last read from each universe. The buffer is
+     * updated by every successful output levels read, including the one made
+     * by {@link #getSnapshot()}, and tracks which universes changed.
+     *
+     * @return Never {@code null}.
+     */
+    public DmxBuffer getOutputBuffer()
+    {
+        return outputBuffer;
+    }
 
-        Integer[] byteArray = httpClient.submitHttpGetRequest(
-                getUrl + "SI");
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If the client's transport is a {@link PipeliningHttpTransport}, the
+     * reads are pipelined on one connection. Otherwise they are sent at the
+     * same time on the client's own pool of daemon threads. Each part is
+     * timed when its own reply arrives.
+     */
+    @Override
+    public DeviceSnapshot getSnapshot()
+    {
+        return (DeviceSnapshot) reads.execute(SNAPSHOT_KEY,
+                new Supplier<Object>()
+                {
+                    @Override
+                    public Object get()
+                    {
+                        return readSnapshot();
+                    }
+                });
+    }
+
+    /**
+     * Sets how long the result of a read is shared with later callers.
+     * Concurrent identical reads always share one request; with a window,
+     * a read that completed within it is also returned without a new
+     * request. This suits several dashboards polling the same CueServer.
+     *
+     * @param duration the length of the window. Must not be negative. The
+     *                 default of 0 only shares reads between overlapping
+     *                 callers.
+     * @param unit the unit of {@code duration}.
+     * @throws IllegalArgumentException if {@code duration} is negative.
+     * @throws NullPointerException if {@code unit} is {@code null}.
+     */
+    public void setReadFreshness(long duration, TimeUnit unit)
+    {
+        reads.setFreshness(duration, unit);
+    }
 
+    /**
+     * Reads every part of a snapshot.
+     *
+     * @return Never {@code null}.
+     */
+    private DeviceSnapshot readSnapshot()
+    {
+        int count = snapshotUrls.size();
+        Integer[][] replies = new Integer[count][];
+        long[] times = new long[count];
+        if(httpClient instanceof PipeliningHttpTransport)
+        {
+            List<Integer[]> pipelined = ((PipeliningHttpTransport) httpClient)
+                    .submitPipelined(snapshotUrls, times);
+            for(int index = 0 ; index < count ; index++)
+            {
+                replies[index] = pipelined.get(index);
+            }
+        }
+        else
+        {
+            fetchConcurrently(replies, times);
+        }
+
+        DeviceSnapshot.Builder builder = new DeviceSnapshot.Builder()
+                .setSystemInfo(decodeSystemInfo(replies[0]), times[0]);
+
+        PlaybackStatus status = decodePlaybackStatus(replies[1]);
+        builder.setPlaybackStatus(status, times[1]);
+        if(status != null)
+        {
+            firePlaybackStatusRead(status);
+        }
+
+        Playback[] playbacks = Playback.values();
+        for(int index = 0 ; index < playbacks.length ; index++)
+        {
+            DetailedPlaybackStatus detailed = decodeDetailedPlaybackStatus(
+                    playbacks[index], replies[index + 2]);
+            builder.setDetailedPlaybackStatus(playbacks[index], detailed,
+                    times[index + 2]);
+            if(detailed != null)
+            {
+                fireDetailedPlaybackStatusRead(detailed);
+            }
+        }
+
+        Integer[] levels = decodeOutputLevels(replies[count - 1]);
+        builder.setOutputLevels(levels, times[count - 1]);
+        if(levels != null)
+        {
+            outputBuffer.update(1, levels);
+            fireOutputLevelsRead(levels);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Reads every part of a snapshot at the same time.
+     *
+     * @param replies receives the reply to each of the
+     *                {@link #snapshotUrls}. A reply is left {@code null} if
+     *                its read failed.
+     * @param times receives when each reply arrived, in milliseconds since
+     *              the epoch.
+     */
+    private void fetchConcurrently(Integer[][] replies, long[] times)
+    {
+        List<Future<Integer[]>> futures =
+                new ArrayList<Future<Integer[]>>(snapshotUrls.size());
+        for(int index = 0 ; index < snapshotUrls.size() ; index++)
+        {
+            futures.add(snapshotExecutor.submit(
+                    new SnapshotRead(snapshotUrls.get(index), times, index)));
+        }
+
+        try
+        {
+            for(int index = 0 ; index < futures.size() ; index++)
+            {
+                try
+                {
+                    replies[index] = futures.get(index).get();
+                }
+                catch (ExecutionException e)
+                {
+                    LOGGER.error("Error while reading the snapshot.",
+                            e.getCause());
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            for(Future<Integer[]> future : futures)
+            {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Decodes the reply to a system information request.
+     *
+     * @param byteArray the reply. Can be {@code null}.
+     * @return {@code null} if the reply is not valid.
+     */
+    private SystemInfo decodeSystemInfo(Integer[] byteArray)
+    {
         SystemInfo info = null;
         if(byteArray == null || byteArray.length != SYSTEM_ARRAY_LEN)
         {
@@ -148,16 +547,15 @@ public class HttpCueServerClient implements CueServerClient
     }
 
     /**
-     * {@inheritDoc}
+     * Decodes the reply to a playback status request.
+     *
+     * @param byteArray the reply. Can be {@code null}.
+     * @return {@code null} if the reply is not valid.
      */
-    @Override
-    public PlaybackStatus getPlaybackStatus()
+    private PlaybackStatus decodePlaybackStatus(Integer[] byteArray)
     {
-        Integer[] byteArray = httpClient.submitHttpGetRequest(
-                getUrl + "PS");
-
         PlaybackStatus status = null;
-        if(byteArray == null ||  byteArray.length != PLAYBACK_STATUS_ARRAY_LEN)
+        if(byteArray == null || !isValidPlaybackStatusLength(byteArray.length))
         {
             LOGGER.warn("The array returned from the system is not the " +
                             "correct size. Expected {}",
@@ -165,60 +563,40 @@ public class HttpCueServerClient implements CueServerClient
         }
         else
         {
-            PlaybackStatus.Builder builder =
-                    new PlaybackStatus.Builder();
+            int playbackCount = byteArray.length / PLAYBACK_STATUS_ENTRY_LEN;
+            PlaybackStatus.Builder builder = new PlaybackStatus.Builder()
+                    .setPlaybackCount(playbackCount);
 
-            PlaybackInfo pb = new PlaybackInfo.Builder()
-                    .setPlayback(Playback.PLAYBACK_1)
-                    .setCurrentCue(
-                            parseCue(unsignedIntToInt(byteArray, 0)))
-                    .setNextCue(
-                            parseCue(unsignedIntToInt(byteArray, 2)))
-                    .build();
-            builder.setPlayback1(pb);
-
-            pb = new PlaybackInfo.Builder()
-                    .setPlayback(Playback.PLAYBACK_2)
-                    .setCurrentCue(
-                            parseCue(unsignedIntToInt(byteArray, 12)))
-                    .setNextCue(
-                            parseCue(unsignedIntToInt(byteArray, 14)))
-                    .build();
-            builder.setPlayback2(pb);
-
-            pb = new PlaybackInfo.Builder()
-                    .setPlayback(Playback.PLAYBACK_3)
-                    .setCurrentCue(
-                            parseCue(unsignedIntToInt(byteArray, 24)))
-                    .setNextCue(
-                            parseCue(unsignedIntToInt(byteArray, 26)))
-                    .build();
-            builder.setPlayback3(pb);
-
-            pb = new PlaybackInfo.Builder()
-                    .setPlayback(Playback.PLAYBACK_4)
-                    .setCurrentCue(
-                            parseCue(unsignedIntToInt(byteArray, 36)))
-                    .setNextCue(
-                            parseCue(unsignedIntToInt(byteArray, 38)))
-                    .build();
-            builder.setPlayback4(pb);
+            Playback[] playbacks = Playback.values();
+            for(int index = 0 ; index < playbackCount ; index++)
+            {
+                int offset = index * PLAYBACK_STATUS_ENTRY_LEN;
+                PlaybackInfo pb = new PlaybackInfo.Builder()
+                        .setPlayback(playbacks[index])
+                        .setCurrentCue(
+                                parseCue(unsignedIntToInt(byteArray, offset)))
+                        .setNextCue(
+                                parseCue(unsignedIntToInt(byteArray,
+                                        offset + 2)))
+                        .build();
+                builder.set(playbacks[index], pb);
+            }
 
             status = builder.build();
         }
-
         return status;
     }
 
     /**
-     * {@inheritDoc}
+     * Decodes the reply to a detailed playback status request.
+     *
+     * @param playback the playback that was requested.
+     * @param byteArray the reply. Can be {@code null}.
+     * @return {@code null} if the reply is not valid.
      */
-    @Override
-    public DetailedPlaybackStatus getDetailedPlaybackInfo(Playback playback)
+    private DetailedPlaybackStatus decodeDetailedPlaybackStatus(
+            Playback playback, Integer[] byteArray)
     {
-        Integer[] byteArray = httpClient.submitHttpGetRequest(
-                getUrl + "PI&id=" + playback.getPlaybackId());
-
         DetailedPlaybackStatus status = null;
         if(byteArray == null ||
                 byteArray.length != DETAILED_PLAYBACK_STATUS_ARRAY_LEN)
@@ -249,13 +627,13 @@ public class HttpCueServerClient implements CueServerClient
     }
 
     /**
-     * {@inheritDoc}
+     * Decodes the reply to an output levels request.
+     *
+     * @param byteArray the reply. Can be {@code null}.
+     * @return {@code null} if the reply is not valid.
      */
-    @Override
-    public Integer[] getOutputLevels()
+    private Integer[] decodeOutputLevels(Integer[] byteArray)
     {
-        Integer[] byteArray = httpClient.submitHttpGetRequest(getUrl + "OUT");
-
         Integer[] dmxValues  = null;
         if(byteArray == null || byteArray.length != 512)
         {
@@ -284,18 +662,12 @@ public class HttpCueServerClient implements CueServerClient
     @Override
     public void playCue(double cueNumber, Playback playback)
     {
-        if(cueNumber <= 0)
+        String cmd = playCueCommand(cueNumber, playback);
+        LOGGER.debug("Cue command: {}", cmd);
+        if(submitCommand(cmd))
         {
-            LOGGER.error("cueNumber must be positive.");
-            throw new IllegalArgumentException("cueNumber must be positive");
+            fireCuePlayed(cueNumber, playback);
         }
-
-        String cmd =
-                "P+" + playback.getPlaybackId() + "+Q+" +
-                        truncateValue(cueNumber) + "+GO";
-        LOGGER.debug("Cue command: {}", cmd);
-
-        httpClient.submitHttpGetRequest(exeUrl + cmd);
     }
 
     /**
@@ -304,10 +676,12 @@ public class HttpCueServerClient implements CueServerClient
     @Override
     public void clearPlayback(Playback playback)
     {
-        String cmd = "P+" + playback.getPlaybackId() + "+CL";
+        String cmd = clearPlaybackCommand(playback);
         LOGGER.debug("Cue command: {}", cmd);
-
-        httpClient.submitHttpGetRequest(exeUrl + cmd);
+        if(submitCommand(cmd))
+        {
+            firePlaybackCleared(playback);
+        }
     }
 
     /**
@@ -337,16 +711,12 @@ public class HttpCueServerClient implements CueServerClient
                            double timeSeconds,
                            Playback playback)
     {
-        checkChannel(channel);
-        checkChannelLevel(value);
-        checkTime(timeSeconds);
-        //ex: T 3 P1 C 1 A 50
-        String cmd = "T+" + truncateValue(timeSeconds) + "+P" +
-                playback.getPlaybackId() + "+C+" + channel + "+A+%23" + value;
-
-        String fullUrl = exeUrl + cmd;
-        LOGGER.info("Channel command: {}", fullUrl);
-        httpClient.submitHttpGetRequest(fullUrl);
+        String cmd = setChannelCommand(channel, value, timeSeconds, playback);
+        LOGGER.info("Channel command: {}", cmd);
+        if(submitCommand(cmd))
+        {
+            fireChannelsSet(channel, channel, value, timeSeconds, playback);
+        }
     }
 
     /**
@@ -376,22 +746,59 @@ public class HttpCueServerClient implements CueServerClient
     public void setChannelRange(int startChannel, int endChannel, int value,
                                 double timeSeconds, Playback playback)
     {
-        checkChannel(startChannel);
-        checkChannel(endChannel);
-        if(endChannel < startChannel)
+        String cmd = setChannelRangeCommand(startChannel, endChannel, value,
+                timeSeconds, playback);
+        LOGGER.debug("Range command: {}", cmd);
+        if(submitCommand(cmd))
         {
-            LOGGER.error("end channel cannot be < start channel");
-            throw new IllegalArgumentException("end channel cannot be < " +
-                    "than the start channel");
+            fireChannelsSet(startChannel, endChannel, value, timeSeconds,
+                    playback);
         }
-        checkChannelLevel(value);
-        checkTime(timeSeconds);
+    }
 
-        String cmd = "T+" + truncateValue(timeSeconds) + "+P" +
-                playback.getPlaybackId() + "+C+" + startChannel +
-                "%3E" + endChannel + "+A%23" + value;
-        LOGGER.debug("Range command: {}", cmd);
-        httpClient.submitHttpGetRequest(exeUrl + cmd);
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setChannel(int universe,
+                           int channel,
+                           int value,
+                           double timeSeconds,
+                           Playback playback)
+    {
+        setChannel(toAbsoluteChannel(universe, channel), value, timeSeconds,
+                playback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setChannelRange(int universe,
+                                int startChannel,
+                                int endChannel,
+                                int value,
+                                double timeSeconds,
+                                Playback playback)
+    {
+        setChannelRange(toAbsoluteChannel(universe, startChannel),
+                toAbsoluteChannel(universe, endChannel), value, timeSeconds,
+                playback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public SubmitResult setLevels(int startChannel,
+                                  byte[] levels,
+                                  double timeSeconds,
+                                  Playback playback)
+    {
+        CommandBatch batch = newBatch().setLevels(startChannel, levels,
+                timeSeconds, playback);
+        int requestCount = batch.submit();
+        return new SubmitResult(requestCount, batch.getFailedCount());
     }
 
     /**
@@ -402,15 +809,9 @@ public class HttpCueServerClient implements CueServerClient
                           double uptimeSecs,
                           double downtimeSecs)
     {
-        checkCueNumber(cueNumber);
-        checkTime(uptimeSecs);
-        checkTime(downtimeSecs);
-
-        String cmd = "FA+" + truncateValue(uptimeSecs) + "%2F" +
-                truncateValue(downtimeSecs) + "%3B" + "RQ+" +
-                truncateValue(cueNumber);
+        String cmd = recordCueCommand(cueNumber, uptimeSecs, downtimeSecs);
         LOGGER.debug("Rec cue command: {}", cmd);
-        httpClient.submitHttpGetRequest(exeUrl + cmd);
+        submitCommand(cmd);
     }
 
     /**
@@ -422,7 +823,7 @@ public class HttpCueServerClient implements CueServerClient
         checkCueNumber(cueNumber);
         String cmd = "DELQ+" + truncateValue(cueNumber);
         LOGGER.debug("Delete command: {}", cmd);
-        httpClient.submitHttpGetRequest(exeUrl + cmd);
+        submitCommand(cmd);
     }
 
     /**
@@ -434,7 +835,272 @@ public class HttpCueServerClient implements CueServerClient
         checkCueNumber(cueNumber);
         String cmd = "UQ+" + truncateValue(cueNumber);
         LOGGER.debug("Delete command: {}", cmd);
-        httpClient.submitHttpGetRequest(exeUrl + cmd);
+        submitCommand(cmd);
+    }
+
+    /**
+     * Creates a new, empty batch of commands for this CueServer. Commands
+     * added to the batch are sent together in as few requests as possible
+     * when the batch is submitted.
+     *
+     * @return Never {@code null}.
+     */
+    public CommandBatch newBatch()
+    {
+        return new CommandBatch(this);
+    }
+
+    /**
+     * Adds a listener that is notified of the commands sent by this client
+     * and the state it reads from the CueServer.
+     *
+     * @param listener the listener to add.
+     * @throws NullPointerException if {@code listener} is {@code null}.
+     */
+    public void addListener(CueServerListener listener)
+    {
+        listeners.add(checkNotNull(listener, "listener cannot be null"));
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param listener the listener to remove.
+     */
+    public void removeListener(CueServerListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Notifies the listeners that a cue was played.
+     *
+     * @param cueNumber the cue number.
+     * @param playback the playback.
+     */
+    void fireCuePlayed(double cueNumber, Playback playback)
+    {
+        for(CueServerListener listener : listeners)
+        {
+            listener.cuePlayed(cueNumber, playback);
+        }
+    }
+
+    /**
+     * Notifies the listeners that a playback was cleared.
+     *
+     * @param playback the playback.
+     */
+    void firePlaybackCleared(Playback playback)
+    {
+        for(CueServerListener listener : listeners)
+        {
+            listener.playbackCleared(playback);
+        }
+    }
+
+    /**
+     * Notifies the listeners that a range of channels was set.
+     *
+     * @param startChannel the first channel.
+     * @param endChannel the last channel.
+     * @param value the level.
+     * @param timeSeconds the transition time.
+     * @param playback the playback controlling the channels.
+     */
+    void fireChannelsSet(int startChannel, int endChannel, int value,
+                         double timeSeconds, Playback playback)
+    {
+        for(CueServerListener listener : listeners)
+        {
+            listener.channelsSet(startChannel, endChannel, value, timeSeconds,
+                    playback);
+        }
+    }
+
+    /**
+     * Notifies the listeners that the playback status was read.
+     *
+     * @param status the status.
+     */
+    private void firePlaybackStatusRead(PlaybackStatus status)
+    {
+        for(CueServerListener listener : listeners)
+        {
+            listener.playbackStatusRead(status);
+        }
+    }
+
+    /**
+     * Notifies the listeners that a detailed playback status was read.
+     *
+     * @param status the status.
+     */
+    private void fireDetailedPlaybackStatusRead(DetailedPlaybackStatus status)
+    {
+        for(CueServerListener listener : listeners)
+        {
+            listener.detailedPlaybackStatusRead(status);
+        }
+    }
+
+    /**
+     * Notifies the listeners that the output levels were read. Each listener
+     * receives its own copy, since the levels are also shared with callers.
+     *
+     * @param levels the levels.
+     */
+    private void fireOutputLevelsRead(Integer[] levels)
+    {
+        for(CueServerListener listener : listeners)
+        {
+            listener.outputLevelsRead(levels.clone());
+        }
+    }
+
+    /**
+     * Submits a command, or several commands separated by
+     * {@link #COMMAND_SEPARATOR}, to the CueServer's command URL.
+     * <p>
+     * Reads that are in flight or fresh are forgotten once the command was
+     * sent, so that later reads see its effect.
+     *
+     * @param cmd the command to submit.
+     * @return {@code true} if the CueServer replied. A command whose request
+     *         failed may or may not have been executed.
+     */
+    boolean submitCommand(String cmd)
+    {
+        boolean sent = httpClient.submitHttpGetRequest(exeUrl + cmd) != null;
+        reads.invalidateAll();
+        return sent;
+    }
+
+    /**
+     * Creates the command used to play a cue.
+     *
+     * @param cueNumber the cue number to play. Must be positive.
+     * @param playback the playback to play the cue on.
+     * @return Never {@code null}.
+     * @throws IllegalArgumentException if {@code cueNumber} is not positive.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    String playCueCommand(double cueNumber, Playback playback)
+    {
+        checkCueNumber(cueNumber);
+        return "P+" + playback.getPlaybackId() + "+Q+" +
+                truncateValue(cueNumber) + "+GO";
+    }
+
+    /**
+     * Creates the command used to clear a playback.
+     *
+     * @param playback the playback to clear.
+     * @return Never {@code null}.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    String clearPlaybackCommand(Playback playback)
+    {
+        return "P+" + playback.getPlaybackId() + "+CL";
+    }
+
+    /**
+     * Creates the command used to set a single channel.
+     *
+     * @param channel The channel to set. Must be within
+     *                [1, 512 * universe count].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The transition time. Must be within [0, 65000].
+     * @param playback the playback controlling the channel.
+     * @return Never {@code null}.
+     * @throws IllegalArgumentException if any argument is out of its bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    String setChannelCommand(int channel,
+                             int value,
+                             double timeSeconds,
+                             Playback playback)
+    {
+        checkChannel(channel);
+        checkChannelLevel(value);
+        checkTime(timeSeconds);
+        //ex: T 3 P1 C 1 A 50
+        return "T+" + truncateValue(timeSeconds) + "+P" +
+                playback.getPlaybackId() + "+C+" + channel + "+A+%23" + value;
+    }
+
+    /**
+     * Creates the command used to set a range of channels.
+     *
+     * @param startChannel The beginning of the range. Must be within
+     *                     [1, 512 * universe count].
+     * @param endChannel The end of the range. Must be within
+     *                   [1, 512 * universe count].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The transition time. Must be within [0, 65000].
+     * @param playback the playback controlling the channels.
+     * @return Never {@code null}.
+     * @throws IllegalArgumentException if the end is greater than the start
+     *                                  range, or if any value is outside of
+     *                                  its bounds.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     */
+    String setChannelRangeCommand(int startChannel,
+                                  int endChannel,
+                                  int value,
+                                  double timeSeconds,
+                                  Playback playback)
+    {
+        checkChannel(startChannel);
+        checkChannel(endChannel);
+        if(endChannel < startChannel)
+        {
+            LOGGER.error("end channel cannot be < start channel");
+            throw new IllegalArgumentException("end channel cannot be < " +
+                    "than the start channel");
+        }
+        checkChannelLevel(value);
+        checkTime(timeSeconds);
+
+        return "T+" + truncateValue(timeSeconds) + "+P" +
+                playback.getPlaybackId() + "+C+" + startChannel +
+                "%3E" + endChannel + "+A%23" + value;
+    }
+
+    /**
+     * Creates the command used to record a cue.
+     *
+     * @param cueNumber the cue number to record. Must be positive.
+     * @param uptimeSecs the fade's uptime. Must be within [0, 65000].
+     * @param downtimeSecs the fade's downtime. Must be within [0, 65000].
+     * @return Never {@code null}.
+     * @throws IllegalArgumentException if any argument is out of bounds.
+     */
+    String recordCueCommand(double cueNumber,
+                            double uptimeSecs,
+                            double downtimeSecs)
+    {
+        checkCueNumber(cueNumber);
+        checkTime(uptimeSecs);
+        checkTime(downtimeSecs);
+
+        return "FA+" + truncateValue(uptimeSecs) + "%2F" +
+                truncateValue(downtimeSecs) + COMMAND_SEPARATOR + "RQ+" +
+                truncateValue(cueNumber);
+    }
+
+    /**
+     * Checks the length of a playback status reply. Models that expose fewer
+     * than four playbacks return a shorter reply with the same layout.
+     *
+     * @param length the length of the reply.
+     * @return {@code true} if the reply contains between one and four whole
+     *         playback entries.
+     */
+    private static boolean isValidPlaybackStatusLength(int length)
+    {
+        return length > 0 && length <= PLAYBACK_STATUS_ARRAY_LEN &&
+                length % PLAYBACK_STATUS_ENTRY_LEN == 0;
     }
 
     /**
@@ -453,18 +1119,62 @@ public class HttpCueServerClient implements CueServerClient
     }
 
     /**
-     * Checks to make the provided DMX channel is valid.
+     * Converts a channel of a universe to the number the CueServer uses in
+     * commands. Channels are numbered consecutively across universes, so
+     * channel 1 of universe 2 is channel 513.
+     *
+     * @param universe the universe. Must be within [1, universe count].
+     * @param channel the channel within the universe. Must be within
+     *                [1, 512].
+     * @return the channel, within [1, 512 * universe count].
+     * @throws IllegalArgumentException if the universe or channel is not
+     *                                  valid.
+     */
+    int toAbsoluteChannel(int universe, int channel)
+    {
+        checkUniverse(universe);
+        if(channel < 1 || channel > DmxBuffer.CHANNELS_PER_UNIVERSE)
+        {
+            LOGGER.error("channel must be within [1, 512]. Given: {}", channel);
+            throw new IllegalArgumentException(
+                    "channel must be within [1, 512]");
+        }
+        return (universe - 1) * DmxBuffer.CHANNELS_PER_UNIVERSE + channel;
+    }
+
+    /**
+     * Checks to make the provided universe is valid.
+     *
+     * @param universe the universe to check.
+     * @throws IllegalArgumentException if the universe is not valid.
+     */
+    private void checkUniverse(int universe)
+    {
+        if(universe < 1 || universe > universeCount)
+        {
+            LOGGER.error("universe must be within [1, {}]. Given: {}",
+                    universeCount, universe);
+            throw new IllegalArgumentException(
+                    "universe must be within [1, " + universeCount + "]");
+        }
+    }
+
+    /**
+     * Checks to make the provided DMX channel is valid. Channels of later
+     * universes follow those of universe 1.
      *
      * @param channel the channel to check.
      * @throws IllegalArgumentException if the channel is not valid.
      */
     private void checkChannel(int channel)
     {
-        if(channel < 1 || channel > 512)
+        int maxChannel = universeCount * DmxBuffer.CHANNELS_PER_UNIVERSE;
+        if(channel < 1 || channel > maxChannel)
         {
-            LOGGER.error("channel must be within [1, 512]. Given: {}", channel);
+            LOGGER.error("channel must be within [1, {}]. Given: {}",
+                    maxChannel, channel);
             throw new IllegalArgumentException(
-                    "channel must be within [1, 512]");
+                    "channel must be within [1, " + maxChannel + "]");
         }
     }
 
@@ -494,7 +1204,7 @@ public class HttpCueServerClient implements CueServerClient
      */
     private String truncateValue(double time)
     {
-        return String.format("%.1f", time);
+        return CueCodec.format(time);
     }
 
     /**
@@ -597,7 +1307,8 @@ public class HttpCueServerClient implements CueServerClient
     }
 
     /**
-     * Creates a {@link Cue} from the given number and name.
+     * Creates a {@link Cue} from the given number and name. Cues are interned
+     * by {@link CueCodec}, so decoding an unchanged cue does not allocate.
      *
      * @param rawNumber the cue number from the CueServer.
      * @param name the name, or {@code null} if the name is not known.
@@ -607,12 +1318,7 @@ public class HttpCueServerClient implements CueServerClient
     @VisibleForTesting
     protected static Cue parseCue(int rawNumber, String name)
     {
-        Cue cueNumber = null;
-        if(rawNumber != 65535 && rawNumber != 0)
-        {
-            cueNumber = new Cue(rawNumber / 10d, name);
-        }
-        return cueNumber;
+        return CueCodec.decode(rawNumber, name);
     }
 
     /**
@@ -739,6 +1445,46 @@ public class HttpCueServerClient implements CueServerClient
         }
     }
 
+    /**
+     * Reads one part of a snapshot and records when its reply arrived.
+     */
+    private class SnapshotRead implements Callable<Integer[]>
+    {
+        /** The URL to read. */
+        private final String fullUrl;
+
+        /** Receives when the reply arrived. */
+        private final long[] times;
+
+        /** The index of the part in {@link #times}. */
+        private final int index;
+
+        /**
+         * Creates a new {@code SnapshotRead}.
+         *
+         * @param fullUrl the URL to read.
+         * @param times receives when the reply arrived.
+         * @param index the index of the part in {@code times}.
+         */
+        private SnapshotRead(String fullUrl, long[] times, int index)
+        {
+            this.fullUrl = fullUrl;
+            this.times = times;
+            this.index = index;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Integer[] call()
+        {
+            Integer[] reply = httpClient.submitHttpGetRequest(fullUrl);
+            times[index] = System.currentTimeMillis();
+            return reply;
+        }
+    }
+
     /**
      * Struct used for returning a parsed value from a byte array and the
      * next index the parser should start from.
@@ -0,0 +1,23 @@
+package org.urbanbyte.cueserver.http;
+
+/**
+ * Submits HTTP get requests to a CueServer. The CueServer's web interface
+ * only uses get requests: {@code get.cgi} requests read state and are
+ * idempotent, while {@code exe.cgi} requests execute commands and are not.
+ * Implementations may rely on that difference, for example to retry or hedge
+ * reads but never commands.
+ * <p>
+ * author: Chris Reising
+ */
+public interface HttpTransport
+{
+    /**
+     * Submits the provided URL as a HTTP get request.
+     *
+     * @param fullUrl the URL to submit.
+     * @return the bytes read from the request as integers with value
+     *         [0, 255], or {@code null} if the request failed.
+     * @throws NullPointerException if {@code fullUrl} is {@code null}.
+     */
+    Integer[] submitHttpGetRequest(String fullUrl);
+}
@@ -0,0 +1,46 @@
+package org.urbanbyte.cueserver.http;
+
+import java.util.List;
+
+/**
+ * A transport that can send several reads to a CueServer back to back on one
+ * connection and read the replies in order (HTTP/1.1 pipelining), so that a
+ * group of reads costs about one round trip instead of one per read.
+ * <p>
+ * author: Chris Reising
+ */
+public interface PipeliningHttpTransport extends HttpTransport
+{
+    /**
+     * Submits a group of {@code get.cgi} reads to the same CueServer. If the
+     * CueServer does not support pipelining, the reads are sent one after the
+     * other instead.
+     *
+     * @param fullUrls the URLs to read. All must be reads of the same host.
+     * @return the reply to each URL, in the same order. A reply is
+     *         {@code null} if its read failed.
+     * @throws NullPointerException if {@code fullUrls} or any URL is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if a URL is not a read or the URLs do
+     *                                  not share a host.
+     */
+    List<Integer[]> submitPipelined(List<String> fullUrls);
+
+    /**
+     * Submits a group of {@code get.cgi} reads like
+     * {@link #submitPipelined(List)} and records when each reply arrived.
+     *
+     * @param fullUrls the URLs to read. All must be reads of the same host.
+     * @param arrivalTimes receives when the reply to each URL arrived, or
+     *                     its read failed, in milliseconds since the epoch.
+     *                     Must have an element for every URL.
+     * @return the reply to each URL, in the same order. A reply is
+     *         {@code null} if its read failed.
+     * @throws NullPointerException if any argument or URL is {@code null}.
+     * @throws IllegalArgumentException if a URL is not a read, the URLs do
+     *                                  not share a host, or
+     *                                  {@code arrivalTimes} is too short.
+     */
+    List<Integer[]> submitPipelined(List<String> fullUrls,
+                                    long[] arrivalTimes);
+}
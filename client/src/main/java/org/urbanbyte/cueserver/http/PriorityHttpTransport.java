@@ -0,0 +1,319 @@
+package org.urbanbyte.cueserver.http;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Queues the requests for a single CueServer and sends them one at a time,
+ * in priority order, no faster than a token bucket allows. A CueServer stalls
+ * when it is flooded with requests, so all of the clients for a device should
+ * share one instance.
+ * <p>
+ * Cue triggers and playback clears are sent before any other queued command,
+ * and commands before status reads, so a {@code GO} keeps its latency while
+ * a large channel update is draining. Requests of the same priority are sent
+ * in the order they were submitted. The caller blocks until its request has
+ * been sent and answered.
+ * <p>
+ * author: Chris Reising
+ */
+public class PriorityHttpTransport implements HttpTransport
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(PriorityHttpTransport.class);
+
+    /** The part of the URL that identifies an idempotent read. */
+    private static final String READ_PATH = "/get.cgi/";
+
+    /** The part of the URL that precedes the commands. */
+    private static final String COMMAND_PREFIX = "cmd=";
+
+    /** Names the worker threads. */
+    private static final ThreadFactory THREAD_FACTORY =
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("cueserver-outbound-%d")
+                    .build();
+
+    /** The transport the requests are sent with. */
+    private final HttpTransport delegate;
+
+    /** The number of tokens added to the bucket per nanosecond. */
+    private final double tokensPerNano;
+
+    /** The most tokens the bucket can hold. */
+    private final int burst;
+
+    /** The requests waiting to be sent. */
+    private final PriorityBlockingQueue<QueuedRequest> queue =
+            new PriorityBlockingQueue<QueuedRequest>();
+
+    /** Orders requests of the same priority. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Sends the requests. */
+    private final Thread worker;
+
+    /** The tokens in the bucket. Only used by the worker. */
+    private double tokens;
+
+    /** When the bucket was last refilled. Only used by the worker. */
+    private long lastRefill;
+
+    /** {@code true} once the transport has been shut down. */
+    private volatile boolean shutdown;
+
+    /**
+     * Creates a new {@code PriorityHttpTransport} and starts its worker.
+     *
+     * @param delegate the transport the requests are sent with.
+     * @param requestsPerSecond the sustained rate requests are sent at. Must
+     *                          be positive.
+     * @param burst the number of requests that may be sent back to back
+     *              after the transport was idle. Must be positive.
+     * @throws NullPointerException if {@code delegate} is {@code null}.
+     * @throws IllegalArgumentException if the rate or burst is not positive.
+     */
+    public PriorityHttpTransport(HttpTransport delegate,
+                                 double requestsPerSecond,
+                                 int burst)
+    {
+        checkArgument(requestsPerSecond > 0,
+                "requestsPerSecond must be positive");
+        checkArgument(burst > 0, "burst must be positive");
+        this.delegate = checkNotNull(delegate, "delegate cannot be null");
+        this.tokensPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+
+        tokens = burst;
+        lastRefill = System.nanoTime();
+        worker = THREAD_FACTORY.newThread(new Worker());
+        worker.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return the reply, or {@code null} if the request failed, the calling
+     *         thread was interrupted or the transport was shut down.
+     */
+    @Override
+    public Integer[] submitHttpGetRequest(String fullUrl)
+    {
+        checkNotNull(fullUrl, "fullUrl cannot be null");
+        if(shutdown)
+        {
+            LOGGER.warn("Request submitted after shutdown: {}", fullUrl);
+            return null;
+        }
+
+        QueuedRequest request = new QueuedRequest(fullUrl,
+                classify(fullUrl), sequence.getAndIncrement());
+        queue.add(request);
+        if(shutdown && queue.remove(request))
+        {
+            // shut down while the request was being queued
+            return null;
+        }
+
+        try
+        {
+            return request.reply.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            LOGGER.error("Error while communicating with the server.",
+                    e.getCause());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the number of requests waiting to be sent.
+     *
+     * @return the number of queued requests.
+     */
+    public int getQueueLength()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Stops the worker. Requests that are still queued, and any submitted
+     * later, return {@code null}.
+     */
+    public void shutdown()
+    {
+        shutdown = true;
+        worker.interrupt();
+        QueuedRequest request = queue.poll();
+        while(request != null)
+        {
+            request.reply.set(null);
+            request = queue.poll();
+        }
+    }
+
+    /**
+     * Determines the priority of a request from its URL.
+     *
+     * @param fullUrl the URL of the request.
+     * @return {@link RequestPriority#HIGH} if any of its commands is a
+     *         {@code GO} or a {@code CL}, {@link RequestPriority#LOW} for
+     *         reads and {@link RequestPriority#NORMAL} for all other
+     *         commands.
+     */
+    @VisibleForTesting
+    static RequestPriority classify(String fullUrl)
+    {
+        if(fullUrl.contains(READ_PATH))
+        {
+            return RequestPriority.LOW;
+        }
+
+        int start = fullUrl.indexOf(COMMAND_PREFIX);
+        String commands = start < 0 ? fullUrl :
+                fullUrl.substring(start + COMMAND_PREFIX.length());
+        for(String command :
+                commands.split(HttpCueServerClient.COMMAND_SEPARATOR))
+        {
+            for(String token : command.split("\\+"))
+            {
+                if(token.equals("GO") || token.equals("CL"))
+                {
+                    return RequestPriority.HIGH;
+                }
+            }
+        }
+        return RequestPriority.NORMAL;
+    }
+
+    /**
+     * Waits until the bucket holds a token and takes it.
+     *
+     * @throws InterruptedException if the worker was interrupted.
+     */
+    private void acquireToken() throws InterruptedException
+    {
+        while(true)
+        {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) *
+                    tokensPerNano);
+            lastRefill = now;
+            if(tokens >= 1)
+            {
+                tokens -= 1;
+                return;
+            }
+            TimeUnit.NANOSECONDS.sleep((long) ((1 - tokens) / tokensPerNano));
+        }
+    }
+
+    /**
+     * Sends the queued requests in priority order.
+     */
+    private class Worker implements Runnable
+    {
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run()
+        {
+            while(!shutdown)
+            {
+                QueuedRequest request = null;
+                try
+                {
+                    request = queue.take();
+                    acquireToken();
+                }
+                catch (InterruptedException e)
+                {
+                    if(request != null)
+                    {
+                        request.reply.set(null);
+                    }
+                    return;
+                }
+
+                try
+                {
+                    request.reply.set(
+                            delegate.submitHttpGetRequest(request.fullUrl));
+                }
+                catch (RuntimeException e)
+                {
+                    request.reply.setException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * A request waiting to be sent.
+     */
+    private static class QueuedRequest implements Comparable<QueuedRequest>
+    {
+        /** The URL of the request. */
+        private final String fullUrl;
+
+        /** The priority of the request. */
+        private final RequestPriority priority;
+
+        /** Orders requests of the same priority. */
+        private final long sequence;
+
+        /** Completed once the request has been sent. */
+        private final SettableFuture<Integer[]> reply = SettableFuture.create();
+
+        /**
+         * Creates a new {@code QueuedRequest}.
+         *
+         * @param fullUrl the URL of the request.
+         * @param priority the priority of the request.
+         * @param sequence orders requests of the same priority.
+         */
+        private QueuedRequest(String fullUrl, RequestPriority priority,
+                              long sequence)
+        {
+            this.fullUrl = fullUrl;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int compareTo(QueuedRequest other)
+        {
+            int result = priority.compareTo(other.priority);
+            if(result == 0)
+            {
+                result = sequence < other.sequence ? -1 :
+                        sequence == other.sequence ? 0 : 1;
+            }
+            return result;
+        }
+    }
+}
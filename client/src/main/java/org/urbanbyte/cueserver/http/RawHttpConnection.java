@@ -0,0 +1,552 @@
+package org.urbanbyte.cueserver.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A persistent HTTP/1.1 connection to a CueServer used by the
+ * {@link RawHttpTransport}. Requests are written as prebuilt bytes and
+ * replies are parsed in place from a reused direct buffer, without creating
+ * any objects besides the returned values. Bytes that arrive after a reply
+ * stay in the buffer, so pipelined replies can be read one after the other.
+ * <p>
+ * A connection is not thread safe; it is used by one request at a time.
+ * <p>
+ * author: Chris Reising
+ */
+class RawHttpConnection
+{
+    /** The initial size of the read buffer. */
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    /** The largest header section that is accepted. */
+    private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+    /** Values of all bytes, to avoid boxing each byte of a reply. */
+    private static final Integer[] BYTE_VALUES = new Integer[256];
+
+    static
+    {
+        for(int value = 0 ; value < BYTE_VALUES.length ; value++)
+        {
+            BYTE_VALUES[value] = value;
+        }
+    }
+
+    /** The channel to the CueServer. */
+    private final SocketChannel channel;
+
+    /** Waits for the channel to become readable or writable. */
+    private final Selector selector;
+
+    /** The key of the channel in the selector. */
+    private final SelectionKey key;
+
+    /** The longest time to wait for data. */
+    private final int readTimeoutMillis;
+
+    /** Holds the bytes read; its position is the end of the data. */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+
+    /** The index of the first byte in the buffer that was not consumed. */
+    private int start;
+
+    /** {@code false} once the CueServer asked to close the connection. */
+    private boolean keepAlive = true;
+
+    /**
+     * Opens a connection.
+     *
+     * @param address the address of the CueServer.
+     * @param connectTimeoutMillis the longest time to wait for the
+     *                             connection.
+     * @param readTimeoutMillis the longest time to wait for data.
+     * @throws IOException if the connection could not be opened.
+     */
+    RawHttpConnection(InetSocketAddress address,
+                      int connectTimeoutMillis,
+                      int readTimeoutMillis) throws IOException
+    {
+        this.readTimeoutMillis = readTimeoutMillis;
+        channel = SocketChannel.open();
+        try
+        {
+            channel.socket().setTcpNoDelay(true);
+            channel.socket().connect(address, connectTimeoutMillis);
+            channel.configureBlocking(false);
+            selector = Selector.open();
+            key = channel.register(selector, SelectionKey.OP_READ);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks if the connection can be used for another request. The check
+     * reads from the channel without waiting, which detects a connection the
+     * CueServer closed while it was idle.
+     *
+     * @return {@code true} if the connection is open and idle.
+     */
+    boolean isReusable()
+    {
+        if(!keepAlive || !channel.isOpen() || start != buffer.position())
+        {
+            return false;
+        }
+        try
+        {
+            return fill() == 0;
+        }
+        catch (IOException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Checks if the CueServer kept the connection open after the last reply.
+     *
+     * @return {@code false} if the CueServer closed, or asked to close, the
+     *         connection.
+     */
+    boolean isKeepAlive()
+    {
+        return keepAlive;
+    }
+
+    /**
+     * Writes a request.
+     *
+     * @param request the request to write. Its position is advanced.
+     * @throws IOException if the request could not be written.
+     */
+    void write(ByteBuffer request) throws IOException
+    {
+        while(request.hasRemaining())
+        {
+            if(channel.write(request) == 0)
+            {
+                key.interestOps(SelectionKey.OP_WRITE);
+                try
+                {
+                    await();
+                }
+                finally
+                {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the next reply. The body of an error reply is read as well, so
+     * that a pipelined reply after it could still be read.
+     *
+     * @return the body of the reply as integers with value [0, 255]. Never
+     *         {@code null}.
+     * @throws IOException if the reply could not be read or its status is
+     *                     not 2xx.
+     */
+    Integer[] readResponse() throws IOException
+    {
+        int headerEnd = readHeaders();
+        boolean http10 = buffer.get(start + 7) == '0';
+        int status = parseInt(start + 8, findLineEnd(start), 10);
+        int contentLength = -1;
+        boolean chunked = false;
+        boolean close = http10;
+
+        int line = findLineEnd(start);
+        while(line < headerEnd - 2)
+        {
+            int lineEnd = findLineEnd(line);
+            if(headerIs(line, lineEnd, "content-length:"))
+            {
+                contentLength = parseInt(line + 15, lineEnd, 10);
+            }
+            else if(headerIs(line, lineEnd, "transfer-encoding:"))
+            {
+                chunked = containsIgnoreCase(line, lineEnd, "chunked");
+            }
+            else if(headerIs(line, lineEnd, "connection:"))
+            {
+                close = containsIgnoreCase(line, lineEnd, "close") ||
+                        (http10 &&
+                                !containsIgnoreCase(line, lineEnd, "keep"));
+            }
+            line = lineEnd;
+        }
+        start = headerEnd;
+
+        Integer[] body;
+        if(chunked)
+        {
+            body = readChunked();
+        }
+        else if(contentLength >= 0)
+        {
+            body = readBody(contentLength);
+        }
+        else
+        {
+            body = readUntilClosed();
+            close = true;
+        }
+
+        if(close)
+        {
+            keepAlive = false;
+        }
+        if(status < 200 || status > 299)
+        {
+            throw new IOException("HTTP status " + status + ".");
+        }
+        return body;
+    }
+
+    /**
+     * Closes the connection.
+     */
+    void close()
+    {
+        keepAlive = false;
+        try
+        {
+            selector.close();
+        }
+        catch (IOException e)
+        {
+            // nothing else to release
+        }
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            // nothing else to release
+        }
+    }
+
+    /**
+     * Reads until the buffer holds the complete header section of a reply.
+     *
+     * @return the index after the blank line that ends the headers.
+     * @throws IOException if the headers could not be read.
+     */
+    private int readHeaders() throws IOException
+    {
+        // relative to start, since reading more may move the data
+        int scanned = 0;
+        while(true)
+        {
+            int end = buffer.position();
+            for(int index = start + Math.max(scanned, 3) ; index < end ;
+                index++)
+            {
+                if(buffer.get(index) == '\n' && buffer.get(index - 1) == '\r'
+                        && buffer.get(index - 2) == '\n')
+                {
+                    if(buffer.get(start) != 'H' || end - start < 12)
+                    {
+                        throw new IOException("Malformed HTTP reply.");
+                    }
+                    return index + 1;
+                }
+            }
+            scanned = end - start;
+            if(scanned > MAX_HEADER_SIZE)
+            {
+                throw new IOException("HTTP headers too long.");
+            }
+            fillOrFail();
+        }
+    }
+
+    /**
+     * Reads a body of a known length.
+     *
+     * @param length the length of the body.
+     * @return the body.
+     * @throws IOException if the body could not be read.
+     */
+    private Integer[] readBody(int length) throws IOException
+    {
+        while(buffer.position() - start < length)
+        {
+            fillOrFail();
+        }
+        Integer[] body = new Integer[length];
+        for(int index = 0 ; index < length ; index++)
+        {
+            body[index] = BYTE_VALUES[buffer.get(start + index) & 0xFF];
+        }
+        start += length;
+        return body;
+    }
+
+    /**
+     * Reads a chunked body.
+     *
+     * @return the body.
+     * @throws IOException if the body could not be read.
+     */
+    private Integer[] readChunked() throws IOException
+    {
+        Integer[] body = new Integer[0];
+        while(true)
+        {
+            while(findLineEnd(start) < 0)
+            {
+                fillOrFail();
+            }
+            int lineEnd = findLineEnd(start);
+            int size = parseInt(start, lineEnd, 16);
+            start = lineEnd;
+
+            if(size == 0)
+            {
+                // skip trailers up to the final blank line
+                while(true)
+                {
+                    while(findLineEnd(start) < 0)
+                    {
+                        fillOrFail();
+                    }
+                    int trailerEnd = findLineEnd(start);
+                    boolean blank = trailerEnd - start == 2;
+                    start = trailerEnd;
+                    if(blank)
+                    {
+                        return body;
+                    }
+                }
+            }
+
+            Integer[] chunk = readBody(size);
+            Integer[] joined = new Integer[body.length + chunk.length];
+            System.arraycopy(body, 0, joined, 0, body.length);
+            System.arraycopy(chunk, 0, joined, body.length, chunk.length);
+            body = joined;
+
+            while(buffer.position() - start < 2)
+            {
+                fillOrFail();
+            }
+            start += 2;
+        }
+    }
+
+    /**
+     * Reads a body that ends when the CueServer closes the connection.
+     *
+     * @return the body.
+     * @throws IOException if the body could not be read.
+     */
+    private Integer[] readUntilClosed() throws IOException
+    {
+        while(fillBlocking() >= 0)
+        {
+            // keep reading until the end of the stream
+        }
+        return readBody(buffer.position() - start);
+    }
+
+    /**
+     * Reads more data, waiting up to the read timeout.
+     *
+     * @throws IOException if the stream ended or the read timed out.
+     */
+    private void fillOrFail() throws IOException
+    {
+        if(fillBlocking() < 0)
+        {
+            keepAlive = false;
+            throw new EOFException("Connection closed by the CueServer.");
+        }
+    }
+
+    /**
+     * Reads more data, waiting up to the read timeout.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream.
+     * @throws IOException if the read failed or timed out.
+     */
+    private int fillBlocking() throws IOException
+    {
+        int read = fill();
+        while(read == 0)
+        {
+            await();
+            read = fill();
+        }
+        return read;
+    }
+
+    /**
+     * Reads the data that is available without waiting.
+     *
+     * @return the number of bytes read, or -1 at the end of the stream.
+     * @throws IOException if the read failed.
+     */
+    private int fill() throws IOException
+    {
+        if(!buffer.hasRemaining())
+        {
+            makeRoom();
+        }
+        return channel.read(buffer);
+    }
+
+    /**
+     * Discards the consumed bytes, or grows the buffer if there are none.
+     */
+    private void makeRoom()
+    {
+        if(start > 0)
+        {
+            buffer.limit(buffer.position());
+            buffer.position(start);
+            buffer.compact();
+            start = 0;
+        }
+        else
+        {
+            ByteBuffer larger = ByteBuffer.allocateDirect(
+                    buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Waits until the channel is ready for the current operation.
+     *
+     * @throws IOException if the wait timed out or failed.
+     */
+    private void await() throws IOException
+    {
+        int ready = selector.select(readTimeoutMillis);
+        selector.selectedKeys().clear();
+        if(ready == 0)
+        {
+            keepAlive = false;
+            throw new SocketTimeoutException("Timed out waiting for the " +
+                    "CueServer.");
+        }
+    }
+
+    /**
+     * Finds the end of the line starting at an index.
+     *
+     * @param from the start of the line.
+     * @return the index after the line's {@code \n}, or -1 if the line is
+     *         not complete.
+     */
+    private int findLineEnd(int from)
+    {
+        int end = buffer.position();
+        for(int index = from ; index < end ; index++)
+        {
+            if(buffer.get(index) == '\n')
+            {
+                return index + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks if a header line has the given name.
+     *
+     * @param from the start of the line.
+     * @param to the end of the line.
+     * @param name the lower case header name, including the colon.
+     * @return {@code true} if the line is the named header.
+     */
+    private boolean headerIs(int from, int to, String name)
+    {
+        if(to - from < name.length())
+        {
+            return false;
+        }
+        for(int index = 0 ; index < name.length() ; index++)
+        {
+            if(Character.toLowerCase((char) buffer.get(from + index)) !=
+                    name.charAt(index))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if a range of the buffer contains a lower case word, ignoring
+     * case.
+     *
+     * @param from the start of the range.
+     * @param to the end of the range.
+     * @param word the lower case word.
+     * @return {@code true} if the range contains the word.
+     */
+    private boolean containsIgnoreCase(int from, int to, String word)
+    {
+        for(int index = from ; index <= to - word.length() ; index++)
+        {
+            if(headerIs(index, to, word))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses a number, skipping leading spaces and stopping at the first
+     * character that is not a digit.
+     *
+     * @param from the start of the range.
+     * @param to the end of the range.
+     * @param radix 10 or 16.
+     * @return the number.
+     * @throws IOException if the range does not contain a number.
+     */
+    private int parseInt(int from, int to, int radix) throws IOException
+    {
+        int index = from;
+        while(index < to && buffer.get(index) == ' ')
+        {
+            index++;
+        }
+        int value = 0;
+        int digits = 0;
+        for( ; index < to ; index++)
+        {
+            int digit = Character.digit((char) buffer.get(index), radix);
+            if(digit < 0)
+            {
+                break;
+            }
+            value = value * radix + digit;
+            digits++;
+        }
+        if(digits == 0)
+        {
+            throw new IOException("Malformed number in HTTP reply.");
+        }
+        return value;
+    }
+}
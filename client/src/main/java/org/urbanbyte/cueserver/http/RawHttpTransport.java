@@ -0,0 +1,522 @@
+package org.urbanbyte.cueserver.http;
+
+import com.google.common.collect.ImmutableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A minimal HTTP/1.1 transport that talks to CueServers over persistent
+ * socket channels instead of going through Apache HttpClient. The CueServer
+ * replies to every request with a few dozen to a few hundred bytes, so the
+ * cost of a request through HttpClient is dominated by its request, header
+ * and entity objects. This transport writes prebuilt request bytes, which
+ * are cached for the fixed {@code get.cgi} reads, and parses each reply in
+ * place from a reused direct buffer.
+ * <p>
+ * Connections are kept open and pooled per host, so concurrent requests to
+ * the same CueServer each use their own connection. A read that fails on a
+ * pooled connection is sent once more on a new connection, in case the
+ * CueServer had closed the idle connection. Commands are never sent twice.
+ * Only plain {@code http} URLs are supported.
+ * <p>
+ * Groups of reads can be pipelined. The first pipelined group sent to a host
+ * detects whether its web server answers pipelined requests: if it closes the
+ * connection, or stops answering, after the first reply, or times out before
+ * any reply, the host is marked as not supporting pipelining and its groups
+ * are sent one read at a time from then on.
+ * <p>
+ * author: Chris Reising
+ */
+public class RawHttpTransport implements PipeliningHttpTransport, Closeable
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(RawHttpTransport.class);
+
+    /** Default time to wait for a connection in milliseconds. */
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 2000;
+
+    /** Default time to wait for data in milliseconds. */
+    public static final int DEFAULT_READ_TIMEOUT_MILLIS = 5000;
+
+    /** The part of the URL that identifies an idempotent read. */
+    private static final String READ_PATH = "/get.cgi/";
+
+    /** The scheme of the supported URLs. */
+    private static final String SCHEME = "http://";
+
+    /** The encoding of the request line and headers. */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /** The longest time to wait for a connection. */
+    private final int connectTimeoutMillis;
+
+    /** The longest time to wait for data. */
+    private final int readTimeoutMillis;
+
+    /** The hosts requests were sent to, keyed by host and port. */
+    private final ConcurrentMap<String, Endpoint> endpoints =
+            new ConcurrentHashMap<String, Endpoint>();
+
+    /** The prebuilt reads, keyed by URL. */
+    private final ConcurrentMap<String, Request> reads =
+            new ConcurrentHashMap<String, Request>();
+
+    /** The prebuilt pipelined groups, keyed by their URLs. */
+    private final ConcurrentMap<List<String>, byte[]> groups =
+            new ConcurrentHashMap<List<String>, byte[]>();
+
+    /** {@code true} once the transport was closed. */
+    private volatile boolean closed;
+
+    /**
+     * Creates a new {@code RawHttpTransport} with the default timeouts.
+     */
+    public RawHttpTransport()
+    {
+        this(DEFAULT_CONNECT_TIMEOUT_MILLIS, DEFAULT_READ_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new {@code RawHttpTransport}.
+     *
+     * @param connectTimeoutMillis the longest time to wait for a connection.
+     *                             Must be positive.
+     * @param readTimeoutMillis the longest time to wait for data. Must be
+     *                          positive.
+     * @throws IllegalArgumentException if a timeout is not positive.
+     */
+    public RawHttpTransport(int connectTimeoutMillis, int readTimeoutMillis)
+    {
+        checkArgument(connectTimeoutMillis > 0,
+                "connectTimeoutMillis must be positive");
+        checkArgument(readTimeoutMillis > 0,
+                "readTimeoutMillis must be positive");
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException if the URL is not a plain
+     *                                  {@code http} URL.
+     */
+    @Override
+    public Integer[] submitHttpGetRequest(String fullUrl)
+    {
+        checkNotNull(fullUrl, "fullUrl cannot be null");
+        Request request = getRequest(fullUrl);
+        try
+        {
+            RawHttpConnection connection = request.endpoint.pollIdle();
+            if(connection != null)
+            {
+                try
+                {
+                    return exchange(request, connection);
+                }
+                catch (IOException e)
+                {
+                    if(!request.read)
+                    {
+                        throw e;
+                    }
+                    LOGGER.debug("Pooled connection failed, reconnecting: {}",
+                            e.toString());
+                }
+            }
+            return exchange(request, request.endpoint.connect());
+        }
+        catch (IOException e)
+        {
+            LOGGER.error("Error while communicating with the server.", e);
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer[]> submitPipelined(List<String> fullUrls)
+    {
+        checkNotNull(fullUrls, "fullUrls cannot be null");
+        return submitPipelined(fullUrls, new long[fullUrls.size()]);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<Integer[]> submitPipelined(List<String> fullUrls,
+                                           long[] arrivalTimes)
+    {
+        checkNotNull(fullUrls, "fullUrls cannot be null");
+        checkNotNull(arrivalTimes, "arrivalTimes cannot be null");
+        checkArgument(arrivalTimes.length >= fullUrls.size(),
+                "arrivalTimes is too short");
+        List<Request> requests = new ArrayList<Request>(fullUrls.size());
+        for(String fullUrl : fullUrls)
+        {
+            Request request = getRequest(checkNotNull(fullUrl,
+                    "fullUrl cannot be null"));
+            checkArgument(request.read, "only reads can be pipelined: " +
+                    fullUrl);
+            checkArgument(requests.isEmpty() ||
+                    requests.get(0).endpoint == request.endpoint,
+                    "all reads must be sent to the same host");
+            requests.add(request);
+        }
+
+        List<Integer[]> replies = new ArrayList<Integer[]>(requests.size());
+        if(requests.size() > 1 && requests.get(0).endpoint.pipelining)
+        {
+            pipeline(fullUrls, requests, replies, arrivalTimes);
+        }
+
+        // send whatever was not answered one at a time
+        for(int index = replies.size() ; index < requests.size() ; index++)
+        {
+            replies.add(submitHttpGetRequest(fullUrls.get(index)));
+            arrivalTimes[index] = System.currentTimeMillis();
+        }
+        return replies;
+    }
+
+    /**
+     * Gets if a host is still believed to support pipelining.
+     *
+     * @param fullUrl a URL of the host.
+     * @return {@code false} if a pipelined group sent to the host failed
+     *         after its first reply or timed out before it.
+     */
+    public boolean isPipeliningSupported(String fullUrl)
+    {
+        return getRequest(checkNotNull(fullUrl, "fullUrl cannot be null"))
+                .endpoint.pipelining;
+    }
+
+    /**
+     * Closes all idle connections. Connections in use are closed once their
+     * request completes, and so are those of any later request.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        for(Endpoint endpoint : endpoints.values())
+        {
+            endpoint.closeIdle();
+        }
+    }
+
+    /**
+     * Sends a request on a connection and reads the reply. The connection is
+     * returned to the pool if it can be reused and closed otherwise.
+     *
+     * @param request the request.
+     * @param connection the connection.
+     * @return the reply.
+     * @throws IOException if the request failed.
+     */
+    private Integer[] exchange(Request request, RawHttpConnection connection)
+            throws IOException
+    {
+        try
+        {
+            connection.write(ByteBuffer.wrap(request.bytes));
+            Integer[] reply = connection.readResponse();
+            request.endpoint.release(connection);
+            return reply;
+        }
+        catch (IOException e)
+        {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a group of reads on one connection and reads the replies in
+     * order. Stops at the first reply that cannot be read.
+     *
+     * @param fullUrls the URLs of the reads.
+     * @param requests the reads.
+     * @param replies receives the replies that were read.
+     * @param arrivalTimes receives when each reply was read.
+     */
+    private void pipeline(List<String> fullUrls,
+                          List<Request> requests,
+                          List<Integer[]> replies,
+                          long[] arrivalTimes)
+    {
+        Endpoint endpoint = requests.get(0).endpoint;
+        byte[] bytes = groups.get(fullUrls);
+        if(bytes == null)
+        {
+            bytes = createGroup(requests);
+            groups.putIfAbsent(ImmutableList.copyOf(fullUrls), bytes);
+        }
+        ByteBuffer group = ByteBuffer.wrap(bytes);
+
+        RawHttpConnection connection = null;
+        try
+        {
+            connection = endpoint.pollIdle();
+            if(connection == null)
+            {
+                connection = endpoint.connect();
+            }
+            connection.write(group);
+            while(replies.size() < requests.size())
+            {
+                replies.add(connection.readResponse());
+                arrivalTimes[replies.size() - 1] = System.currentTimeMillis();
+                if(!connection.isKeepAlive() &&
+                        replies.size() < requests.size())
+                {
+                    throw new IOException("The connection was closed " +
+                            "after " + replies.size() + " pipelined replies.");
+                }
+            }
+            endpoint.release(connection);
+        }
+        catch (IOException e)
+        {
+            if(connection != null)
+            {
+                connection.close();
+            }
+            // a stale pooled connection fails before the first reply too,
+            // but only a server ignoring the group times out
+            if(!replies.isEmpty() || e instanceof SocketTimeoutException)
+            {
+                endpoint.pipelining = false;
+                LOGGER.info("Pipelining disabled for {}: {}",
+                        endpoint.address, e.toString());
+            }
+            else
+            {
+                LOGGER.debug("Pipelined reads failed: {}", e.toString());
+            }
+        }
+    }
+
+    /**
+     * Joins the bytes of a group of reads.
+     *
+     * @param requests the reads.
+     * @return Never {@code null}.
+     */
+    private static byte[] createGroup(List<Request> requests)
+    {
+        int length = 0;
+        for(Request request : requests)
+        {
+            length += request.bytes.length;
+        }
+        ByteBuffer group = ByteBuffer.allocate(length);
+        for(Request request : requests)
+        {
+            group.put(request.bytes);
+        }
+        return group.array();
+    }
+
+    /**
+     * Gets the prebuilt request for a URL. Reads are cached since their URLs
+     * never change; commands are built for every call.
+     *
+     * @param fullUrl the URL.
+     * @return Never {@code null}.
+     * @throws IllegalArgumentException if the URL is not supported.
+     */
+    private Request getRequest(String fullUrl)
+    {
+        Request request = reads.get(fullUrl);
+        if(request == null)
+        {
+            request = createRequest(fullUrl);
+            if(request.read)
+            {
+                reads.putIfAbsent(fullUrl, request);
+            }
+        }
+        return request;
+    }
+
+    /**
+     * Builds the request for a URL.
+     *
+     * @param fullUrl the URL.
+     * @return Never {@code null}.
+     * @throws IllegalArgumentException if the URL is not supported.
+     */
+    private Request createRequest(String fullUrl)
+    {
+        checkArgument(fullUrl.startsWith(SCHEME),
+                "only http URLs are supported: " + fullUrl);
+        int pathStart = fullUrl.indexOf('/', SCHEME.length());
+        String authority = pathStart < 0 ?
+                fullUrl.substring(SCHEME.length()) :
+                fullUrl.substring(SCHEME.length(), pathStart);
+        String path = pathStart < 0 ? "/" : fullUrl.substring(pathStart);
+
+        Endpoint endpoint = endpoints.get(authority);
+        if(endpoint == null)
+        {
+            endpoints.putIfAbsent(authority, new Endpoint(authority));
+            endpoint = endpoints.get(authority);
+        }
+
+        byte[] bytes = ("GET " + path + " HTTP/1.1\r\nHost: " + authority +
+                "\r\n\r\n").getBytes(ASCII);
+        return new Request(endpoint, bytes, fullUrl.contains(READ_PATH));
+    }
+
+    /**
+     * A prebuilt request.
+     */
+    private static class Request
+    {
+        /** The host the request is sent to. */
+        private final Endpoint endpoint;
+
+        /** The request line and headers. */
+        private final byte[] bytes;
+
+        /** {@code true} if the request is an idempotent read. */
+        private final boolean read;
+
+        /**
+         * Creates a new {@code Request}.
+         *
+         * @param endpoint the host the request is sent to.
+         * @param bytes the request line and headers.
+         * @param read {@code true} if the request is an idempotent read.
+         */
+        private Request(Endpoint endpoint, byte[] bytes, boolean read)
+        {
+            this.endpoint = endpoint;
+            this.bytes = bytes;
+            this.read = read;
+        }
+    }
+
+    /**
+     * A host and its idle connections.
+     */
+    private class Endpoint
+    {
+        /** The address of the host. */
+        private final InetSocketAddress address;
+
+        /** The connections that are open and not in use. */
+        private final Queue<RawHttpConnection> idle =
+                new ConcurrentLinkedQueue<RawHttpConnection>();
+
+        /** {@code false} once pipelining failed after a first reply. */
+        private volatile boolean pipelining = true;
+
+        /**
+         * Creates a new {@code Endpoint}.
+         *
+         * @param authority the host, optionally followed by a port.
+         */
+        private Endpoint(String authority)
+        {
+            int portIndex = authority.lastIndexOf(':');
+            if(portIndex < 0)
+            {
+                address = new InetSocketAddress(authority, 80);
+            }
+            else
+            {
+                address = new InetSocketAddress(
+                        authority.substring(0, portIndex),
+                        Integer.parseInt(authority.substring(portIndex + 1)));
+            }
+        }
+
+        /**
+         * Takes an idle connection that can still be used.
+         *
+         * @return {@code null} if there is none.
+         */
+        private RawHttpConnection pollIdle()
+        {
+            RawHttpConnection connection = idle.poll();
+            while(connection != null && !connection.isReusable())
+            {
+                connection.close();
+                connection = idle.poll();
+            }
+            return connection;
+        }
+
+        /**
+         * Opens a new connection.
+         *
+         * @return Never {@code null}.
+         * @throws IOException if the connection could not be opened.
+         */
+        private RawHttpConnection connect() throws IOException
+        {
+            return new RawHttpConnection(address, connectTimeoutMillis,
+                    readTimeoutMillis);
+        }
+
+        /**
+         * Returns a connection to the pool, or closes it if the CueServer
+         * did not keep it open or the transport was closed.
+         *
+         * @param connection the connection.
+         */
+        private void release(RawHttpConnection connection)
+        {
+            if(connection.isKeepAlive() && !closed)
+            {
+                idle.offer(connection);
+                // close() may have emptied the pool before the offer
+                if(closed)
+                {
+                    closeIdle();
+                }
+            }
+            else
+            {
+                connection.close();
+            }
+        }
+
+        /**
+         * Closes the idle connections.
+         */
+        private void closeIdle()
+        {
+            RawHttpConnection connection = idle.poll();
+            while(connection != null)
+            {
+                connection.close();
+                connection = idle.poll();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package org.urbanbyte.cueserver.http;
+
+import org.apache.http.client.methods.HttpRequestBase;
+
+/**
+ * Aborts a request of an {@link AbortableHttpTransport} from another thread.
+ * A request that has already completed is not affected. Each request needs
+ * its own {@code RequestAbort}.
+ * <p>
+ * author: Chris Reising
+ */
+public class RequestAbort
+{
+    /** The request being sent, or {@code null} if none was sent yet. */
+    private HttpRequestBase request;
+
+    /** {@code true} once the request was aborted. */
+    private boolean aborted;
+
+    /**
+     * Aborts the request. A request that was not sent yet will not be sent.
+     */
+    public synchronized void abort()
+    {
+        aborted = true;
+        if(request != null)
+        {
+            request.abort();
+        }
+    }
+
+    /**
+     * Checks if the request was aborted.
+     *
+     * @return {@code true} if {@link #abort()} was called.
+     */
+    public synchronized boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /**
+     * Sets the request that is about to be sent. If the request was already
+     * aborted, the new request is aborted right away.
+     *
+     * @param request the request.
+     */
+    synchronized void setRequest(HttpRequestBase request)
+    {
+        this.request = request;
+        if(aborted)
+        {
+            request.abort();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package org.urbanbyte.cueserver.http;
+
+/**
+ * The order in which a {@link PriorityHttpTransport} sends queued requests.
+ * <p>
+ * author: Chris Reising
+ */
+public enum RequestPriority
+{
+    /** Cue triggers and playback clears ({@code GO} and {@code CL}). */
+    HIGH,
+    /** All other commands, such as channel levels. */
+    NORMAL,
+    /** Status and output reads. */
+    LOW
+}
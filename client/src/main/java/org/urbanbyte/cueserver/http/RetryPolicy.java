@@ -0,0 +1,321 @@
+package org.urbanbyte.cueserver.http;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Decides which failed requests a {@link SimpleHttpClient} retries and how
+ * long it waits before each retry. Idempotent {@code get.cgi} reads are
+ * retried up to a maximum number of attempts. {@code exe.cgi} commands are
+ * retried according to their {@link CommandRetryMode}, since a command that
+ * reached the CueServer must not be executed twice.
+ * <p>
+ * The wait doubles after every attempt, up to a maximum, and is randomized
+ * between half and all of that value so that clients that failed together do
+ * not retry together.
+ * <p>
+ * author: Chris Reising
+ */
+public class RetryPolicy
+{
+    /** A policy that never retries. */
+    public static final RetryPolicy NONE = new Builder()
+            .setMaxReadAttempts(1)
+            .build();
+
+    /**
+     * The default policy: reads are attempted up to 3 times, starting with a
+     * 10 ms wait, and commands are sent at most once.
+     */
+    public static final RetryPolicy DEFAULT = new Builder().build();
+
+    /** The number of times a read is attempted. */
+    private final int maxReadAttempts;
+
+    /** The number of times a command is attempted. */
+    private final int maxCommandAttempts;
+
+    /** How commands are retried. */
+    private final CommandRetryMode commandRetryMode;
+
+    /** The wait before the first retry in milliseconds. */
+    private final long initialBackoffMillis;
+
+    /** The longest wait between two attempts in milliseconds. */
+    private final long maxBackoffMillis;
+
+    /**
+     * Creates a new {@code RetryPolicy} from the given builder.
+     *
+     * @param builder the builder to construct the object from.
+     * @throws NullPointerException if {@link #commandRetryMode} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if an attempt count is not positive,
+     *                                  or if a backoff is not valid.
+     */
+    protected RetryPolicy(Builder builder)
+    {
+        maxReadAttempts = builder.getMaxReadAttempts();
+        maxCommandAttempts = builder.getMaxCommandAttempts();
+        commandRetryMode = checkNotNull(builder.getCommandRetryMode(),
+                "commandRetryMode cannot be null.");
+        initialBackoffMillis = builder.getInitialBackoffMillis();
+        maxBackoffMillis = builder.getMaxBackoffMillis();
+
+        checkArgument(maxReadAttempts > 0,
+                "maxReadAttempts must be positive.");
+        checkArgument(maxCommandAttempts > 0,
+                "maxCommandAttempts must be positive.");
+        checkArgument(initialBackoffMillis >= 0,
+                "initialBackoffMillis cannot be negative.");
+        checkArgument(maxBackoffMillis >= initialBackoffMillis,
+                "maxBackoffMillis must be >= initialBackoffMillis.");
+    }
+
+    /**
+     * Gets the number of times a read is attempted.
+     *
+     * @return always positive.
+     */
+    public int getMaxReadAttempts()
+    {
+        return maxReadAttempts;
+    }
+
+    /**
+     * Gets the number of times a command is attempted when its failure may be
+     * retried.
+     *
+     * @return always positive.
+     */
+    public int getMaxCommandAttempts()
+    {
+        return maxCommandAttempts;
+    }
+
+    /**
+     * Gets how commands are retried.
+     *
+     * @return Never {@code null}.
+     */
+    public CommandRetryMode getCommandRetryMode()
+    {
+        return commandRetryMode;
+    }
+
+    /**
+     * Checks if a failed request should be attempted again.
+     *
+     * @param read {@code true} if the request is an idempotent read.
+     * @param attempt the number of attempts made so far, starting at 1.
+     * @param failure why the last attempt failed.
+     * @return {@code true} if the request should be attempted again.
+     */
+    public boolean shouldRetry(boolean read, int attempt, IOException failure)
+    {
+        if(read)
+        {
+            return attempt < maxReadAttempts;
+        }
+
+        switch (commandRetryMode)
+        {
+            case RETRY_ON_CONNECT_FAILURE:
+                return attempt < maxCommandAttempts &&
+                        isConnectFailure(failure);
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Gets the time to wait before the next attempt.
+     *
+     * @param attempt the number of attempts made so far, starting at 1.
+     * @param random the source of the jitter.
+     * @return the wait in milliseconds, within half and all of the
+     *         exponential backoff for the attempt.
+     */
+    public long getBackoffMillis(int attempt, Random random)
+    {
+        long backoff = initialBackoffMillis;
+        for(int count = 1 ; count < attempt && backoff < maxBackoffMillis ;
+            count++)
+        {
+            backoff *= 2;
+        }
+        backoff = Math.min(backoff, maxBackoffMillis);
+
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half + 1));
+    }
+
+    /**
+     * Checks if a failure happened before the request could be sent.
+     *
+     * @param failure the failure.
+     * @return {@code true} if the connection could not be opened.
+     */
+    static boolean isConnectFailure(IOException failure)
+    {
+        // HttpHostConnectException extends ConnectException
+        return failure instanceof ConnectException ||
+                failure instanceof ConnectTimeoutException;
+    }
+
+    /**
+     * Builder for {@link RetryPolicy}.
+     */
+    public static class Builder
+    {
+        /** The number of times a read is attempted. */
+        private int maxReadAttempts = 3;
+
+        /** The number of times a command is attempted. */
+        private int maxCommandAttempts = 2;
+
+        /** How commands are retried. */
+        private CommandRetryMode commandRetryMode =
+                CommandRetryMode.AT_MOST_ONCE;
+
+        /** The wait before the first retry in milliseconds. */
+        private long initialBackoffMillis = 10;
+
+        /** The longest wait between two attempts in milliseconds. */
+        private long maxBackoffMillis = 200;
+
+        /**
+         * Gets the current value of the {@link #maxReadAttempts} field.
+         *
+         * @return the {@link #maxReadAttempts} value.
+         */
+        public int getMaxReadAttempts()
+        {
+            return maxReadAttempts;
+        }
+
+        /**
+         * Sets the value of the {@link #maxReadAttempts} field.
+         *
+         * @param maxReadAttempts the number of times a read is attempted,
+         *                        including the first attempt.
+         * @return {@code this} builder.
+         */
+        public Builder setMaxReadAttempts(int maxReadAttempts)
+        {
+            this.maxReadAttempts = maxReadAttempts;
+            return this;
+        }
+
+        /**
+         * Gets the current value of the {@link #maxCommandAttempts} field.
+         *
+         * @return the {@link #maxCommandAttempts} value.
+         */
+        public int getMaxCommandAttempts()
+        {
+            return maxCommandAttempts;
+        }
+
+        /**
+         * Sets the value of the {@link #maxCommandAttempts} field. Only used
+         * when commands may be retried.
+         *
+         * @param maxCommandAttempts the number of times a command is
+         *                           attempted, including the first attempt.
+         * @return {@code this} builder.
+         */
+        public Builder setMaxCommandAttempts(int maxCommandAttempts)
+        {
+            this.maxCommandAttempts = maxCommandAttempts;
+            return this;
+        }
+
+        /**
+         * Gets the current value of the {@link #commandRetryMode} field.
+         *
+         * @return the {@link #commandRetryMode} value.
+         */
+        public CommandRetryMode getCommandRetryMode()
+        {
+            return commandRetryMode;
+        }
+
+        /**
+         * Sets the value of the {@link #commandRetryMode} field.
+         *
+         * @param commandRetryMode how commands are retried.
+         * @return {@code this} builder.
+         */
+        public Builder setCommandRetryMode(CommandRetryMode commandRetryMode)
+        {
+            this.commandRetryMode = commandRetryMode;
+            return this;
+        }
+
+        /**
+         * Gets the current value of the {@link #initialBackoffMillis} field.
+         *
+         * @return the {@link #initialBackoffMillis} value.
+         */
+        public long getInitialBackoffMillis()
+        {
+            return initialBackoffMillis;
+        }
+
+        /**
+         * Sets the value of the {@link #initialBackoffMillis} field.
+         *
+         * @param initialBackoffMillis the wait before the first retry.
+         * @return {@code this} builder.
+         */
+        public Builder setInitialBackoffMillis(long initialBackoffMillis)
+        {
+            this.initialBackoffMillis = initialBackoffMillis;
+            return this;
+        }
+
+        /**
+         * Gets the current value of the {@link #maxBackoffMillis} field.
+         *
+         * @return the {@link #maxBackoffMillis} value.
+         */
+        public long getMaxBackoffMillis()
+        {
+            return maxBackoffMillis;
+        }
+
+        /**
+         * Sets the value of the {@link #maxBackoffMillis} field.
+         *
+         * @param maxBackoffMillis the longest wait between two attempts.
+         * @return {@code this} builder.
+         */
+        public Builder setMaxBackoffMillis(long maxBackoffMillis)
+        {
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * Creates a new {@link RetryPolicy} from the builder.
+         *
+         * @return Never {@code null}.
+         * @throws NullPointerException if {@link #commandRetryMode} is
+         *                              {@code null}.
+         * @throws IllegalArgumentException if an attempt count is not
+         *                                  positive, or if a backoff is not
+         *                                  valid.
+         */
+        public RetryPolicy build()
+        {
+            return new RetryPolicy(this);
+        }
+    }
+}
@@ -13,54 +13,154 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 /**
- * Provides a simple interface for submitting HTTP get requests.
+ * Provides a simple interface for submitting HTTP get requests. Failed
+ * requests are retried according to a {@link RetryPolicy}; {@code get.cgi}
+ * reads and {@code exe.cgi} commands are retried separately because only
+ * reads are idempotent. Requests can be aborted by another thread, which
+ * closes their connection.
  * <p>
  * author: Chris Reising
  */
-public class SimpleHttpClient
+public class SimpleHttpClient implements AbortableHttpTransport
 {
     /** For logging. */
     private static final Logger LOGGER =
             LoggerFactory.getLogger(SimpleHttpClient.class);
 
+    /** The part of the URL that identifies an idempotent read. */
+    private static final String READ_PATH = "/get.cgi/";
+
     /** Client used to submit requests. */
     private final CloseableHttpClient httpClient;
 
+    /** Decides which failed requests are retried. */
+    private final RetryPolicy retryPolicy;
+
+    /** Source of the retry jitter. */
+    private final Random random = new Random();
+
     /**
-     * Creates a new {@code HttpClientWrapper}.
+     * Creates a new {@code HttpClientWrapper} with the default retry policy.
+     * The wrapped client does not retry requests itself, so that commands
+     * are sent at most once unless the retry policy allows otherwise.
      */
     public SimpleHttpClient()
     {
-        this(HttpClients.createDefault());
+        this(HttpClients.custom().disableAutomaticRetries().build());
     }
 
     /**
      * Creates a new {@code HttpClientWrapper} with the provided
      * {@link org.apache.http.impl.client.CloseableHttpClient}.
      *
-     * @param httpClient the wrapped client.
+     * @param httpClient the wrapped client. Its automatic retries must be
+     *                   disabled, for example with
+     *                   {@code HttpClients.custom().disableAutomaticRetries()},
+     *                   since Apache's default retry handler sends a command
+     *                   again after an I/O error even if the CueServer already
+     *                   executed it.
      * @throws NullPointerException if {@code httpClient} is {@code null}.
      */
     public SimpleHttpClient(CloseableHttpClient httpClient)
     {
-        this.httpClient = checkNotNull(httpClient, "httpClient cannot be null");
+        this(httpClient, RetryPolicy.DEFAULT);
     }
 
     /**
-     * Submits the provided URL as a HTTP get request.
+     * Creates a new {@code HttpClientWrapper} with the provided
+     * {@link org.apache.http.impl.client.CloseableHttpClient} and retry
+     * policy.
      *
-     * @param fullUrl the URL to submit.
-     * @return the bytes read from the request as integers with value [0, 255];
-     * @throws NullPointerException if {@code fullUrl} is {@code null}.
+     * @param httpClient the wrapped client. Its automatic retries must be
+     *                   disabled, since they would send commands again after
+     *                   an I/O error.
+     * @param retryPolicy decides which failed requests are retried.
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    public SimpleHttpClient(CloseableHttpClient httpClient,
+                            RetryPolicy retryPolicy)
+    {
+        this.httpClient = checkNotNull(httpClient, "httpClient cannot be null");
+        this.retryPolicy = checkNotNull(retryPolicy,
+                "retryPolicy cannot be null");
+    }
+
+    /**
+     * {@inheritDoc}
      */
+    @Override
     public Integer[] submitHttpGetRequest(String fullUrl)
+    {
+        return submitHttpGetRequest(fullUrl, new RequestAbort());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Integer[] submitHttpGetRequest(String fullUrl, RequestAbort abort)
     {
         checkNotNull(fullUrl, "fullUrl cannot be null");
+        checkNotNull(abort, "abort cannot be null");
+        boolean read = fullUrl.contains(READ_PATH);
+
+        int attempt = 1;
+        while(true)
+        {
+            try
+            {
+                return execute(fullUrl, abort);
+            }
+            catch (IOException e)
+            {
+                if(abort.isAborted())
+                {
+                    LOGGER.debug("Request aborted: {}", fullUrl);
+                    return null;
+                }
+                if(!retryPolicy.shouldRetry(read, attempt, e))
+                {
+                    LOGGER.error("Error while communicating with the server.",
+                            e);
+                    return null;
+                }
+
+                long backoff;
+                synchronized (random)
+                {
+                    backoff = retryPolicy.getBackoffMillis(attempt, random);
+                }
+                LOGGER.debug("Attempt {} failed, retrying in {} ms: {}",
+                        attempt, backoff, e.toString());
+                if(!sleep(backoff))
+                {
+                    return null;
+                }
+                attempt++;
+            }
+        }
+    }
+
+    /**
+     * Submits a single HTTP get request.
+     *
+     * @param fullUrl the URL to submit.
+     * @param abort aborts the request.
+     * @return the bytes read from the request, or {@code null} if the response
+     *         had no content.
+     * @throws IOException if the request failed or was aborted, or the
+     *                     response could not be read.
+     */
+    private Integer[] execute(String fullUrl, RequestAbort abort)
+            throws IOException
+    {
         HttpGet get = new HttpGet(fullUrl);
+        abort.setRequest(get);
         CloseableHttpResponse response = null;
         Integer[] readBytes = null;
 
@@ -71,12 +171,12 @@ public class SimpleHttpClient
             if (entity != null)
             {
                 readBytes = packBytes(entity.getContent());
+                if(readBytes == null)
+                {
+                    throw new IOException("The response could not be read.");
+                }
             }
         }
-        catch (IOException e)
-        {
-            LOGGER.error("Error while communicating with the server.", e);
-        }
         finally
         {
             closeResponse(response);
@@ -84,6 +184,26 @@ public class SimpleHttpClient
         return readBytes;
     }
 
+    /**
+     * Waits before a retry.
+     *
+     * @param millis the time to wait.
+     * @return {@code false} if the thread was interrupted.
+     */
+    private static boolean sleep(long millis)
+    {
+        try
+        {
+            Thread.sleep(millis);
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Helper method that reads the bytes from the given stream and creates
      * an array of integers.
@@ -0,0 +1,236 @@
+package org.urbanbyte.cueserver.http;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Collapses concurrent identical reads into one. The first caller for a key
+ * runs the read; callers that arrive while it is in flight wait for it and
+ * receive the same result instead of sending their own request.
+ * <p>
+ * A freshness window can be set so that a result is also handed to callers
+ * that arrive shortly after the read completed. The window is 0 by default,
+ * so only callers that overlap a read share it. Failed reads, which return
+ * {@code null}, are never kept past their flight. Writes that change the
+ * state being read should call {@link #invalidateAll()}.
+ * <p>
+ * author: Chris Reising
+ *
+ * @param <K> the type of the keys identifying a read.
+ * @param <V> the type of the results.
+ */
+public class SingleFlight<K, V>
+{
+    /** The reads in flight or still fresh, by key. */
+    private final ConcurrentMap<K, Flight<V>> flights =
+            new ConcurrentHashMap<K, Flight<V>>();
+
+    /** Measures the age of completed reads. */
+    private final Ticker ticker;
+
+    /** How long a completed result is shared, in nanoseconds. */
+    private volatile long freshnessNanos;
+
+    /**
+     * Creates a new {@code SingleFlight} with no freshness window.
+     */
+    public SingleFlight()
+    {
+        this(Ticker.systemTicker());
+    }
+
+    /**
+     * Creates a new {@code SingleFlight} with a custom time source.
+     *
+     * @param ticker measures the age of completed reads.
+     * @throws NullPointerException if {@code ticker} is {@code null}.
+     */
+    SingleFlight(Ticker ticker)
+    {
+        this.ticker = checkNotNull(ticker, "ticker cannot be null");
+    }
+
+    /**
+     * Sets how long a completed result is shared with new callers.
+     *
+     * @param duration the length of the window. Must not be negative. 0
+     *                 shares results only between overlapping callers.
+     * @param unit the unit of {@code duration}.
+     * @throws IllegalArgumentException if {@code duration} is negative.
+     * @throws NullPointerException if {@code unit} is {@code null}.
+     */
+    public void setFreshness(long duration, TimeUnit unit)
+    {
+        checkArgument(duration >= 0, "duration cannot be negative");
+        freshnessNanos = unit.toNanos(duration);
+    }
+
+    /**
+     * Gets the result of a read, running the read only if no identical read
+     * is in flight or fresh.
+     *
+     * @param key identifies the read.
+     * @param read performs the read. Returns {@code null} if it failed.
+     * @return the result of the read, which may be shared with other
+     *         callers, or {@code null} if the read failed or the thread was
+     *         interrupted while waiting for it.
+     * @throws NullPointerException if either argument is {@code null}.
+     * @throws RuntimeException if the read threw.
+     * @throws Error if the read threw.
+     */
+    public V execute(K key, Supplier<V> read)
+    {
+        checkNotNull(key, "key cannot be null");
+        checkNotNull(read, "read cannot be null");
+        while(true)
+        {
+            Flight<V> flight = flights.get(key);
+            if(flight != null)
+            {
+                if(!flight.result.isDone() || isFresh(flight))
+                {
+                    return await(flight);
+                }
+                flights.remove(key, flight);
+                continue;
+            }
+
+            Flight<V> own = new Flight<V>();
+            if(flights.putIfAbsent(key, own) == null)
+            {
+                return run(key, own, read);
+            }
+        }
+    }
+
+    /**
+     * Forgets the reads in flight and the fresh results, so that later
+     * callers send a new read. Callers already waiting for a read in flight
+     * still receive its result.
+     */
+    public void invalidateAll()
+    {
+        flights.clear();
+    }
+
+    /**
+     * Gets the number of reads in flight or still fresh.
+     *
+     * @return the number of reads.
+     */
+    public int size()
+    {
+        return flights.size();
+    }
+
+    /**
+     * Gets the number of callers that joined a read in flight.
+     *
+     * @param key identifies the read.
+     * @return the number of callers waiting for the read, or 0 if there is
+     *         none.
+     */
+    int getWaiterCount(K key)
+    {
+        Flight<V> flight = flights.get(key);
+        return flight == null ? 0 : flight.waiters.get();
+    }
+
+    /**
+     * Runs a read and publishes its result to the callers waiting for it.
+     *
+     * @param key identifies the read.
+     * @param flight the flight of the read.
+     * @param read performs the read.
+     * @return the result of the read.
+     */
+    private V run(K key, Flight<V> flight, Supplier<V> read)
+    {
+        V value = null;
+        try
+        {
+            value = read.get();
+            flight.completedNanos = ticker.read();
+            flight.result.set(value);
+            return value;
+        }
+        catch (Throwable e)
+        {
+            // complete the flight on errors too, or its callers wait forever
+            flight.result.setException(e);
+            throw e;
+        }
+        finally
+        {
+            if(value == null || freshnessNanos == 0)
+            {
+                flights.remove(key, flight);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a completed read can still be shared.
+     *
+     * @param flight the completed read.
+     * @return {@code true} if the read succeeded within the freshness window.
+     */
+    private boolean isFresh(Flight<V> flight)
+    {
+        return ticker.read() - flight.completedNanos < freshnessNanos;
+    }
+
+    /**
+     * Waits for the result of a read sent by another caller.
+     *
+     * @param flight the read.
+     * @return the result, or {@code null} if the thread was interrupted.
+     * @throws RuntimeException if the read threw.
+     * @throws Error if the read threw.
+     */
+    private V await(Flight<V> flight)
+    {
+        flight.waiters.incrementAndGet();
+        try
+        {
+            return flight.result.get();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch (ExecutionException e)
+        {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * A read in flight, or completed and possibly still fresh.
+     *
+     * @param <V> the type of the result.
+     */
+    private static class Flight<V>
+    {
+        /** The result of the read. */
+        private final SettableFuture<V> result = SettableFuture.create();
+
+        /** When the read completed, written before the result is set. */
+        private volatile long completedNanos;
+
+        /** The number of callers that waited for the result. */
+        private final AtomicInteger waiters = new AtomicInteger();
+    }
+}
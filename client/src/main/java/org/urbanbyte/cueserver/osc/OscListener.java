@@ -0,0 +1,561 @@
+package org.urbanbyte.cueserver.osc;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.data.output.DmxBuffer;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Controls a CueServer from OSC over UDP, such as the messages of a touch
+ * panel. The following addresses are understood:
+ * <ul>
+ *     <li>{@code /cs/pb/<playback>/go <cue>} plays a cue on a playback.</li>
+ *     <li>{@code /cs/pb/<playback>/clear} clears a playback.</li>
+ *     <li>{@code /cs/ch/<channel> <level>} sets a channel.</li>
+ *     <li>{@code /cs/range/<first>/<last> <level>} sets a range of
+ *     channels.</li>
+ * </ul>
+ * Levels are integers within [0, 255] or floats within [0.0, 1.0]; channels
+ * are numbered across all universes of the client, starting at 1. Other
+ * messages are ignored.
+ * <p>
+ * Playback messages are triggers and are sent as soon as they arrive. Channel
+ * messages are fader moves, which a panel sends hundreds of times per second:
+ * they only record the latest level of each channel, and once per frame the
+ * recorded channels are sent in one {@link CommandBatch}. The triggers and the
+ * frames are sent by the same thread, and the recorded levels are sent just
+ * before each trigger, so a fader move received before a trigger reaches the
+ * CueServer first. Receiving never waits for the device: at most
+ * {@link #MAX_QUEUED_TRIGGERS} triggers wait to be sent, and further triggers
+ * are dropped until the device catches up.
+ * <p>
+ * author: Chris Reising
+ */
+public class OscListener
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(OscListener.class);
+
+    /** The default number of frames sent per second. */
+    public static final double DEFAULT_FRAME_RATE = 25;
+
+    /** The largest number of triggers waiting to be sent. */
+    public static final int MAX_QUEUED_TRIGGERS = 64;
+
+    /** The first element of every address that is understood. */
+    private static final String PREFIX = "cs";
+
+    /** The largest packet that is received. */
+    private static final int MAX_PACKET_SIZE = 8192;
+
+    /** Marks a channel without a recorded level. */
+    private static final int NO_LEVEL = -1;
+
+    /** The highest level of a channel. */
+    private static final int MAX_LEVEL = 255;
+
+    /** The client of the CueServer. */
+    private final HttpCueServerClient client;
+
+    /** The playback the channels are set on. */
+    private final Playback playback;
+
+    /** The latest level of each channel since the last frame, or
+     * {@link #NO_LEVEL}; guarded by itself. */
+    private final int[] pending;
+
+    /** The levels being sent, only used by the sending thread. */
+    private final int[] frame;
+
+    /** The number of messages received. */
+    private final AtomicLong messageCount = new AtomicLong();
+
+    /** The number of requests sent to the CueServer. */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** The number of triggers waiting to be sent. */
+    private final AtomicInteger queuedTriggers = new AtomicInteger();
+
+    /** The number of triggers dropped because too many were waiting. */
+    private final AtomicLong droppedTriggerCount = new AtomicLong();
+
+    /** The number of frames sent per second. */
+    private volatile double frameRate = DEFAULT_FRAME_RATE;
+
+    /** {@code true} if a level was recorded since the last frame; guarded by
+     * {@link #pending}. */
+    private boolean dirty;
+
+    /** Receives the packets; {@code null} unless started. */
+    private DatagramChannel channel;
+
+    /** Runs the receiving and sending threads; {@code null} unless started. */
+    private ScheduledExecutorService executor;
+
+    /**
+     * Creates a new {@code OscListener}.
+     *
+     * @param client the client of the CueServer.
+     * @param playback the playback the channels are set on.
+     * @throws NullPointerException if either argument is {@code null}.
+     */
+    public OscListener(HttpCueServerClient client, Playback playback)
+    {
+        this.client = checkNotNull(client, "client cannot be null");
+        this.playback = checkNotNull(playback, "playback cannot be null");
+        int channels = client.getUniverseCount() *
+                DmxBuffer.CHANNELS_PER_UNIVERSE;
+        pending = new int[channels];
+        frame = new int[channels];
+        Arrays.fill(pending, NO_LEVEL);
+    }
+
+    /**
+     * Sets how often the recorded channel levels are sent.
+     *
+     * @param framesPerSecond the number of frames per second. Must be
+     *                        positive. Takes effect the next time the
+     *                        listener starts.
+     * @throws IllegalArgumentException if the rate is not positive.
+     */
+    public void setFrameRate(double framesPerSecond)
+    {
+        checkArgument(framesPerSecond > 0, "framesPerSecond must be positive");
+        frameRate = framesPerSecond;
+    }
+
+    /**
+     * Starts receiving OSC.
+     *
+     * @param address the address to receive on.
+     * @throws IOException if the address could not be bound.
+     * @throws NullPointerException if {@code address} is {@code null}.
+     * @throws IllegalStateException if the listener is already started.
+     */
+    public synchronized void start(InetSocketAddress address)
+            throws IOException
+    {
+        checkNotNull(address, "address cannot be null");
+        checkState(channel == null, "listener already started");
+        channel = DatagramChannel.open();
+        try
+        {
+            channel.socket().setReuseAddress(true);
+            channel.socket().bind(address);
+        }
+        catch (IOException e)
+        {
+            channel.close();
+            channel = null;
+            throw e;
+        }
+
+        // the receive loop keeps one thread, so the triggers and frames all
+        // run on the other one, in order
+        executor = Executors.newScheduledThreadPool(2,
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cueserver-osc-%d")
+                        .build());
+        final DatagramChannel receiving = channel;
+        executor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                receiveLoop(receiving);
+            }
+        });
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / frameRate);
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    flush();
+                }
+                catch (RuntimeException e)
+                {
+                    LOGGER.error("Error sending OSC levels.", e);
+                }
+            }
+        }, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops receiving OSC. Levels and triggers that were not sent yet are
+     * dropped.
+     */
+    public synchronized void stop()
+    {
+        if(channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                LOGGER.debug("Error closing the OSC channel", e);
+            }
+            executor.shutdownNow();
+            // the triggers still queued were dropped with the executor
+            queuedTriggers.set(0);
+            channel = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * Gets the port the listener receives on.
+     *
+     * @return the port, or -1 if the listener is not started.
+     */
+    public synchronized int getLocalPort()
+    {
+        return channel == null ? -1 : channel.socket().getLocalPort();
+    }
+
+    /**
+     * Gets the number of OSC messages received.
+     *
+     * @return the number of messages.
+     */
+    public long getMessageCount()
+    {
+        return messageCount.get();
+    }
+
+    /**
+     * Gets the number of requests sent to the CueServer.
+     *
+     * @return the number of requests.
+     */
+    public long getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    /**
+     * Gets the number of triggers dropped because too many were waiting to
+     * be sent.
+     *
+     * @return the number of triggers.
+     */
+    public long getDroppedTriggerCount()
+    {
+        return droppedTriggerCount.get();
+    }
+
+    /**
+     * Handles a message: records the level of a channel message, or sends a
+     * playback message if the listener is started.
+     *
+     * @param message the message.
+     * @return {@code true} if the message was understood.
+     */
+    boolean handle(OscMessage message)
+    {
+        String[] parts = message.getAddress().split("/");
+        if(parts.length < 3 || !parts[0].isEmpty() ||
+                !PREFIX.equals(parts[1]))
+        {
+            return false;
+        }
+        List<Object> arguments = message.getArguments();
+        try
+        {
+            if("ch".equals(parts[2]) && parts.length == 4)
+            {
+                int number = Integer.parseInt(parts[3]);
+                return record(number, number, arguments);
+            }
+            if("range".equals(parts[2]) && parts.length == 5)
+            {
+                return record(Integer.parseInt(parts[3]),
+                        Integer.parseInt(parts[4]), arguments);
+            }
+            if("pb".equals(parts[2]) && parts.length == 5)
+            {
+                return trigger(Playback.forId(Integer.parseInt(parts[3])),
+                        parts[4], arguments);
+            }
+        }
+        catch (IllegalArgumentException e)
+        {
+            // also thrown for numbers that do not parse
+            LOGGER.debug("Ignoring OSC message " + message.getAddress(), e);
+        }
+        return false;
+    }
+
+    /**
+     * Sends the channels whose level was recorded since the last frame, in
+     * one batch.
+     *
+     * @return the number of requests sent.
+     */
+    int flush()
+    {
+        synchronized(pending)
+        {
+            if(!dirty)
+            {
+                return 0;
+            }
+            System.arraycopy(pending, 0, frame, 0, pending.length);
+            Arrays.fill(pending, NO_LEVEL);
+            dirty = false;
+        }
+
+        CommandBatch batch = client.newBatch();
+        int index = 0;
+        while(index < frame.length)
+        {
+            if(frame[index] == NO_LEVEL)
+            {
+                index++;
+                continue;
+            }
+            int end = index + 1;
+            while(end < frame.length && frame[end] != NO_LEVEL)
+            {
+                end++;
+            }
+            byte[] levels = new byte[end - index];
+            for(int i = 0 ; i < levels.length ; i++)
+            {
+                levels[i] = (byte) frame[index + i];
+            }
+            batch.setLevels(index + 1, levels, 0, playback);
+            index = end;
+        }
+        int requests = batch.submit();
+        requestCount.addAndGet(requests);
+        return requests;
+    }
+
+    /**
+     * Records the level of a range of channels for the next frame.
+     *
+     * @param first the first channel.
+     * @param last the last channel.
+     * @param arguments the arguments of the message, starting with the level.
+     * @return {@code true} if the level was recorded.
+     * @throws IllegalArgumentException if the channels or the level are not
+     *                                  valid.
+     */
+    private boolean record(int first, int last, List<Object> arguments)
+    {
+        checkArgument(first >= 1 && first <= last && last <= pending.length,
+                "invalid channels");
+        checkArgument(!arguments.isEmpty(), "missing level");
+        int level = toLevel(arguments.get(0));
+        synchronized(pending)
+        {
+            Arrays.fill(pending, first - 1, last, level);
+            dirty = true;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a playback message.
+     *
+     * @param target the playback.
+     * @param action {@code go} or {@code clear}.
+     * @param arguments the arguments of the message.
+     * @return {@code true} if the message was queued to be sent.
+     * @throws IllegalArgumentException if the action or cue is not valid.
+     */
+    private boolean trigger(final Playback target,
+                            String action,
+                            List<Object> arguments)
+    {
+        Runnable command;
+        if("go".equals(action))
+        {
+            checkArgument(!arguments.isEmpty(), "missing cue");
+            final double cue = toNumber(arguments.get(0));
+            checkArgument(cue > 0, "invalid cue");
+            command = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    client.playCue(cue, target);
+                    requestCount.incrementAndGet();
+                }
+            };
+        }
+        else if("clear".equals(action))
+        {
+            command = new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    client.clearPlayback(target);
+                    requestCount.incrementAndGet();
+                }
+            };
+        }
+        else
+        {
+            throw new IllegalArgumentException("unknown action: " + action);
+        }
+
+        ScheduledExecutorService sending;
+        synchronized(this)
+        {
+            sending = executor;
+        }
+        if(sending == null)
+        {
+            return false;
+        }
+        if(queuedTriggers.incrementAndGet() > MAX_QUEUED_TRIGGERS)
+        {
+            queuedTriggers.decrementAndGet();
+            droppedTriggerCount.incrementAndGet();
+            LOGGER.warn("Too many OSC triggers waiting, dropping {} on {}",
+                    action, target);
+            return false;
+        }
+        final Runnable send = command;
+        try
+        {
+            sending.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    queuedTriggers.decrementAndGet();
+                    try
+                    {
+                        flush();
+                        send.run();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // the executor would drop the exception silently
+                        LOGGER.error("Error sending OSC trigger.", e);
+                    }
+                }
+            });
+            return true;
+        }
+        catch (RejectedExecutionException e)
+        {
+            // stopped while the message was handled
+            queuedTriggers.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Converts the argument of a channel message to a level.
+     *
+     * @param argument an integer within [0, 255] or a float within
+     *                 [0.0, 1.0]; values outside are clamped.
+     * @return the level, within [0, 255].
+     * @throws IllegalArgumentException if the argument is not a number.
+     */
+    private static int toLevel(Object argument)
+    {
+        int level;
+        if(argument instanceof Float)
+        {
+            level = Math.round((Float) argument * MAX_LEVEL);
+        }
+        else if(argument instanceof Integer)
+        {
+            level = (Integer) argument;
+        }
+        else
+        {
+            throw new IllegalArgumentException("invalid level: " + argument);
+        }
+        return Math.max(0, Math.min(MAX_LEVEL, level));
+    }
+
+    /**
+     * Converts a numeric argument.
+     *
+     * @param argument an integer or a float.
+     * @return the value of the argument.
+     * @throws IllegalArgumentException if the argument is not a number.
+     */
+    private static double toNumber(Object argument)
+    {
+        if(argument instanceof Float || argument instanceof Integer)
+        {
+            return ((Number) argument).doubleValue();
+        }
+        throw new IllegalArgumentException("invalid number: " + argument);
+    }
+
+    /**
+     * Receives packets until the channel is closed.
+     *
+     * @param receiving the channel.
+     */
+    private void receiveLoop(DatagramChannel receiving)
+    {
+        ByteBuffer packet = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        List<OscMessage> messages = new ArrayList<OscMessage>();
+        while(receiving.isOpen())
+        {
+            try
+            {
+                packet.clear();
+                receiving.receive(packet);
+                packet.flip();
+                messages.clear();
+                OscMessage.parse(packet, messages);
+                messageCount.addAndGet(messages.size());
+                for(OscMessage message : messages)
+                {
+                    handle(message);
+                }
+            }
+            catch (ClosedChannelException e)
+            {
+                break;
+            }
+            catch (IOException e)
+            {
+                LOGGER.warn("Error receiving OSC.", e);
+            }
+            catch (IllegalArgumentException e)
+            {
+                LOGGER.debug("Ignoring malformed OSC packet.", e);
+            }
+        }
+    }
+}
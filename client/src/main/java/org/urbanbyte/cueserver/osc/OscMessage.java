@@ -0,0 +1,178 @@
+package org.urbanbyte.cueserver.osc;
+
+import com.google.common.base.Charsets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A received OSC message: an address and its arguments. Integer, float,
+ * string and boolean arguments are decoded; a message with any other type
+ * is rejected. Bundles are flattened into their messages; a malformed
+ * element of a bundle is skipped without dropping the others.
+ * <p>
+ * author: Chris Reising
+ */
+final class OscMessage
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(OscMessage.class);
+
+    /** The start of every bundle. */
+    private static final String BUNDLE = "#bundle";
+
+    /** The address of the message. */
+    private final String address;
+
+    /** The arguments, as {@link Integer}, {@link Float}, {@link String} or
+     * {@link Boolean}. */
+    private final List<Object> arguments;
+
+    /**
+     * Creates a new {@code OscMessage}.
+     *
+     * @param address the address of the message.
+     * @param arguments the arguments.
+     */
+    OscMessage(String address, List<Object> arguments)
+    {
+        this.address = address;
+        this.arguments = Collections.unmodifiableList(arguments);
+    }
+
+    /**
+     * Gets the address of the message.
+     *
+     * @return Never {@code null}.
+     */
+    String getAddress()
+    {
+        return address;
+    }
+
+    /**
+     * Gets the arguments of the message.
+     *
+     * @return Never {@code null}. The list cannot be modified.
+     */
+    List<Object> getArguments()
+    {
+        return arguments;
+    }
+
+    /**
+     * Decodes the messages of a packet.
+     *
+     * @param packet the packet, from its position to its limit.
+     * @param dest receives the messages, in the order they were sent.
+     * @throws IllegalArgumentException if the packet is malformed.
+     */
+    static void parse(ByteBuffer packet, List<OscMessage> dest)
+    {
+        try
+        {
+            String address = readString(packet);
+            if(BUNDLE.equals(address))
+            {
+                // skip the time tag; messages are handled on arrival
+                packet.position(packet.position() + 8);
+                while(packet.hasRemaining())
+                {
+                    int size = packet.getInt();
+                    checkArgument(size >= 0 && size <= packet.remaining(),
+                            "invalid bundle element size");
+                    ByteBuffer element = packet.slice();
+                    element.limit(size);
+                    try
+                    {
+                        parse(element, dest);
+                    }
+                    catch (IllegalArgumentException e)
+                    {
+                        LOGGER.debug("Skipping malformed OSC bundle element.",
+                                e);
+                    }
+                    packet.position(packet.position() + size);
+                }
+                return;
+            }
+
+            checkArgument(address.startsWith("/"), "invalid address");
+            List<Object> arguments = new ArrayList<Object>();
+            if(packet.hasRemaining())
+            {
+                String types = readString(packet);
+                checkArgument(types.startsWith(","), "invalid type tags");
+                for(int i = 1 ; i < types.length() ; i++)
+                {
+                    arguments.add(readArgument(types.charAt(i), packet));
+                }
+            }
+            dest.add(new OscMessage(address, arguments));
+        }
+        catch (BufferUnderflowException e)
+        {
+            throw new IllegalArgumentException("truncated packet", e);
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+            throw new IllegalArgumentException("truncated packet", e);
+        }
+    }
+
+    /**
+     * Reads an argument.
+     *
+     * @param type the type tag of the argument.
+     * @param packet the packet, positioned at the argument.
+     * @return the argument.
+     * @throws IllegalArgumentException if the type is not supported.
+     */
+    private static Object readArgument(char type, ByteBuffer packet)
+    {
+        switch (type)
+        {
+            case 'i':
+                return packet.getInt();
+            case 'f':
+                return packet.getFloat();
+            case 's':
+                return readString(packet);
+            case 'T':
+                return Boolean.TRUE;
+            case 'F':
+                return Boolean.FALSE;
+            default:
+                throw new IllegalArgumentException(
+                        "unsupported type: " + type);
+        }
+    }
+
+    /**
+     * Reads a string padded with 0 to a multiple of four bytes.
+     *
+     * @param packet the packet, positioned at the string.
+     * @return the string.
+     */
+    private static String readString(ByteBuffer packet)
+    {
+        int start = packet.position();
+        int end = start;
+        while(packet.get(end) != 0)
+        {
+            end++;
+        }
+        byte[] bytes = new byte[end - start];
+        packet.get(bytes);
+        packet.position(start + ((end - start) / 4 + 1) * 4);
+        return new String(bytes, Charsets.UTF_8);
+    }
+}
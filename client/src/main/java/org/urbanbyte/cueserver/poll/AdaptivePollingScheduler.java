@@ -0,0 +1,103 @@
+package org.urbanbyte.cueserver.poll;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.urbanbyte.cueserver.CueServerClient;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Polls any number of CueServers on a shared thread pool. Each device is
+ * polled by its own {@link DevicePoller}, which speeds up to its minimum
+ * interval while the device's playback status or output levels are changing
+ * and backs off exponentially to its maximum interval while they are static.
+ * This keeps the network and CPU load proportional to the activity on the
+ * devices rather than to the number of devices.
+ * <p>
+ * author: Chris Reising
+ */
+public class AdaptivePollingScheduler
+{
+    /** Executes the polls for all devices. */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates a new scheduler backed by a pool of daemon threads.
+     *
+     * @param threadCount the number of threads used to poll. Must be positive.
+     * @throws IllegalArgumentException if {@code threadCount} is not
+     *                                  positive.
+     */
+    public AdaptivePollingScheduler(int threadCount)
+    {
+        this(Executors.newScheduledThreadPool(checkThreadCount(threadCount),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cueserver-poller-%d")
+                        .build()));
+    }
+
+    /**
+     * Creates a new scheduler with the provided executor.
+     *
+     * @param executor executes the polls.
+     * @throws NullPointerException if {@code executor} is {@code null}.
+     */
+    public AdaptivePollingScheduler(ScheduledExecutorService executor)
+    {
+        this.executor = checkNotNull(executor, "executor cannot be null");
+    }
+
+    /**
+     * Starts polling a CueServer. The first poll is run immediately.
+     *
+     * @param client the client to poll.
+     * @param minIntervalMillis the interval used while the device state is
+     *                          changing. This is the fastest rate the device
+     *                          will be polled at. Must be positive.
+     * @param maxIntervalMillis the longest interval used while the device
+     *                          state is static. This is the slowest rate the
+     *                          device will be polled at. Must be &ge;
+     *                          {@code minIntervalMillis}.
+     * @param listener notified when the state of the device changes.
+     * @return the poller for the device, which may be used to stop polling.
+     * @throws NullPointerException if {@code client} or {@code listener} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if the intervals are not valid.
+     */
+    public DevicePoller schedule(CueServerClient client,
+                                 long minIntervalMillis,
+                                 long maxIntervalMillis,
+                                 PollListener listener)
+    {
+        DevicePoller poller = new DevicePoller(client, minIntervalMillis,
+                maxIntervalMillis, listener, executor);
+        poller.start();
+        return poller;
+    }
+
+    /**
+     * Stops polling all devices.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Validates the number of threads for the pool.
+     *
+     * @param threadCount the number of threads.
+     * @return {@code threadCount}.
+     * @throws IllegalArgumentException if {@code threadCount} is not
+     *                                  positive.
+     */
+    private static int checkThreadCount(int threadCount)
+    {
+        checkArgument(threadCount > 0, "threadCount must be positive");
+        return threadCount;
+    }
+}
@@ -0,0 +1,236 @@
+package org.urbanbyte.cueserver.poll;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.CueServerClient;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Polls a single CueServer for its playback status and output levels. The
+ * poller runs at its minimum interval while the replies are changing, and
+ * doubles its interval each time a poll returns the same state as the
+ * previous one, up to the maximum interval.
+ * <p>
+ * Instances are created by an {@link AdaptivePollingScheduler}.
+ * <p>
+ * author: Chris Reising
+ */
+public class DevicePoller implements Runnable
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(DevicePoller.class);
+
+    /** The factor the interval is multiplied by when nothing has changed. */
+    private static final int BACKOFF_FACTOR = 2;
+
+    /** The client being polled. */
+    private final CueServerClient client;
+
+    /** The interval used while the device state is changing. */
+    private final long minIntervalMillis;
+
+    /** The longest interval used while the device state is static. */
+    private final long maxIntervalMillis;
+
+    /** Notified when the state of the device changes. */
+    private final PollListener listener;
+
+    /** Used to schedule the next poll. */
+    private final ScheduledExecutorService executor;
+
+    /** The last playback status read from the device. */
+    private PlaybackStatus lastStatus;
+
+    /** The last output levels read from the device. */
+    private Integer[] lastLevels;
+
+    /** The delay until the next poll. */
+    private volatile long currentIntervalMillis;
+
+    /** {@code true} once the poller has been cancelled. */
+    private volatile boolean cancelled;
+
+    /** The next scheduled poll. */
+    private volatile ScheduledFuture<?> nextPoll;
+
+    /**
+     * Creates a new {@code DevicePoller}.
+     *
+     * @param client the client to poll.
+     * @param minIntervalMillis the interval used while the device state is
+     *                          changing. Must be positive.
+     * @param maxIntervalMillis the longest interval used while the device
+     *                          state is static. Must be &ge; the minimum
+     *                          interval.
+     * @param listener notified when the state of the device changes.
+     * @param executor used to schedule polls.
+     * @throws NullPointerException if any object argument is {@code null}.
+     * @throws IllegalArgumentException if the intervals are not valid.
+     */
+    DevicePoller(CueServerClient client,
+                 long minIntervalMillis,
+                 long maxIntervalMillis,
+                 PollListener listener,
+                 ScheduledExecutorService executor)
+    {
+        checkArgument(minIntervalMillis > 0,
+                "minIntervalMillis must be positive");
+        checkArgument(maxIntervalMillis >= minIntervalMillis,
+                "maxIntervalMillis cannot be < minIntervalMillis");
+
+        this.client = checkNotNull(client, "client cannot be null");
+        this.listener = checkNotNull(listener, "listener cannot be null");
+        this.executor = checkNotNull(executor, "executor cannot be null");
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.currentIntervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Schedules the first poll to run immediately.
+     */
+    void start()
+    {
+        schedule(0);
+    }
+
+    /**
+     * Polls the device and schedules the next poll.
+     */
+    @Override
+    public void run()
+    {
+        if(cancelled)
+        {
+            return;
+        }
+
+        long delay;
+        try
+        {
+            delay = poll();
+        }
+        catch (RuntimeException e)
+        {
+            LOGGER.error("Error while polling the CueServer.", e);
+            delay = backOff();
+        }
+        schedule(delay);
+    }
+
+    /**
+     * Reads the playback status and output levels from the device, notifies
+     * the listener of any changes and computes the delay until the next poll.
+     *
+     * @return the delay in milliseconds until the next poll.
+     */
+    @VisibleForTesting
+    long poll()
+    {
+        boolean changed = false;
+
+        PlaybackStatus status = client.getPlaybackStatus();
+        if(status != null && !status.equals(lastStatus))
+        {
+            lastStatus = status;
+            changed = true;
+            listener.playbackStatusChanged(client, status);
+        }
+
+        Integer[] levels = client.getOutputLevels();
+        if(levels != null && !Arrays.equals(lastLevels, levels))
+        {
+            lastLevels = levels;
+            changed = true;
+            listener.outputLevelsChanged(client, levels);
+        }
+
+        if(changed)
+        {
+            currentIntervalMillis = minIntervalMillis;
+            return currentIntervalMillis;
+        }
+        return backOff();
+    }
+
+    /**
+     * Stops polling the device. A poll that is already running will complete,
+     * but no further polls will be scheduled.
+     */
+    public void cancel()
+    {
+        cancelled = true;
+        ScheduledFuture<?> future = nextPoll;
+        if(future != null)
+        {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Gets the state of the poller.
+     *
+     * @return {@code true} if the poller has been cancelled.
+     */
+    public boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * Gets the client being polled.
+     *
+     * @return Never {@code null}.
+     */
+    public CueServerClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * Gets the delay that will be used before the next poll.
+     *
+     * @return a value within the configured minimum and maximum interval.
+     */
+    public long getCurrentIntervalMillis()
+    {
+        return currentIntervalMillis;
+    }
+
+    /**
+     * Multiplies the current interval by the backoff factor without exceeding
+     * the maximum interval.
+     *
+     * @return the new interval.
+     */
+    private long backOff()
+    {
+        currentIntervalMillis = Math.min(
+                currentIntervalMillis * BACKOFF_FACTOR, maxIntervalMillis);
+        return currentIntervalMillis;
+    }
+
+    /**
+     * Schedules the next poll unless the poller was cancelled.
+     *
+     * @param delayMillis the delay until the next poll.
+     */
+    private void schedule(long delayMillis)
+    {
+        if(!cancelled)
+        {
+            nextPoll = executor.schedule(this, delayMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+}
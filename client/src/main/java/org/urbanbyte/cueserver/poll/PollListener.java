@@ -0,0 +1,30 @@
+package org.urbanbyte.cueserver.poll;
+
+import org.urbanbyte.cueserver.CueServerClient;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+/**
+ * Receives the results of a {@link DevicePoller} whenever the state of a
+ * CueServer changes. Listeners are only notified when a reply differs from
+ * the previous reply; static replies are never reported.
+ * <p>
+ * author: Chris Reising
+ */
+public interface PollListener
+{
+    /**
+     * Called when the playback status of a CueServer has changed.
+     *
+     * @param client the client the status was read from.
+     * @param status the new status. Never {@code null}.
+     */
+    void playbackStatusChanged(CueServerClient client, PlaybackStatus status);
+
+    /**
+     * Called when the output levels of a CueServer have changed.
+     *
+     * @param client the client the levels were read from.
+     * @param levels the new levels. Never {@code null}.
+     */
+    void outputLevelsChanged(CueServerClient client, Integer[] levels);
+}
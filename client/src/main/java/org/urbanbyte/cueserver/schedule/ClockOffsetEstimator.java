@@ -0,0 +1,241 @@
+package org.urbanbyte.cueserver.schedule;
+
+import org.urbanbyte.cueserver.data.system.SystemInfo;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Estimates the round trip time to a CueServer and the offset of its clock,
+ * the way NTP does, from system information requests. Each sample times a
+ * request of its own, never one shared with other reads: the device read its
+ * clock about halfway through the round trip, so the offset is the device
+ * time minus the local time at the middle of the request.
+ * <p>
+ * Like the clock filter of NTP, the estimator trusts the fastest replies. A
+ * slow reply may have been delayed on either leg, so its offset can be off
+ * by up to half of its round trip. The round trip is the lowest of the last
+ * {@link #FILTER_SIZE} samples, and only samples whose round trip is close
+ * to that lowest one move the offset, which is smoothed with an
+ * exponentially weighted moving average.
+ * <p>
+ * The device reports its time to the second, so a single offset sample is
+ * only good to about half a second. Sampled at arbitrary moments, the
+ * rounding averages out over many samples. Half of the round trip is the
+ * one-way latency a {@link CueScheduler} sends the device's commands early
+ * by.
+ * <p>
+ * author: Chris Reising
+ */
+public class ClockOffsetEstimator
+{
+    /** The default weight of a new offset sample. */
+    public static final double DEFAULT_GAIN = 0.125;
+
+    /** The number of recent round trips the lowest one is taken from. */
+    public static final int FILTER_SIZE = 8;
+
+    /** The offset of a sample is used if its round trip is at most this many
+     * times the lowest recent round trip. */
+    private static final long MAX_DELAY_RATIO = 2;
+
+    /** The offset of a sample is also used if its round trip is at most this
+     * much above the lowest recent round trip. */
+    private static final long DELAY_TOLERANCE_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** The time the device reports is truncated to whole seconds, so on
+     * average it is this much behind. */
+    private static final long TRUNCATION_MILLIS = 500;
+
+    /** The client of the CueServer. */
+    private final HttpCueServerClient client;
+
+    /** The time zone the device is set to. */
+    private final TimeZone zone;
+
+    /** The weight of a new offset sample. */
+    private final double gain;
+
+    /** The last round trips, in nanoseconds, oldest overwritten first. */
+    private final long[] roundTrips = new long[FILTER_SIZE];
+
+    /** The smoothed device time minus local time, in milliseconds. */
+    private volatile double offsetMillis;
+
+    /** The lowest of the last round trips, in nanoseconds. */
+    private volatile long roundTripNanos;
+
+    /** The number of round trips sampled. */
+    private volatile long sampleCount;
+
+    /** {@code true} once the device time was parsed. */
+    private volatile boolean offsetKnown;
+
+    /**
+     * Creates a new {@code ClockOffsetEstimator} for a device set to the time
+     * zone of this JVM, using the default gain.
+     *
+     * @param client the client of the CueServer.
+     * @throws NullPointerException if {@code client} is {@code null}.
+     */
+    public ClockOffsetEstimator(HttpCueServerClient client)
+    {
+        this(client, TimeZone.getDefault(), DEFAULT_GAIN);
+    }
+
+    /**
+     * Creates a new {@code ClockOffsetEstimator}.
+     *
+     * @param client the client of the CueServer.
+     * @param zone the time zone the device is set to.
+     * @param gain the weight of a new offset sample. Must be within (0, 1];
+     *             1 keeps only the latest sample used.
+     * @throws NullPointerException if {@code client} or {@code zone} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if {@code gain} is out of bounds.
+     */
+    public ClockOffsetEstimator(HttpCueServerClient client,
+                                TimeZone zone,
+                                double gain)
+    {
+        checkArgument(gain > 0 && gain <= 1, "gain must be within (0, 1]");
+        this.client = checkNotNull(client, "client cannot be null");
+        this.zone = checkNotNull(zone, "zone cannot be null");
+        this.gain = gain;
+    }
+
+    /**
+     * Gets the client of the CueServer.
+     *
+     * @return Never {@code null}.
+     */
+    public HttpCueServerClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * Requests the system information of the device and adds the sample.
+     * Call this periodically, such as every few seconds.
+     *
+     * @return {@code true} if the device replied.
+     */
+    public boolean sample()
+    {
+        long sendMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        SystemInfo info = client.requestSystemInfo();
+        long roundTrip = System.nanoTime() - start;
+        if(info == null)
+        {
+            return false;
+        }
+        addSample(sendMillis, roundTrip, info.getTimeMillis(zone));
+        return true;
+    }
+
+    /**
+     * Gets the smoothed offset of the device clock.
+     *
+     * @return the device time minus the local time, in milliseconds, or 0 if
+     *         the device time is not known.
+     */
+    public long getOffsetMillis()
+    {
+        return Math.round(offsetMillis);
+    }
+
+    /**
+     * Checks if the device time could be parsed from any sample.
+     *
+     * @return {@code true} if {@link #getOffsetMillis()} is an estimate.
+     */
+    public boolean isOffsetKnown()
+    {
+        return offsetKnown;
+    }
+
+    /**
+     * Gets the lowest round trip time of the last {@link #FILTER_SIZE}
+     * samples.
+     *
+     * @return the time, in nanoseconds, or 0 before the first sample.
+     */
+    public long getRoundTripNanos()
+    {
+        return roundTripNanos;
+    }
+
+    /**
+     * Gets the time a command takes to reach the device: half of the round
+     * trip.
+     *
+     * @return the time, in nanoseconds, or 0 before the first sample.
+     */
+    public long getOneWayLatencyNanos()
+    {
+        return getRoundTripNanos() / 2;
+    }
+
+    /**
+     * Gets the number of round trips sampled.
+     *
+     * @return the number of samples.
+     */
+    public long getSampleCount()
+    {
+        return sampleCount;
+    }
+
+    /**
+     * Converts a time of the device clock to the local clock.
+     *
+     * @param deviceMillis a device time, in milliseconds since the epoch.
+     * @return the local time, in milliseconds since the epoch.
+     */
+    public long toLocalTime(long deviceMillis)
+    {
+        return deviceMillis - getOffsetMillis();
+    }
+
+    /**
+     * Adds a sample. Its offset is only used if its round trip is close to
+     * the lowest recent one.
+     *
+     * @param sendMillis the local time the request was sent.
+     * @param roundTrip the time until the reply arrived, in nanoseconds.
+     * @param deviceMillis the time the device reported, or
+     *                     {@link SystemInfo#UNKNOWN_TIME} to only sample the
+     *                     round trip.
+     */
+    synchronized void addSample(long sendMillis,
+                                long roundTrip,
+                                long deviceMillis)
+    {
+        roundTrips[(int) (sampleCount % FILTER_SIZE)] = roundTrip;
+        sampleCount++;
+        long lowest = Long.MAX_VALUE;
+        for(int i = 0 ; i < Math.min(sampleCount, FILTER_SIZE) ; i++)
+        {
+            lowest = Math.min(lowest, roundTrips[i]);
+        }
+        roundTripNanos = lowest;
+
+        boolean fast = roundTrip <= lowest * MAX_DELAY_RATIO ||
+                roundTrip - lowest <= DELAY_TOLERANCE_NANOS;
+        if(fast && deviceMillis != SystemInfo.UNKNOWN_TIME)
+        {
+            long middleMillis = sendMillis +
+                    TimeUnit.NANOSECONDS.toMillis(roundTrip / 2);
+            double offset = deviceMillis + TRUNCATION_MILLIS - middleMillis;
+            offsetMillis = !offsetKnown ? offset :
+                    offsetMillis + gain * (offset - offsetMillis);
+            offsetKnown = true;
+        }
+    }
+}
@@ -0,0 +1,772 @@
+package org.urbanbyte.cueserver.schedule;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.data.output.DmxBuffer;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Sends cue and channel commands to CueServers at given wall clock times,
+ * such as the events of a show timeline.
+ * <p>
+ * Events are held in a hashed timing wheel: a ring of buckets, each covering
+ * one tick, that an event is linked into by the tick it falls on. Scheduling
+ * and cancelling an event costs the same whether a dozen or many thousands of
+ * events are waiting, and the scheduler needs a single thread however many
+ * events there are. Each event counts the turns of the wheel left before it
+ * fires, so a bucket holding events of later turns only decrements them.
+ * The thread sleeps until the tick of the next event that is due within one
+ * turn, or for at most one turn, and fires the ticks up to the current
+ * time; the events of one tick are added to one
+ * {@link CommandBatch} per client, in the order they were scheduled, so they
+ * reach each device in a single {@code exe.cgi} request. The batches are
+ * submitted on a separate executor, so a slow device does not delay the
+ * events of the next tick. The batches of one client are submitted one at a
+ * time, in the order of their ticks, so a later tick never overtakes an
+ * earlier one on its way to the device.
+ * <p>
+ * An event fires at most one tick after its time (0.5 ms by default). Events
+ * whose time has passed fire on the next tick. The time of an event is
+ * converted to {@link System#nanoTime()} when it is scheduled, so a step of
+ * the wall clock only affects the events scheduled after it.
+ * <p>
+ * The commands of a device that {@link #compensateLatency compensates} for
+ * its latency are sent early by the one-way latency measured by its
+ * {@link ClockOffsetEstimator}, so that cues land at the same moment across
+ * devices that are near and far. The latency is read when the thread links
+ * the event into the wheel, shortly after it is scheduled.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueScheduler
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(CueScheduler.class);
+
+    /** The default length of a tick. */
+    public static final long DEFAULT_TICK_MICROS = 500;
+
+    /** The default number of buckets of the wheel. */
+    public static final int DEFAULT_WHEEL_SIZE = 1024;
+
+    /** The longest transition time of a channel. */
+    private static final double MAX_TIME_SECONDS = 65000;
+
+    /** The longest the thread sleeps while no event is waiting. */
+    private static final long IDLE_PARK_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** Creates the thread of the scheduler. */
+    private static final ThreadFactory THREAD_FACTORY =
+            new ThreadFactoryBuilder()
+                    .setDaemon(true)
+                    .setNameFormat("cueserver-cue-scheduler-%d")
+                    .build();
+
+    /** The length of a tick. */
+    private final long tickNanos;
+
+    /** The buckets of the wheel; the length is a power of two. */
+    private final Bucket[] wheel;
+
+    /** Selects the bucket of a tick. */
+    private final int mask;
+
+    /** Submits the batches. */
+    private final Executor sender;
+
+    /** {@link System#nanoTime()} when the scheduler was created. */
+    private final long originNanos;
+
+    /** Events scheduled since the thread last looked. */
+    private final Queue<ScheduledEvent> additions =
+            new ConcurrentLinkedQueue<ScheduledEvent>();
+
+    /** Events cancelled since the thread last looked. */
+    private final Queue<ScheduledEvent> cancellations =
+            new ConcurrentLinkedQueue<ScheduledEvent>();
+
+    /** The batch of each client for the tick being fired. */
+    private final Map<HttpCueServerClient, CommandBatch> batches =
+            new IdentityHashMap<HttpCueServerClient, CommandBatch>();
+
+    /** The batches waiting to be submitted to each client, only used by the
+     * thread. */
+    private final Map<HttpCueServerClient, Outbox> outboxes =
+            new IdentityHashMap<HttpCueServerClient, Outbox>();
+
+    /** The estimators of the clients that compensate for their latency. */
+    private final ConcurrentMap<HttpCueServerClient, ClockOffsetEstimator>
+            estimators =
+            new ConcurrentHashMap<HttpCueServerClient, ClockOffsetEstimator>();
+
+    /** The number of events waiting to fire. */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    /** The number of events fired. */
+    private final AtomicLong firedCount = new AtomicLong();
+
+    /** The number of requests sent to the CueServers. */
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /** The next tick to fire, only used by the thread. */
+    private long tick;
+
+    /** {@code true} while the thread sleeps for longer than a tick, so that
+     * a new event must wake it. */
+    private volatile boolean idle;
+
+    /** {@code false} once the thread should stop. */
+    private volatile boolean running;
+
+    /** Fires the events; {@code null} unless started. */
+    private Thread worker;
+
+    /**
+     * Creates a new {@code CueScheduler} with the default tick and wheel
+     * size, which submits the batches on a pool of daemon threads.
+     */
+    public CueScheduler()
+    {
+        this(DEFAULT_TICK_MICROS, DEFAULT_WHEEL_SIZE,
+                Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("cueserver-cue-sender-%d")
+                        .build()));
+    }
+
+    /**
+     * Creates a new {@code CueScheduler}.
+     *
+     * @param tickMicros the length of a tick: the longest an event fires
+     *                   after its time. Must be positive.
+     * @param wheelSize the number of buckets of the wheel; rounded up to a
+     *                  power of two. Must be positive. A wheel covering a few
+     *                  seconds keeps the buckets short.
+     * @param sender submits the batches. Batches of the same client are
+     *               handed to it one at a time.
+     * @throws IllegalArgumentException if the tick or wheel size is not
+     *                                  positive.
+     * @throws NullPointerException if {@code sender} is {@code null}.
+     */
+    public CueScheduler(long tickMicros, int wheelSize, Executor sender)
+    {
+        checkArgument(tickMicros > 0, "tickMicros must be positive");
+        checkArgument(wheelSize > 0, "wheelSize must be positive");
+        this.sender = checkNotNull(sender, "sender cannot be null");
+        tickNanos = TimeUnit.MICROSECONDS.toNanos(tickMicros);
+        int size = 1;
+        while(size < wheelSize)
+        {
+            size <<= 1;
+        }
+        wheel = new Bucket[size];
+        for(int i = 0 ; i < size ; i++)
+        {
+            wheel[i] = new Bucket();
+        }
+        mask = size - 1;
+        originNanos = System.nanoTime();
+    }
+
+    /**
+     * Schedules a cue to be played.
+     *
+     * @param client the client of the CueServer.
+     * @param timeMillis when to play the cue, in milliseconds since the
+     *                   epoch.
+     * @param cueNumber the cue number. Must be positive.
+     * @param playback the playback to play the cue on.
+     * @return the event, which may be cancelled.
+     * @throws NullPointerException if {@code client} or {@code playback} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if {@code cueNumber} is not positive.
+     */
+    public ScheduledEvent playCue(HttpCueServerClient client,
+                                  long timeMillis,
+                                  final double cueNumber,
+                                  final Playback playback)
+    {
+        checkNotNull(client, "client cannot be null");
+        checkNotNull(playback, "playback cannot be null");
+        checkArgument(cueNumber > 0, "cueNumber must be positive");
+        return schedule(new ScheduledEvent(this, client, timeMillis)
+        {
+            @Override
+            void addTo(CommandBatch batch)
+            {
+                batch.playCue(cueNumber, playback);
+            }
+        });
+    }
+
+    /**
+     * Schedules a playback to be cleared.
+     *
+     * @param client the client of the CueServer.
+     * @param timeMillis when to clear the playback, in milliseconds since
+     *                   the epoch.
+     * @param playback the playback to clear.
+     * @return the event, which may be cancelled.
+     * @throws NullPointerException if either object is {@code null}.
+     */
+    public ScheduledEvent clearPlayback(HttpCueServerClient client,
+                                        long timeMillis,
+                                        final Playback playback)
+    {
+        checkNotNull(client, "client cannot be null");
+        checkNotNull(playback, "playback cannot be null");
+        return schedule(new ScheduledEvent(this, client, timeMillis)
+        {
+            @Override
+            void addTo(CommandBatch batch)
+            {
+                batch.clearPlayback(playback);
+            }
+        });
+    }
+
+    /**
+     * Schedules a channel to be set.
+     *
+     * @param client the client of the CueServer.
+     * @param timeMillis when to set the channel, in milliseconds since the
+     *                   epoch.
+     * @param channel The channel to set. Must be within
+     *                [1, 512 * universe count].
+     * @param value The value of the channel level. Must be within [0, 255].
+     * @param timeSeconds The time in seconds for the channel to complete its
+     *                    transition. Must be within [0, 65000].
+     * @param playback the playback controlling the channel.
+     * @return the event, which may be cancelled.
+     * @throws NullPointerException if {@code client} or {@code playback} is
+     *                              {@code null}.
+     * @throws IllegalArgumentException if any argument is out of its bounds.
+     */
+    public ScheduledEvent setChannel(HttpCueServerClient client,
+                                     long timeMillis,
+                                     final int channel,
+                                     final int value,
+                                     final double timeSeconds,
+                                     final Playback playback)
+    {
+        checkNotNull(client, "client cannot be null");
+        checkNotNull(playback, "playback cannot be null");
+        checkArgument(channel >= 1 && channel <= client.getUniverseCount() *
+                DmxBuffer.CHANNELS_PER_UNIVERSE, "invalid channel");
+        checkArgument(value >= 0 && value <= 255, "invalid value");
+        checkArgument(timeSeconds >= 0 && timeSeconds <= MAX_TIME_SECONDS,
+                "invalid time");
+        return schedule(new ScheduledEvent(this, client, timeMillis)
+        {
+            @Override
+            void addTo(CommandBatch batch)
+            {
+                batch.setChannel(channel, value, timeSeconds, playback);
+            }
+        });
+    }
+
+    /**
+     * Sends the events of a client early by its one-way latency. Replaces
+     * the estimator the client compensated with before.
+     *
+     * @param estimator the estimator of the client, which should be sampled
+     *                  periodically.
+     * @throws NullPointerException if {@code estimator} is {@code null}.
+     */
+    public void compensateLatency(ClockOffsetEstimator estimator)
+    {
+        checkNotNull(estimator, "estimator cannot be null");
+        estimators.put(estimator.getClient(), estimator);
+    }
+
+    /**
+     * Sends the events of a client at their time again.
+     *
+     * @param client the client.
+     */
+    public void stopCompensating(HttpCueServerClient client)
+    {
+        estimators.remove(client);
+    }
+
+    /**
+     * Starts firing events. Events whose time passed while the scheduler was
+     * stopped fire right away.
+     *
+     * @throws IllegalStateException if the scheduler is already started.
+     */
+    public synchronized void start()
+    {
+        checkState(worker == null, "scheduler already started");
+        running = true;
+        worker = THREAD_FACTORY.newThread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                fireLoop();
+            }
+        });
+        worker.start();
+    }
+
+    /**
+     * Stops firing events. Waiting events are kept, and batches that are
+     * being submitted are not interrupted.
+     */
+    public synchronized void stop()
+    {
+        if(worker != null)
+        {
+            running = false;
+            LockSupport.unpark(worker);
+            try
+            {
+                worker.join();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
+    }
+
+    /**
+     * Gets the number of events waiting to fire.
+     *
+     * @return the number of events.
+     */
+    public int getPendingCount()
+    {
+        return pendingCount.get();
+    }
+
+    /**
+     * Gets the number of events fired.
+     *
+     * @return the number of events.
+     */
+    public long getFiredCount()
+    {
+        return firedCount.get();
+    }
+
+    /**
+     * Gets the number of requests sent to the CueServers.
+     *
+     * @return the number of requests.
+     */
+    public long getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    /**
+     * Removes a cancelled event from the wheel.
+     *
+     * @param event the event, which was just cancelled.
+     */
+    void cancelled(ScheduledEvent event)
+    {
+        pendingCount.decrementAndGet();
+        cancellations.add(event);
+    }
+
+    /**
+     * Hands an event to the thread.
+     *
+     * @param event the event.
+     * @return {@code event}.
+     */
+    private ScheduledEvent schedule(ScheduledEvent event)
+    {
+        pendingCount.incrementAndGet();
+        additions.add(event);
+        if(idle)
+        {
+            Thread sleeping;
+            synchronized(this)
+            {
+                sleeping = worker;
+            }
+            if(sleeping != null)
+            {
+                LockSupport.unpark(sleeping);
+            }
+        }
+        return event;
+    }
+
+    /**
+     * Fires the events of each tick until the scheduler is stopped.
+     */
+    private void fireLoop()
+    {
+        skipTo(elapsedNanos() / tickNanos);
+        while(running)
+        {
+            unlinkCancelled();
+            linkAdded();
+
+            long delay = tick * tickNanos - elapsedNanos();
+            if(delay > 0)
+            {
+                if(pendingCount.get() == 0)
+                {
+                    idle = true;
+                    if(additions.isEmpty())
+                    {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    idle = false;
+                    // nothing is linked, so ticks may be skipped
+                    tick = Math.max(tick, elapsedNanos() / tickNanos);
+                }
+                else
+                {
+                    idle = true;
+                    if(additions.isEmpty())
+                    {
+                        LockSupport.parkNanos(this,
+                                nextDueTick() * tickNanos - elapsedNanos());
+                    }
+                    idle = false;
+                }
+                continue;
+            }
+
+            fireTick(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Fires the events of the current tick.
+     *
+     * @param bucket the bucket of the tick.
+     */
+    private void fireTick(Bucket bucket)
+    {
+        ScheduledEvent event = bucket.head;
+        while(event != null)
+        {
+            ScheduledEvent next = event.next;
+            if(event.rounds > 0)
+            {
+                event.rounds--;
+            }
+            else
+            {
+                bucket.remove(event);
+                if(event.fire())
+                {
+                    pendingCount.decrementAndGet();
+                    firedCount.incrementAndGet();
+                    add(event);
+                }
+            }
+            event = next;
+        }
+
+        for(Map.Entry<HttpCueServerClient, CommandBatch> entry :
+                batches.entrySet())
+        {
+            Outbox outbox = outboxes.get(entry.getKey());
+            if(outbox == null)
+            {
+                outbox = new Outbox();
+                outboxes.put(entry.getKey(), outbox);
+            }
+            outbox.send(entry.getValue());
+        }
+        batches.clear();
+    }
+
+    /**
+     * Adds a fired event to the batch of its client.
+     *
+     * @param event the event.
+     */
+    private void add(ScheduledEvent event)
+    {
+        CommandBatch batch = batches.get(event.getClient());
+        if(batch == null)
+        {
+            batch = event.getClient().newBatch();
+            batches.put(event.getClient(), batch);
+        }
+        try
+        {
+            event.addTo(batch);
+        }
+        catch (RuntimeException e)
+        {
+            LOGGER.error("Error adding a scheduled event.", e);
+        }
+    }
+
+    /**
+     * Links the scheduled events into the bucket of their tick.
+     */
+    private void linkAdded()
+    {
+        ScheduledEvent event = additions.poll();
+        while(event != null)
+        {
+            if(!event.isCancelled())
+            {
+                long deadline = event.deadlineNanos - originNanos;
+                ClockOffsetEstimator estimator =
+                        estimators.get(event.getClient());
+                if(estimator != null)
+                {
+                    deadline -= estimator.getOneWayLatencyNanos();
+                }
+                // round up, so that events never fire early
+                long eventTick = deadline <= 0 ? 0 :
+                        (deadline + tickNanos - 1) / tickNanos;
+                event.tick = Math.max(eventTick, tick);
+                event.rounds = (event.tick - tick) / wheel.length;
+                wheel[(int) (event.tick & mask)].add(event);
+            }
+            event = additions.poll();
+        }
+    }
+
+    /**
+     * Gets the tick of the next event due within one turn of the wheel.
+     *
+     * @return the tick, or the tick one turn from now if no event is due
+     *         before.
+     */
+    private long nextDueTick()
+    {
+        for(int i = 0 ; i < wheel.length ; i++)
+        {
+            ScheduledEvent event = wheel[(int) ((tick + i) & mask)].head;
+            while(event != null)
+            {
+                if(event.rounds == 0)
+                {
+                    return tick + i;
+                }
+                event = event.next;
+            }
+        }
+        return tick + wheel.length;
+    }
+
+    /**
+     * Moves to a later tick without firing the ticks in between, such as
+     * after the scheduler was stopped. The events of the skipped ticks fire
+     * on the new tick's turn.
+     *
+     * @param newTick the tick to fire next.
+     */
+    private void skipTo(long newTick)
+    {
+        if(newTick <= tick)
+        {
+            return;
+        }
+        tick = newTick;
+        for(Bucket bucket : wheel)
+        {
+            for(ScheduledEvent event = bucket.head ; event != null ;
+                event = event.next)
+            {
+                event.rounds = event.tick <= tick ? 0 :
+                        (event.tick - tick) / wheel.length;
+            }
+        }
+    }
+
+    /**
+     * Unlinks the cancelled events from their bucket.
+     */
+    private void unlinkCancelled()
+    {
+        ScheduledEvent event = cancellations.poll();
+        while(event != null)
+        {
+            if(event.bucket != null)
+            {
+                event.bucket.remove(event);
+            }
+            event = cancellations.poll();
+        }
+    }
+
+    /**
+     * Gets the time since the scheduler was created.
+     *
+     * @return the time, in nanoseconds.
+     */
+    private long elapsedNanos()
+    {
+        return System.nanoTime() - originNanos;
+    }
+
+    /**
+     * The batches of one client that wait to be submitted. They are submitted
+     * one at a time and in order, by a single task of the sender at a time.
+     */
+    private final class Outbox
+    {
+        /** The batches waiting to be submitted. */
+        private final Queue<CommandBatch> waiting =
+                new ConcurrentLinkedQueue<CommandBatch>();
+
+        /** {@code true} while the batches are being submitted. */
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        /**
+         * Submits a batch after the batches already waiting.
+         *
+         * @param batch the batch.
+         */
+        private void send(CommandBatch batch)
+        {
+            waiting.add(batch);
+            scheduleDrain();
+        }
+
+        /**
+         * Starts submitting the waiting batches unless they are already being
+         * submitted.
+         */
+        private void scheduleDrain()
+        {
+            if(draining.compareAndSet(false, true))
+            {
+                sender.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        drain();
+                    }
+                });
+            }
+        }
+
+        /**
+         * Submits the waiting batches, in order.
+         */
+        private void drain()
+        {
+            try
+            {
+                CommandBatch batch = waiting.poll();
+                while(batch != null)
+                {
+                    try
+                    {
+                        requestCount.addAndGet(batch.submit());
+                    }
+                    catch (RuntimeException e)
+                    {
+                        LOGGER.error("Error sending scheduled events.", e);
+                    }
+                    batch = waiting.poll();
+                }
+            }
+            finally
+            {
+                draining.set(false);
+                if(!waiting.isEmpty())
+                {
+                    scheduleDrain();
+                }
+            }
+        }
+    }
+
+    /**
+     * The events of the ticks that map to one slot of the wheel, as a doubly
+     * linked list in the order they were scheduled. Only used by the thread.
+     */
+    static final class Bucket
+    {
+        /** The first event, or {@code null}. */
+        private ScheduledEvent head;
+
+        /** The last event, or {@code null}. */
+        private ScheduledEvent tail;
+
+        /**
+         * Appends an event.
+         *
+         * @param event the event, which is not in a bucket.
+         */
+        private void add(ScheduledEvent event)
+        {
+            event.bucket = this;
+            event.previous = tail;
+            event.next = null;
+            if(tail == null)
+            {
+                head = event;
+            }
+            else
+            {
+                tail.next = event;
+            }
+            tail = event;
+        }
+
+        /**
+         * Removes an event.
+         *
+         * @param event the event, which is in this bucket.
+         */
+        private void remove(ScheduledEvent event)
+        {
+            if(event.previous == null)
+            {
+                head = event.next;
+            }
+            else
+            {
+                event.previous.next = event.next;
+            }
+            if(event.next == null)
+            {
+                tail = event.previous;
+            }
+            else
+            {
+                event.next.previous = event.previous;
+            }
+            event.bucket = null;
+            event.previous = null;
+            event.next = null;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package org.urbanbyte.cueserver.schedule;
+
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An event waiting in a {@link CueScheduler}. The event may be cancelled
+ * until it fires.
+ * <p>
+ * While pending, the event is linked into one bucket of the scheduler's
+ * timing wheel; the links are only used by the scheduler's thread.
+ * <p>
+ * author: Chris Reising
+ */
+public abstract class ScheduledEvent
+{
+    /** The event is waiting to fire. */
+    static final int PENDING = 0;
+
+    /** The event was cancelled. */
+    static final int CANCELLED = 1;
+
+    /** The event fired. */
+    static final int FIRED = 2;
+
+    /** The scheduler the event belongs to. */
+    private final CueScheduler scheduler;
+
+    /** The client the event is sent with. */
+    private final HttpCueServerClient client;
+
+    /** The wall clock time the event fires at, in milliseconds. */
+    private final long timeMillis;
+
+    /** {@link System#nanoTime()} at {@link #timeMillis}, as the wall clock
+     * stood when the event was created. */
+    final long deadlineNanos;
+
+    /** {@link #PENDING}, {@link #CANCELLED} or {@link #FIRED}. */
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    /** The tick the event fires on, set by the scheduler's thread. */
+    long tick;
+
+    /** The number of times the scheduler's thread passes the bucket of the
+     * event before it fires. */
+    long rounds;
+
+    /** The bucket the event is linked into, or {@code null}. */
+    CueScheduler.Bucket bucket;
+
+    /** The previous event of the bucket. */
+    ScheduledEvent previous;
+
+    /** The next event of the bucket. */
+    ScheduledEvent next;
+
+    /**
+     * Creates a new {@code ScheduledEvent}. The wall clock is read once, so
+     * that a later step of the clock does not move the event.
+     *
+     * @param scheduler the scheduler the event belongs to.
+     * @param client the client the event is sent with.
+     * @param timeMillis the wall clock time the event fires at.
+     */
+    ScheduledEvent(CueScheduler scheduler,
+                   HttpCueServerClient client,
+                   long timeMillis)
+    {
+        this.scheduler = scheduler;
+        this.client = client;
+        this.timeMillis = timeMillis;
+        deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(
+                timeMillis - System.currentTimeMillis());
+    }
+
+    /**
+     * Gets the client the event is sent with.
+     *
+     * @return Never {@code null}.
+     */
+    public HttpCueServerClient getClient()
+    {
+        return client;
+    }
+
+    /**
+     * Gets the time the event fires at.
+     *
+     * @return the wall clock time, in milliseconds since the epoch.
+     */
+    public long getTimeMillis()
+    {
+        return timeMillis;
+    }
+
+    /**
+     * Cancels the event, unless it already fired.
+     *
+     * @return {@code true} if the event was cancelled by this call.
+     */
+    public boolean cancel()
+    {
+        if(!state.compareAndSet(PENDING, CANCELLED))
+        {
+            return false;
+        }
+        scheduler.cancelled(this);
+        return true;
+    }
+
+    /**
+     * Checks if the event was cancelled.
+     *
+     * @return {@code true} if cancelled.
+     */
+    public boolean isCancelled()
+    {
+        return state.get() == CANCELLED;
+    }
+
+    /**
+     * Checks if the event fired.
+     *
+     * @return {@code true} if the event was added to a batch.
+     */
+    public boolean isFired()
+    {
+        return state.get() == FIRED;
+    }
+
+    /**
+     * Marks the event as fired, unless it was cancelled.
+     *
+     * @return {@code true} if the event should be sent.
+     */
+    boolean fire()
+    {
+        return state.compareAndSet(PENDING, FIRED);
+    }
+
+    /**
+     * Adds the commands of the event to a batch.
+     *
+     * @param batch the batch of the event's client.
+     */
+    abstract void addTo(CommandBatch batch);
+}
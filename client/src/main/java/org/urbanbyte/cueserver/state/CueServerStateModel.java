@@ -0,0 +1,459 @@
+package org.urbanbyte.cueserver.state;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.urbanbyte.cueserver.CueServerListener;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.AbstractPlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A local model of the state of a CueServer: the expected level of every
+ * channel, the current cue of every playback and the playback master levels.
+ * The model registers itself with a client and is updated from the commands
+ * the client sends, so questions such as "what is channel 37 right now" are
+ * answered from memory instead of with a 512 byte fetch.
+ * <p>
+ * Every status or output read made through the client, whether by
+ * {@link #reconcile()}, a poller or the application, is compared with the
+ * model. Differences are reported to the {@link DriftListener}s and the model
+ * takes the values that were read. Channels that are still fading and
+ * playbacks that were just changed are not compared until they have settled.
+ * Playing or clearing a cue changes the output in ways the model cannot
+ * predict, so all channel levels become unknown until the output is read
+ * again. Only the channels of universe 1 are modeled.
+ * <p>
+ * The model is thread safe and reads never block.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueServerStateModel implements CueServerListener
+{
+    /** For logging. */
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(CueServerStateModel.class);
+
+    /** The level of a channel that is not known. */
+    public static final int UNKNOWN = -1;
+
+    /** Default difference allowed between an expected and an actual level. */
+    public static final int DEFAULT_TOLERANCE = 1;
+
+    /**
+     * Time after a command for a read to reflect it. Reads that were in
+     * flight when a command was sent may still return the old state.
+     */
+    static final long SETTLE_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /** The number of channels in a universe. */
+    private static final int CHANNEL_COUNT = 512;
+
+    /** The number of playbacks. */
+    private static final int PLAYBACK_COUNT = Playback.values().length;
+
+    /** The client the model follows. */
+    private final HttpCueServerClient client;
+
+    /** Difference allowed between an expected and an actual level. */
+    private final int tolerance;
+
+    /** Source of the time used for settling. */
+    private final Ticker ticker;
+
+    /** Expected level of every channel, or {@link #UNKNOWN}. */
+    private final AtomicIntegerArray levels =
+            new AtomicIntegerArray(CHANNEL_COUNT);
+
+    /** When each channel is expected to have settled. */
+    private final AtomicLongArray channelSettleTimes =
+            new AtomicLongArray(CHANNEL_COUNT);
+
+    /** Current cue of every playback, {@code null} if clear. */
+    private final AtomicReferenceArray<Cue> currentCues =
+            new AtomicReferenceArray<Cue>(PLAYBACK_COUNT);
+
+    /** 1 if the current cue of a playback is known, 0 otherwise. */
+    private final AtomicIntegerArray cuesKnown =
+            new AtomicIntegerArray(PLAYBACK_COUNT);
+
+    /** When each playback is expected to have settled. */
+    private final AtomicLongArray cueSettleTimes =
+            new AtomicLongArray(PLAYBACK_COUNT);
+
+    /** Master level of every playback, or {@link #UNKNOWN}. */
+    private final AtomicIntegerArray masterLevels =
+            new AtomicIntegerArray(PLAYBACK_COUNT);
+
+    /** The number of differences found since the model was created. */
+    private final AtomicLong driftCount = new AtomicLong();
+
+    /** Notified of drift. */
+    private final List<DriftListener> driftListeners =
+            new CopyOnWriteArrayList<DriftListener>();
+
+    /**
+     * Creates a new {@code CueServerStateModel} using the default tolerance
+     * and registers it with the client.
+     *
+     * @param client the client to follow.
+     * @throws NullPointerException if {@code client} is {@code null}.
+     */
+    public CueServerStateModel(HttpCueServerClient client)
+    {
+        this(client, DEFAULT_TOLERANCE);
+    }
+
+    /**
+     * Creates a new {@code CueServerStateModel} and registers it with the
+     * client.
+     *
+     * @param client the client to follow.
+     * @param tolerance difference allowed between an expected and an actual
+     *                  level before it is reported as drift. Cannot be
+     *                  negative.
+     * @throws NullPointerException if {@code client} is {@code null}.
+     * @throws IllegalArgumentException if {@code tolerance} is negative.
+     */
+    public CueServerStateModel(HttpCueServerClient client, int tolerance)
+    {
+        this(client, tolerance, Ticker.systemTicker());
+    }
+
+    /**
+     * Creates a new {@code CueServerStateModel} and registers it with the
+     * client.
+     *
+     * @param client the client to follow.
+     * @param tolerance difference allowed between an expected and an actual
+     *                  level. Cannot be negative.
+     * @param ticker source of the time used for settling.
+     */
+    @VisibleForTesting
+    CueServerStateModel(HttpCueServerClient client, int tolerance,
+                        Ticker ticker)
+    {
+        checkArgument(tolerance >= 0, "tolerance cannot be negative");
+        this.client = checkNotNull(client, "client cannot be null");
+        this.tolerance = tolerance;
+        this.ticker = checkNotNull(ticker, "ticker cannot be null");
+
+        for(int channel = 0 ; channel < CHANNEL_COUNT ; channel++)
+        {
+            levels.set(channel, UNKNOWN);
+        }
+        for(int index = 0 ; index < PLAYBACK_COUNT ; index++)
+        {
+            masterLevels.set(index, UNKNOWN);
+        }
+        client.addListener(this);
+    }
+
+    /**
+     * Adds a listener that is notified of drift.
+     *
+     * @param listener the listener to add.
+     * @throws NullPointerException if {@code listener} is {@code null}.
+     */
+    public void addDriftListener(DriftListener listener)
+    {
+        driftListeners.add(checkNotNull(listener, "listener cannot be null"));
+    }
+
+    /**
+     * Removes a drift listener.
+     *
+     * @param listener the listener to remove.
+     */
+    public void removeDriftListener(DriftListener listener)
+    {
+        driftListeners.remove(listener);
+    }
+
+    /**
+     * Gets the expected level of a channel.
+     *
+     * @param channel the channel. Must be within [1, 512].
+     * @return a level within [0, 255], or {@link #UNKNOWN}.
+     * @throws IllegalArgumentException if {@code channel} is out of bounds.
+     */
+    public int getChannelLevel(int channel)
+    {
+        checkArgument(channel >= 1 && channel <= CHANNEL_COUNT,
+                "channel must be within [1, 512]");
+        return levels.get(channel - 1);
+    }
+
+    /**
+     * Checks if the current cue of a playback is known.
+     *
+     * @param playback the playback.
+     * @return {@code true} if a cue was played, the playback was cleared or
+     *         its status was read.
+     */
+    public boolean isCueKnown(Playback playback)
+    {
+        return cuesKnown.get(playback.ordinal()) == 1;
+    }
+
+    /**
+     * Gets the current cue of a playback.
+     *
+     * @param playback the playback.
+     * @return {@code null} if the playback is clear or its cue is not known.
+     * @see #isCueKnown(Playback)
+     */
+    public Cue getCurrentCue(Playback playback)
+    {
+        return currentCues.get(playback.ordinal());
+    }
+
+    /**
+     * Gets the master level of a playback, as last read from the CueServer.
+     *
+     * @param playback the playback.
+     * @return a level within [0, 255], or {@link #UNKNOWN}.
+     */
+    public int getMasterLevel(Playback playback)
+    {
+        return masterLevels.get(playback.ordinal());
+    }
+
+    /**
+     * Gets the number of differences found between the model and the
+     * CueServer.
+     *
+     * @return the number of channels and cues that drifted.
+     */
+    public long getDriftCount()
+    {
+        return driftCount.get();
+    }
+
+    /**
+     * Reads the playback status, the detailed status of every playback and
+     * the output levels from the CueServer. The model is updated, and drift
+     * reported, as each reply arrives.
+     */
+    public void reconcile()
+    {
+        client.getPlaybackStatus();
+        for(Playback playback : Playback.values())
+        {
+            client.getDetailedPlaybackInfo(playback);
+        }
+        client.getOutputLevels();
+    }
+
+    /**
+     * Reconciles the model with the CueServer at a fixed rate.
+     *
+     * @param executor runs the reconciliation.
+     * @param periodMillis the time between reconciliations. Must be positive.
+     * @return the scheduled task, which can be used to stop reconciling.
+     * @throws NullPointerException if {@code executor} is {@code null}.
+     * @throws IllegalArgumentException if {@code periodMillis} is not
+     *                                  positive.
+     */
+    public ScheduledFuture<?> scheduleReconciliation(
+            ScheduledExecutorService executor, long periodMillis)
+    {
+        checkNotNull(executor, "executor cannot be null");
+        checkArgument(periodMillis > 0, "periodMillis must be positive");
+        return executor.scheduleAtFixedRate(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    reconcile();
+                }
+                catch (RuntimeException e)
+                {
+                    LOGGER.warn("Reconciliation failed", e);
+                }
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void cuePlayed(double cueNumber, Playback playback)
+    {
+        setCue(playback, new Cue(cueNumber));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void playbackCleared(Playback playback)
+    {
+        setCue(playback, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void channelsSet(int startChannel, int endChannel, int value,
+                            double timeSeconds, Playback playback)
+    {
+        long settleTime = ticker.read() + SETTLE_NANOS +
+                (long) (timeSeconds * TimeUnit.SECONDS.toNanos(1));
+        // only universe 1 is tracked
+        int last = Math.min(endChannel, CHANNEL_COUNT);
+        for(int channel = startChannel - 1 ; channel < last ; channel++)
+        {
+            levels.set(channel, value);
+            channelSettleTimes.set(channel, settleTime);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void playbackStatusRead(PlaybackStatus status)
+    {
+        long now = ticker.read();
+        for(PlaybackInfo info : status)
+        {
+            readCue(info, now);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void detailedPlaybackStatusRead(DetailedPlaybackStatus status)
+    {
+        readCue(status, ticker.read());
+        masterLevels.set(status.getPlayback().ordinal(),
+                status.getMasterLevel());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void outputLevelsRead(Integer[] values)
+    {
+        long now = ticker.read();
+        int count = Math.min(values.length, CHANNEL_COUNT);
+        for(int channel = 0 ; channel < count ; channel++)
+        {
+            if(values[channel] == null)
+            {
+                continue;
+            }
+            int actual = values[channel];
+            int expected = levels.get(channel);
+            if(now - channelSettleTimes.get(channel) < 0)
+            {
+                // still fading or the read may predate the command
+                continue;
+            }
+
+            if(expected != UNKNOWN && Math.abs(actual - expected) > tolerance)
+            {
+                driftCount.incrementAndGet();
+                LOGGER.debug("Channel {} drifted: expected {}, actual {}",
+                        channel + 1, expected, actual);
+                for(DriftListener listener : driftListeners)
+                {
+                    listener.channelDrift(channel + 1, expected, actual);
+                }
+            }
+            levels.set(channel, actual);
+        }
+    }
+
+    /**
+     * Records the cue a command put on a playback. The output that results
+     * from the cue is not known until it is read.
+     *
+     * @param playback the playback.
+     * @param cue the cue, or {@code null} if the playback was cleared.
+     */
+    private void setCue(Playback playback, Cue cue)
+    {
+        int index = playback.ordinal();
+        currentCues.set(index, cue);
+        cuesKnown.set(index, 1);
+        cueSettleTimes.set(index, ticker.read() + SETTLE_NANOS);
+        for(int channel = 0 ; channel < CHANNEL_COUNT ; channel++)
+        {
+            levels.set(channel, UNKNOWN);
+        }
+    }
+
+    /**
+     * Compares the current cue read from the CueServer with the model.
+     *
+     * @param info the status read from the CueServer.
+     * @param now the time of the read.
+     */
+    private void readCue(AbstractPlaybackInfo info, long now)
+    {
+        int index = info.getPlayback().ordinal();
+        if(now - cueSettleTimes.get(index) < 0)
+        {
+            return;
+        }
+
+        Cue actual = info.getCurrentCue();
+        Cue expected = currentCues.get(index);
+        if(isCueKnown(info.getPlayback()) && !sameCue(expected, actual))
+        {
+            driftCount.incrementAndGet();
+            LOGGER.debug("{} drifted: expected {}, actual {}",
+                    info.getPlayback(), expected, actual);
+            for(DriftListener listener : driftListeners)
+            {
+                listener.cueDrift(info.getPlayback(), expected, actual);
+            }
+        }
+        currentCues.set(index, actual);
+        cuesKnown.set(index, 1);
+    }
+
+    /**
+     * Checks if two cues have the same number. Names are ignored because a
+     * played cue is only known by its number.
+     *
+     * @param first the first cue. Can be {@code null}.
+     * @param second the second cue. Can be {@code null}.
+     * @return {@code true} if both are {@code null} or have the same number.
+     */
+    private static boolean sameCue(Cue first, Cue second)
+    {
+        if(first == null || second == null)
+        {
+            return first == second;
+        }
+        return first.getTenths() == second.getTenths();
+    }
+}
@@ -0,0 +1,388 @@
+package org.urbanbyte.cueserver.state;
+
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.AbstractPlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Holds the latest polled state of a CueServer for any number of reader
+ * threads: the 512 output levels and the state of the four playbacks. A
+ * poller writes each poll into the holder, and readers copy the state into
+ * arrays they own, so reading never locks and never allocates.
+ * <p>
+ * Reads are guarded by a sequence lock. A write makes the sequence odd, stores
+ * the values and makes it even again; a reader that sees the sequence change
+ * while it copied retries, so it always receives the values of a single
+ * write, never a frame that is half old and half new. The values are kept in
+ * atomic arrays so that the Java memory model orders the copies between the
+ * two reads of the sequence.
+ * <p>
+ * Writes are serialized with each other and should come from one poller.
+ * Values that were never read from the device are {@link #UNKNOWN}, except
+ * levels, which start at 0.
+ * <p>
+ * author: Chris Reising
+ */
+public class DeviceStateHolder
+{
+    /** The number of output channels held. */
+    public static final int CHANNEL_COUNT = 512;
+
+    /** A value that is not known, or a playback without a cue. */
+    public static final int UNKNOWN = Cue.NO_TENTHS;
+
+    /** Index of the tenths of the current cue within a playback's fields. */
+    public static final int CURRENT_CUE = 0;
+
+    /** Index of the tenths of the next cue within a playback's fields. */
+    public static final int NEXT_CUE = 1;
+
+    /** Index of the master level within a playback's fields. */
+    public static final int MASTER_LEVEL = 2;
+
+    /** Index of the combine mode ordinal within a playback's fields. */
+    public static final int COMBINE_MODE = 3;
+
+    /** Index of the timing disabled flag, 1 or 0, within the fields. */
+    public static final int TIMING_DISABLED = 4;
+
+    /** Index of the tenths of the linked cue within a playback's fields. */
+    public static final int LINKED_CUE = 5;
+
+    /** The number of fields of each playback. */
+    public static final int PLAYBACK_FIELDS = 6;
+
+    /** The length of an array holding the fields of every playback. */
+    public static final int PLAYBACK_ARRAY_LENGTH =
+            PLAYBACK_FIELDS * PlaybackStatus.MAX_PLAYBACK_COUNT;
+
+    /** The levels, four channels to each element. */
+    private final AtomicIntegerArray levels =
+            new AtomicIntegerArray(CHANNEL_COUNT / 4);
+
+    /** The fields of each playback, in playback order. */
+    private final AtomicIntegerArray playbacks =
+            new AtomicIntegerArray(PLAYBACK_ARRAY_LENGTH);
+
+    /** Odd while a write is in progress; doubled count of the writes. */
+    private volatile long sequence;
+
+    /**
+     * Creates a new {@code DeviceStateHolder} with every playback value
+     * unknown.
+     */
+    public DeviceStateHolder()
+    {
+        for(int i = 0 ; i < PLAYBACK_ARRAY_LENGTH ; i++)
+        {
+            playbacks.set(i, UNKNOWN);
+        }
+    }
+
+    /**
+     * Stores the parts of a snapshot that were read; the others keep their
+     * previous values. The parts are published together.
+     *
+     * @param snapshot the state read from the device.
+     * @throws NullPointerException if {@code snapshot} is {@code null}.
+     */
+    public synchronized void update(DeviceSnapshot snapshot)
+    {
+        checkNotNull(snapshot, "snapshot cannot be null");
+        long start = sequence;
+        sequence = start + 1;
+        try
+        {
+            PlaybackStatus status = snapshot.getPlaybackStatus();
+            if(status != null)
+            {
+                storePlaybackStatus(status);
+            }
+            for(Playback playback : Playback.values())
+            {
+                DetailedPlaybackStatus detail =
+                        snapshot.getDetailedPlaybackStatus(playback);
+                if(detail != null)
+                {
+                    storeDetailedPlaybackStatus(detail);
+                }
+            }
+            Integer[] outputLevels = snapshot.getOutputLevels();
+            if(outputLevels != null)
+            {
+                storeLevels(outputLevels);
+            }
+        }
+        finally
+        {
+            sequence = start + 2;
+        }
+    }
+
+    /**
+     * Stores the current and next cue of every playback in a status.
+     *
+     * @param status the status read from the device.
+     * @throws NullPointerException if {@code status} is {@code null}.
+     */
+    public synchronized void update(PlaybackStatus status)
+    {
+        checkNotNull(status, "status cannot be null");
+        long start = sequence;
+        sequence = start + 1;
+        try
+        {
+            storePlaybackStatus(status);
+        }
+        finally
+        {
+            sequence = start + 2;
+        }
+    }
+
+    /**
+     * Stores the output levels.
+     *
+     * @param outputLevels the levels read from the device. Levels that are
+     *                     {@code null} keep their previous value.
+     * @throws NullPointerException if {@code outputLevels} is {@code null}.
+     */
+    public synchronized void update(Integer[] outputLevels)
+    {
+        checkNotNull(outputLevels, "outputLevels cannot be null");
+        long start = sequence;
+        sequence = start + 1;
+        try
+        {
+            storeLevels(outputLevels);
+        }
+        finally
+        {
+            sequence = start + 2;
+        }
+    }
+
+    /**
+     * Copies the output levels and the fields of every playback, both from
+     * the same write.
+     *
+     * @param levelsDest receives the levels. Must hold at least 512 values.
+     * @param playbacksDest receives the fields of each playback at index
+     *                      {@code (playbackId - 1) * PLAYBACK_FIELDS +
+     *                      field}. Must hold at least
+     *                      {@link #PLAYBACK_ARRAY_LENGTH} values.
+     * @return the number of writes the copied state reflects.
+     * @throws NullPointerException if either array is {@code null}.
+     * @throws IllegalArgumentException if either array is too short.
+     */
+    public long read(byte[] levelsDest, int[] playbacksDest)
+    {
+        checkArgument(levelsDest.length >= CHANNEL_COUNT,
+                "levelsDest must hold 512 levels");
+        checkArgument(playbacksDest.length >= PLAYBACK_ARRAY_LENGTH,
+                "playbacksDest is too short");
+        return copy(levelsDest, playbacksDest);
+    }
+
+    /**
+     * Copies the output levels from a single write.
+     *
+     * @param dest receives the levels. Must hold at least 512 values.
+     * @return the number of writes the copied levels reflect.
+     * @throws NullPointerException if {@code dest} is {@code null}.
+     * @throws IllegalArgumentException if {@code dest} is too short.
+     */
+    public long readLevels(byte[] dest)
+    {
+        checkArgument(dest.length >= CHANNEL_COUNT,
+                "dest must hold 512 levels");
+        return copy(dest, null);
+    }
+
+    /**
+     * Copies the fields of every playback from a single write.
+     *
+     * @param dest receives the fields, laid out as for
+     *             {@link #read(byte[], int[])}.
+     * @return the number of writes the copied fields reflect.
+     * @throws NullPointerException if {@code dest} is {@code null}.
+     * @throws IllegalArgumentException if {@code dest} is too short.
+     */
+    public long readPlaybacks(int[] dest)
+    {
+        checkArgument(dest.length >= PLAYBACK_ARRAY_LENGTH,
+                "dest is too short");
+        return copy(null, dest);
+    }
+
+    /**
+     * Gets the level of one channel.
+     *
+     * @param channel the channel, within [1, 512].
+     * @return the level, within [0, 255].
+     * @throws IllegalArgumentException if the channel is not valid.
+     */
+    public int getLevel(int channel)
+    {
+        checkArgument(channel >= 1 && channel <= CHANNEL_COUNT,
+                "channel must be within [1, 512]");
+        int index = channel - 1;
+        return (levels.get(index >> 2) >>> ((index & 3) * 8)) & 0xFF;
+    }
+
+    /**
+     * Gets one field of a playback.
+     *
+     * @param playback the playback.
+     * @param field the index of the field, such as {@link #CURRENT_CUE}.
+     * @return the value, or {@link #UNKNOWN}.
+     * @throws NullPointerException if {@code playback} is {@code null}.
+     * @throws IllegalArgumentException if the field is not valid.
+     */
+    public int getPlaybackField(Playback playback, int field)
+    {
+        checkArgument(field >= 0 && field < PLAYBACK_FIELDS,
+                "invalid field");
+        return playbacks.get(playback.ordinal() * PLAYBACK_FIELDS + field);
+    }
+
+    /**
+     * Gets the number of completed writes.
+     *
+     * @return the number of writes.
+     */
+    public long getVersion()
+    {
+        return sequence >>> 1;
+    }
+
+    /**
+     * Copies the state, retrying until no write overlapped the copy.
+     *
+     * @param levelsDest receives the levels, or {@code null}.
+     * @param playbacksDest receives the playback fields, or {@code null}.
+     * @return the number of writes the copy reflects.
+     */
+    private long copy(byte[] levelsDest, int[] playbacksDest)
+    {
+        while(true)
+        {
+            long before = sequence;
+            if((before & 1) == 0)
+            {
+                if(levelsDest != null)
+                {
+                    for(int i = 0 ; i < CHANNEL_COUNT / 4 ; i++)
+                    {
+                        int word = levels.get(i);
+                        int offset = i * 4;
+                        levelsDest[offset] = (byte) word;
+                        levelsDest[offset + 1] = (byte) (word >>> 8);
+                        levelsDest[offset + 2] = (byte) (word >>> 16);
+                        levelsDest[offset + 3] = (byte) (word >>> 24);
+                    }
+                }
+                if(playbacksDest != null)
+                {
+                    for(int i = 0 ; i < PLAYBACK_ARRAY_LENGTH ; i++)
+                    {
+                        playbacksDest[i] = playbacks.get(i);
+                    }
+                }
+                if(sequence == before)
+                {
+                    return before >>> 1;
+                }
+            }
+            else
+            {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Stores the cues of every playback in a status. Only called within a
+     * write.
+     *
+     * @param status the status.
+     */
+    private void storePlaybackStatus(PlaybackStatus status)
+    {
+        for(PlaybackInfo info : status)
+        {
+            storeCues(info);
+        }
+    }
+
+    /**
+     * Stores the detailed state of a playback. Only called within a write.
+     *
+     * @param detail the state of the playback.
+     */
+    private void storeDetailedPlaybackStatus(DetailedPlaybackStatus detail)
+    {
+        int base = storeCues(detail);
+        playbacks.set(base + MASTER_LEVEL, detail.getMasterLevel());
+        playbacks.set(base + COMBINE_MODE, detail.getCombineMode() == null ?
+                UNKNOWN : detail.getCombineMode().ordinal());
+        playbacks.set(base + TIMING_DISABLED,
+                detail.isTimingDisabled() ? 1 : 0);
+        playbacks.set(base + LINKED_CUE,
+                Cue.tenthsOf(detail.getLinkedCue()));
+    }
+
+    /**
+     * Stores the current and next cue of a playback. Only called within a
+     * write.
+     *
+     * @param info the state of the playback.
+     * @return the index of the playback's first field.
+     */
+    private int storeCues(AbstractPlaybackInfo info)
+    {
+        int base = info.getPlayback().ordinal() * PLAYBACK_FIELDS;
+        playbacks.set(base + CURRENT_CUE,
+                Cue.tenthsOf(info.getCurrentCue()));
+        playbacks.set(base + NEXT_CUE, Cue.tenthsOf(info.getNextCue()));
+        return base;
+    }
+
+    /**
+     * Stores the output levels. Only called within a write.
+     *
+     * @param outputLevels the levels; {@code null} levels are skipped.
+     */
+    private void storeLevels(Integer[] outputLevels)
+    {
+        int count = Math.min(outputLevels.length, CHANNEL_COUNT);
+        for(int word = 0 ; word < CHANNEL_COUNT / 4 ; word++)
+        {
+            int value = levels.get(word);
+            int updated = value;
+            for(int i = 0 ; i < 4 ; i++)
+            {
+                int index = word * 4 + i;
+                if(index < count && outputLevels[index] != null)
+                {
+                    int shift = i * 8;
+                    updated = (updated & ~(0xFF << shift)) |
+                            ((outputLevels[index] & 0xFF) << shift);
+                }
+            }
+            if(updated != value)
+            {
+                levels.set(word, updated);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package org.urbanbyte.cueserver.state;
+
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.Playback;
+
+/**
+ * Notified when the state read from a CueServer disagrees with the state a
+ * {@link CueServerStateModel} expected from the commands that were sent.
+ * Drift usually means the CueServer was also controlled from somewhere else,
+ * such as its front panel, a button station or another client.
+ * <p>
+ * author: Chris Reising
+ */
+public interface DriftListener
+{
+    /**
+     * Called when the output level of a channel differs from its expected
+     * level by more than the model's tolerance.
+     *
+     * @param channel the channel, within [1, 512].
+     * @param expected the expected level.
+     * @param actual the level read from the CueServer.
+     */
+    void channelDrift(int channel, int expected, int actual);
+
+    /**
+     * Called when the current cue of a playback differs from the expected
+     * cue.
+     *
+     * @param playback the playback.
+     * @param expected the expected cue, or {@code null} if the playback was
+     *                 expected to be clear.
+     * @param actual the cue read from the CueServer, or {@code null} if the
+     *               playback is clear.
+     */
+    void cueDrift(Playback playback, Cue expected, Cue actual);
+}
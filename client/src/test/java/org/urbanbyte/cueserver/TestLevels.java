@@ -0,0 +1,34 @@
+package org.urbanbyte.cueserver;
+
+import java.util.Arrays;
+
+/**
+ * Builds output levels for tests.
+ * <p>
+ * author: Chris Reising
+ */
+public final class TestLevels
+{
+    /** The number of channels in a universe. */
+    public static final int CHANNEL_COUNT = 512;
+
+    /**
+     * Not instantiated.
+     */
+    private TestLevels()
+    {
+    }
+
+    /**
+     * Creates a universe with every channel set to the given level.
+     *
+     * @param level the level.
+     * @return Never {@code null}.
+     */
+    public static Integer[] filled(int level)
+    {
+        Integer[] levels = new Integer[CHANNEL_COUNT];
+        Arrays.fill(levels, level);
+        return levels;
+    }
+}
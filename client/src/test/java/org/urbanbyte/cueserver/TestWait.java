@@ -0,0 +1,60 @@
+package org.urbanbyte.cueserver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Waits in tests for a condition set by another thread, for the cases where
+ * there is no latch or future to wait on.
+ * <p>
+ * author: Chris Reising
+ */
+public final class TestWait
+{
+    /** How long to wait before failing, in milliseconds. */
+    public static final long TIMEOUT_MILLIS = 5000;
+
+    /**
+     * Not instantiated.
+     */
+    private TestWait()
+    {
+    }
+
+    /**
+     * Checks the condition every millisecond until it holds.
+     *
+     * @param description what is waited for, reported if it never holds.
+     * @param condition the condition.
+     * @throws AssertionError if the condition does not hold within
+     *                        {@link #TIMEOUT_MILLIS}.
+     */
+    public static void until(String description, Condition condition)
+    {
+        long deadline = System.nanoTime() +
+                TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while(!condition.isMet())
+        {
+            if(System.nanoTime() - deadline > 0)
+            {
+                fail("timed out waiting for " + description);
+            }
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    /**
+     * A condition that becomes true on another thread.
+     */
+    public interface Condition
+    {
+        /**
+         * Checks the condition.
+         *
+         * @return {@code true} once the condition holds.
+         */
+        boolean isMet();
+    }
+}
@@ -0,0 +1,76 @@
+package org.urbanbyte.cueserver.artnet;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the {@link ArtDmx} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class ArtDmxTest
+{
+    /**
+     * A written packet reads back with its universe and levels.
+     */
+    @Test
+    public void writeAndRead()
+    {
+        byte[] levels = new byte[512];
+        levels[0] = (byte) 255;
+        levels[511] = 3;
+        ByteBuffer packet = ByteBuffer.allocate(ArtDmx.MAX_PACKET_SIZE);
+
+        ArtDmx.write(packet, 0x1234, 7, levels);
+
+        assertThat(packet.remaining(), is(530));
+        assertThat(packet.get(12), is((byte) 7));
+        assertThat(ArtDmx.readPortAddress(packet), is(0x1234));
+        byte[] read = new byte[512];
+        assertThat(ArtDmx.readLevels(packet, read), is(512));
+        assertThat(read, is(levels));
+    }
+
+    /**
+     * A packet shorter than a universe only changes its channels.
+     */
+    @Test
+    public void shortPacket()
+    {
+        ByteBuffer packet = ByteBuffer.allocate(ArtDmx.MAX_PACKET_SIZE);
+        byte[] levels = new byte[512];
+        levels[0] = 9;
+        ArtDmx.write(packet, 0, 0, levels);
+        packet.put(16, (byte) 0).put(17, (byte) 2);
+        packet.limit(ArtDmx.HEADER_SIZE + 2);
+
+        byte[] read = new byte[512];
+        read[2] = 100;
+        assertThat(ArtDmx.readLevels(packet, read), is(2));
+        assertThat(read[0], is((byte) 9));
+        assertThat(read[2], is((byte) 100));
+    }
+
+    /**
+     * Packets that are not ArtDmx are rejected.
+     */
+    @Test
+    public void notArtDmx()
+    {
+        ByteBuffer packet = ByteBuffer.allocate(ArtDmx.MAX_PACKET_SIZE);
+        ArtDmx.write(packet, 0, 0, new byte[512]);
+
+        packet.put(8, (byte) 0x00).put(9, (byte) 0x20);
+        assertThat(ArtDmx.readPortAddress(packet), is(-1));
+
+        packet.put(0, (byte) 'X');
+        assertThat(ArtDmx.readPortAddress(packet), is(-1));
+
+        packet.limit(10);
+        assertThat(ArtDmx.readPortAddress(packet), is(-1));
+    }
+}
@@ -0,0 +1,209 @@
+package org.urbanbyte.cueserver.artnet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link ArtNetBridge} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class ArtNetBridgeTest
+{
+    /** Mocked client of the CueServer. */
+    private HttpCueServerClient client;
+
+    /** Mocked batch the commands are added to. */
+    private CommandBatch batch;
+
+    /** Reused buffer for the packets. */
+    private final ByteBuffer packet =
+            ByteBuffer.allocate(ArtDmx.MAX_PACKET_SIZE);
+
+    /** The bridge being tested. */
+    private ArtNetBridge bridge;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        client = mock(HttpCueServerClient.class);
+        batch = mock(CommandBatch.class);
+        when(client.getUniverseCount()).thenReturn(2);
+        when(client.newBatch()).thenReturn(batch);
+        when(batch.submit()).thenReturn(1);
+
+        bridge = new ArtNetBridge(client, Playback.PLAYBACK_2);
+        bridge.mapUniverse(0, 1);
+        bridge.mapUniverse(0x101, 2);
+    }
+
+    /**
+     * Stops the bridge.
+     */
+    @After
+    public void teardown()
+    {
+        bridge.stop();
+    }
+
+    /**
+     * The first frame of a universe is sent in full and later frames only
+     * send the changed channels.
+     */
+    @Test
+    public void sendChanges()
+    {
+        byte[] levels = new byte[512];
+        levels[0] = 10;
+        assertThat(bridge.receive(packet(0, levels)), is(true));
+        assertThat(bridge.flush(), is(1));
+        verify(batch).setLevels(1, levels, 0, Playback.PLAYBACK_2);
+
+        levels[9] = 50;
+        levels[10] = 50;
+        levels[200] = 1;
+        bridge.receive(packet(0, levels));
+        // only the latest of several frames is sent
+        levels[200] = 2;
+        bridge.receive(packet(0, levels));
+        assertThat(bridge.flush(), is(1));
+
+        verify(batch).setLevels(10, new byte[]{50, 50}, 0,
+                Playback.PLAYBACK_2);
+        verify(batch).setLevels(201, new byte[]{2}, 0, Playback.PLAYBACK_2);
+        verify(batch, times(2)).submit();
+        assertThat(bridge.getPacketCount(), is(3L));
+        assertThat(bridge.getRequestCount(), is(2L));
+    }
+
+    /**
+     * Frames without changes send nothing.
+     */
+    @Test
+    public void unchangedFrame()
+    {
+        byte[] levels = new byte[512];
+        bridge.receive(packet(0, levels));
+        bridge.flush();
+        bridge.receive(packet(0, levels));
+
+        assertThat(bridge.flush(), is(0));
+        assertThat(bridge.flush(), is(0));
+        verify(batch, times(1)).submit();
+    }
+
+    /**
+     * After a failed request the universe is sent in full again, even if no
+     * newer frame was received.
+     */
+    @Test
+    public void failedRequest()
+    {
+        byte[] levels = new byte[512];
+        bridge.receive(packet(0, levels));
+        bridge.flush();
+
+        levels[4] = 20;
+        bridge.receive(packet(0, levels));
+        when(batch.getFailedCount()).thenReturn(1);
+        bridge.flush();
+        verify(batch).setLevels(5, new byte[]{20}, 0, Playback.PLAYBACK_2);
+
+        when(batch.getFailedCount()).thenReturn(0);
+        assertThat(bridge.flush(), is(1));
+        // the full frames are the same reused array, seen with its latest
+        // levels
+        verify(batch, times(2)).setLevels(1, levels, 0, Playback.PLAYBACK_2);
+
+        assertThat(bridge.flush(), is(0));
+        verify(batch, times(3)).submit();
+    }
+
+    /**
+     * Universes are forwarded to their own channels, and universes that are
+     * not mapped are ignored.
+     */
+    @Test
+    public void universes()
+    {
+        byte[] levels = new byte[512];
+        assertThat(bridge.receive(packet(0x101, levels)), is(true));
+        assertThat(bridge.receive(packet(5, levels)), is(false));
+        bridge.flush();
+
+        verify(batch).setLevels(513, levels, 0, Playback.PLAYBACK_2);
+        verify(batch, never()).setLevels(1, levels, 0, Playback.PLAYBACK_2);
+    }
+
+    /**
+     * Packets received on the channel are sent to the CueServer.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void receiveOnChannel() throws Exception
+    {
+        bridge.setMaxSendRate(50);
+        bridge.start(new InetSocketAddress("127.0.0.1", 0));
+
+        DatagramChannel sender = DatagramChannel.open();
+        try
+        {
+            sender.send(packet(0, new byte[512]),
+                    new InetSocketAddress("127.0.0.1", bridge.getLocalPort()));
+        }
+        finally
+        {
+            sender.close();
+        }
+
+        verify(batch, timeout(5000)).setLevels(anyInt(), any(byte[].class),
+                anyDouble(), any(Playback.class));
+        verify(batch, timeout(5000)).submit();
+    }
+
+    /**
+     * A universe the client does not have will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidUniverse()
+    {
+        bridge.mapUniverse(1, 3);
+    }
+
+    /**
+     * Writes an ArtDmx packet.
+     *
+     * @param portAddress the port address.
+     * @param levels the levels.
+     * @return the packet.
+     */
+    private ByteBuffer packet(int portAddress, byte[] levels)
+    {
+        ArtDmx.write(packet, portAddress, 0, levels);
+        return packet;
+    }
+}
@@ -0,0 +1,209 @@
+package org.urbanbyte.cueserver.artnet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.TestLevels;
+import org.urbanbyte.cueserver.TestWait;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link DmxMirror} class with a local receiver.
+ * <p>
+ * author: Chris Reising
+ */
+public class DmxMirrorTest
+{
+    /** Mocked client of the CueServer. */
+    private HttpCueServerClient client;
+
+    /** Receives the packets. */
+    private DatagramSocket receiver;
+
+    /** The mirror being tested. */
+    private DmxMirror mirror;
+
+    /**
+     * Setup for tests.
+     *
+     * @throws IOException if the receiver could not be opened.
+     */
+    @Before
+    public void setupTest() throws IOException
+    {
+        client = mock(HttpCueServerClient.class);
+        when(client.getUniverseCount()).thenReturn(2);
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setSoTimeout(5000);
+    }
+
+    /**
+     * Stops the mirror and the receiver.
+     */
+    @After
+    public void teardown()
+    {
+        if(mirror != null)
+        {
+            mirror.stop();
+        }
+        receiver.close();
+    }
+
+    /**
+     * The output is sent as Art-Net when it changes and when the keep-alive
+     * is due.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void artNet() throws Exception
+    {
+        mirror = createMirror(OutputProtocol.ART_NET);
+        mirror.mapUniverse(2, 0x10);
+        Integer[] levels = TestLevels.filled(0);
+        levels[0] = 255;
+        when(client.getOutputLevels(2)).thenReturn(levels);
+
+        assertThat(mirror.poll(), is(1));
+        ByteBuffer packet = receive();
+        assertThat(packet.remaining(), is(ArtDmx.MAX_PACKET_SIZE));
+        assertThat(ArtDmx.readPortAddress(packet), is(0x10));
+        assertThat(packet.get(ArtDmx.SEQUENCE_OFFSET), is((byte) 1));
+        byte[] received = new byte[512];
+        ArtDmx.readLevels(packet, received);
+        assertThat(received[0] & 0xFF, is(255));
+
+        // unchanged output is not sent before the keep-alive
+        assertThat(mirror.poll(), is(0));
+
+        Integer[] changed = TestLevels.filled(0);
+        changed[511] = 7;
+        when(client.getOutputLevels(2)).thenReturn(changed);
+        assertThat(mirror.poll(), is(1));
+        packet = receive();
+        assertThat(packet.get(ArtDmx.SEQUENCE_OFFSET), is((byte) 2));
+        ArtDmx.readLevels(packet, received);
+        assertThat(received[0] & 0xFF, is(0));
+        assertThat(received[511], is((byte) 7));
+
+        // polls send nothing until the keep-alive is due
+        mirror.setKeepAlive(1);
+        TestWait.until("the keep-alive", new TestWait.Condition()
+        {
+            @Override
+            public boolean isMet()
+            {
+                return mirror.poll() == 1;
+            }
+        });
+        assertThat(mirror.getPacketCount(), is(3L));
+    }
+
+    /**
+     * The output is sent as sACN data packets.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void sacn() throws Exception
+    {
+        mirror = createMirror(OutputProtocol.SACN);
+        mirror.mapUniverse(1, 300);
+        Integer[] levels = TestLevels.filled(0);
+        levels[1] = 128;
+        when(client.getOutputLevels(1)).thenReturn(levels);
+
+        assertThat(mirror.poll(), is(1));
+        ByteBuffer packet = receive();
+
+        assertThat(packet.remaining(), is(Sacn.PACKET_SIZE));
+        assertThat(new String(packet.array(), 4, 9, "US-ASCII"),
+                is("ASC-E1.17"));
+        assertThat(packet.getShort(16) & 0x0FFF, is(622));
+        assertThat(packet.getShort(38) & 0x0FFF, is(600));
+        assertThat(packet.getShort(115) & 0x0FFF, is(523));
+        assertThat(packet.getShort(Sacn.UNIVERSE_OFFSET) & 0xFFFF, is(300));
+        assertThat(packet.get(Sacn.SEQUENCE_OFFSET), is((byte) 1));
+        assertThat(packet.getShort(123) & 0xFFFF, is(513));
+        assertThat(packet.get(Sacn.DATA_OFFSET - 1), is((byte) 0));
+        assertThat(packet.get(Sacn.DATA_OFFSET + 1) & 0xFF, is(128));
+    }
+
+    /**
+     * Failed polls send nothing.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void failedPoll() throws Exception
+    {
+        mirror = createMirror(OutputProtocol.ART_NET);
+        mirror.mapUniverse(1, 0);
+
+        assertThat(mirror.poll(), is(0));
+    }
+
+    /**
+     * The sACN multicast group is derived from the universe.
+     */
+    @Test
+    public void multicastGroup()
+    {
+        assertThat(Sacn.multicastGroup(0x0102).getHostAddress(),
+                is("239.255.1.2"));
+    }
+
+    /**
+     * Art-Net without a destination will cause an exception.
+     */
+    @Test(expected = NullPointerException.class)
+    public void artNetWithoutDestination()
+    {
+        new DmxMirror(client, OutputProtocol.ART_NET, null);
+    }
+
+    /**
+     * Creates and starts a mirror that sends to the receiver and only polls
+     * when the test asks it to.
+     *
+     * @param protocol the protocol.
+     * @return the mirror.
+     * @throws IOException if the mirror could not be started.
+     */
+    private DmxMirror createMirror(OutputProtocol protocol) throws IOException
+    {
+        DmxMirror created = new DmxMirror(client, protocol,
+                new InetSocketAddress("127.0.0.1", receiver.getLocalPort()));
+        created.setPollPeriod(60000);
+        created.start();
+        return created;
+    }
+
+    /**
+     * Receives a packet.
+     *
+     * @return the packet, big endian.
+     * @throws IOException if no packet arrived.
+     */
+    private ByteBuffer receive() throws IOException
+    {
+        byte[] data = new byte[1024];
+        DatagramPacket packet = new DatagramPacket(data, data.length);
+        receiver.receive(packet);
+        return ByteBuffer.wrap(Arrays.copyOf(data, packet.getLength()));
+    }
+}
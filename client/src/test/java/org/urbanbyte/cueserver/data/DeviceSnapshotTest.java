@@ -0,0 +1,115 @@
+package org.urbanbyte.cueserver.data;
+
+import org.junit.Test;
+import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+import org.urbanbyte.cueserver.data.system.SystemInfo;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests the {@link DeviceSnapshot}.
+ * <p>
+ * author: Chris Reising
+ */
+public class DeviceSnapshotTest
+{
+    /** Test system information. */
+    private final SystemInfo systemInfo = mock(SystemInfo.class);
+
+    /** Test playback status. */
+    private final PlaybackStatus playbackStatus = mock(PlaybackStatus.class);
+
+    /** Test detailed status. */
+    private final DetailedPlaybackStatus detailed =
+            mock(DetailedPlaybackStatus.class);
+
+    /**
+     * Sets every part of the builder and asserts the built object.
+     */
+    @Test
+    public void buildSnapshot()
+    {
+        DeviceSnapshot.Builder builder = new DeviceSnapshot.Builder()
+                .setSystemInfo(systemInfo, 100)
+                .setPlaybackStatus(playbackStatus, 104)
+                .setOutputLevels(new Integer[512], 103);
+        for(Playback playback : Playback.values())
+        {
+            builder.setDetailedPlaybackStatus(playback, detailed,
+                    101 + playback.ordinal());
+        }
+
+        DeviceSnapshot snapshot = builder.build();
+
+        assertThat(snapshot.isComplete(), is(true));
+        assertSame(snapshot.getSystemInfo(), systemInfo);
+        assertSame(snapshot.getPlaybackStatus(), playbackStatus);
+        assertSame(snapshot.getDetailedPlaybackStatus(Playback.PLAYBACK_3),
+                detailed);
+        assertThat(snapshot.getSystemInfoTime(), is(100L));
+        assertThat(snapshot.getPlaybackStatusTime(), is(104L));
+        assertThat(snapshot.getDetailedPlaybackStatusTime(
+                Playback.PLAYBACK_4), is(104L));
+        assertThat(snapshot.getOutputLevelsTime(), is(103L));
+        assertThat(snapshot.getCaptureSpreadMillis(), is(4L));
+        assertThat(snapshot.toString(), containsString("512 channels"));
+    }
+
+    /**
+     * Parts that were not read are {@code null} and do not count towards the
+     * spread.
+     */
+    @Test
+    public void missingParts()
+    {
+        DeviceSnapshot snapshot = new DeviceSnapshot.Builder()
+                .setSystemInfo(null, 100)
+                .setPlaybackStatus(playbackStatus, 200)
+                .setDetailedPlaybackStatus(Playback.PLAYBACK_1, detailed, 250)
+                .build();
+
+        assertThat(snapshot.isComplete(), is(false));
+        assertThat(snapshot.getSystemInfo(), nullValue());
+        assertThat(snapshot.getSystemInfoTime(), is(0L));
+        assertThat(snapshot.getDetailedPlaybackStatus(Playback.PLAYBACK_2),
+                nullValue());
+        assertThat(snapshot.getOutputLevels(), nullValue());
+        assertThat(snapshot.getCaptureSpreadMillis(), is(50L));
+    }
+
+    /**
+     * The output levels cannot be changed through the builder or the
+     * snapshot.
+     */
+    @Test
+    public void outputLevelsCopied()
+    {
+        Integer[] levels = {1, 2, 3};
+        DeviceSnapshot snapshot = new DeviceSnapshot.Builder()
+                .setOutputLevels(levels, 1)
+                .build();
+
+        levels[0] = 9;
+        snapshot.getOutputLevels()[1] = 9;
+
+        assertThat(snapshot.getOutputLevels()[0], is(1));
+        assertThat(snapshot.getOutputLevels()[1], is(2));
+    }
+
+    /**
+     * A {@code null} playback will cause an exception.
+     */
+    @Test(expected = NullPointerException.class)
+    public void nullPlayback()
+    {
+        new DeviceSnapshot.Builder().setDetailedPlaybackStatus(null, detailed,
+                1);
+    }
+}
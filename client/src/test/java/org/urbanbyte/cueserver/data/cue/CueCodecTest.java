@@ -0,0 +1,80 @@
+package org.urbanbyte.cueserver.data.cue;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests {@link CueCodec}.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueCodecTest
+{
+    /**
+     * Decoding the same raw value returns the same instance.
+     */
+    @Test
+    public void decodeIsInterned()
+    {
+        Cue cue = CueCodec.decode(101, null);
+
+        assertThat(cue.getNumber(), is(10.1));
+        assertThat(cue.getTenths(), is(101));
+        assertThat(CueCodec.decode(101, null), sameInstance(cue));
+    }
+
+    /**
+     * Named cues are not interned and do not evict the unnamed cue of the
+     * same raw value.
+     */
+    @Test
+    public void decodeNamed()
+    {
+        Cue unnamed = CueCodec.decode(202, null);
+        Cue cue = CueCodec.decode(202, "first");
+        Cue renamed = CueCodec.decode(202, "second");
+
+        assertThat(cue.getName(), is("first"));
+        assertThat(renamed, not(sameInstance(cue)));
+        assertThat(renamed.getName(), is("second"));
+        assertThat(CueCodec.decode(202, null), sameInstance(unnamed));
+    }
+
+    /**
+     * Values that represent no cue are decoded to {@code null}.
+     */
+    @Test
+    public void decodeNoCue()
+    {
+        assertThat(CueCodec.decode(0, null), nullValue());
+        assertThat(CueCodec.decode(65535, null), nullValue());
+    }
+
+    /**
+     * Values are formatted with a single decimal place.
+     */
+    @Test
+    public void format()
+    {
+        assertThat(CueCodec.format(0), is("0.0"));
+        assertThat(CueCodec.format(2.1), is("2.1"));
+        assertThat(CueCodec.format(20.04), is("20.0"));
+        assertThat(CueCodec.format(65000), is("65000.0"));
+        assertThat(CueCodec.formatTenths(101), is("10.1"));
+    }
+
+    /**
+     * Values are converted to exact tenths.
+     */
+    @Test
+    public void toTenths()
+    {
+        assertThat(CueCodec.toTenths(0.1 + 0.2), is(3));
+        assertThat(CueCodec.toTenths(1), is(10));
+    }
+}
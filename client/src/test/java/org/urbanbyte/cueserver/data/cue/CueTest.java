@@ -3,6 +3,7 @@ package org.urbanbyte.cueserver.data.cue;
 import org.junit.Test;
 
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -51,4 +52,41 @@ public class CueTest
     {
         new Cue(0, name);
     }
+
+    /**
+     * The tenths value is exact even when the number is not.
+     */
+    @Test
+    public void tenths()
+    {
+        assertThat(new Cue(0.3).getTenths(), is(3));
+        assertThat(new Cue(10.1).getTenths(), is(101));
+        assertThat(new Cue(6553.4).getTenths(), is(65534));
+    }
+
+    /**
+     * Cues with the same tenths are equal, whatever their names.
+     */
+    @Test
+    public void equalCues()
+    {
+        Cue cue = new Cue(0.1 + 0.2, name);
+        Cue other = new Cue(0.3, name);
+
+        assertThat(cue, is(other));
+        assertThat(cue.hashCode(), is(other.hashCode()));
+        assertThat(new Cue(0.3), is(new Cue(0.3)));
+        assertThat(new Cue(1.1, name), is(new Cue(1.1, "other")));
+        assertThat(new Cue(1.1, name), is(new Cue(1.1)));
+        assertThat(new Cue(1.1, name).hashCode(), is(new Cue(1.1).hashCode()));
+    }
+
+    /**
+     * Cues with different numbers are not equal.
+     */
+    @Test
+    public void unequalCues()
+    {
+        assertThat(new Cue(1.1, name), not(new Cue(1.2, name)));
+    }
 }
@@ -0,0 +1,96 @@
+package org.urbanbyte.cueserver.data.output;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the {@link DmxBuffer}.
+ * <p>
+ * author: Chris Reising
+ */
+public class DmxBufferTest
+{
+    /**
+     * Setting a level only changes the version of its universe.
+     */
+    @Test
+    public void setLevel()
+    {
+        DmxBuffer buffer = new DmxBuffer(2);
+
+        assertThat(buffer.setLevel(2, 512, 255), is(true));
+        assertThat(buffer.setLevel(2, 512, 255), is(false));
+
+        assertThat(buffer.getLevel(2, 512), is(255));
+        assertThat(buffer.getLevel(1, 512), is(0));
+        assertThat(buffer.getVersion(1), is(0L));
+        assertThat(buffer.getVersion(2), is(1L));
+        assertThat(buffer.hasChanged(1, 0), is(false));
+        assertThat(buffer.hasChanged(2, 0), is(true));
+    }
+
+    /**
+     * Updating a universe counts the changed channels and skips
+     * {@code null} levels.
+     */
+    @Test
+    public void update()
+    {
+        DmxBuffer buffer = new DmxBuffer(1);
+        Integer[] values = new Integer[512];
+        Arrays.fill(values, 0);
+        values[0] = 200;
+        values[1] = null;
+
+        assertThat(buffer.update(1, values), is(1));
+        assertThat(buffer.update(1, values), is(0));
+        assertThat(buffer.getVersion(1), is(1L));
+        assertThat(buffer.getUniverse(1)[0], is(200));
+    }
+
+    /**
+     * A universe is copied as raw bytes along with its version.
+     */
+    @Test
+    public void copyUniverse()
+    {
+        DmxBuffer buffer = new DmxBuffer(3);
+        buffer.setLevel(3, 1, 128);
+        byte[] dest = new byte[520];
+
+        assertThat(buffer.copyUniverse(3, dest, 8), is(1L));
+        assertThat(dest[8] & 0xFF, is(128));
+        assertThat(dest[9], is((byte) 0));
+    }
+
+    /**
+     * A universe beyond the buffer will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidUniverse()
+    {
+        new DmxBuffer(2).getLevel(3, 1);
+    }
+
+    /**
+     * A channel beyond 512 will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidChannel()
+    {
+        new DmxBuffer(2).setLevel(1, 513, 0);
+    }
+
+    /**
+     * A level beyond 255 will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevel()
+    {
+        new DmxBuffer(1).setLevel(1, 1, 256);
+    }
+}
@@ -2,8 +2,13 @@ package org.urbanbyte.cueserver.data.playback;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static junit.framework.TestCase.assertSame;
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.mockito.Mockito.mock;
 
@@ -113,4 +118,66 @@ public class PlaybackStatusTest
 
         builder.build();
     }
+
+    /**
+     * Playbacks can be accessed by their enum value and iterated in order.
+     */
+    @Test
+    public void indexedAccess()
+    {
+        PlaybackStatus status = new PlaybackStatus.Builder()
+                .set(Playback.PLAYBACK_1, pb1)
+                .set(Playback.PLAYBACK_2, pb2)
+                .set(Playback.PLAYBACK_3, pb3)
+                .set(Playback.PLAYBACK_4, pb4)
+                .build();
+
+        assertSame(status.get(Playback.PLAYBACK_1), pb1);
+        assertSame(status.get(Playback.PLAYBACK_2), pb2);
+        assertSame(status.get(Playback.PLAYBACK_3), pb3);
+        assertSame(status.get(Playback.PLAYBACK_4), pb4);
+        assertThat(status.getPlaybackCount(), is(4));
+
+        List<PlaybackInfo> iterated = new ArrayList<PlaybackInfo>();
+        for(PlaybackInfo info : status)
+        {
+            iterated.add(info);
+        }
+        assertThat(iterated, is(status.getPlaybacks()));
+        assertSame(iterated.get(3), pb4);
+    }
+
+    /**
+     * A status may contain fewer playbacks than the client supports.
+     */
+    @Test
+    public void smallerPlaybackCount()
+    {
+        PlaybackStatus status = new PlaybackStatus.Builder()
+                .setPlaybackCount(2)
+                .setPlayback1(pb1)
+                .setPlayback2(pb2)
+                .build();
+
+        assertThat(status.getPlaybackCount(), is(2));
+        assertSame(status.get(Playback.PLAYBACK_2), pb2);
+        assertThat(status.get(Playback.PLAYBACK_3), nullValue());
+        // the per-playback getters keep their non-null contract
+        assertThat(status.getPlayback4().getPlayback(),
+                is(Playback.PLAYBACK_4));
+        assertThat(status.getPlayback4().getCurrentCue(), nullValue());
+        assertThat(status.getPlayback4().getNextCue(), nullValue());
+        assertThat(status.getPlayback3().getPlayback(),
+                is(Playback.PLAYBACK_3));
+    }
+
+    /**
+     * A playback count outside of the supported range will cause an
+     * exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPlaybackCount()
+    {
+        new PlaybackStatus.Builder().setPlaybackCount(5);
+    }
 }
@@ -23,4 +23,25 @@ public class PlaybackTest
         assertThat(Playback.PLAYBACK_3.getPlaybackId(), is(3));
         assertThat(Playback.PLAYBACK_4.getPlaybackId(), is(4));
     }
+
+    /**
+     * Playbacks can be found by their ID.
+     */
+    @Test
+    public void forId()
+    {
+        for(Playback playback : Playback.values())
+        {
+            assertThat(Playback.forId(playback.getPlaybackId()), is(playback));
+        }
+    }
+
+    /**
+     * An unknown ID will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void forIdUnknown()
+    {
+        Playback.forId(5);
+    }
 }
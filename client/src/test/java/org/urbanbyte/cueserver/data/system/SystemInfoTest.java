@@ -2,6 +2,8 @@ package org.urbanbyte.cueserver.data.system;
 
 import org.junit.Test;
 
+import java.util.TimeZone;
+
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
@@ -140,4 +142,56 @@ public class SystemInfoTest
                 setTime(time).build();
 
     }
+
+    /**
+     * The time of the device is parsed in the given time zone.
+     */
+    @Test
+    public void testTimeMillis()
+    {
+        TimeZone utc = TimeZone.getTimeZone("UTC");
+        // 2014-10-02T13:45:12Z
+        long expected = 1412257512000L;
+
+        assertThat(infoWithTime("Thu Oct  2 13:45:12 2014")
+                .getTimeMillis(utc), is(expected));
+        assertThat(infoWithTime("2014/10/02 13:45:12").getTimeMillis(utc),
+                is(expected));
+        assertThat(infoWithTime("10/02/2014 01:45:12 PM")
+                .getTimeMillis(utc), is(expected));
+        assertThat(infoWithTime("2014/10/02 13:45:12")
+                        .getTimeMillis(TimeZone.getTimeZone("GMT+02:00")),
+                is(expected - 2 * 3600 * 1000));
+    }
+
+    /**
+     * A time that cannot be parsed is unknown.
+     */
+    @Test
+    public void testUnknownTime()
+    {
+        assertThat(infoWithTime(time).getTimeMillis(), is(
+                SystemInfo.UNKNOWN_TIME));
+        assertThat(infoWithTime("2014/10/02 13:45:12 extra").getTimeMillis(),
+                is(SystemInfo.UNKNOWN_TIME));
+        assertThat(infoWithTime("2014/13/02 13:45:12").getTimeMillis(),
+                is(SystemInfo.UNKNOWN_TIME));
+    }
+
+    /**
+     * Creates a {@code SystemInfo} with the given time.
+     *
+     * @param deviceTime the time of the device.
+     * @return Never {@code null}.
+     */
+    private SystemInfo infoWithTime(String deviceTime)
+    {
+        return new SystemInfo.Builder().
+                setDeviceName(deviceName).
+                setModel(model).
+                setSerialNumber(serialNumber).
+                setFirmwareVersion(firmwareVersion).
+                setTime(deviceTime).
+                setHasPassword(hasPassword).build();
+    }
 }
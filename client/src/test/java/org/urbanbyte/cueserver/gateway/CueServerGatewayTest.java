@@ -0,0 +1,406 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+import org.urbanbyte.cueserver.http.HttpTransport;
+
+import java.io.IOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link CueServerGateway} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueServerGatewayTest
+{
+    /** The name of the test device. */
+    private static final String DEVICE = "stage";
+
+    /** The snapshot returned by every poll. */
+    private final DeviceSnapshot snapshot =
+            new DeviceSnapshot.Builder().build();
+
+    /** Mocked client of the device. */
+    private HttpCueServerClient client;
+
+    /** Mocked batch the writes are added to. */
+    private CommandBatch batch;
+
+    /** The gateway being tested. */
+    private CueServerGateway gateway;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        client = mock(HttpCueServerClient.class);
+        batch = mock(CommandBatch.class);
+        when(client.getSnapshot()).thenReturn(snapshot);
+        when(client.newBatch()).thenReturn(batch);
+
+        gateway = new CueServerGateway();
+        gateway.addDevice(DEVICE, client);
+    }
+
+    /**
+     * Stops the gateway.
+     */
+    @After
+    public void teardown()
+    {
+        gateway.shutdown();
+    }
+
+    /**
+     * The device is polled at the period of its fastest subscriber and every
+     * subscriber receives the cached snapshot.
+     */
+    @Test
+    public void pollAtFastestPeriod()
+    {
+        SnapshotListener fast = mock(SnapshotListener.class);
+        SnapshotListener slow = mock(SnapshotListener.class);
+
+        assertThat(gateway.getSnapshot(DEVICE), nullValue());
+        assertThat(gateway.getPollPeriodMillis(DEVICE), is(0L));
+
+        gateway.subscribe(DEVICE, 60000, slow);
+        Subscription subscription = gateway.subscribe(DEVICE, 10, fast);
+        assertThat(gateway.getPollPeriodMillis(DEVICE), is(10L));
+
+        verify(fast, timeout(2000).atLeast(3)).snapshotPolled(DEVICE,
+                snapshot);
+        verify(slow).snapshotPolled(DEVICE, snapshot);
+        assertSame(gateway.getSnapshot(DEVICE), snapshot);
+
+        subscription.cancel();
+        assertThat(subscription.isCancelled(), is(true));
+        assertThat(gateway.getPollPeriodMillis(DEVICE), is(60000L));
+    }
+
+    /**
+     * Removing a device stops its polls.
+     */
+    @Test
+    public void removeDevice()
+    {
+        SnapshotListener listener = mock(SnapshotListener.class);
+        Subscription subscription = gateway.subscribe(DEVICE, 10, listener);
+        verify(listener, timeout(2000).atLeastOnce()).snapshotPolled(DEVICE,
+                snapshot);
+
+        gateway.removeDevice(DEVICE);
+
+        assertThat(subscription.isCancelled(), is(true));
+        assertThat(gateway.getDeviceNames().isEmpty(), is(true));
+    }
+
+    /**
+     * A faster subscriber does not start a poll while one is running; the
+     * running poll schedules the next one at the new period.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void pollsNeverOverlap() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        when(client.getSnapshot()).thenAnswer(new Answer<DeviceSnapshot>()
+        {
+            @Override
+            public DeviceSnapshot answer(InvocationOnMock invocation)
+                    throws Throwable
+            {
+                int now = running.incrementAndGet();
+                maxRunning.set(Math.max(maxRunning.get(), now));
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                running.decrementAndGet();
+                return snapshot;
+            }
+        });
+
+        gateway.subscribe(DEVICE, 60000, mock(SnapshotListener.class));
+        assertThat(started.await(2, TimeUnit.SECONDS), is(true));
+        gateway.subscribe(DEVICE, 10, mock(SnapshotListener.class));
+        verify(client, after(100).times(1)).getSnapshot();
+
+        release.countDown();
+        verify(client, timeout(2000).atLeast(3)).getSnapshot();
+        assertThat(maxRunning.get(), is(1));
+    }
+
+    /**
+     * Writes that were not sent when the gateway shuts down are cancelled,
+     * and so are writes submitted afterwards.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void shutdownCancelsWrites() throws Exception
+    {
+        final CountDownLatch submitting = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(batch.submit()).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation)
+            {
+                submitting.countDown();
+                try
+                {
+                    release.await(5, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return 1;
+            }
+        });
+        DeviceWrite write = new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.playCue(1, Playback.PLAYBACK_1);
+            }
+        };
+
+        Future<Void> sending = gateway.write(DEVICE, write);
+        assertThat(submitting.await(2, TimeUnit.SECONDS), is(true));
+        Future<Void> waiting = gateway.write(DEVICE, write);
+        gateway.shutdown();
+        Future<Void> late = gateway.write(DEVICE, write);
+
+        sending.get(2, TimeUnit.SECONDS);
+        assertThat(waiting.isCancelled(), is(true));
+        try
+        {
+            // cancelled once the last drain has ended
+            late.get(2, TimeUnit.SECONDS);
+            fail("the gateway was shut down");
+        }
+        catch (CancellationException e)
+        {
+            assertThat(late.isCancelled(), is(true));
+        }
+    }
+
+    /**
+     * Writes are added to the batch in the order they were submitted.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void writesInOrder() throws Exception
+    {
+        Future<Void> first = gateway.write(DEVICE, new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.playCue(1, Playback.PLAYBACK_1);
+            }
+        });
+        Future<Void> second = gateway.write(DEVICE, new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.clearPlayback(Playback.PLAYBACK_2);
+            }
+        });
+
+        first.get(2, TimeUnit.SECONDS);
+        second.get(2, TimeUnit.SECONDS);
+
+        InOrder order = inOrder(batch);
+        order.verify(batch).playCue(1, Playback.PLAYBACK_1);
+        order.verify(batch).clearPlayback(Playback.PLAYBACK_2);
+        verify(batch, atLeast(1)).submit();
+    }
+
+    /**
+     * A write that is not valid fails without affecting the others.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void invalidWrite() throws Exception
+    {
+        when(batch.setChannel(eq(513), eq(0), eq(0d), any(Playback.class)))
+                .thenThrow(new IllegalArgumentException("channel"));
+        Future<Void> invalid = gateway.write(DEVICE, new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.setChannel(513, 0, 0, Playback.PLAYBACK_1);
+            }
+        });
+        Future<Void> valid = gateway.write(DEVICE, new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.setChannel(1, 0, 0, Playback.PLAYBACK_1);
+            }
+        });
+
+        valid.get(2, TimeUnit.SECONDS);
+        try
+        {
+            invalid.get(2, TimeUnit.SECONDS);
+            fail("the write was not valid");
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(),
+                    instanceOf(IllegalArgumentException.class));
+        }
+    }
+
+    /**
+     * None of the commands of a write that fails partway through are sent.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void partialWriteNotSent() throws Exception
+    {
+        HttpTransport transport = mock(HttpTransport.class);
+        when(transport.submitHttpGetRequest(anyString()))
+                .thenReturn(new Integer[0]);
+        gateway.addDevice("real", new HttpCueServerClient(
+                "http://localhost.invalid.com", 80, transport));
+
+        Future<Void> invalid = gateway.write("real", new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.playCue(1, Playback.PLAYBACK_1);
+                batch.setChannel(513, 0, 0, Playback.PLAYBACK_1);
+            }
+        });
+        Future<Void> valid = gateway.write("real", new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.clearPlayback(Playback.PLAYBACK_2);
+            }
+        });
+
+        valid.get(2, TimeUnit.SECONDS);
+        try
+        {
+            invalid.get(2, TimeUnit.SECONDS);
+            fail("the write was not valid");
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(),
+                    instanceOf(IllegalArgumentException.class));
+        }
+        verify(transport).submitHttpGetRequest(
+                "http://localhost.invalid.com:80/exe.cgi/?cmd=P+2+CL");
+        verify(transport, never()).submitHttpGetRequest(
+                "http://localhost.invalid.com:80/exe.cgi/?cmd=P+1+Q+1.0+GO");
+    }
+
+    /**
+     * Writes fail when their request fails.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void failedRequest() throws Exception
+    {
+        when(batch.submit()).thenReturn(1);
+        when(batch.getFailedCount()).thenReturn(1);
+        Future<Void> write = gateway.write(DEVICE, new DeviceWrite()
+        {
+            @Override
+            public void addTo(CommandBatch batch)
+            {
+                batch.playCue(1, Playback.PLAYBACK_1);
+            }
+        });
+
+        try
+        {
+            write.get(2, TimeUnit.SECONDS);
+            fail("the request failed");
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(IOException.class));
+        }
+    }
+
+    /**
+     * An unknown device will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownDevice()
+    {
+        gateway.subscribe("unknown", 10, mock(SnapshotListener.class));
+    }
+
+    /**
+     * Adding a device twice will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void duplicateDevice()
+    {
+        gateway.addDevice(DEVICE, client);
+    }
+
+    /**
+     * A period that is not positive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidPeriod()
+    {
+        gateway.subscribe(DEVICE, 0, mock(SnapshotListener.class));
+    }
+}
@@ -0,0 +1,112 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.junit.Test;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the {@link PushFrames} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class PushFramesTest
+{
+    /**
+     * A status message holds the cue tenths of each playback.
+     */
+    @Test
+    public void encodeStatus()
+    {
+        PlaybackStatus status = new PlaybackStatus.Builder()
+                .setPlaybackCount(2)
+                .setPlayback1(new PlaybackInfo.Builder()
+                        .setPlayback(Playback.PLAYBACK_1)
+                        .setCurrentCue(new Cue(1.5))
+                        .setNextCue(new Cue(2))
+                        .build())
+                .setPlayback2(new PlaybackInfo.Builder()
+                        .setPlayback(Playback.PLAYBACK_2)
+                        .build())
+                .build();
+
+        ByteBuffer message = ByteBuffer.wrap(PushFrames.encodeStatus(status));
+
+        assertThat(message.remaining(), is(20));
+        assertThat(message.get(), is(PushFrames.STATUS));
+        assertThat(message.get(), is((byte) 2));
+        assertThat(message.get(), is((byte) 1));
+        assertThat(message.getInt(), is(15));
+        assertThat(message.getInt(), is(20));
+        assertThat(message.get(), is((byte) 2));
+        assertThat(message.getInt(), is(PushFrames.NO_CUE));
+        assertThat(message.getInt(), is(PushFrames.NO_CUE));
+    }
+
+    /**
+     * A delta holds only the changed channels.
+     */
+    @Test
+    public void encodeDelta()
+    {
+        byte[] previous = new byte[512];
+        byte[] current = new byte[512];
+        current[0] = (byte) 255;
+        current[511] = 7;
+
+        assertThat(PushFrames.encodeDelta(previous, current), is(new byte[]{
+                PushFrames.DELTA, 0, 2, 0, 1, (byte) 255, 2, 0, 7}));
+        assertThat(PushFrames.encodeDelta(current, current), nullValue());
+    }
+
+    /**
+     * When most channels changed, every level is sent instead of a delta.
+     */
+    @Test
+    public void largeDeltaSendsLevels()
+    {
+        byte[] previous = new byte[512];
+        byte[] current = new byte[512];
+        for(int i = 0 ; i < 170 ; i++)
+        {
+            current[i] = 1;
+        }
+
+        byte[] message = PushFrames.encodeDelta(previous, current);
+
+        assertThat(message.length, is(513));
+        assertThat(message[0], is(PushFrames.LEVELS));
+        assertThat(message[1], is((byte) 1));
+    }
+
+    /**
+     * Levels that were not read are sent as 0.
+     */
+    @Test
+    public void toBytes()
+    {
+        Integer[] levels = new Integer[512];
+        levels[0] = 200;
+
+        byte[] bytes = PushFrames.toBytes(levels);
+
+        assertThat(bytes[0] & 0xFF, is(200));
+        assertThat(bytes[1], is((byte) 0));
+    }
+
+    /**
+     * Levels of the wrong size will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevels()
+    {
+        PushFrames.encodeLevels(new byte[511]);
+    }
+}
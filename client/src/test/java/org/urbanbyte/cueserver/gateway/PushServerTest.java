@@ -0,0 +1,332 @@
+package org.urbanbyte.cueserver.gateway;
+
+import com.google.common.base.Charsets;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.TestLevels;
+import org.urbanbyte.cueserver.TestWait;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link PushServer} class with a local WebSocket client.
+ * <p>
+ * author: Chris Reising
+ */
+public class PushServerTest
+{
+    /** The name of the test device. */
+    private static final String DEVICE = "stage";
+
+    /** Mocked gateway the server subscribes to. */
+    private CueServerGateway gateway;
+
+    /** Mocked subscription of the server. */
+    private Subscription subscription;
+
+    /** The server being tested. */
+    private PushServer server;
+
+    /**
+     * Starts the server.
+     *
+     * @throws IOException if the server could not be started.
+     */
+    @Before
+    public void setupTest() throws IOException
+    {
+        gateway = mock(CueServerGateway.class);
+        subscription = mock(Subscription.class);
+        when(gateway.subscribe(eq(DEVICE), anyLong(),
+                any(SnapshotListener.class))).thenReturn(subscription);
+        server = new PushServer(gateway, DEVICE, 100, 0);
+        server.start();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void teardown()
+    {
+        server.stop();
+    }
+
+    /**
+     * A dashboard receives the full state when it connects and only the
+     * changes after that.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void pushState() throws Exception
+    {
+        verify(gateway).subscribe(DEVICE, 100, server);
+        Integer[] levels = TestLevels.filled(0);
+        levels[0] = 255;
+        server.snapshotPolled(DEVICE, snapshot(1, levels));
+
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        try
+        {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(("GET /status HTTP/1.1\r\n" +
+                    "Host: localhost\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Connection: Upgrade\r\n" +
+                    "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n" +
+                    "Sec-WebSocket-Version: 13\r\n\r\n")
+                    .getBytes(Charsets.US_ASCII));
+            out.flush();
+
+            String reply = readHeaders(in);
+            assertThat(reply, containsString("101"));
+            assertThat(reply, containsString(
+                    "Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+
+            byte[] status = readMessage(in);
+            assertThat(status[0], is(PushFrames.STATUS));
+            byte[] full = readMessage(in);
+            assertThat(full.length, is(513));
+            assertThat(full[0], is(PushFrames.LEVELS));
+            assertThat(full[1], is((byte) 255));
+
+            waitForConnections(1);
+            levels[1] = 10;
+            server.snapshotPolled(DEVICE, snapshot(1, levels));
+            assertThat(readMessage(in), is(new byte[]{
+                    PushFrames.DELTA, 0, 1, 0, 2, 10}));
+
+            // a masked close frame with an empty payload
+            out.write(new byte[]{(byte) 0x88, (byte) 0x80, 1, 2, 3, 4});
+            out.flush();
+            assertThat(in.readUnsignedByte(), is(0x88));
+            assertThat(in.readUnsignedByte(), is(0));
+            waitForConnections(0);
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    /**
+     * A frame from the browser that is not masked is answered with a
+     * protocol error close frame.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void unmaskedFrameRejected() throws Exception
+    {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        try
+        {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            out.write(("GET /status HTTP/1.1\r\n" +
+                    "Upgrade: websocket\r\n" +
+                    "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n\r\n")
+                    .getBytes(Charsets.US_ASCII));
+            out.flush();
+            assertThat(readHeaders(in), containsString("101"));
+
+            // an unmasked ping
+            out.write(new byte[]{(byte) 0x89, 0});
+            out.flush();
+            assertThat(in.readUnsignedByte(), is(0x88));
+            assertThat(in.readUnsignedByte(), is(2));
+            assertThat(in.readUnsignedShort(),
+                    is(WebSocketConnection.STATUS_PROTOCOL_ERROR));
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    /**
+     * A request that is not an upgrade is rejected.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void rejectPlainRequest() throws Exception
+    {
+        Socket socket = new Socket("127.0.0.1", server.getPort());
+        socket.setSoTimeout(5000);
+        try
+        {
+            socket.getOutputStream().write(("GET / HTTP/1.1\r\n" +
+                    "Host: localhost\r\n\r\n").getBytes(Charsets.US_ASCII));
+            assertThat(readHeaders(new DataInputStream(
+                    socket.getInputStream())), containsString("400"));
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    /**
+     * Clients beyond the maximum are disconnected, even while the others are
+     * still in their handshake.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void maxConnections() throws Exception
+    {
+        PushServer limited = new PushServer(gateway, DEVICE, 100, 0, 1);
+        limited.start();
+        Socket silent = new Socket("127.0.0.1", limited.getPort());
+        Socket rejected = null;
+        try
+        {
+            // the server accepts in order, so the silent client has the
+            // only permit before the next client connects
+            rejected = new Socket("127.0.0.1", limited.getPort());
+            rejected.setSoTimeout(5000);
+            int read;
+            try
+            {
+                read = rejected.getInputStream().read();
+            }
+            catch (SocketTimeoutException e)
+            {
+                fail("the client was not disconnected");
+                return;
+            }
+            catch (IOException e)
+            {
+                // the connection was reset
+                read = -1;
+            }
+            assertThat(read, is(-1));
+        }
+        finally
+        {
+            silent.close();
+            if(rejected != null)
+            {
+                rejected.close();
+            }
+            limited.stop();
+        }
+    }
+
+    /**
+     * Stopping the server cancels its subscription.
+     */
+    @Test
+    public void stopCancels()
+    {
+        server.stop();
+
+        verify(subscription).cancel();
+        assertThat(server.getConnectionCount(), is(0));
+    }
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param cueNumber the current cue of every playback.
+     * @param levels the output levels.
+     * @return Never {@code null}.
+     */
+    private static DeviceSnapshot snapshot(double cueNumber, Integer[] levels)
+    {
+        PlaybackStatus.Builder status = new PlaybackStatus.Builder();
+        for(Playback playback : Playback.values())
+        {
+            status.set(playback, new PlaybackInfo.Builder()
+                    .setPlayback(playback)
+                    .setCurrentCue(new Cue(cueNumber))
+                    .build());
+        }
+        return new DeviceSnapshot.Builder()
+                .setPlaybackStatus(status.build(), 1)
+                .setOutputLevels(levels, 1)
+                .build();
+    }
+
+    /**
+     * Waits until the server has a number of connections.
+     *
+     * @param count the number of connections.
+     */
+    private void waitForConnections(final int count)
+    {
+        TestWait.until(count + " connections", new TestWait.Condition()
+        {
+            @Override
+            public boolean isMet()
+            {
+                return server.getConnectionCount() == count;
+            }
+        });
+    }
+
+    /**
+     * Reads the headers of an HTTP reply.
+     *
+     * @param in the stream of the reply.
+     * @return the headers.
+     * @throws IOException if the stream failed.
+     */
+    private static String readHeaders(DataInputStream in) throws IOException
+    {
+        ByteArrayOutputStream reply = new ByteArrayOutputStream();
+        while(!new String(reply.toByteArray(), Charsets.US_ASCII)
+                .endsWith("\r\n\r\n"))
+        {
+            reply.write(in.readUnsignedByte());
+        }
+        return new String(reply.toByteArray(), Charsets.US_ASCII);
+    }
+
+    /**
+     * Reads an unmasked binary message.
+     *
+     * @param in the stream of the messages.
+     * @return the payload.
+     * @throws IOException if the stream failed.
+     */
+    private static byte[] readMessage(DataInputStream in) throws IOException
+    {
+        assertThat(in.readUnsignedByte(), is(0x82));
+        int length = in.readUnsignedByte();
+        if(length == 126)
+        {
+            length = in.readUnsignedShort();
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+}
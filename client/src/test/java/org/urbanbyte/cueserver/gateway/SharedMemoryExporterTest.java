@@ -0,0 +1,243 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.TestLevels;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.urbanbyte.cueserver.gateway.SharedMemoryExporter.CUES;
+import static org.urbanbyte.cueserver.gateway.SharedMemoryExporter.HEADER_SIZE;
+import static org.urbanbyte.cueserver.gateway.SharedMemoryExporter.LEVELS;
+import static org.urbanbyte.cueserver.gateway.SharedMemoryExporter.NAME;
+import static org.urbanbyte.cueserver.gateway.SharedMemoryExporter.SLOT_SIZE;
+
+/**
+ * Tests the {@link SharedMemoryExporter} class by reading the exported file
+ * the way another process would.
+ * <p>
+ * author: Chris Reising
+ */
+public class SharedMemoryExporterTest
+{
+    /** The exported file. */
+    private File file;
+
+    /** The exporter being tested. */
+    private SharedMemoryExporter exporter;
+
+    /**
+     * Creates the exporter.
+     *
+     * @throws IOException if the file could not be created.
+     */
+    @Before
+    public void setupTest() throws IOException
+    {
+        file = File.createTempFile("cueserver", ".shm");
+        exporter = new SharedMemoryExporter(file, 2);
+    }
+
+    /**
+     * Removes the file.
+     */
+    @After
+    public void teardown()
+    {
+        exporter.close();
+        file.delete();
+    }
+
+    /**
+     * The header describes the slots.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    @Test
+    public void header() throws IOException
+    {
+        ByteBuffer contents = read();
+
+        assertThat(contents.capacity(), is(HEADER_SIZE + 2 * SLOT_SIZE));
+        assertThat(new String(contents.array(), 0, 4, "US-ASCII"),
+                is("CSXP"));
+        assertThat(contents.getInt(4), is(SharedMemoryExporter.VERSION));
+        assertThat(contents.getInt(8), is(2));
+        assertThat(contents.getInt(12), is(SLOT_SIZE));
+    }
+
+    /**
+     * Each device is written into its own slot.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    @Test
+    public void exportSnapshot() throws IOException
+    {
+        Integer[] levels = TestLevels.filled(0);
+        levels[0] = 255;
+        levels[511] = 17;
+
+        exporter.snapshotPolled("stage", snapshot(2.5, levels));
+        exporter.snapshotPolled("lobby", snapshot(7, levels));
+        exporter.snapshotPolled("stage", new DeviceSnapshot.Builder().build());
+        exporter.snapshotPolled("extra", snapshot(1, levels));
+
+        assertThat(exporter.getSlot("stage"), is(0));
+        assertThat(exporter.getSlot("lobby"), is(1));
+        assertThat(exporter.getSlot("extra"), is(-1));
+
+        ByteBuffer contents = read();
+        int stage = HEADER_SIZE;
+        assertThat(contents.getLong(stage), is(4L));
+        assertThat(new String(contents.array(), stage + NAME, 5, "UTF-8"),
+                is("stage"));
+        assertThat(contents.get(stage + NAME + 5), is((byte) 0));
+        assertThat(contents.getInt(stage + CUES), is(25));
+        assertThat(contents.getInt(stage + CUES + 4),
+                is(SharedMemoryExporter.NO_CUE));
+        assertThat(contents.get(stage + LEVELS) & 0xFF, is(255));
+        assertThat(contents.get(stage + LEVELS + 511) & 0xFF, is(17));
+
+        int lobby = HEADER_SIZE + SLOT_SIZE;
+        assertThat(contents.getLong(lobby), is(2L));
+        assertThat(contents.getInt(lobby + CUES + 3 * 8), is(70));
+    }
+
+    /**
+     * Playbacks missing from a later status no longer show their old cues.
+     *
+     * @throws IOException if the file could not be read.
+     */
+    @Test
+    public void missingPlaybacksCleared() throws IOException
+    {
+        exporter.snapshotPolled("stage", snapshot(4, TestLevels.filled(0)));
+        PlaybackStatus status = new PlaybackStatus.Builder()
+                .setPlaybackCount(1)
+                .set(Playback.PLAYBACK_1, new PlaybackInfo.Builder()
+                        .setPlayback(Playback.PLAYBACK_1)
+                        .setCurrentCue(new Cue(5))
+                        .build())
+                .build();
+        exporter.snapshotPolled("stage", new DeviceSnapshot.Builder()
+                .setPlaybackStatus(status, 1)
+                .build());
+
+        ByteBuffer contents = read();
+        assertThat(contents.getInt(HEADER_SIZE + CUES), is(50));
+        assertThat(contents.getInt(HEADER_SIZE + CUES + 3 * 8),
+                is(SharedMemoryExporter.NO_CUE));
+    }
+
+    /**
+     * A new exporter replaces the file, leaving a reader that still maps the
+     * old file with its last values.
+     *
+     * @throws IOException if the file could not be mapped or replaced.
+     */
+    @Test
+    public void replaceMappedFile() throws IOException
+    {
+        Integer[] levels = TestLevels.filled(9);
+        exporter.snapshotPolled("stage", snapshot(3, levels));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer mapped;
+        try
+        {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                    raf.length()).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        exporter.close();
+        exporter = new SharedMemoryExporter(file, 1);
+
+        assertThat(mapped.getInt(8), is(2));
+        assertThat(mapped.getLong(HEADER_SIZE), is(2L));
+        assertThat(mapped.get(HEADER_SIZE + LEVELS + 511) & 0xFF, is(9));
+
+        ByteBuffer contents = read();
+        assertThat(contents.capacity(), is(HEADER_SIZE + SLOT_SIZE));
+        assertThat(contents.getInt(8), is(1));
+        assertThat(contents.getLong(HEADER_SIZE), is(0L));
+        File[] leftovers = file.getAbsoluteFile().getParentFile().listFiles();
+        for(File leftover : leftovers)
+        {
+            assertThat(leftover.getName().startsWith(file.getName()) &&
+                    leftover.getName().endsWith(".tmp"), is(false));
+        }
+    }
+
+    /**
+     * A slot count that is not positive will cause an exception.
+     *
+     * @throws IOException if the file could not be created.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidSlotCount() throws IOException
+    {
+        new SharedMemoryExporter(file, 0);
+    }
+
+    /**
+     * Reads the whole file.
+     *
+     * @return the contents, little endian.
+     * @throws IOException if the file could not be read.
+     */
+    private ByteBuffer read() throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            byte[] contents = new byte[(int) raf.length()];
+            raf.readFully(contents);
+            return ByteBuffer.wrap(contents).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param cueNumber the current cue of every playback.
+     * @param levels the output levels.
+     * @return Never {@code null}.
+     */
+    private static DeviceSnapshot snapshot(double cueNumber, Integer[] levels)
+    {
+        PlaybackStatus.Builder status = new PlaybackStatus.Builder();
+        for(Playback playback : Playback.values())
+        {
+            status.set(playback, new PlaybackInfo.Builder()
+                    .setPlayback(playback)
+                    .setCurrentCue(new Cue(cueNumber))
+                    .build());
+        }
+        return new DeviceSnapshot.Builder()
+                .setPlaybackStatus(status.build(), 1)
+                .setOutputLevels(levels, 1)
+                .build();
+    }
+}
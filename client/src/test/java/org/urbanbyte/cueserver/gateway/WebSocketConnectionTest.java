@@ -0,0 +1,116 @@
+package org.urbanbyte.cueserver.gateway;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the {@link WebSocketConnection} class with a local socket.
+ * <p>
+ * author: Chris Reising
+ */
+public class WebSocketConnectionTest
+{
+    /** Accepts the test connection. */
+    private ServerSocket server;
+
+    /** The client side of the connection. */
+    private Socket client;
+
+    /** The server side of the connection. */
+    private Socket accepted;
+
+    /**
+     * Opens a local connection.
+     *
+     * @throws IOException if the connection could not be opened.
+     */
+    @Before
+    public void setupTest() throws IOException
+    {
+        server = new ServerSocket(0);
+        client = new Socket("127.0.0.1", server.getLocalPort());
+        accepted = server.accept();
+    }
+
+    /**
+     * Closes the connection.
+     *
+     * @throws IOException if the connection could not be closed.
+     */
+    @After
+    public void teardown() throws IOException
+    {
+        client.close();
+        accepted.close();
+        server.close();
+    }
+
+    /**
+     * A client that sends its request a byte at a time, each well within
+     * the read timeout, is cut off once the whole handshake takes too long.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(expected = SocketTimeoutException.class)
+    public void slowHandshake() throws Exception
+    {
+        Thread sender = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                trickle();
+            }
+        });
+        sender.setDaemon(true);
+        sender.start();
+
+        long start = System.nanoTime();
+        try
+        {
+            new WebSocketConnection(accepted).handshake(200);
+        }
+        finally
+        {
+            long elapsed = System.nanoTime() - start;
+            assertThat(TimeUnit.NANOSECONDS.toMillis(elapsed) < 2000,
+                    is(true));
+        }
+    }
+
+    /**
+     * Sends a request header one byte every 20 ms until the socket closes.
+     */
+    private void trickle()
+    {
+        try
+        {
+            OutputStream out = client.getOutputStream();
+            while(true)
+            {
+                out.write('X');
+                out.flush();
+                Thread.sleep(20);
+            }
+        }
+        catch (IOException e)
+        {
+            // the socket was closed
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
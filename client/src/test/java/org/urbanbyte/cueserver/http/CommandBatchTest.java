@@ -0,0 +1,271 @@
+package org.urbanbyte.cueserver.http;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.urbanbyte.cueserver.CueServerListener;
+import org.urbanbyte.cueserver.SubmitResult;
+import org.urbanbyte.cueserver.data.playback.Playback;
+
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link CommandBatch} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class CommandBatchTest
+{
+    /** Command URL. */
+    private final String cmdUrl =
+            "http://localhost.invalid.com:80/exe.cgi/?cmd=";
+
+    /** Mocked HTTP client. */
+    private SimpleHttpClient mockedHttpClient;
+
+    /** Client the batches are created from. */
+    private HttpCueServerClient cueServerClient;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        mockedHttpClient = mock(SimpleHttpClient.class);
+        cueServerClient = new HttpCueServerClient(
+                "http://localhost.invalid.com", 80, mockedHttpClient);
+    }
+
+    /**
+     * All commands are joined into a single request.
+     */
+    @Test
+    public void submitSingleRequest()
+    {
+        ArgumentCaptor<String> urlCaptor =
+                ArgumentCaptor.forClass(String.class);
+
+        CommandBatch batch = cueServerClient.newBatch()
+                .playCue(1, Playback.PLAYBACK_1)
+                .setChannel(1, 255, 0, Playback.PLAYBACK_2)
+                .setChannelRange(1, 10, 0, 2.5, Playback.PLAYBACK_1)
+                .clearPlayback(Playback.PLAYBACK_3);
+
+        assertThat(batch.size(), is(4));
+        assertThat(batch.submit(), is(1));
+        assertThat(batch.isEmpty(), is(true));
+
+        verify(mockedHttpClient).submitHttpGetRequest(urlCaptor.capture());
+        assertThat(urlCaptor.getValue(), is(cmdUrl +
+                "P+1+Q+1.0+GO%3B" +
+                "T+0.0+P2+C+1+A+%23255%3B" +
+                "T+2.5+P1+C+1%3E10+A%230%3B" +
+                "P+3+CL"));
+    }
+
+    /**
+     * Commands are split across requests when the maximum length is reached.
+     */
+    @Test
+    public void splitRequests()
+    {
+        CommandBatch batch = new CommandBatch(cueServerClient, 20);
+        batch.clearPlayback(Playback.PLAYBACK_1)
+                .clearPlayback(Playback.PLAYBACK_2)
+                .clearPlayback(Playback.PLAYBACK_3);
+
+        List<String> requests = batch.pack();
+        assertThat(requests.size(), is(2));
+        assertThat(requests.get(0), is("P+1+CL%3BP+2+CL"));
+        assertThat(requests.get(1), is("P+3+CL"));
+
+        assertThat(batch.submit(), is(2));
+        verify(mockedHttpClient, times(2)).submitHttpGetRequest(anyString());
+    }
+
+    /**
+     * Only the commands of the requests that succeeded are reported to the
+     * listeners.
+     */
+    @Test
+    public void failedRequest()
+    {
+        CueServerListener listener = mock(CueServerListener.class);
+        cueServerClient.addListener(listener);
+        when(mockedHttpClient.submitHttpGetRequest(cmdUrl + "P+1+CL%3BP+2+CL"))
+                .thenReturn(null);
+        when(mockedHttpClient.submitHttpGetRequest(cmdUrl + "P+3+CL"))
+                .thenReturn(new Integer[0]);
+
+        CommandBatch batch = new CommandBatch(cueServerClient, 20);
+        batch.clearPlayback(Playback.PLAYBACK_1)
+                .clearPlayback(Playback.PLAYBACK_2)
+                .clearPlayback(Playback.PLAYBACK_3);
+
+        assertThat(batch.submit(), is(2));
+        assertThat(batch.getFailedCount(), is(1));
+        assertThat(batch.isFailed(0), is(true));
+        assertThat(batch.isFailed(1), is(true));
+        assertThat(batch.isFailed(2), is(false));
+        verify(listener).playbackCleared(Playback.PLAYBACK_3);
+        verify(listener, never()).playbackCleared(Playback.PLAYBACK_1);
+        verify(listener, never()).playbackCleared(Playback.PLAYBACK_2);
+    }
+
+    /**
+     * An empty batch does not send a request.
+     */
+    @Test
+    public void emptyBatch()
+    {
+        assertThat(cueServerClient.newBatch().submit(), is(0));
+        verify(mockedHttpClient, never()).submitHttpGetRequest(anyString());
+    }
+
+    /**
+     * Channels of a universe are converted when they are added.
+     */
+    @Test
+    public void universeChannels()
+    {
+        ArgumentCaptor<String> urlCaptor =
+                ArgumentCaptor.forClass(String.class);
+        HttpCueServerClient client = new HttpCueServerClient(
+                "http://localhost.invalid.com", 80, mockedHttpClient, 2);
+
+        client.newBatch()
+                .setChannel(2, 10, 255, 0, Playback.PLAYBACK_1)
+                .setChannelRange(2, 1, 3, 0, 0, Playback.PLAYBACK_1)
+                .submit();
+
+        verify(mockedHttpClient).submitHttpGetRequest(urlCaptor.capture());
+        assertThat(urlCaptor.getValue(), is(cmdUrl +
+                "T+0.0+P1+C+522+A+%23255%3B" +
+                "T+0.0+P1+C+513%3E515+A%230"));
+    }
+
+    /**
+     * Runs of equal levels are sent as range commands, single levels as
+     * channel commands.
+     */
+    @Test
+    public void setLevels()
+    {
+        ArgumentCaptor<String> urlCaptor =
+                ArgumentCaptor.forClass(String.class);
+
+        when(mockedHttpClient.submitHttpGetRequest(anyString()))
+                .thenReturn(new Integer[0]);
+
+        SubmitResult result = cueServerClient.setLevels(10,
+                new byte[] {0, 0, 0, (byte) 255, 7, 7}, 1.5,
+                Playback.PLAYBACK_2);
+
+        assertThat(result.getRequestCount(), is(1));
+        assertThat(result.isSuccessful(), is(true));
+        verify(mockedHttpClient).submitHttpGetRequest(urlCaptor.capture());
+        assertThat(urlCaptor.getValue(), is(cmdUrl +
+                "T+1.5+P2+C+10%3E12+A%230%3B" +
+                "T+1.5+P2+C+13+A+%23255%3B" +
+                "T+1.5+P2+C+14%3E15+A%237"));
+    }
+
+    /**
+     * The failed requests of a set levels call are reported.
+     */
+    @Test
+    public void setLevelsFailed()
+    {
+        when(mockedHttpClient.submitHttpGetRequest(anyString()))
+                .thenReturn(null);
+
+        SubmitResult result = cueServerClient.setLevels(1,
+                new byte[] {1, 2}, 0, Playback.PLAYBACK_1);
+
+        assertThat(result.getRequestCount(), is(1));
+        assertThat(result.getFailedCount(), is(1));
+        assertThat(result.isSuccessful(), is(false));
+    }
+
+    /**
+     * A full universe of equal levels is a single command.
+     */
+    @Test
+    public void setLevelsFullUniverse()
+    {
+        CommandBatch batch = cueServerClient.newBatch()
+                .setLevels(1, new byte[512], 0, Playback.PLAYBACK_1);
+
+        assertThat(batch.size(), is(1));
+    }
+
+    /**
+     * Levels that all differ are split across several requests.
+     */
+    @Test
+    public void setLevelsAllDifferent()
+    {
+        byte[] levels = new byte[512];
+        for(int index = 0 ; index < levels.length ; index++)
+        {
+            levels[index] = (byte) index;
+        }
+
+        int requests = cueServerClient.setLevels(1, levels, 0,
+                Playback.PLAYBACK_1).getRequestCount();
+
+        assertThat(requests > 1, is(true));
+        verify(mockedHttpClient, times(requests))
+                .submitHttpGetRequest(anyString());
+    }
+
+    /**
+     * No levels send no requests.
+     */
+    @Test
+    public void setLevelsEmpty()
+    {
+        assertThat(cueServerClient.setLevels(1, new byte[0], 0,
+                Playback.PLAYBACK_1).getRequestCount(), is(0));
+        verify(mockedHttpClient, never()).submitHttpGetRequest(anyString());
+    }
+
+    /**
+     * Levels that run past the last channel add no commands.
+     */
+    @Test
+    public void setLevelsPastLastChannel()
+    {
+        CommandBatch batch = cueServerClient.newBatch();
+        try
+        {
+            batch.setLevels(500, new byte[20], 0, Playback.PLAYBACK_1);
+            fail("the last channel is not valid");
+        }
+        catch (IllegalArgumentException e)
+        {
+            // expected
+        }
+        assertThat(batch.isEmpty(), is(true));
+    }
+
+    /**
+     * Commands are validated when they are added.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCommand()
+    {
+        cueServerClient.newBatch().setChannel(513, 0, 0, Playback.PLAYBACK_1);
+    }
+}
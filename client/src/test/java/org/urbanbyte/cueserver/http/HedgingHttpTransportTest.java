@@ -0,0 +1,249 @@
+package org.urbanbyte.cueserver.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link HedgingHttpTransport} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class HedgingHttpTransportTest
+{
+    /** A read URL. */
+    private static final String READ_URL = "http://host:80/get.cgi/?req=PS";
+
+    /** A command URL. */
+    private static final String EXE_URL = "http://host:80/exe.cgi/?cmd=GO";
+
+    /** Mocked transport. */
+    private HttpTransport delegate;
+
+    /** Sends the reads. */
+    private ExecutorService executor;
+
+    /** Transport being tested. */
+    private HedgingHttpTransport transport;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        delegate = mock(HttpTransport.class);
+        executor = Executors.newCachedThreadPool();
+        transport = new HedgingHttpTransport(delegate, executor);
+    }
+
+    /**
+     * Cleanup after tests.
+     */
+    @After
+    public void teardownTest()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Reads are not hedged until enough latencies have been observed.
+     */
+    @Test
+    public void noHedgeBeforeMinSamples()
+    {
+        when(delegate.submitHttpGetRequest(anyString()))
+                .thenReturn(new Integer[]{1});
+        for(int i = 0 ; i < HedgingHttpTransport.MIN_SAMPLES - 1 ; i++)
+        {
+            transport.submitHttpGetRequest(READ_URL);
+        }
+        assertThat(transport.getHedgeDelayNanos(), is(-1L));
+
+        transport.submitHttpGetRequest(READ_URL);
+        assertThat(transport.getHedgeDelayNanos() >= 0, is(true));
+        assertThat(transport.getHedgeCount(), is(0L));
+    }
+
+    /**
+     * Commands are passed straight through and never hedged or timed.
+     */
+    @Test
+    public void commandsNotHedged()
+    {
+        when(delegate.submitHttpGetRequest(anyString()))
+                .thenReturn(new Integer[]{1});
+        for(int i = 0 ; i < HedgingHttpTransport.MIN_SAMPLES * 2 ; i++)
+        {
+            transport.submitHttpGetRequest(EXE_URL);
+        }
+        assertThat(transport.getHedgeDelayNanos(), is(-1L));
+        verify(delegate, times(HedgingHttpTransport.MIN_SAMPLES * 2))
+                .submitHttpGetRequest(EXE_URL);
+    }
+
+    /**
+     * A slow read is hedged and the faster reply wins.
+     */
+    @Test
+    public void slowReadHedged()
+    {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        when(delegate.submitHttpGetRequest(anyString())).thenAnswer(
+                new Answer<Integer[]>()
+                {
+                    @Override
+                    public Integer[] answer(InvocationOnMock invocation)
+                            throws Throwable
+                    {
+                        if(calls.incrementAndGet() ==
+                                HedgingHttpTransport.MIN_SAMPLES + 1)
+                        {
+                            release.await(5, TimeUnit.SECONDS);
+                            return new Integer[]{1};
+                        }
+                        return new Integer[]{2};
+                    }
+                });
+
+        for(int i = 0 ; i < HedgingHttpTransport.MIN_SAMPLES ; i++)
+        {
+            transport.submitHttpGetRequest(READ_URL);
+        }
+
+        Integer[] reply = transport.submitHttpGetRequest(READ_URL);
+        release.countDown();
+
+        assertThat(reply[0], is(2));
+        assertThat(transport.getHedgeCount(), is(1L));
+    }
+
+    /**
+     * The read that loses is aborted, so that it releases its connection.
+     */
+    @Test
+    public void losingReadAborted()
+    {
+        AbortableHttpTransport abortable = mock(AbortableHttpTransport.class);
+        transport = new HedgingHttpTransport(abortable, executor);
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicBoolean aborted = new AtomicBoolean();
+        final CountDownLatch abortSeen = new CountDownLatch(1);
+        when(abortable.submitHttpGetRequest(anyString(),
+                any(RequestAbort.class))).thenAnswer(new Answer<Integer[]>()
+        {
+            @Override
+            public Integer[] answer(InvocationOnMock invocation)
+                    throws Throwable
+            {
+                if(calls.incrementAndGet() ==
+                        HedgingHttpTransport.MIN_SAMPLES + 1)
+                {
+                    // a request blocked in socket I/O ends only when aborted
+                    RequestAbort abort =
+                            (RequestAbort) invocation.getArguments()[1];
+                    long end = System.nanoTime() +
+                            TimeUnit.SECONDS.toNanos(5);
+                    while(!abort.isAborted() && System.nanoTime() < end)
+                    {
+                        Thread.yield();
+                    }
+                    aborted.set(abort.isAborted());
+                    abortSeen.countDown();
+                    return null;
+                }
+                return new Integer[]{2};
+            }
+        });
+
+        for(int i = 0 ; i < HedgingHttpTransport.MIN_SAMPLES ; i++)
+        {
+            transport.submitHttpGetRequest(READ_URL);
+        }
+
+        Integer[] reply = transport.submitHttpGetRequest(READ_URL);
+
+        assertThat(reply[0], is(2));
+        assertThat(awaitQuietly(abortSeen), is(true));
+        assertThat(aborted.get(), is(true));
+    }
+
+    /**
+     * With a heavy-tailed delegate the hedge rate settles near 5%, since the
+     * slow reads that were hedged still count towards the percentile.
+     */
+    @Test
+    public void hedgeRateSettles()
+    {
+        final Random random = new Random(42);
+        when(delegate.submitHttpGetRequest(anyString())).thenAnswer(
+                new Answer<Integer[]>()
+                {
+                    @Override
+                    public Integer[] answer(InvocationOnMock invocation)
+                            throws Throwable
+                    {
+                        // 85% of the reads take 1 ms, the rest 2-21 ms
+                        boolean slow = random.nextInt(100) >= 85;
+                        Thread.sleep(slow ? 2 + random.nextInt(20) : 1);
+                        return new Integer[]{1};
+                    }
+                });
+
+        for(int i = 0 ; i < HedgingHttpTransport.WINDOW_SIZE ; i++)
+        {
+            transport.submitHttpGetRequest(READ_URL);
+        }
+        long warmupHedges = transport.getHedgeCount();
+
+        int reads = 1000;
+        for(int i = 0 ; i < reads ; i++)
+        {
+            transport.submitHttpGetRequest(READ_URL);
+        }
+        double rate = (transport.getHedgeCount() - warmupHedges) /
+                (double) reads;
+
+        assertThat("hedge rate " + rate, rate > 0.02 && rate < 0.09,
+                is(true));
+    }
+
+    /**
+     * Waits for a latch.
+     *
+     * @param latch the latch.
+     * @return {@code true} if the latch reached zero within 5 seconds.
+     */
+    private static boolean awaitQuietly(CountDownLatch latch)
+    {
+        try
+        {
+            return latch.await(5, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.urbanbyte.cueserver.http;
 
+import org.urbanbyte.cueserver.CueServerListener;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
 import org.urbanbyte.cueserver.data.cue.Cue;
 import org.urbanbyte.cueserver.data.playback.CombineMode;
 import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
@@ -11,15 +13,26 @@ import org.urbanbyte.cueserver.data.system.SystemInfo;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
 import static org.hamcrest.MatcherAssert.assertThat;
-import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -42,12 +55,17 @@ public class HttpCueServerClientTest
     /** CueServer client being tested. */
     private HttpCueServerClient cueServerClient;
 
+    /** Captures the URLs of pipelined reads. */
+    @Captor
+    private ArgumentCaptor<List<String>> urlsCaptor;
+
     /**
      * Setup for tests.
      */
     @Before
     public void setupTest()
     {
+        MockitoAnnotations.initMocks(this);
         mockedHttpClient = mock(SimpleHttpClient.class);
 
         cueServerClient = new HttpCueServerClient(
@@ -324,6 +342,30 @@ public class HttpCueServerClientTest
         assertThat(urlCaptor.getValue(), is(testUrl + ":80/get.cgi/?req=PS"));
     }
 
+    /**
+     * Models with fewer playbacks return a shorter playback status.
+     */
+    @Test
+    public void getStatusTwoPlaybacks()
+    {
+        Integer[] values = new Integer[24];
+        Arrays.fill(values, 0);
+        values[0] = 10;
+        values[14] = 13;
+
+        when(mockedHttpClient.submitHttpGetRequest(
+                anyString())).thenReturn(values);
+
+        PlaybackStatus status = cueServerClient.getPlaybackStatus();
+
+        assertThat(status.getPlaybackCount(), is(2));
+        assertPlaybackInfo(status.get(Playback.PLAYBACK_1),
+                Playback.PLAYBACK_1, 1.0, null);
+        assertPlaybackInfo(status.get(Playback.PLAYBACK_2),
+                Playback.PLAYBACK_2, null, 1.3);
+        assertThat(status.get(Playback.PLAYBACK_3), nullValue());
+    }
+
     /**
      * An invalid array length will result in {@code null} being returned.
      */
@@ -364,7 +406,7 @@ public class HttpCueServerClientTest
 
         Integer[] outputLevels = cueServerClient.getOutputLevels();
 
-        assertSame(outputLevels, values);
+        assertThat(Arrays.asList(outputLevels), is(Arrays.asList(values)));
 
         verify(mockedHttpClient).submitHttpGetRequest(urlCaptor.capture());
         assertThat(urlCaptor.getValue(), is(testUrl + ":80/get.cgi/?req=OUT"));
@@ -1124,6 +1166,238 @@ public class HttpCueServerClientTest
         HttpCueServerClient.unsignedIntToInt(new Integer[0], 1);
     }
 
+    /**
+     * A snapshot reads every part at the same time and decodes each of them.
+     */
+    @Test
+    public void getSnapshot()
+    {
+        String getUrl = testUrl + ":80/get.cgi/?req=";
+        Integer[] levels = zeroArray(512);
+        levels[0] = 255;
+        when(mockedHttpClient.submitHttpGetRequest(getUrl + "SI"))
+                .thenReturn(zeroArray(78));
+        when(mockedHttpClient.submitHttpGetRequest(getUrl + "PS"))
+                .thenReturn(zeroArray(48));
+        when(mockedHttpClient.submitHttpGetRequest(startsWith(getUrl + "PI")))
+                .thenReturn(zeroArray(96));
+        when(mockedHttpClient.submitHttpGetRequest(getUrl + "OUT"))
+                .thenReturn(levels);
+
+        long before = System.currentTimeMillis();
+        DeviceSnapshot snapshot = cueServerClient.getSnapshot();
+
+        assertThat(snapshot.isComplete(), is(true));
+        assertThat(snapshot.getPlaybackStatus().getPlaybackCount(), is(4));
+        assertThat(snapshot.getOutputLevels()[0], is(255));
+        for(Playback playback : Playback.values())
+        {
+            assertThat(snapshot.getDetailedPlaybackStatus(playback)
+                    .getPlayback(), is(playback));
+            verify(mockedHttpClient).submitHttpGetRequest(
+                    getUrl + "PI&id=" + playback.getPlaybackId());
+        }
+        assertThat(snapshot.getSystemInfoTime() >= before, is(true));
+        assertThat(snapshot.getOutputLevelsTime() >= before, is(true));
+    }
+
+    /**
+     * A part that cannot be read is left out of the snapshot.
+     */
+    @Test
+    public void getSnapshotPartFails()
+    {
+        String getUrl = testUrl + ":80/get.cgi/?req=";
+        when(mockedHttpClient.submitHttpGetRequest(getUrl + "PS"))
+                .thenReturn(zeroArray(48));
+
+        DeviceSnapshot snapshot = cueServerClient.getSnapshot();
+
+        assertThat(snapshot.isComplete(), is(false));
+        assertThat(snapshot.getPlaybackStatus().getPlaybackCount(), is(4));
+        assertThat(snapshot.getSystemInfo(), nullValue());
+        assertThat(snapshot.getSystemInfoTime(), is(0L));
+        assertThat(snapshot.getOutputLevels(), nullValue());
+        assertThat(snapshot.getCaptureSpreadMillis(), is(0L));
+    }
+
+    /**
+     * A pipelining transport reads the whole snapshot in one group, and each
+     * part is timed when its own reply arrived.
+     */
+    @Test
+    public void getSnapshotPipelined()
+    {
+        String getUrl = testUrl + ":80/get.cgi/?req=";
+        PipeliningHttpTransport transport =
+                mock(PipeliningHttpTransport.class);
+        when(transport.submitPipelined(anyListOf(String.class),
+                any(long[].class))).thenAnswer(new Answer<List<Integer[]>>()
+        {
+            @Override
+            public List<Integer[]> answer(InvocationOnMock invocation)
+            {
+                long[] times = (long[]) invocation.getArguments()[1];
+                for(int index = 0 ; index < times.length ; index++)
+                {
+                    times[index] = 1000 + index;
+                }
+                return Arrays.asList(zeroArray(78), zeroArray(48),
+                        zeroArray(96), zeroArray(96), zeroArray(96),
+                        zeroArray(96), zeroArray(512));
+            }
+        });
+        HttpCueServerClient client =
+                new HttpCueServerClient(testUrl, 80, transport);
+
+        DeviceSnapshot snapshot = client.getSnapshot();
+
+        assertThat(snapshot.isComplete(), is(true));
+        assertThat(snapshot.getCaptureSpreadMillis(), is(6L));
+        verify(transport).submitPipelined(urlsCaptor.capture(),
+                any(long[].class));
+        assertThat(urlsCaptor.getValue(), is(Arrays.asList(
+                getUrl + "SI", getUrl + "PS", getUrl + "PI&id=1",
+                getUrl + "PI&id=2", getUrl + "PI&id=3", getUrl + "PI&id=4",
+                getUrl + "OUT")));
+        verify(transport, never()).submitHttpGetRequest(anyString());
+    }
+
+    /**
+     * Universes after the first are read with their id and stored in the
+     * output buffer.
+     */
+    @Test
+    public void getOutputLevelsUniverse()
+    {
+        HttpCueServerClient client = new HttpCueServerClient(testUrl, 80,
+                mockedHttpClient, 2);
+        String outUrl = testUrl + ":80/get.cgi/?req=OUT";
+        Integer[] values = zeroArray(512);
+        values[511] = 7;
+        when(mockedHttpClient.submitHttpGetRequest(outUrl + "&id=2"))
+                .thenReturn(values);
+
+        assertThat(Arrays.asList(client.getOutputLevels(2)),
+                is(Arrays.asList(values)));
+        assertThat(client.getOutputBuffer().getLevel(2, 512), is(7));
+        assertThat(client.getOutputBuffer().getVersion(1), is(0L));
+        assertThat(client.getOutputBuffer().getVersion(2), is(1L));
+
+        client.getOutputLevels(2);
+        ArgumentCaptor<String> urlCaptor =
+                ArgumentCaptor.forClass(String.class);
+        verify(mockedHttpClient, times(2)).submitHttpGetRequest(
+                urlCaptor.capture());
+        assertThat(urlCaptor.getAllValues(), is(Arrays.asList(
+                outUrl + "&id=2", outUrl + "&id=2")));
+    }
+
+    /**
+     * A universe the client does not drive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void getOutputLevelsInvalidUniverse()
+    {
+        cueServerClient.getOutputLevels(2);
+    }
+
+    /**
+     * More than the maximum number of universes will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorTooManyUniverses()
+    {
+        new HttpCueServerClient(testUrl, 80, mockedHttpClient,
+                HttpCueServerClient.MAX_UNIVERSE_COUNT + 1);
+    }
+
+    /**
+     * Channels of later universes follow those of universe 1.
+     */
+    @Test
+    public void setChannelUniverse()
+    {
+        HttpCueServerClient client = new HttpCueServerClient(testUrl, 80,
+                mockedHttpClient, 3);
+        ArgumentCaptor<String> urlCaptor =
+                ArgumentCaptor.forClass(String.class);
+
+        client.setChannel(2, 1, 255, 0, Playback.PLAYBACK_1);
+        client.setChannelRange(3, 1, 512, 10, 0, Playback.PLAYBACK_2);
+        client.setChannel(1536, 1);
+
+        verify(mockedHttpClient, times(3)).submitHttpGetRequest(
+                urlCaptor.capture());
+        assertThat(urlCaptor.getAllValues(), is(Arrays.asList(
+                cmdUrl + "T+0.0+P1+C+513+A+%23255",
+                cmdUrl + "T+0.0+P2+C+1025%3E1536+A%2310",
+                cmdUrl + "T+0.0+P1+C+1536+A+%231")));
+    }
+
+    /**
+     * A channel of a universe beyond 512 will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void setChannelUniverseInvalidChannel()
+    {
+        new HttpCueServerClient(testUrl, 80, mockedHttpClient, 2)
+                .setChannel(1, 513, 0, 0, Playback.PLAYBACK_1);
+    }
+
+    /**
+     * Reads within the freshness window share one request, and each caller
+     * receives its own copy of the output levels, independent of the others
+     * and of the copy the listeners receive.
+     */
+    @Test
+    public void readFreshness()
+    {
+        when(mockedHttpClient.submitHttpGetRequest(anyString()))
+                .thenReturn(zeroArray(512));
+        CueServerListener listener = mock(CueServerListener.class);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+            {
+                ((Integer[]) invocation.getArguments()[0])[0] = 99;
+                return null;
+            }
+        }).when(listener).outputLevelsRead(any(Integer[].class));
+        cueServerClient.addListener(listener);
+        cueServerClient.setReadFreshness(1, TimeUnit.MINUTES);
+
+        Integer[] first = cueServerClient.getOutputLevels();
+        first[1] = 42;
+        Integer[] second = cueServerClient.getOutputLevels();
+
+        assertThat(first[0], is(0));
+        assertThat(second[0], is(0));
+        assertThat(second[1], is(0));
+        verify(listener).outputLevelsRead(any(Integer[].class));
+        verify(mockedHttpClient).submitHttpGetRequest(anyString());
+    }
+
+    /**
+     * A command ends the sharing of fresh reads.
+     */
+    @Test
+    public void commandInvalidatesReads()
+    {
+        String outUrl = testUrl + ":80/get.cgi/?req=OUT";
+        when(mockedHttpClient.submitHttpGetRequest(anyString()))
+                .thenReturn(zeroArray(512));
+        cueServerClient.setReadFreshness(1, TimeUnit.MINUTES);
+
+        cueServerClient.getOutputLevels();
+        cueServerClient.getOutputLevels();
+        cueServerClient.setChannel(1, 255);
+        cueServerClient.getOutputLevels();
+
+        verify(mockedHttpClient, times(2)).submitHttpGetRequest(outUrl);
+    }
+
     /**
      * Helper method to assert {@link PlaybackInfo}.
      *
@@ -1180,4 +1454,17 @@ public class HttpCueServerClientTest
             index++;
         }
     }
+
+    /**
+     * Helper method to create an array of zeros.
+     *
+     * @param length the length of the array.
+     * @return the array.
+     */
+    private static Integer[] zeroArray(int length)
+    {
+        Integer[] array = new Integer[length];
+        Arrays.fill(array, 0);
+        return array;
+    }
 }
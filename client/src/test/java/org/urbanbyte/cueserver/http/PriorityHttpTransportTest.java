@@ -0,0 +1,198 @@
+package org.urbanbyte.cueserver.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.urbanbyte.cueserver.TestWait;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link PriorityHttpTransport} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class PriorityHttpTransportTest
+{
+    /** A read URL. */
+    private static final String READ_URL = "http://host:80/get.cgi/?req=PS";
+
+    /** A channel command URL. */
+    private static final String SET_URL =
+            "http://host:80/exe.cgi/?cmd=T+0+P1+C+1+A+%23255";
+
+    /** A cue trigger URL. */
+    private static final String GO_URL =
+            "http://host:80/exe.cgi/?cmd=P+1+Q+5+GO";
+
+    /** Mocked transport. */
+    private HttpTransport delegate;
+
+    /** Transport being tested. */
+    private PriorityHttpTransport transport;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        delegate = mock(HttpTransport.class);
+    }
+
+    /**
+     * Cleanup after tests.
+     */
+    @After
+    public void teardownTest()
+    {
+        if(transport != null)
+        {
+            transport.shutdown();
+        }
+    }
+
+    /**
+     * Requests are classified by what they do.
+     */
+    @Test
+    public void classify()
+    {
+        assertThat(PriorityHttpTransport.classify(READ_URL),
+                is(RequestPriority.LOW));
+        assertThat(PriorityHttpTransport.classify(SET_URL),
+                is(RequestPriority.NORMAL));
+        assertThat(PriorityHttpTransport.classify(GO_URL),
+                is(RequestPriority.HIGH));
+        assertThat(PriorityHttpTransport.classify(
+                "http://host:80/exe.cgi/?cmd=P+2+CL"),
+                is(RequestPriority.HIGH));
+        assertThat(PriorityHttpTransport.classify(SET_URL + "%3BP+1+CL"),
+                is(RequestPriority.HIGH));
+    }
+
+    /**
+     * Queued requests are sent in priority order, then in submission order.
+     *
+     * @throws InterruptedException if the test is interrupted.
+     */
+    @Test
+    public void priorityOrder() throws InterruptedException
+    {
+        final List<String> sent =
+                Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        when(delegate.submitHttpGetRequest(anyString())).thenAnswer(
+                new Answer<Integer[]>()
+                {
+                    @Override
+                    public Integer[] answer(InvocationOnMock invocation)
+                            throws Throwable
+                    {
+                        String url = (String) invocation.getArguments()[0];
+                        sent.add(url);
+                        if(sent.size() == 1)
+                        {
+                            started.countDown();
+                            release.await(5, TimeUnit.SECONDS);
+                        }
+                        return new Integer[]{sent.size()};
+                    }
+                });
+        transport = new PriorityHttpTransport(delegate, 1000, 100);
+
+        // the first request holds the worker while the others queue up
+        List<Thread> threads = new ArrayList<Thread>();
+        threads.add(submit(READ_URL));
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        for(String url : Arrays.asList(READ_URL, SET_URL, SET_URL + "2",
+                GO_URL))
+        {
+            threads.add(submit(url));
+            final int queued = threads.size() - 1;
+            TestWait.until(queued + " queued requests",
+                    new TestWait.Condition()
+                    {
+                        @Override
+                        public boolean isMet()
+                        {
+                            return transport.getQueueLength() >= queued;
+                        }
+                    });
+        }
+        release.countDown();
+        for(Thread thread : threads)
+        {
+            thread.join(5000);
+        }
+
+        assertThat(sent, is(Arrays.asList(READ_URL, GO_URL, SET_URL,
+                SET_URL + "2", READ_URL)));
+    }
+
+    /**
+     * Requests are not sent faster than the rate once the burst is spent.
+     */
+    @Test
+    public void rateLimited()
+    {
+        when(delegate.submitHttpGetRequest(anyString()))
+                .thenReturn(new Integer[]{1});
+        transport = new PriorityHttpTransport(delegate, 20, 1);
+
+        long start = System.nanoTime();
+        for(int i = 0 ; i < 5 ; i++)
+        {
+            assertThat(transport.submitHttpGetRequest(SET_URL)[0], is(1));
+        }
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // the first request uses the burst, the other four wait 50 ms each
+        assertThat(elapsed + " ms", elapsed >= 190, is(true));
+    }
+
+    /**
+     * Requests submitted after a shutdown return {@code null}.
+     */
+    @Test
+    public void shutdownReturnsNull()
+    {
+        transport = new PriorityHttpTransport(delegate, 10, 1);
+        transport.shutdown();
+        assertThat(transport.submitHttpGetRequest(READ_URL) == null, is(true));
+    }
+
+    /**
+     * Submits a request on a new thread.
+     *
+     * @param url the URL to submit.
+     * @return the started thread.
+     */
+    private Thread submit(final String url)
+    {
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                transport.submitHttpGetRequest(url);
+            }
+        });
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,370 @@
+package org.urbanbyte.cueserver.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the {@link RawHttpTransport} class against a local server.
+ * <p>
+ * author: Chris Reising
+ */
+public class RawHttpTransportTest
+{
+    /** The local server. */
+    private ServerSocket server;
+
+    /** The number of connections the server accepted. */
+    private final AtomicInteger connections = new AtomicInteger();
+
+    /** The base URL of the local server. */
+    private String baseUrl;
+
+    /** Transport being tested. */
+    private RawHttpTransport transport;
+
+    /**
+     * Starts the local server.
+     *
+     * @throws IOException if the server could not be started.
+     */
+    @Before
+    public void setupTest() throws IOException
+    {
+        server = new ServerSocket(0);
+        baseUrl = "http://127.0.0.1:" + server.getLocalPort();
+        transport = new RawHttpTransport(1000, 1000);
+
+        Thread acceptor = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * Stops the local server.
+     *
+     * @throws IOException if the server could not be stopped.
+     */
+    @After
+    public void teardownTest() throws IOException
+    {
+        transport.close();
+        server.close();
+    }
+
+    /**
+     * Replies with a content length are read and the connection is reused.
+     */
+    @Test
+    public void contentLengthKeepAlive()
+    {
+        for(int i = 0 ; i < 3 ; i++)
+        {
+            Integer[] reply = transport.submitHttpGetRequest(
+                    baseUrl + "/get.cgi/?req=PS");
+            assertThat(reply.length, is(3));
+            assertThat(reply[0], is(1));
+            assertThat(reply[2], is(255));
+        }
+        assertThat(connections.get(), is(1));
+    }
+
+    /**
+     * Chunked replies are read.
+     */
+    @Test
+    public void chunked()
+    {
+        Integer[] reply = transport.submitHttpGetRequest(baseUrl + "/chunked");
+        assertThat(reply.length, is(3));
+        assertThat(reply[2], is(3));
+    }
+
+    /**
+     * Replies that end when the connection closes are read and the
+     * connection is not reused.
+     */
+    @Test
+    public void closeDelimited()
+    {
+        for(int i = 0 ; i < 2 ; i++)
+        {
+            Integer[] reply = transport.submitHttpGetRequest(
+                    baseUrl + "/exe.cgi/?cmd=close");
+            assertThat(reply.length, is(2));
+        }
+        assertThat(connections.get(), is(2));
+    }
+
+    /**
+     * Pipelined reads are answered in order on a single connection.
+     */
+    @Test
+    public void pipelined()
+    {
+        String url = baseUrl + "/get.cgi/?req=PS";
+        List<Integer[]> replies = transport.submitPipelined(
+                Arrays.asList(url, baseUrl + "/get.cgi/?req=chunked", url));
+
+        assertThat(replies.size(), is(3));
+        assertThat(replies.get(0)[2], is(255));
+        assertThat(replies.get(1)[2], is(3));
+        assertThat(replies.get(2)[2], is(255));
+        assertThat(connections.get(), is(1));
+        assertThat(transport.isPipeliningSupported(url), is(true));
+    }
+
+    /**
+     * A server that closes the connection after the first pipelined reply
+     * disables pipelining, and the remaining reads are sent one at a time.
+     * Each reply is timed when it arrives.
+     */
+    @Test
+    public void pipelinedFallback()
+    {
+        String url = baseUrl + "/get.cgi/?req=close";
+        long[] arrivalTimes = new long[3];
+        long before = System.currentTimeMillis();
+        List<Integer[]> replies = transport.submitPipelined(
+                Arrays.asList(url, url, url), arrivalTimes);
+
+        assertThat(replies.size(), is(3));
+        for(int index = 0 ; index < replies.size() ; index++)
+        {
+            assertThat(replies.get(index).length, is(2));
+            assertThat(arrivalTimes[index] >= before, is(true));
+        }
+        assertThat(transport.isPipeliningSupported(url), is(false));
+        assertThat(connections.get(), is(3));
+    }
+
+    /**
+     * A server that never answers a pipelined group disables pipelining once
+     * the group times out, and the reads are sent one at a time.
+     */
+    @Test
+    public void pipelinedTimeout()
+    {
+        String url = baseUrl + "/get.cgi/?req=stall";
+        List<Integer[]> replies = transport.submitPipelined(
+                Arrays.asList(url, url));
+
+        assertThat(replies.size(), is(2));
+        for(Integer[] reply : replies)
+        {
+            assertThat(reply.length, is(3));
+        }
+        assertThat(transport.isPipeliningSupported(url), is(false));
+    }
+
+    /**
+     * Commands cannot be pipelined.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void pipelinedCommandException()
+    {
+        transport.submitPipelined(Arrays.asList(
+                baseUrl + "/get.cgi/?req=PS", baseUrl + "/exe.cgi/?cmd=GO"));
+    }
+
+    /**
+     * A reply with an error status is a failure.
+     */
+    @Test
+    public void errorStatus()
+    {
+        assertThat(transport.submitHttpGetRequest(
+                baseUrl + "/get.cgi/?req=missing"), nullValue());
+    }
+
+    /**
+     * Connections are not pooled once the transport was closed.
+     */
+    @Test
+    public void closedNotPooled()
+    {
+        transport.close();
+        for(int i = 0 ; i < 2 ; i++)
+        {
+            Integer[] reply = transport.submitHttpGetRequest(
+                    baseUrl + "/get.cgi/?req=PS");
+            assertThat(reply.length, is(3));
+        }
+        assertThat(connections.get(), is(2));
+    }
+
+    /**
+     * A read that cannot connect returns {@code null}.
+     *
+     * @throws IOException if the server could not be closed.
+     */
+    @Test
+    public void connectFailure() throws IOException
+    {
+        // a socket without an acceptor, so the close cannot race an accept
+        ServerSocket closed = new ServerSocket(0);
+        closed.close();
+        assertThat(transport.submitHttpGetRequest("http://127.0.0.1:" +
+                closed.getLocalPort() + "/get.cgi/?req=PS"), nullValue());
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    private void accept()
+    {
+        while(!server.isClosed())
+        {
+            try
+            {
+                final Socket socket = server.accept();
+                connections.incrementAndGet();
+                Thread handler = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        serve(socket);
+                    }
+                });
+                handler.setDaemon(true);
+                handler.start();
+            }
+            catch (IOException e)
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers the requests on a connection.
+     *
+     * @param socket the connection.
+     */
+    private static void serve(Socket socket)
+    {
+        try
+        {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String request = readRequest(in);
+            while(request != null)
+            {
+                if(request.contains("stall") && isPipelined(socket))
+                {
+                    while(in.read() >= 0)
+                    {
+                        // ignore pipelined requests until the client closes
+                    }
+                    socket.close();
+                    return;
+                }
+                else if(request.contains("chunked"))
+                {
+                    out.write(("HTTP/1.1 200 OK\r\n" +
+                            "Transfer-Encoding: chunked\r\n\r\n" +
+                            "2\r\n\u0001\u0002\r\n1\r\n\u0003\r\n" +
+                            "0\r\n\r\n").getBytes("ISO-8859-1"));
+                }
+                else if(request.contains("missing"))
+                {
+                    out.write(("HTTP/1.1 404 Not Found\r\n" +
+                            "Content-Length: 2\r\n\r\nno").getBytes("ASCII"));
+                }
+                else if(request.contains("close"))
+                {
+                    out.write("HTTP/1.0 200 OK\r\n\r\nok".getBytes("ASCII"));
+                    socket.shutdownOutput();
+                    while(in.read() >= 0)
+                    {
+                        // discard pipelined requests until the client closes
+                    }
+                    socket.close();
+                    return;
+                }
+                else
+                {
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Length: 3\r\n" +
+                            "\r\n\u0001\u0002\u00ff")
+                            .getBytes("ISO-8859-1"));
+                }
+                out.flush();
+                request = readRequest(in);
+            }
+            socket.close();
+        }
+        catch (IOException e)
+        {
+            // the client closed the connection
+        }
+    }
+
+    /**
+     * Checks if another request follows the one that was read, consuming
+     * its first byte if it does.
+     *
+     * @param socket the connection.
+     * @return {@code true} if more data arrived within 50 ms of the request.
+     * @throws IOException if the stream could not be read.
+     */
+    private static boolean isPipelined(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(50);
+        try
+        {
+            return socket.getInputStream().read() >= 0;
+        }
+        catch (SocketTimeoutException e)
+        {
+            return false;
+        }
+        finally
+        {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    /**
+     * Reads a request up to the blank line after its headers.
+     *
+     * @param in the stream to read.
+     * @return the request, or {@code null} at the end of the stream.
+     * @throws IOException if the request could not be read.
+     */
+    private static String readRequest(InputStream in) throws IOException
+    {
+        StringBuilder request = new StringBuilder();
+        while(!request.toString().endsWith("\r\n\r\n"))
+        {
+            int read = in.read();
+            if(read < 0)
+            {
+                return null;
+            }
+            request.append((char) read);
+        }
+        return request.toString();
+    }
+}
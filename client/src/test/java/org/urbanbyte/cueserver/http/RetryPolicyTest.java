@@ -0,0 +1,98 @@
+package org.urbanbyte.cueserver.http;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the {@link RetryPolicy} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class RetryPolicyTest
+{
+    /**
+     * The backoff doubles for each attempt, stays within its jitter and is
+     * capped at the maximum.
+     */
+    @Test
+    public void backoffDoublesWithJitter()
+    {
+        RetryPolicy policy = new RetryPolicy.Builder()
+                .setInitialBackoffMillis(10)
+                .setMaxBackoffMillis(50)
+                .build();
+        Random random = new Random(1);
+
+        for(int i = 0 ; i < 100 ; i++)
+        {
+            assertBetween(policy.getBackoffMillis(1, random), 5, 10);
+            assertBetween(policy.getBackoffMillis(2, random), 10, 20);
+            assertBetween(policy.getBackoffMillis(3, random), 20, 40);
+            assertBetween(policy.getBackoffMillis(4, random), 25, 50);
+            assertBetween(policy.getBackoffMillis(30, random), 25, 50);
+        }
+    }
+
+    /**
+     * The default policy retries reads but never commands.
+     */
+    @Test
+    public void defaultPolicy()
+    {
+        RetryPolicy policy = RetryPolicy.DEFAULT;
+        assertThat(policy.shouldRetry(true, 1, new IOException()), is(true));
+        assertThat(policy.shouldRetry(true, 3, new IOException()), is(false));
+        assertThat(policy.shouldRetry(false, 1, new ConnectException()),
+                is(false));
+    }
+
+    /**
+     * The policy that never retries.
+     */
+    @Test
+    public void nonePolicy()
+    {
+        assertThat(RetryPolicy.NONE.shouldRetry(true, 1, new IOException()),
+                is(false));
+    }
+
+    /**
+     * An attempt count that is not positive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroAttemptsException()
+    {
+        new RetryPolicy.Builder().setMaxReadAttempts(0).build();
+    }
+
+    /**
+     * A maximum backoff below the initial backoff will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void maxBackoffException()
+    {
+        new RetryPolicy.Builder()
+                .setInitialBackoffMillis(100)
+                .setMaxBackoffMillis(10)
+                .build();
+    }
+
+    /**
+     * Checks that a value is within a range.
+     *
+     * @param value the value.
+     * @param min the lowest allowed value.
+     * @param max the highest allowed value.
+     */
+    private static void assertBetween(long value, long min, long max)
+    {
+        assertThat(value + " >= " + min, value >= min, is(true));
+        assertThat(value + " <= " + max, value <= max, is(true));
+    }
+}
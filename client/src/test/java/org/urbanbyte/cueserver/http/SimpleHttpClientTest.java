@@ -8,8 +8,16 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import org.apache.http.conn.ConnectTimeoutException;
+
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
@@ -180,6 +188,158 @@ public class SimpleHttpClientTest
     }
 
 
+    /**
+     * A failed read is retried until it succeeds.
+     * @throws IOException will not occur since the objects are mocked.
+     */
+    @Test
+    public void readRetried() throws IOException
+    {
+        wrapper = new SimpleHttpClient(mockedClient, noBackoff()
+                .setMaxReadAttempts(3)
+                .build());
+        when(mockedClient.execute(any(HttpGet.class)))
+                .thenThrow(new IOException())
+                .thenThrow(new IOException())
+                .thenReturn(mockedResponse);
+        when(mockedResponse.getEntity()).thenReturn(mockedEntity);
+        when(mockedEntity.getContent()).thenReturn(mockedStream);
+        when(mockedStream.read()).thenReturn(7).thenReturn(-1);
+
+        Integer[] result = wrapper.submitHttpGetRequest(
+                "http://host:80/get.cgi/?req=PS");
+
+        assertThat(result[0], is(7));
+        verify(mockedClient, times(3)).execute(any(HttpGet.class));
+    }
+
+    /**
+     * A read is not attempted more than the maximum number of times.
+     * @throws IOException will not occur since the objects are mocked.
+     */
+    @Test
+    public void readRetryLimit() throws IOException
+    {
+        wrapper = new SimpleHttpClient(mockedClient, noBackoff()
+                .setMaxReadAttempts(2)
+                .build());
+        when(mockedClient.execute(any(HttpGet.class)))
+                .thenThrow(new IOException());
+
+        assertThat(wrapper.submitHttpGetRequest(
+                "http://host:80/get.cgi/?req=PS"), nullValue());
+        verify(mockedClient, times(2)).execute(any(HttpGet.class));
+    }
+
+    /**
+     * Commands are sent at most once by default, even if the connection
+     * could not be opened.
+     * @throws IOException will not occur since the objects are mocked.
+     */
+    @Test
+    public void commandNotRetried() throws IOException
+    {
+        wrapper = new SimpleHttpClient(mockedClient, noBackoff().build());
+        when(mockedClient.execute(any(HttpGet.class)))
+                .thenThrow(new ConnectException());
+
+        assertThat(wrapper.submitHttpGetRequest(
+                "http://host:80/exe.cgi/?cmd=GO"), nullValue());
+        verify(mockedClient).execute(any(HttpGet.class));
+    }
+
+    /**
+     * Commands may be retried when the connection could not be opened, but
+     * not after the request may have reached the server.
+     * @throws IOException will not occur since the objects are mocked.
+     */
+    @Test
+    public void commandRetriedOnConnectFailure() throws IOException
+    {
+        wrapper = new SimpleHttpClient(mockedClient, noBackoff()
+                .setCommandRetryMode(CommandRetryMode.RETRY_ON_CONNECT_FAILURE)
+                .setMaxCommandAttempts(5)
+                .build());
+        when(mockedClient.execute(any(HttpGet.class)))
+                .thenThrow(new ConnectException())
+                .thenThrow(new ConnectTimeoutException())
+                .thenThrow(new IOException())
+                .thenReturn(mockedResponse);
+
+        assertThat(wrapper.submitHttpGetRequest(
+                "http://host:80/exe.cgi/?cmd=GO"), nullValue());
+        verify(mockedClient, times(3)).execute(any(HttpGet.class));
+    }
+
+    /**
+     * A command whose connection fails after the request was sent is not sent
+     * again by the default client.
+     *
+     * @throws Exception if the server could not be started.
+     */
+    @Test
+    public void commandNotResent() throws Exception
+    {
+        final ServerSocket server = new ServerSocket(0);
+        final AtomicInteger requests = new AtomicInteger();
+        Thread acceptor = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while(true)
+                    {
+                        Socket socket = server.accept();
+                        // read the request, then close without replying
+                        BufferedReader reader = new BufferedReader(
+                                new InputStreamReader(
+                                        socket.getInputStream(), "US-ASCII"));
+                        String line = reader.readLine();
+                        while(line != null && !line.isEmpty())
+                        {
+                            line = reader.readLine();
+                        }
+                        requests.incrementAndGet();
+                        socket.close();
+                    }
+                }
+                catch (IOException e)
+                {
+                    // the server was closed
+                }
+            }
+        };
+        acceptor.start();
+
+        try
+        {
+            SimpleHttpClient client = new SimpleHttpClient();
+            assertThat(client.submitHttpGetRequest("http://127.0.0.1:" +
+                    server.getLocalPort() + "/exe.cgi/?cmd=GO"), nullValue());
+            // a retry would have been counted before its connection closed
+            assertThat(requests.get(), is(1));
+        }
+        finally
+        {
+            server.close();
+            acceptor.join(1000);
+        }
+    }
+
+    /**
+     * Creates a retry policy builder that does not wait between attempts.
+     *
+     * @return Never {@code null}.
+     */
+    private static RetryPolicy.Builder noBackoff()
+    {
+        return new RetryPolicy.Builder()
+                .setInitialBackoffMillis(0)
+                .setMaxBackoffMillis(0);
+    }
+
     /**
      * Passing a {@code null} stream into the close method will not cause an
      * exception.
@@ -0,0 +1,321 @@
+package org.urbanbyte.cueserver.http;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.TestWait;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests the {@link SingleFlight} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class SingleFlightTest
+{
+    /** The current time of the ticker. */
+    private long now;
+
+    /** Counts the reads that ran. */
+    private AtomicInteger readCount;
+
+    /** Collapses the reads being tested. */
+    private SingleFlight<String, String> flight;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        now = 0;
+        readCount = new AtomicInteger();
+        flight = new SingleFlight<String, String>(new Ticker()
+        {
+            @Override
+            public long read()
+            {
+                return now;
+            }
+        });
+    }
+
+    /**
+     * Callers that arrive while a read is in flight share its result.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void concurrentCallersShareRead() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<String> read = new Supplier<String>()
+        {
+            @Override
+            public String get()
+            {
+                readCount.incrementAndGet();
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                return "status";
+            }
+        };
+        Callable<String> caller = new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return flight.execute("PS", read);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            Future<String> first = executor.submit(caller);
+            assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+            Future<String> second = executor.submit(caller);
+            Future<String> third = executor.submit(caller);
+            waitForWaiters(2);
+            release.countDown();
+
+            assertThat(first.get(5, TimeUnit.SECONDS), is("status"));
+            assertThat(second.get(5, TimeUnit.SECONDS), is("status"));
+            assertThat(third.get(5, TimeUnit.SECONDS), is("status"));
+            assertThat(readCount.get(), is(1));
+            assertThat(flight.size(), is(0));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Without a freshness window, sequential callers each read.
+     */
+    @Test
+    public void sequentialCallersRead()
+    {
+        flight.execute("PS", counting("a"));
+        flight.execute("PS", counting("b"));
+
+        assertThat(readCount.get(), is(2));
+    }
+
+    /**
+     * Results are shared within the freshness window only.
+     */
+    @Test
+    public void freshnessWindow()
+    {
+        flight.setFreshness(100, TimeUnit.NANOSECONDS);
+
+        assertThat(flight.execute("PS", counting("a")), is("a"));
+        now = 99;
+        assertThat(flight.execute("PS", counting("b")), is("a"));
+        now = 100;
+        assertThat(flight.execute("PS", counting("c")), is("c"));
+        assertThat(flight.execute("OUT", counting("d")), is("d"));
+
+        assertThat(readCount.get(), is(3));
+    }
+
+    /**
+     * Failed reads are never kept.
+     */
+    @Test
+    public void failedReadsNotKept()
+    {
+        flight.setFreshness(100, TimeUnit.NANOSECONDS);
+
+        assertThat(flight.execute("PS", counting(null)), nullValue());
+        assertThat(flight.execute("PS", counting("a")), is("a"));
+        assertThat(readCount.get(), is(2));
+    }
+
+    /**
+     * An exception thrown by a read reaches the caller and is not kept.
+     */
+    @Test
+    public void exceptionPropagated()
+    {
+        flight.setFreshness(100, TimeUnit.NANOSECONDS);
+        try
+        {
+            flight.execute("PS", new Supplier<String>()
+            {
+                @Override
+                public String get()
+                {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail("the exception was not propagated");
+        }
+        catch (IllegalStateException e)
+        {
+            assertThat(e.getMessage(), is("failed"));
+        }
+
+        assertThat(flight.size(), is(0));
+    }
+
+    /**
+     * An error thrown by a read completes the flight, so callers waiting for
+     * it do not hang.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void errorCompletesFlight() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Supplier<String> read = new Supplier<String>()
+        {
+            @Override
+            public String get()
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                throw new OutOfMemoryError("failed");
+            }
+        };
+        Callable<String> caller = new Callable<String>()
+        {
+            @Override
+            public String call()
+            {
+                return flight.execute("PS", read);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try
+        {
+            Future<String> first = executor.submit(caller);
+            assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+            Future<String> second = executor.submit(caller);
+            waitForWaiters(1);
+            release.countDown();
+
+            assertError(first);
+            assertError(second);
+            assertThat(flight.size(), is(0));
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Invalidated reads are not shared with later callers.
+     */
+    @Test
+    public void invalidateAll()
+    {
+        flight.setFreshness(100, TimeUnit.NANOSECONDS);
+
+        assertThat(flight.execute("PS", counting("a")), is("a"));
+        flight.invalidateAll();
+        assertThat(flight.size(), is(0));
+        assertThat(flight.execute("PS", counting("b")), is("b"));
+        assertThat(readCount.get(), is(2));
+    }
+
+    /**
+     * A negative freshness window will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void negativeFreshness()
+    {
+        flight.setFreshness(-1, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks that a caller received the error of a read.
+     *
+     * @param future the result of the caller.
+     * @throws Exception if the caller did not complete.
+     */
+    private static void assertError(Future<String> future) throws Exception
+    {
+        try
+        {
+            future.get(5, TimeUnit.SECONDS);
+            fail("the error was not propagated");
+        }
+        catch (ExecutionException e)
+        {
+            assertThat(e.getCause(), instanceOf(OutOfMemoryError.class));
+        }
+    }
+
+    /**
+     * Creates a read that counts itself and returns a value.
+     *
+     * @param value the value to return.
+     * @return the read.
+     */
+    private Supplier<String> counting(final String value)
+    {
+        return new Supplier<String>()
+        {
+            @Override
+            public String get()
+            {
+                readCount.incrementAndGet();
+                return value;
+            }
+        };
+    }
+
+    /**
+     * Waits until callers have joined the read in flight.
+     *
+     * @param count the number of callers.
+     */
+    private void waitForWaiters(final int count)
+    {
+        TestWait.until(count + " waiting callers", new TestWait.Condition()
+        {
+            @Override
+            public boolean isMet()
+            {
+                return flight.getWaiterCount("PS") == count;
+            }
+        });
+    }
+}
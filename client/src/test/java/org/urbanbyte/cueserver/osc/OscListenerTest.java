@@ -0,0 +1,300 @@
+package org.urbanbyte.cueserver.osc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link OscListener} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class OscListenerTest
+{
+    /** Mocked client of the CueServer. */
+    private HttpCueServerClient client;
+
+    /** Mocked batch the levels are added to. */
+    private CommandBatch batch;
+
+    /** The listener being tested. */
+    private OscListener listener;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        client = mock(HttpCueServerClient.class);
+        batch = mock(CommandBatch.class);
+        when(client.getUniverseCount()).thenReturn(2);
+        when(client.newBatch()).thenReturn(batch);
+        when(batch.submit()).thenReturn(1);
+
+        listener = new OscListener(client, Playback.PLAYBACK_2);
+    }
+
+    /**
+     * Stops the listener.
+     */
+    @After
+    public void teardown()
+    {
+        listener.stop();
+    }
+
+    /**
+     * Fader messages only keep the latest level of each channel, and the
+     * channels are sent once per frame.
+     */
+    @Test
+    public void coalesceFaders()
+    {
+        for(int level = 0 ; level <= 200 ; level++)
+        {
+            assertThat(listener.handle(message("/cs/ch/12", level)),
+                    is(true));
+        }
+        listener.handle(message("/cs/ch/13", 1.0f));
+        listener.handle(message("/cs/range/600/602", 0.5f));
+
+        assertThat(listener.flush(), is(1));
+        verify(batch).setLevels(12, new byte[]{(byte) 200, (byte) 255}, 0,
+                Playback.PLAYBACK_2);
+        verify(batch).setLevels(600, new byte[]{(byte) 128, (byte) 128,
+                (byte) 128}, 0, Playback.PLAYBACK_2);
+        verify(batch, times(1)).submit();
+        assertThat(listener.getRequestCount(), is(1L));
+    }
+
+    /**
+     * Frames without fader messages send nothing.
+     */
+    @Test
+    public void emptyFrame()
+    {
+        listener.handle(message("/cs/ch/1", 10));
+        listener.flush();
+
+        assertThat(listener.flush(), is(0));
+        verify(batch, times(1)).submit();
+    }
+
+    /**
+     * Levels out of bounds are clamped.
+     */
+    @Test
+    public void clampLevels()
+    {
+        listener.handle(message("/cs/ch/1", 300));
+        listener.handle(message("/cs/ch/2", -5));
+        listener.handle(message("/cs/ch/3", 2.0f));
+        listener.flush();
+
+        verify(batch).setLevels(1, new byte[]{(byte) 255, 0, (byte) 255}, 0,
+                Playback.PLAYBACK_2);
+    }
+
+    /**
+     * Messages that are not understood are ignored.
+     */
+    @Test
+    public void ignoreInvalidMessages()
+    {
+        assertThat(listener.handle(message("/other/ch/1", 1)), is(false));
+        assertThat(listener.handle(message("/cs/ch/0", 1)), is(false));
+        assertThat(listener.handle(message("/cs/ch/1025", 1)), is(false));
+        assertThat(listener.handle(message("/cs/ch/x", 1)), is(false));
+        assertThat(listener.handle(message("/cs/ch/1")), is(false));
+        assertThat(listener.handle(message("/cs/ch/1", "full")), is(false));
+        assertThat(listener.handle(message("/cs/range/5/4", 1)), is(false));
+        assertThat(listener.handle(message("/cs/pb/9/go", 1)), is(false));
+        assertThat(listener.handle(message("/cs/pb/1/stop")), is(false));
+        assertThat(listener.handle(message("/cs/pb/1/go", 0)), is(false));
+
+        assertThat(listener.flush(), is(0));
+        verify(client, never()).newBatch();
+    }
+
+    /**
+     * Triggers are sent as soon as they are received, in order, and fader
+     * messages are sent with the next frame.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void receiveOverUdp() throws Exception
+    {
+        listener.setFrameRate(50);
+        listener.start(new InetSocketAddress("127.0.0.1", 0));
+        DatagramChannel sender = DatagramChannel.open();
+        try
+        {
+            InetSocketAddress target = new InetSocketAddress("127.0.0.1",
+                    listener.getLocalPort());
+            sender.send(OscPackets.encode("/cs/pb/1/go", 2.5f), target);
+            sender.send(OscPackets.encode("/cs/pb/1/clear"), target);
+            sender.send(OscPackets.encode("/cs/ch/5", 99), target);
+            sender.send(OscPackets.encode("/cs/bogus"), target);
+
+            verify(client, timeout(2000)).clearPlayback(Playback.PLAYBACK_1);
+            verify(batch, timeout(2000)).setLevels(5, new byte[]{99}, 0,
+                    Playback.PLAYBACK_2);
+        }
+        finally
+        {
+            sender.close();
+        }
+        InOrder order = inOrder(client);
+        order.verify(client).playCue(2.5, Playback.PLAYBACK_1);
+        order.verify(client).clearPlayback(Playback.PLAYBACK_1);
+        assertThat(listener.getMessageCount(), is(4L));
+    }
+
+    /**
+     * Triggers are not sent while the listener is stopped.
+     */
+    @Test
+    public void triggerWhenStopped()
+    {
+        assertThat(listener.handle(message("/cs/pb/1/go", 1)), is(false));
+        verify(client, never()).playCue(anyDouble(), any(Playback.class));
+    }
+
+    /**
+     * Fader moves received before a trigger are sent before it, without
+     * waiting for the next frame.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void fadersBeforeTrigger() throws Exception
+    {
+        listener.setFrameRate(0.1);
+        listener.start(new InetSocketAddress("127.0.0.1", 0));
+        listener.handle(message("/cs/ch/5", 99));
+        assertThat(listener.handle(message("/cs/pb/1/go", 3)), is(true));
+
+        verify(client, timeout(2000)).playCue(3, Playback.PLAYBACK_1);
+        InOrder order = inOrder(batch, client);
+        order.verify(batch).setLevels(5, new byte[]{99}, 0,
+                Playback.PLAYBACK_2);
+        order.verify(batch).submit();
+        order.verify(client).playCue(3, Playback.PLAYBACK_1);
+    }
+
+    /**
+     * Triggers beyond the limit are dropped while the device is slow.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void triggerQueueBounded() throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(new Answer<Void>()
+        {
+            @Override
+            public Void answer(InvocationOnMock invocation)
+                    throws InterruptedException
+            {
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return null;
+            }
+        }).when(client).clearPlayback(Playback.PLAYBACK_1);
+        listener.start(new InetSocketAddress("127.0.0.1", 0));
+
+        assertThat(listener.handle(message("/cs/pb/1/clear")), is(true));
+        assertThat(started.await(5, TimeUnit.SECONDS), is(true));
+        for(int i = 0 ; i < OscListener.MAX_QUEUED_TRIGGERS ; i++)
+        {
+            assertThat(listener.handle(message("/cs/pb/2/go", 1)), is(true));
+        }
+        assertThat(listener.handle(message("/cs/pb/2/go", 1)), is(false));
+        assertThat(listener.getDroppedTriggerCount(), is(1L));
+
+        release.countDown();
+        verify(client, timeout(2000).times(OscListener.MAX_QUEUED_TRIGGERS))
+                .playCue(1, Playback.PLAYBACK_2);
+    }
+
+    /**
+     * The port is only known while started.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void localPort() throws Exception
+    {
+        assertThat(listener.getLocalPort(), is(-1));
+        listener.start(new InetSocketAddress("127.0.0.1", 0));
+        assertThat(listener.getLocalPort() > 0, is(true));
+        listener.stop();
+        assertThat(listener.getLocalPort(), is(-1));
+    }
+
+    /**
+     * Starting twice will cause an exception.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void startTwice() throws Exception
+    {
+        listener.start(new InetSocketAddress("127.0.0.1", 0));
+        listener.start(new InetSocketAddress("127.0.0.1", 0));
+    }
+
+    /**
+     * A frame rate that is not positive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidFrameRate()
+    {
+        listener.setFrameRate(0);
+    }
+
+    /**
+     * Creates a message.
+     *
+     * @param address the address.
+     * @param arguments the arguments.
+     * @return Never {@code null}.
+     */
+    private static OscMessage message(String address, Object... arguments)
+    {
+        List<Object> list = new ArrayList<Object>();
+        Collections.addAll(list, arguments);
+        return new OscMessage(address, list);
+    }
+}
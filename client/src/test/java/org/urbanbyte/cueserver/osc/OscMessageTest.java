@@ -0,0 +1,136 @@
+package org.urbanbyte.cueserver.osc;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+/**
+ * Tests the {@link OscMessage} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class OscMessageTest
+{
+    /**
+     * Messages are decoded with their arguments.
+     */
+    @Test
+    public void parseMessage()
+    {
+        List<OscMessage> messages = new ArrayList<OscMessage>();
+        OscMessage.parse(OscPackets.encode("/cs/range/1/24", 5, 0.5f,
+                "name", true, false), messages);
+
+        assertThat(messages.size(), is(1));
+        OscMessage message = messages.get(0);
+        assertThat(message.getAddress(), is("/cs/range/1/24"));
+        List<Object> arguments = message.getArguments();
+        assertThat(arguments.size(), is(5));
+        assertThat(arguments.get(0), is((Object) 5));
+        assertThat(arguments.get(1), is((Object) 0.5f));
+        assertThat(arguments.get(2), is((Object) "name"));
+        assertThat(arguments.get(3), is((Object) Boolean.TRUE));
+        assertThat(arguments.get(4), is((Object) Boolean.FALSE));
+    }
+
+    /**
+     * A message without type tags has no arguments.
+     */
+    @Test
+    public void parseWithoutTypeTags()
+    {
+        ByteBuffer packet = ByteBuffer.wrap(
+                new byte[]{'/', 'c', 's', 0});
+        List<OscMessage> messages = new ArrayList<OscMessage>();
+        OscMessage.parse(packet, messages);
+
+        assertThat(messages.get(0).getAddress(), is("/cs"));
+        assertThat(messages.get(0).getArguments().isEmpty(), is(true));
+    }
+
+    /**
+     * Bundles are flattened into their messages.
+     */
+    @Test
+    public void parseBundle()
+    {
+        ByteBuffer first = OscPackets.encode("/cs/ch/1", 10);
+        ByteBuffer second = OscPackets.encode("/cs/ch/2", 20);
+        ByteBuffer bundle = ByteBuffer.allocate(256);
+        bundle.put("#bundle".getBytes()).put((byte) 0);
+        bundle.putLong(1);
+        bundle.putInt(first.remaining()).put(first);
+        bundle.putInt(second.remaining()).put(second);
+        bundle.flip();
+
+        List<OscMessage> messages = new ArrayList<OscMessage>();
+        OscMessage.parse(bundle, messages);
+
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0).getAddress(), is("/cs/ch/1"));
+        assertThat(messages.get(1).getArguments().get(0), is((Object) 20));
+    }
+
+    /**
+     * A malformed element of a bundle is skipped, and the other elements are
+     * still decoded.
+     */
+    @Test
+    public void skipMalformedElement()
+    {
+        ByteBuffer first = OscPackets.encode("/cs/ch/1", 10);
+        byte[] invalid = {'/', 'a', 0, 0, ',', 'b', 0, 0, 0, 0, 0, 0};
+        ByteBuffer last = OscPackets.encode("/cs/ch/2", 20);
+        ByteBuffer bundle = ByteBuffer.allocate(256);
+        bundle.put("#bundle".getBytes()).put((byte) 0);
+        bundle.putLong(1);
+        bundle.putInt(first.remaining()).put(first);
+        bundle.putInt(invalid.length).put(invalid);
+        bundle.putInt(last.remaining()).put(last);
+        bundle.flip();
+
+        List<OscMessage> messages = new ArrayList<OscMessage>();
+        OscMessage.parse(bundle, messages);
+
+        assertThat(messages.size(), is(2));
+        assertThat(messages.get(0).getAddress(), is("/cs/ch/1"));
+        assertThat(messages.get(1).getAddress(), is("/cs/ch/2"));
+    }
+
+    /**
+     * A truncated packet will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedPacket()
+    {
+        ByteBuffer packet = OscPackets.encode("/cs/ch/1", 10);
+        packet.limit(packet.limit() - 2);
+        OscMessage.parse(packet, new ArrayList<OscMessage>());
+    }
+
+    /**
+     * An unsupported argument type will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void unsupportedType()
+    {
+        ByteBuffer packet = ByteBuffer.wrap(
+                new byte[]{'/', 'a', 0, 0, ',', 'b', 0, 0, 0, 0, 0, 0});
+        OscMessage.parse(packet, new ArrayList<OscMessage>());
+    }
+
+    /**
+     * A packet that is not an address will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidAddress()
+    {
+        OscMessage.parse(OscPackets.encode("cs"),
+                new ArrayList<OscMessage>());
+    }
+}
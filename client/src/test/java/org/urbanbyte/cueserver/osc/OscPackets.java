@@ -0,0 +1,108 @@
+package org.urbanbyte.cueserver.osc;
+
+import com.google.common.base.Charsets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes OSC messages for tests.
+ * <p>
+ * author: Chris Reising
+ */
+final class OscPackets
+{
+    /**
+     * Not instantiated.
+     */
+    private OscPackets()
+    {
+    }
+
+    /**
+     * Encodes a message.
+     *
+     * @param address the address.
+     * @param arguments the arguments, as {@link Integer}, {@link Float},
+     *                  {@link String} or {@link Boolean}.
+     * @return the packet, ready to be read.
+     * @throws IllegalArgumentException if an argument has another type.
+     */
+    static ByteBuffer encode(String address, Object... arguments)
+    {
+        StringBuilder types = new StringBuilder(",");
+        for(Object argument : arguments)
+        {
+            if(argument instanceof Integer)
+            {
+                types.append('i');
+            }
+            else if(argument instanceof Float)
+            {
+                types.append('f');
+            }
+            else if(argument instanceof String)
+            {
+                types.append('s');
+            }
+            else if(argument instanceof Boolean)
+            {
+                types.append((Boolean) argument ? 'T' : 'F');
+            }
+            else
+            {
+                throw new IllegalArgumentException(
+                        "unsupported argument: " + argument);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try
+        {
+            writeString(out, address);
+            writeString(out, types.toString());
+            for(Object argument : arguments)
+            {
+                if(argument instanceof Integer)
+                {
+                    out.writeInt((Integer) argument);
+                }
+                else if(argument instanceof Float)
+                {
+                    out.writeFloat((Float) argument);
+                }
+                else if(argument instanceof String)
+                {
+                    writeString(out, (String) argument);
+                }
+            }
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+        return ByteBuffer.wrap(bytes.toByteArray());
+    }
+
+    /**
+     * Writes a string padded with 0 to a multiple of four bytes.
+     *
+     * @param out the stream.
+     * @param value the string.
+     * @throws IOException never, the stream is in memory.
+     */
+    private static void writeString(DataOutputStream out, String value)
+            throws IOException
+    {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        out.write(bytes);
+        int padding = 4 - bytes.length % 4;
+        for(int i = 0 ; i < padding ; i++)
+        {
+            out.write(0);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.urbanbyte.cueserver.poll;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.CueServerClient;
+import org.urbanbyte.cueserver.TestLevels;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link DevicePoller} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class DevicePollerTest
+{
+    /** Fastest poll interval. */
+    private static final long MIN = 50;
+
+    /** Slowest poll interval. */
+    private static final long MAX = 1000;
+
+    /** Mocked client being polled. */
+    private CueServerClient client;
+
+    /** Mocked listener. */
+    private PollListener listener;
+
+    /** Poller being tested. */
+    private DevicePoller poller;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        client = mock(CueServerClient.class);
+        listener = mock(PollListener.class);
+        poller = new DevicePoller(client, MIN, MAX, listener,
+                mock(ScheduledExecutorService.class));
+    }
+
+    /**
+     * Static replies back off exponentially up to the maximum interval.
+     */
+    @Test
+    public void backsOffWhenStatic()
+    {
+        when(client.getPlaybackStatus()).thenReturn(createStatus(1));
+        when(client.getOutputLevels()).thenReturn(TestLevels.filled(0));
+
+        // the first poll always reports a change
+        assertThat(poller.poll(), is(MIN));
+        assertThat(poller.poll(), is(MIN * 2));
+        assertThat(poller.poll(), is(MIN * 4));
+
+        for(int i = 0 ; i < 10 ; i++)
+        {
+            poller.poll();
+        }
+        assertThat(poller.getCurrentIntervalMillis(), is(MAX));
+        verify(listener, times(1)).playbackStatusChanged(
+                any(CueServerClient.class), any(PlaybackStatus.class));
+        verify(listener, times(1)).outputLevelsChanged(
+                any(CueServerClient.class), any(Integer[].class));
+    }
+
+    /**
+     * A change in the output levels resets the interval to the minimum.
+     */
+    @Test
+    public void speedsUpOnLevelChange()
+    {
+        when(client.getPlaybackStatus()).thenReturn(createStatus(1));
+        when(client.getOutputLevels()).thenReturn(TestLevels.filled(0))
+                .thenReturn(TestLevels.filled(0))
+                .thenReturn(TestLevels.filled(0))
+                .thenReturn(TestLevels.filled(10));
+
+        poller.poll();
+        poller.poll();
+        assertThat(poller.poll(), is(MIN * 4));
+        assertThat(poller.poll(), is(MIN));
+        verify(listener, times(2)).outputLevelsChanged(
+                any(CueServerClient.class), any(Integer[].class));
+    }
+
+    /**
+     * A change in the playback status resets the interval to the minimum.
+     */
+    @Test
+    public void speedsUpOnStatusChange()
+    {
+        when(client.getPlaybackStatus()).thenReturn(createStatus(1))
+                .thenReturn(createStatus(1))
+                .thenReturn(createStatus(2));
+        when(client.getOutputLevels()).thenReturn(TestLevels.filled(0));
+
+        poller.poll();
+        assertThat(poller.poll(), is(MIN * 2));
+        assertThat(poller.poll(), is(MIN));
+        verify(listener, times(2)).playbackStatusChanged(
+                any(CueServerClient.class), any(PlaybackStatus.class));
+    }
+
+    /**
+     * Failed reads are treated as static and are not reported.
+     */
+    @Test
+    public void errorsBackOff()
+    {
+        assertThat(poller.poll(), is(MIN * 2));
+        verify(listener, never()).playbackStatusChanged(
+                any(CueServerClient.class), any(PlaybackStatus.class));
+        verify(listener, never()).outputLevelsChanged(
+                any(CueServerClient.class), any(Integer[].class));
+    }
+
+    /**
+     * A maximum interval smaller than the minimum will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidIntervals()
+    {
+        new DevicePoller(client, MAX, MIN, listener,
+                mock(ScheduledExecutorService.class));
+    }
+
+    /**
+     * Creates a status with the given cue loaded on every playback.
+     *
+     * @param cueNumber the cue number.
+     * @return Never {@code null}.
+     */
+    private static PlaybackStatus createStatus(double cueNumber)
+    {
+        PlaybackStatus.Builder builder = new PlaybackStatus.Builder();
+        builder.setPlayback1(createInfo(Playback.PLAYBACK_1, cueNumber));
+        builder.setPlayback2(createInfo(Playback.PLAYBACK_2, cueNumber));
+        builder.setPlayback3(createInfo(Playback.PLAYBACK_3, cueNumber));
+        builder.setPlayback4(createInfo(Playback.PLAYBACK_4, cueNumber));
+        return builder.build();
+    }
+
+    /**
+     * Creates the info for a single playback.
+     *
+     * @param playback the playback.
+     * @param cueNumber the current cue number.
+     * @return Never {@code null}.
+     */
+    private static PlaybackInfo createInfo(Playback playback, double cueNumber)
+    {
+        return new PlaybackInfo.Builder()
+                .setPlayback(playback)
+                .setCurrentCue(new Cue(cueNumber))
+                .build();
+    }
+}
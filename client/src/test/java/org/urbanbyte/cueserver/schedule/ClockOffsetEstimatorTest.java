@@ -0,0 +1,202 @@
+package org.urbanbyte.cueserver.schedule;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.data.system.SystemInfo;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+import org.urbanbyte.cueserver.http.HttpTransport;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link ClockOffsetEstimator} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class ClockOffsetEstimatorTest
+{
+    /** Mocked client of the CueServer. */
+    private HttpCueServerClient client;
+
+    /** The estimator being tested, which keeps half of each sample. */
+    private ClockOffsetEstimator estimator;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        client = mock(HttpCueServerClient.class);
+        estimator = new ClockOffsetEstimator(client,
+                TimeZone.getTimeZone("UTC"), 0.5);
+    }
+
+    /**
+     * The first sample is taken as is and later samples are smoothed.
+     */
+    @Test
+    public void smoothSamples()
+    {
+        // the device read 10:00:05 halfway through a 100 ms round trip
+        // started at 10:00:00.000, so it is 5.45 s ahead
+        estimator.addSample(36000000L, millis(100), 36005000L);
+
+        assertThat(estimator.getOffsetMillis(), is(5450L));
+        assertThat(estimator.getRoundTripNanos(), is(millis(100)));
+        assertThat(estimator.getOneWayLatencyNanos(), is(millis(50)));
+        assertThat(estimator.isOffsetKnown(), is(true));
+
+        // 5.44 s ahead
+        estimator.addSample(36010000L, millis(120), 36015000L);
+
+        assertThat(estimator.getOffsetMillis(), is(5445L));
+        assertThat(estimator.getRoundTripNanos(), is(millis(100)));
+        assertThat(estimator.getSampleCount(), is(2L));
+        assertThat(estimator.toLocalTime(40000L), is(34555L));
+    }
+
+    /**
+     * The offset of a sample much slower than the fastest recent one is not
+     * used.
+     */
+    @Test
+    public void slowSampleIgnored()
+    {
+        estimator.addSample(36000000L, millis(100), 36005000L);
+        // would be 6.35 s ahead, but may have been delayed on either leg
+        estimator.addSample(36010000L, millis(300), 36016000L);
+
+        assertThat(estimator.getOffsetMillis(), is(5450L));
+        assertThat(estimator.getRoundTripNanos(), is(millis(100)));
+        assertThat(estimator.getSampleCount(), is(2L));
+    }
+
+    /**
+     * The round trip is the lowest of the last samples only.
+     */
+    @Test
+    public void lowestRoundTrip()
+    {
+        estimator.addSample(0, millis(100), SystemInfo.UNKNOWN_TIME);
+        for(int i = 1 ; i < ClockOffsetEstimator.FILTER_SIZE ; i++)
+        {
+            estimator.addSample(0, millis(250), SystemInfo.UNKNOWN_TIME);
+            assertThat(estimator.getRoundTripNanos(), is(millis(100)));
+        }
+
+        estimator.addSample(0, millis(250), SystemInfo.UNKNOWN_TIME);
+        assertThat(estimator.getRoundTripNanos(), is(millis(250)));
+    }
+
+    /**
+     * A device time that is not known only samples the round trip.
+     */
+    @Test
+    public void unknownDeviceTime()
+    {
+        estimator.addSample(1000L, millis(20), SystemInfo.UNKNOWN_TIME);
+
+        assertThat(estimator.isOffsetKnown(), is(false));
+        assertThat(estimator.getOffsetMillis(), is(0L));
+        assertThat(estimator.getRoundTripNanos(), is(millis(20)));
+    }
+
+    /**
+     * The ctime of a system information reply is decoded, and every sample
+     * makes a request of its own, even while reads are shared.
+     */
+    @Test
+    public void sampleReply()
+    {
+        // laid out like a reply of the device: serial number, name and
+        // firmware version, then the time filling its 24 bytes, the model
+        // and whether there is a password
+        Integer[] reply = new Integer[78];
+        Arrays.fill(reply, 0);
+        put(reply, 0, "AQW123");
+        put(reply, 17, "name");
+        put(reply, 41, "firmware");
+        put(reply, 52, "Thu Jan  1 00:00:05 1970");
+        reply[76] = 1;
+        reply[77] = 0;
+
+        HttpTransport transport = mock(HttpTransport.class);
+        String url = "host:80/get.cgi/?req=SI";
+        when(transport.submitHttpGetRequest(url)).thenReturn(reply);
+        HttpCueServerClient device = new HttpCueServerClient("host", 80,
+                transport);
+        device.setReadFreshness(1, TimeUnit.MINUTES);
+        estimator = new ClockOffsetEstimator(device,
+                TimeZone.getTimeZone("UTC"), 0.5);
+
+        assertThat(device.getSystemInfo().getTime(),
+                is("Thu Jan  1 00:00:05 1970"));
+        long before = System.currentTimeMillis();
+        assertThat(estimator.sample(), is(true));
+        long after = System.currentTimeMillis();
+
+        assertThat(estimator.getSampleCount(), is(1L));
+        assertThat(estimator.isOffsetKnown(), is(true));
+        // 5.5 s after the epoch at the middle of the request
+        assertThat(estimator.getOffsetMillis() >= 5500 - after, is(true));
+        assertThat(estimator.getOffsetMillis() <= 5500 - before, is(true));
+
+        assertThat(estimator.sample(), is(true));
+        verify(transport, times(3)).submitHttpGetRequest(url);
+    }
+
+    /**
+     * A failed request is not sampled.
+     */
+    @Test
+    public void failedRequest()
+    {
+        assertThat(estimator.sample(), is(false));
+        assertThat(estimator.getSampleCount(), is(0L));
+    }
+
+    /**
+     * A gain out of bounds will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidGain()
+    {
+        new ClockOffsetEstimator(client, TimeZone.getDefault(), 0);
+    }
+
+    /**
+     * Writes the characters of a string into a reply.
+     *
+     * @param reply the reply.
+     * @param start the index of the first character.
+     * @param value the string.
+     */
+    private static void put(Integer[] reply, int start, String value)
+    {
+        for(int index = 0 ; index < value.length() ; index++)
+        {
+            reply[start + index] = (int) value.charAt(index);
+        }
+    }
+
+    /**
+     * Converts milliseconds to nanoseconds.
+     *
+     * @param millis the milliseconds.
+     * @return the nanoseconds.
+     */
+    private static long millis(long millis)
+    {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,320 @@
+package org.urbanbyte.cueserver.schedule;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.system.SystemInfo;
+import org.urbanbyte.cueserver.http.CommandBatch;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link CueScheduler} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueSchedulerTest
+{
+    /** Mocked client of the CueServer. */
+    private HttpCueServerClient client;
+
+    /** Mocked batch the events are added to. */
+    private CommandBatch batch;
+
+    /** When the batch was last submitted. */
+    private final AtomicLong submitMillis = new AtomicLong();
+
+    /** The scheduler being tested. */
+    private CueScheduler scheduler;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        client = mock(HttpCueServerClient.class);
+        batch = mock(CommandBatch.class);
+        when(client.getUniverseCount()).thenReturn(1);
+        when(client.newBatch()).thenReturn(batch);
+        when(batch.submit()).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation)
+            {
+                submitMillis.set(System.currentTimeMillis());
+                return 1;
+            }
+        });
+
+        // a small wheel, so that the events wrap around it
+        scheduler = new CueScheduler(1000, 8,
+                MoreExecutors.directExecutor());
+        scheduler.start();
+    }
+
+    /**
+     * Stops the scheduler.
+     */
+    @After
+    public void teardown()
+    {
+        scheduler.stop();
+    }
+
+    /**
+     * Events of the same tick are sent in one batch, in the order they were
+     * scheduled, and not before their time.
+     */
+    @Test
+    public void batchSameTick()
+    {
+        long time = System.currentTimeMillis() + 100;
+        scheduler.playCue(client, time, 5, Playback.PLAYBACK_1);
+        scheduler.setChannel(client, time, 12, 255, 0, Playback.PLAYBACK_2);
+        scheduler.clearPlayback(client, time, Playback.PLAYBACK_3);
+        assertThat(scheduler.getPendingCount(), is(3));
+
+        verify(batch, timeout(2000)).submit();
+        assertThat(submitMillis.get() >= time, is(true));
+        InOrder order = inOrder(batch);
+        order.verify(batch).playCue(5, Playback.PLAYBACK_1);
+        order.verify(batch).setChannel(12, 255, 0, Playback.PLAYBACK_2);
+        order.verify(batch).clearPlayback(Playback.PLAYBACK_3);
+        order.verify(batch).submit();
+        assertThat(scheduler.getPendingCount(), is(0));
+        assertThat(scheduler.getFiredCount(), is(3L));
+        assertThat(scheduler.getRequestCount(), is(1L));
+    }
+
+    /**
+     * Events beyond one rotation of the wheel wait for their own tick.
+     */
+    @Test
+    public void laterRotation()
+    {
+        long start = System.currentTimeMillis();
+        scheduler.playCue(client, start + 5, 1, Playback.PLAYBACK_1);
+        scheduler.playCue(client, start + 53, 2, Playback.PLAYBACK_1);
+
+        verify(batch, timeout(2000)).playCue(1, Playback.PLAYBACK_1);
+        verify(batch, timeout(2000)).playCue(2, Playback.PLAYBACK_1);
+        assertThat(submitMillis.get() >= start + 53, is(true));
+    }
+
+    /**
+     * Cancelled events are not sent.
+     */
+    @Test
+    public void cancel()
+    {
+        long time = System.currentTimeMillis() + 50;
+        ScheduledEvent cancelled = scheduler.playCue(client, time, 1,
+                Playback.PLAYBACK_1);
+        scheduler.playCue(client, time + 20, 2, Playback.PLAYBACK_1);
+
+        assertThat(cancelled.cancel(), is(true));
+        assertThat(cancelled.cancel(), is(false));
+        assertThat(cancelled.isCancelled(), is(true));
+
+        verify(batch, timeout(2000)).playCue(2, Playback.PLAYBACK_1);
+        verify(batch, never()).playCue(1, Playback.PLAYBACK_1);
+        assertThat(cancelled.isFired(), is(false));
+        assertThat(scheduler.getFiredCount(), is(1L));
+    }
+
+    /**
+     * Events whose time passed fire right away, and fired events cannot be
+     * cancelled.
+     */
+    @Test
+    public void pastEvent()
+    {
+        ScheduledEvent event = scheduler.clearPlayback(client,
+                System.currentTimeMillis() - 1000, Playback.PLAYBACK_1);
+
+        verify(batch, timeout(2000)).clearPlayback(Playback.PLAYBACK_1);
+        assertThat(event.isFired(), is(true));
+        assertThat(event.cancel(), is(false));
+    }
+
+    /**
+     * Events wait while the scheduler is stopped.
+     */
+    @Test
+    public void stopped()
+    {
+        scheduler.stop();
+        scheduler.playCue(client, System.currentTimeMillis(), 1,
+                Playback.PLAYBACK_1);
+
+        verify(batch, after(50).never()).playCue(anyDouble(),
+                any(Playback.class));
+        scheduler.start();
+        verify(batch, timeout(2000)).playCue(1, Playback.PLAYBACK_1);
+    }
+
+    /**
+     * Events many turns of the wheel away keep their time across a stop that
+     * skips several turns.
+     */
+    @Test
+    public void stoppedForSeveralTurns()
+    {
+        long start = System.currentTimeMillis();
+        scheduler.playCue(client, start + 5, 1, Playback.PLAYBACK_1);
+        scheduler.playCue(client, start + 150, 2, Playback.PLAYBACK_1);
+        verify(batch, timeout(2000)).playCue(1, Playback.PLAYBACK_1);
+
+        scheduler.stop();
+        verify(batch, after(50).never()).playCue(2, Playback.PLAYBACK_1);
+        scheduler.start();
+
+        verify(batch, timeout(2000)).playCue(2, Playback.PLAYBACK_1);
+        assertThat(submitMillis.get() >= start + 150, is(true));
+    }
+
+    /**
+     * A client that compensates for its latency is sent its events early by
+     * half of its round trip.
+     */
+    @Test
+    public void compensateLatency()
+    {
+        ClockOffsetEstimator estimator = new ClockOffsetEstimator(client);
+        estimator.addSample(0, TimeUnit.MILLISECONDS.toNanos(400),
+                SystemInfo.UNKNOWN_TIME);
+        scheduler.compensateLatency(estimator);
+
+        long time = System.currentTimeMillis() + 300;
+        scheduler.playCue(client, time, 1, Playback.PLAYBACK_1);
+
+        verify(batch, timeout(2000)).submit();
+        assertThat(submitMillis.get() >= time - 200, is(true));
+        assertThat(submitMillis.get() < time - 100, is(true));
+
+        scheduler.stopCompensating(client);
+        time = System.currentTimeMillis() + 50;
+        scheduler.playCue(client, time, 2, Playback.PLAYBACK_1);
+        verify(batch, timeout(2000).times(2)).submit();
+        verify(batch).playCue(2, Playback.PLAYBACK_1);
+        assertThat(submitMillis.get() >= time, is(true));
+    }
+
+    /**
+     * The batches of a client are submitted in the order of their ticks, even
+     * when an earlier batch is slow and the sender has idle threads.
+     *
+     * @throws InterruptedException if the test is interrupted.
+     */
+    @Test
+    public void batchesInOrder() throws InterruptedException
+    {
+        final List<String> submitted = new CopyOnWriteArrayList<String>();
+        CommandBatch slow = mock(CommandBatch.class);
+        when(slow.submit()).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation)
+                    throws InterruptedException
+            {
+                Thread.sleep(200);
+                submitted.add("first");
+                return 1;
+            }
+        });
+        CommandBatch fast = mock(CommandBatch.class);
+        when(fast.submit()).thenAnswer(new Answer<Integer>()
+        {
+            @Override
+            public Integer answer(InvocationOnMock invocation)
+            {
+                submitted.add("second");
+                return 1;
+            }
+        });
+        when(client.newBatch()).thenReturn(slow, fast);
+
+        ExecutorService pool = Executors.newCachedThreadPool();
+        CueScheduler threaded = new CueScheduler(1000, 8, pool);
+        threaded.start();
+        try
+        {
+            long time = System.currentTimeMillis() + 50;
+            threaded.playCue(client, time, 1, Playback.PLAYBACK_1);
+            threaded.playCue(client, time + 20, 2, Playback.PLAYBACK_1);
+
+            verify(fast, timeout(2000)).submit();
+            assertThat(submitted.size(), is(2));
+            assertThat(submitted.get(0), is("first"));
+            assertThat(submitted.get(1), is("second"));
+            verify(client, times(2)).newBatch();
+        }
+        finally
+        {
+            threaded.stop();
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Starting twice will cause an exception.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void startTwice()
+    {
+        scheduler.start();
+    }
+
+    /**
+     * A channel out of bounds will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidChannel()
+    {
+        scheduler.setChannel(client, 0, 513, 0, 0, Playback.PLAYBACK_1);
+    }
+
+    /**
+     * A cue number that is not positive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidCue()
+    {
+        scheduler.playCue(client, 0, 0, Playback.PLAYBACK_1);
+    }
+
+    /**
+     * A tick that is not positive will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidTick()
+    {
+        new CueScheduler(0, 8, MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,199 @@
+package org.urbanbyte.cueserver.state;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+import org.urbanbyte.cueserver.http.HttpCueServerClient;
+import org.urbanbyte.cueserver.http.SimpleHttpClient;
+
+import java.util.Arrays;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the {@link CueServerStateModel} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class CueServerStateModelTest
+{
+    /** Mocked HTTP client. */
+    private SimpleHttpClient httpClient;
+
+    /** Client the model follows. */
+    private HttpCueServerClient client;
+
+    /** Mocked drift listener. */
+    private DriftListener listener;
+
+    /** Current time of the ticker. */
+    private long now;
+
+    /** Model being tested. */
+    private CueServerStateModel model;
+
+    /**
+     * Setup for tests.
+     */
+    @Before
+    public void setupTest()
+    {
+        httpClient = mock(SimpleHttpClient.class);
+        // the CueServer replies to commands with an empty page
+        when(httpClient.submitHttpGetRequest(contains("exe.cgi")))
+                .thenReturn(new Integer[0]);
+        client = new HttpCueServerClient("http://localhost.invalid.com", 80,
+                httpClient);
+        listener = mock(DriftListener.class);
+        model = new CueServerStateModel(client, 1, new Ticker()
+        {
+            @Override
+            public long read()
+            {
+                return now;
+            }
+        });
+        model.addDriftListener(listener);
+    }
+
+    /**
+     * Levels are unknown until they are set or read.
+     */
+    @Test
+    public void levelsStartUnknown()
+    {
+        assertThat(model.getChannelLevel(1), is(CueServerStateModel.UNKNOWN));
+        assertThat(model.getMasterLevel(Playback.PLAYBACK_1),
+                is(CueServerStateModel.UNKNOWN));
+        assertThat(model.isCueKnown(Playback.PLAYBACK_1), is(false));
+    }
+
+    /**
+     * Commands sent through the client update the model.
+     */
+    @Test
+    public void commandsUpdateModel()
+    {
+        client.setChannelRange(10, 12, 200, 0, Playback.PLAYBACK_1);
+        client.newBatch().setChannel(37, 128, 0, Playback.PLAYBACK_2).submit();
+
+        assertThat(model.getChannelLevel(9), is(CueServerStateModel.UNKNOWN));
+        assertThat(model.getChannelLevel(10), is(200));
+        assertThat(model.getChannelLevel(12), is(200));
+        assertThat(model.getChannelLevel(37), is(128));
+    }
+
+    /**
+     * Commands whose request failed do not update the model.
+     */
+    @Test
+    public void failedCommandsIgnored()
+    {
+        when(httpClient.submitHttpGetRequest(contains("exe.cgi")))
+                .thenReturn(null);
+        client.setChannel(1, 255, 0, Playback.PLAYBACK_1);
+        client.newBatch().playCue(1, Playback.PLAYBACK_2).submit();
+
+        assertThat(model.getChannelLevel(1), is(CueServerStateModel.UNKNOWN));
+        assertThat(model.isCueKnown(Playback.PLAYBACK_2), is(false));
+    }
+
+    /**
+     * Playing a cue makes the output unknown.
+     */
+    @Test
+    public void playCueClearsLevels()
+    {
+        client.setChannel(1, 255, 0, Playback.PLAYBACK_1);
+        client.playCue(5.5, Playback.PLAYBACK_3);
+
+        assertThat(model.isCueKnown(Playback.PLAYBACK_3), is(true));
+        assertThat(model.getCurrentCue(Playback.PLAYBACK_3).getTenths(),
+                is(55));
+        assertThat(model.getChannelLevel(1), is(CueServerStateModel.UNKNOWN));
+
+        client.clearPlayback(Playback.PLAYBACK_3);
+        assertThat(model.isCueKnown(Playback.PLAYBACK_3), is(true));
+        assertThat(model.getCurrentCue(Playback.PLAYBACK_3), is(nullValue()));
+    }
+
+    /**
+     * A settled channel that reads back differently is reported as drift and
+     * takes the value that was read.
+     */
+    @Test
+    public void channelDrift()
+    {
+        client.setChannel(2, 100, 0, Playback.PLAYBACK_1);
+        client.setChannel(3, 100, 0, Playback.PLAYBACK_1);
+        now += CueServerStateModel.SETTLE_NANOS;
+
+        Integer[] levels = new Integer[512];
+        Arrays.fill(levels, 0);
+        levels[1] = 101;
+        levels[2] = 50;
+        when(httpClient.submitHttpGetRequest(anyString())).thenReturn(levels);
+        client.getOutputLevels();
+
+        verify(listener).channelDrift(3, 100, 50);
+        verify(listener, never()).channelDrift(eq(2), anyInt(), anyInt());
+        assertThat(model.getDriftCount(), is(1L));
+        assertThat(model.getChannelLevel(3), is(50));
+        assertThat(model.getChannelLevel(4), is(0));
+    }
+
+    /**
+     * Channels that are still fading are not compared.
+     */
+    @Test
+    public void fadingChannelNotCompared()
+    {
+        client.setChannel(1, 255, 10, Playback.PLAYBACK_1);
+        now += CueServerStateModel.SETTLE_NANOS;
+
+        Integer[] levels = new Integer[512];
+        Arrays.fill(levels, 20);
+        model.outputLevelsRead(levels);
+
+        assertThat(model.getDriftCount(), is(0L));
+        assertThat(model.getChannelLevel(1), is(255));
+    }
+
+    /**
+     * A settled playback whose cue reads back differently is reported as
+     * drift.
+     */
+    @Test
+    public void cueDrift()
+    {
+        model.cuePlayed(1, Playback.PLAYBACK_1);
+        now += CueServerStateModel.SETTLE_NANOS;
+
+        Cue actual = new Cue(2, "Two");
+        PlaybackStatus status = new PlaybackStatus.Builder()
+                .setPlaybackCount(1)
+                .setPlayback1(new PlaybackInfo.Builder()
+                        .setPlayback(Playback.PLAYBACK_1)
+                        .setCurrentCue(actual)
+                        .build())
+                .build();
+        model.playbackStatusRead(status);
+
+        verify(listener).cueDrift(Playback.PLAYBACK_1, new Cue(1), actual);
+        assertThat(model.getCurrentCue(Playback.PLAYBACK_1), is(actual));
+    }
+}
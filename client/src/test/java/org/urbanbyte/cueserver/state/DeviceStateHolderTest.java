@@ -0,0 +1,226 @@
+package org.urbanbyte.cueserver.state;
+
+import org.junit.Test;
+import org.urbanbyte.cueserver.TestLevels;
+import org.urbanbyte.cueserver.data.DeviceSnapshot;
+import org.urbanbyte.cueserver.data.cue.Cue;
+import org.urbanbyte.cueserver.data.playback.CombineMode;
+import org.urbanbyte.cueserver.data.playback.DetailedPlaybackStatus;
+import org.urbanbyte.cueserver.data.playback.Playback;
+import org.urbanbyte.cueserver.data.playback.PlaybackInfo;
+import org.urbanbyte.cueserver.data.playback.PlaybackStatus;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.urbanbyte.cueserver.state.DeviceStateHolder.COMBINE_MODE;
+import static org.urbanbyte.cueserver.state.DeviceStateHolder.CURRENT_CUE;
+import static org.urbanbyte.cueserver.state.DeviceStateHolder.LINKED_CUE;
+import static org.urbanbyte.cueserver.state.DeviceStateHolder.MASTER_LEVEL;
+import static org.urbanbyte.cueserver.state.DeviceStateHolder.NEXT_CUE;
+import static org.urbanbyte.cueserver.state.DeviceStateHolder.PLAYBACK_FIELDS;
+import static org.urbanbyte.cueserver.state.DeviceStateHolder.UNKNOWN;
+
+/**
+ * Tests the {@link DeviceStateHolder} class.
+ * <p>
+ * author: Chris Reising
+ */
+public class DeviceStateHolderTest
+{
+    /** The number of writes made while readers check for torn reads. */
+    private static final int WRITE_COUNT = 20000;
+
+    /**
+     * Every part of a snapshot is stored.
+     */
+    @Test
+    public void updateSnapshot()
+    {
+        DeviceStateHolder holder = new DeviceStateHolder();
+        Integer[] levels = TestLevels.filled(0);
+        levels[0] = 255;
+        levels[511] = 128;
+        DetailedPlaybackStatus detail = new DetailedPlaybackStatus.Builder()
+                .setMasterLevel(75)
+                .setCombinedMode(CombineMode.SCALE)
+                .setLinkedCue(new Cue(9))
+                .setPlayback(Playback.PLAYBACK_2)
+                .setCurrentCue(new Cue(3))
+                .build();
+
+        holder.update(new DeviceSnapshot.Builder()
+                .setPlaybackStatus(status(1.5), 1)
+                .setDetailedPlaybackStatus(Playback.PLAYBACK_2, detail, 1)
+                .setOutputLevels(levels, 1)
+                .build());
+
+        byte[] levelsDest = new byte[512];
+        int[] playbacksDest = new int[DeviceStateHolder.PLAYBACK_ARRAY_LENGTH];
+        assertThat(holder.read(levelsDest, playbacksDest), is(1L));
+        assertThat(levelsDest[0] & 0xFF, is(255));
+        assertThat(levelsDest[511] & 0xFF, is(128));
+        assertThat(holder.getLevel(512), is(128));
+
+        assertThat(playbacksDest[CURRENT_CUE], is(15));
+        assertThat(playbacksDest[NEXT_CUE], is(UNKNOWN));
+        assertThat(playbacksDest[MASTER_LEVEL], is(UNKNOWN));
+        int second = PLAYBACK_FIELDS;
+        assertThat(playbacksDest[second + CURRENT_CUE], is(30));
+        assertThat(playbacksDest[second + MASTER_LEVEL], is(75));
+        assertThat(playbacksDest[second + COMBINE_MODE],
+                is(CombineMode.SCALE.ordinal()));
+        assertThat(playbacksDest[second + LINKED_CUE], is(90));
+        assertThat(holder.getPlaybackField(Playback.PLAYBACK_2, MASTER_LEVEL),
+                is(75));
+    }
+
+    /**
+     * Parts that were not read keep their values.
+     */
+    @Test
+    public void partialUpdate()
+    {
+        DeviceStateHolder holder = new DeviceStateHolder();
+        Integer[] levels = TestLevels.filled(10);
+        levels[1] = null;
+        holder.update(levels);
+        holder.update(status(2));
+        holder.update(new DeviceSnapshot.Builder().build());
+
+        byte[] dest = new byte[512];
+        assertThat(holder.readLevels(dest), is(3L));
+        assertThat(dest[0], is((byte) 10));
+        assertThat(dest[1], is((byte) 0));
+        assertThat(holder.getPlaybackField(Playback.PLAYBACK_4, CURRENT_CUE),
+                is(20));
+        assertThat(holder.getVersion(), is(3L));
+    }
+
+    /**
+     * Readers always see the values of a single write while a writer keeps
+     * updating the holder.
+     *
+     * @throws Exception if the test fails.
+     */
+    @Test
+    public void readsAreConsistent() throws Exception
+    {
+        final DeviceStateHolder holder = new DeviceStateHolder();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<String>();
+
+        Thread writer = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                int level = 0;
+                try
+                {
+                    for(int i = 0 ; i < WRITE_COUNT ; i++)
+                    {
+                        // cycle through 1 to 255, since there is no cue 0
+                        level = level % 255 + 1;
+                        holder.update(new DeviceSnapshot.Builder()
+                                .setPlaybackStatus(status(level), 1)
+                                .setOutputLevels(TestLevels.filled(level), 1)
+                                .build());
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    failure.set("writer failed: " + e);
+                }
+                finally
+                {
+                    running.set(false);
+                }
+            }
+        });
+        Thread[] readers = new Thread[2];
+        for(int i = 0 ; i < readers.length ; i++)
+        {
+            readers[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    byte[] levels = new byte[512];
+                    int[] playbacks =
+                            new int[DeviceStateHolder.PLAYBACK_ARRAY_LENGTH];
+                    while(running.get() && failure.get() == null)
+                    {
+                        long version = holder.read(levels, playbacks);
+                        int level = levels[0] & 0xFF;
+                        for(int channel = 1 ; channel < 512 ; channel++)
+                        {
+                            if((levels[channel] & 0xFF) != level)
+                            {
+                                failure.set("torn levels");
+                            }
+                        }
+                        if(version > 0 &&
+                                playbacks[CURRENT_CUE] != level * 10)
+                        {
+                            failure.set("levels and playbacks differ");
+                        }
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for(Thread reader : readers)
+        {
+            reader.start();
+        }
+        writer.join();
+        for(Thread reader : readers)
+        {
+            reader.join();
+        }
+
+        assertThat(failure.get(), nullValue());
+    }
+
+    /**
+     * A destination that is too short will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void shortDestination()
+    {
+        new DeviceStateHolder().readLevels(new byte[511]);
+    }
+
+    /**
+     * A channel beyond 512 will cause an exception.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidChannel()
+    {
+        new DeviceStateHolder().getLevel(513);
+    }
+
+    /**
+     * Creates a status with every playback on the same cue.
+     *
+     * @param cueNumber the current cue.
+     * @return Never {@code null}.
+     */
+    private static PlaybackStatus status(double cueNumber)
+    {
+        PlaybackStatus.Builder builder = new PlaybackStatus.Builder();
+        for(Playback playback : Playback.values())
+        {
+            builder.set(playback, new PlaybackInfo.Builder()
+                    .setPlayback(playback)
+                    .setCurrentCue(new Cue(cueNumber))
+                    .build());
+        }
+        return builder.build();
+    }
+}